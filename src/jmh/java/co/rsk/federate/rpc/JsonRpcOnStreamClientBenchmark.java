@@ -0,0 +1,136 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.rpc;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.bouncycastle.util.encoders.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding cost of a chunk of block headers
+ * as sent to the HSM by advanceBlockchain.
+ *
+ * Run with ./gradlew jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonRpcOnStreamClientBenchmark {
+    private static final int HEADERS_PER_CHUNK = 10;
+    private static final int HEADER_SIZE = 600;
+
+    private ObjectNode request;
+    private JsonRpcOnStreamClient client;
+    private JsonParser responseParser;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(1);
+        request = JsonRpcMapper.createObjectNode();
+        request.put("command", "advanceBlockchain");
+        request.put("version", 2);
+        ArrayNode blocks = request.putArray("blocks");
+        for (int i = 0; i < HEADERS_PER_CHUNK; i++) {
+            byte[] header = new byte[HEADER_SIZE];
+            random.nextBytes(header);
+            blocks.add(Hex.toHexString(header));
+        }
+
+        byte[] response = "{\"errorcode\":0,\"state\":{\"best_block\":\"4f1a\",\"ancestor_block\":\"9b2c\",\"updating\":{\"in_progress\":false}}}\n"
+            .getBytes(StandardCharsets.UTF_8);
+        client = new JsonRpcOnStreamClient(new RepeatingInputStream(response), new DiscardingOutputStream(), StandardCharsets.UTF_8);
+        responseParser = JsonRpcMapper.createParser(new RepeatingInputStream(response));
+    }
+
+    @Benchmark
+    public void encodeRequest() throws IOException {
+        try (JsonGenerator generator = JsonRpcMapper.createGenerator(new DiscardingOutputStream(), StandardCharsets.UTF_8)) {
+            JsonRpcMapper.getObjectMapper().writeTree(generator, request);
+            generator.writeRaw('\n');
+        }
+    }
+
+    @Benchmark
+    public JsonNode decodeResponse() throws IOException {
+        responseParser.nextToken();
+        return JsonRpcMapper.getObjectMapper().readTree(responseParser);
+    }
+
+    @Benchmark
+    public JsonNode roundTrip() throws JsonRpcException {
+        return client.send(request);
+    }
+
+    private static class RepeatingInputStream extends InputStream {
+        private final byte[] content;
+        private int position;
+
+        private RepeatingInputStream(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public int read() {
+            int b = content[position];
+            position = (position + 1) % content.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int read = Math.min(len, content.length - position);
+            System.arraycopy(content, position, b, off, read);
+            position = (position + read) % content.length;
+            return read;
+        }
+    }
+
+    private static class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package co.rsk.federate;
+
+import co.rsk.core.RskAddress;
+import co.rsk.crypto.Keccak256;
+import org.ethereum.db.ByteArrayWrapper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Results of the read-only calls to the Bridge, for the block they were made on.
+ *
+ * A call is identified by its caller and its encoded data (function selector plus arguments).
+ * The results are dropped as soon as a call is made on another block, so a given call is
+ * executed once per best block no matter how many components ask for it.
+ */
+public class BridgeCallCache {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private Keccak256 blockHash;
+    private Map<CallKey, CompletableFuture<Object>> results = new ConcurrentHashMap<>();
+
+    /**
+     * @return the result of the call on the given block, executing it only if it wasn't yet.
+     * Array results are copies, callers are free to change them.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Keccak256 blockHash, RskAddress caller, byte[] callData, Supplier<T> call) {
+        Map<CallKey, CompletableFuture<Object>> blockResults = getResults(blockHash);
+        CallKey key = new CallKey(caller, callData);
+        CompletableFuture<Object> result = blockResults.get(key);
+        if (result == null) {
+            CompletableFuture<Object> newResult = new CompletableFuture<>();
+            result = blockResults.putIfAbsent(key, newResult);
+            if (result == null) {
+                // Executed out of the map, so that no other call waits for this one unless it's the same
+                misses.incrementAndGet();
+                try {
+                    newResult.complete(call.get());
+                } catch (RuntimeException | Error e) {
+                    // Nothing is kept if it fails, the ones already waiting for it fail the same way
+                    blockResults.remove(key, newResult);
+                    newResult.completeExceptionally(e);
+                    throw e;
+                }
+                return (T) copyOf(newResult.join());
+            }
+        }
+        hits.incrementAndGet();
+        return (T) copyOf(join(result));
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public synchronized int getCachedResults() {
+        return results.size();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("hits", getHits());
+        snapshot.put("misses", getMisses());
+        snapshot.put("invalidations", getInvalidations());
+        snapshot.put("cachedResults", getCachedResults());
+        return snapshot;
+    }
+
+    private synchronized Map<CallKey, CompletableFuture<Object>> getResults(Keccak256 blockHash) {
+        if (!blockHash.equals(this.blockHash)) {
+            if (this.blockHash != null) {
+                invalidations.incrementAndGet();
+            }
+            // Calls still running on the previous block finish on the map they started with
+            this.blockHash = blockHash;
+            this.results = new ConcurrentHashMap<>();
+        }
+        return results;
+    }
+
+    private static Object join(CompletableFuture<Object> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static Object copyOf(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        if (value instanceof Object[]) {
+            Object[] copy = ((Object[]) value).clone();
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = copyOf(copy[i]);
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    private static class CallKey {
+        private final RskAddress caller;
+        private final ByteArrayWrapper callData;
+
+        private CallKey(RskAddress caller, byte[] callData) {
+            this.caller = caller;
+            this.callData = new ByteArrayWrapper(callData);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CallKey other = (CallKey) o;
+            return Objects.equals(caller, other.caller) && callData.equals(other.callData);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(caller, callData);
+        }
+    }
+}
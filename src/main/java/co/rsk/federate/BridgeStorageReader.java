@@ -0,0 +1,100 @@
+package co.rsk.federate;
+
+import co.rsk.config.BridgeConstants;
+import co.rsk.crypto.Keccak256;
+import co.rsk.db.RepositoryLocator;
+import co.rsk.peg.BridgeStorageProvider;
+import co.rsk.peg.Federation;
+import co.rsk.peg.StateForFederator;
+import org.ethereum.config.blockchain.upgrades.ActivationConfig;
+import org.ethereum.core.Block;
+import org.ethereum.core.Blockchain;
+import org.ethereum.core.Repository;
+import org.ethereum.vm.PrecompiledContracts;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Reads the Bridge state straight from its storage at the best block, decoding it
+ * the same way the Bridge does, instead of executing a call to it.
+ *
+ * The storage provider is kept for as long as the best block doesn't change, so
+ * that asking about many transactions in a row reuses what it already decoded.
+ */
+public class BridgeStorageReader {
+
+    private final RepositoryLocator repositoryLocator;
+    private final Blockchain blockchain;
+    private final BridgeConstants bridgeConstants;
+    private final ActivationConfig activationConfig;
+
+    private Keccak256 blockHash;
+    private BridgeStorageProvider storageProvider;
+
+    public BridgeStorageReader(
+            RepositoryLocator repositoryLocator,
+            Blockchain blockchain,
+            BridgeConstants bridgeConstants,
+            ActivationConfig activationConfig) {
+        this.repositoryLocator = repositoryLocator;
+        this.blockchain = blockchain;
+        this.bridgeConstants = bridgeConstants;
+        this.activationConfig = activationConfig;
+    }
+
+    public boolean isBtcTxHashAlreadyProcessed(co.rsk.bitcoinj.core.Sha256Hash btcTxHash) throws IOException {
+        return getBtcTxHashProcessedHeight(btcTxHash).isPresent();
+    }
+
+    public synchronized Optional<Long> getBtcTxHashProcessedHeight(co.rsk.bitcoinj.core.Sha256Hash btcTxHash) throws IOException {
+        return getStorageProvider().getHeightIfBtcTxhashIsAlreadyProcessed(btcTxHash);
+    }
+
+    /**
+     * @return the height each of the given btc txs was processed at, leaving out the ones that weren't
+     */
+    public synchronized Map<co.rsk.bitcoinj.core.Sha256Hash, Long> getBtcTxHashesProcessedHeights(
+            Collection<co.rsk.bitcoinj.core.Sha256Hash> btcTxHashes) throws IOException {
+        // All of them against the same block, even if a new one arrives meanwhile
+        BridgeStorageProvider provider = getStorageProvider();
+        Map<co.rsk.bitcoinj.core.Sha256Hash, Long> processedHeights = new HashMap<>();
+        for (co.rsk.bitcoinj.core.Sha256Hash btcTxHash : btcTxHashes) {
+            Optional<Long> height = provider.getHeightIfBtcTxhashIsAlreadyProcessed(btcTxHash);
+            if (height.isPresent()) {
+                processedHeights.put(btcTxHash, height.get());
+            }
+        }
+        return processedHeights;
+    }
+
+    public synchronized StateForFederator getStateForFederator() throws IOException {
+        return new StateForFederator(getStorageProvider().getRskTxsWaitingForSignatures());
+    }
+
+    /**
+     * @return the block the last committed federation was created on, which is where its activation counts from
+     */
+    public synchronized Optional<Long> getNewFederationCreationBlockNumber() throws IOException {
+        return Optional.ofNullable(getStorageProvider().getNewFederation()).map(Federation::getCreationBlockNumber);
+    }
+
+    private BridgeStorageProvider getStorageProvider() {
+        Block bestBlock = blockchain.getBestBlock();
+        if (!bestBlock.getHash().equals(blockHash)) {
+            // Nothing is ever saved to it, the tracking repository is just a read-only view of that block's state
+            Repository repository = repositoryLocator.startTrackingAt(bestBlock.getHeader());
+            storageProvider = new BridgeStorageProvider(
+                    repository,
+                    PrecompiledContracts.BRIDGE_ADDR,
+                    bridgeConstants,
+                    activationConfig.forBlock(bestBlock.getNumber())
+            );
+            blockHash = bestBlock.getHash();
+        }
+        return storageProvider;
+    }
+}
@@ -31,12 +31,22 @@ public class BridgeTransactionSender {
     private final Coin gasPrice;
     private final FedNodeSystemProperties config;
     private final IGasPriceProvider gasPriceProvider;
+    private final BridgeCallCache callCache;
 
     public BridgeTransactionSender(Ethereum ethereum,
                                    Blockchain blockchain,
                                    TransactionPool transactionPool,
                                    ReversibleTransactionExecutor reversibleTransactionExecutor,
                                    FedNodeSystemProperties config) {
+        this(ethereum, blockchain, transactionPool, reversibleTransactionExecutor, config, new BridgeCallCache());
+    }
+
+    public BridgeTransactionSender(Ethereum ethereum,
+                                   Blockchain blockchain,
+                                   TransactionPool transactionPool,
+                                   ReversibleTransactionExecutor reversibleTransactionExecutor,
+                                   FedNodeSystemProperties config,
+                                   BridgeCallCache callCache) {
         this.ethereum = ethereum;
         this.blockchain = blockchain;
         this.transactionPool = transactionPool;
@@ -44,6 +54,7 @@ public class BridgeTransactionSender {
         this.config = config;
         this.gasPrice = Coin.valueOf(config.federatorGasPrice());
         this.gasPriceProvider = GasPriceProviderFactory.get(config.gasPriceProviderConfig(), this.blockchain);
+        this.callCache = callCache;
     }
 
     public <T> T callTx(RskAddress federatorAddress, CallTransaction.Function function) {
@@ -54,6 +65,17 @@ public class BridgeTransactionSender {
         logBridgeInteraction("call", function, params);
         params = params != null ? params : new Object[]{};
         Block bestBlock = blockchain.getBestBlock();
+        byte[] callData = function.encode(params);
+        // Read-only calls give the same result for as long as the best block doesn't change
+        return callCache.get(
+                bestBlock.getHash(),
+                federatorAddress,
+                callData,
+                () -> executeCall(bestBlock, federatorAddress, function, callData)
+        );
+    }
+
+    private <T> T executeCall(Block bestBlock, RskAddress federatorAddress, CallTransaction.Function function, byte[] callData) {
         byte[] longMaxValue = longToByteArray(Long.MAX_VALUE);
         ProgramResult res = reversibleTransactionExecutor.executeTransaction(
                 bestBlock,
@@ -62,7 +84,7 @@ public class BridgeTransactionSender {
                 longMaxValue,
                 PrecompiledContracts.BRIDGE_ADDR.getBytes(),
                 longToByteArray(0L),
-                function.encode(params),
+                callData,
                 federatorAddress
         );
         T[] result = (T[]) function.decodeResult(res.getHReturn());
@@ -435,6 +435,7 @@ public class BtcToRskClient implements BlockListener, TransactionListener {
         int numberOfTxsSent = 0;
         Set<Sha256Hash> txsToSendToRskHashes = this.fileData.getTransactionProofs().keySet();
         logger.debug("[updateBridgeBtcTransactions] Tx count: {}", txsToSendToRskHashes.size());
+        Map<Sha256Hash, Long> processedTxsHeights = getProcessedTxsHeights(txsToSendToRskHashes, federatorWalletTxMap);
         for (Sha256Hash txHash : txsToSendToRskHashes) {
             Transaction tx = federatorWalletTxMap.get(txHash);
             logger.debug("[updateBridgeBtcTransactions] Evaluating Btc Tx {}", txHash);
@@ -482,7 +483,8 @@ public class BtcToRskClient implements BlockListener, TransactionListener {
             }
 
             // Check if the tx was processed (using the tx hash without witness)
-            if (!federatorSupport.isBtcTxHashAlreadyProcessed(tx.getTxId())) {
+            Long txProcessedHeight = processedTxsHeights.get(tx.getTxId());
+            if (txProcessedHeight == null) {
                 logger.debug("[updateBridgeBtcTransactions] Btc Tx {} with enough confirmations and not yet processed", tx.getWTxId());
                 synchronized (this) {
                     List<Proof> proofs = this.fileData.getTransactionProofs().get(txHash);
@@ -513,8 +515,6 @@ public class BtcToRskClient implements BlockListener, TransactionListener {
                 // do not clear in that case since we'd leave a tx without processing
             } else {
                 logger.debug("[updateBridgeBtcTransactions] Btc Tx {} already processed", tx.getTxId());
-                // Verify if the transaction was processed (using the tx id without witness)
-                Long txProcessedHeight = federatorSupport.getBtcTxHashProcessedHeight(tx.getTxId());
                 Long bestChainHeight = federatorSupport.getRskBestChainHeight();
 
                 // If the bridge says this transaction was processed at height N, and current height
@@ -534,6 +534,30 @@ public class BtcToRskClient implements BlockListener, TransactionListener {
         }
     }
 
+    /**
+     * Asks the Bridge about all the pending txs already in the wallet at once, instead of one by one
+     * @return the height each of the processed ones was processed at, by their hash without witness
+     */
+    private Map<Sha256Hash, Long> getProcessedTxsHeights(Set<Sha256Hash> txsToSendToRskHashes, Map<Sha256Hash, Transaction> federatorWalletTxMap) {
+        Set<Sha256Hash> txIdsToCheck = new HashSet<>();
+        for (Sha256Hash txHash : txsToSendToRskHashes) {
+            Transaction tx = federatorWalletTxMap.get(txHash);
+            if (tx != null) {
+                txIdsToCheck.add(tx.getTxId());
+            }
+        }
+        if (txIdsToCheck.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Sha256Hash, Long> processedTxsHeights = federatorSupport.getBtcTxHashesProcessedHeights(txIdsToCheck);
+        logger.debug(
+            "[updateBridgeBtcTransactions] {} of {} txs in the wallet already processed",
+            processedTxsHeights.size(),
+            txIdsToCheck.size()
+        );
+        return processedTxsHeights;
+    }
+
     /**
      * Gets the first ready to be informed coinbase transaction and informs it
      */
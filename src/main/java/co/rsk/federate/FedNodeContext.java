@@ -26,6 +26,7 @@ import co.rsk.federate.config.FedNodeSystemProperties;
 import co.rsk.federate.log.FederateLogger;
 import co.rsk.federate.log.RskLogMonitor;
 import co.rsk.federate.rpc.Web3FederateImpl;
+import co.rsk.federate.signing.hsm.client.HSMProtocolMetrics;
 import co.rsk.federate.solidity.DummySolidityCompiler;
 import org.ethereum.rpc.Web3;
 import org.ethereum.solidity.compiler.SolidityCompiler;
@@ -42,9 +43,14 @@ public class FedNodeContext extends RskContext {
     private BtcToRskClient.Factory btcToRskClientFactory;
     private BtcToRskClient btcToRskClientActive;
     private BtcToRskClient btcToRskClientRetiring;
+    private BtcReleaseClient btcReleaseClient;
     private FederatorSupport federatorSupport;
     private FederationWatcher federationWatcher;
+    private FederationProvider federationProvider;
     private FederateLogger federateLogger;
+    private HSMProtocolMetrics hsmProtocolMetrics;
+    private BridgeCallCache bridgeCallCache;
+    private BridgeStorageReader bridgeStorageReader;
 
     public FedNodeContext(String[] args) {
         super(args);
@@ -55,12 +61,7 @@ public class FedNodeContext extends RskContext {
         return new FedNodeRunner(
                 getBtcToRskClientActive(),
                 getBtcToRskClientRetiring(),
-                new BtcReleaseClient(
-                        getRsk(),
-                        getFederatorSupport(),
-                        getFedNodeSystemProperties(),
-                        getNodeBlockProcessor()
-                ),
+                getBtcReleaseClient(),
                 getFederationWatcher(),
                 getFederatorSupport(),
                 getFederateLogger(),
@@ -94,6 +95,9 @@ public class FedNodeContext extends RskContext {
                 getRskModule(),
                 getBtcToRskClientActive(),
                 getBtcToRskClientRetiring(),
+                getHSMProtocolMetrics(),
+                getBridgeCallCache(),
+                getBtcReleaseClient().getSigningMetrics(),
                 getChannelManager(),
                 getPeerScoringManager(),
                 getNetworkStateExporter(),
@@ -114,6 +118,49 @@ public class FedNodeContext extends RskContext {
         return new DummySolidityCompiler(null);
     }
 
+    public HSMProtocolMetrics getHSMProtocolMetrics() {
+        if (hsmProtocolMetrics == null) {
+            hsmProtocolMetrics = new HSMProtocolMetrics();
+        }
+
+        return hsmProtocolMetrics;
+    }
+
+    private BtcReleaseClient getBtcReleaseClient() {
+        if (btcReleaseClient == null) {
+            btcReleaseClient = new BtcReleaseClient(
+                    getRsk(),
+                    getFederatorSupport(),
+                    getFedNodeSystemProperties(),
+                    getNodeBlockProcessor()
+            );
+        }
+
+        return btcReleaseClient;
+    }
+
+    public BridgeCallCache getBridgeCallCache() {
+        if (bridgeCallCache == null) {
+            bridgeCallCache = new BridgeCallCache();
+        }
+
+        return bridgeCallCache;
+    }
+
+    /**
+     * The single source of the live federations, so that they are only gathered again when they change
+     */
+    public FederationProvider getFederationProvider() {
+        if (federationProvider == null) {
+            federationProvider = new FederationProviderFromFederatorSupport(
+                    getFederatorSupport(),
+                    getFedNodeSystemProperties().getNetworkConstants().getBridgeConstants()
+            );
+        }
+
+        return federationProvider;
+    }
+
     private BtcToRskClient getBtcToRskClientActive() {
         if (btcToRskClientActive == null) {
             btcToRskClientActive = getBtcToRskClientFactory().build();
@@ -144,7 +191,11 @@ public class FedNodeContext extends RskContext {
 
     private FederationWatcher getFederationWatcher() {
         if (federationWatcher == null) {
-            federationWatcher = new FederationWatcher(getRsk());
+            federationWatcher = new FederationWatcher(
+                    getRsk(),
+                    getFedNodeSystemProperties().getNetworkConstants().getBridgeConstants(),
+                    getBridgeStorageReader()
+            );
         }
 
         return federationWatcher;
@@ -171,17 +222,32 @@ public class FedNodeContext extends RskContext {
                     getBlockchain(),
                     getTransactionPool(),
                     getReversibleTransactionExecutor(),
-                    getFedNodeSystemProperties());
+                    getFedNodeSystemProperties(),
+                    getBridgeCallCache());
             federatorSupport = new FederatorSupport(
                     getBlockchain(),
                     getFedNodeSystemProperties(),
-                    bridgeTransactionSender
+                    bridgeTransactionSender,
+                    getBridgeStorageReader()
             );
         }
 
         return federatorSupport;
     }
 
+    private BridgeStorageReader getBridgeStorageReader() {
+        if (bridgeStorageReader == null) {
+            bridgeStorageReader = new BridgeStorageReader(
+                    getRepositoryLocator(),
+                    getBlockchain(),
+                    getFedNodeSystemProperties().getNetworkConstants().getBridgeConstants(),
+                    getFedNodeSystemProperties().getActivationConfig()
+            );
+        }
+
+        return bridgeStorageReader;
+    }
+
     private FedNodeSystemProperties getFedNodeSystemProperties() {
         if (fedNodeSystemProperties == null) {
             fedNodeSystemProperties = new FedNodeSystemProperties(new ConfigLoader(getCliArgs()));
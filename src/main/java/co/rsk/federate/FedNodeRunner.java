@@ -27,9 +27,12 @@ import co.rsk.federate.bitcoin.Kit;
 import co.rsk.federate.btcreleaseclient.BtcReleaseClient;
 import co.rsk.federate.btcreleaseclient.BtcReleaseClientStorageAccessor;
 import co.rsk.federate.btcreleaseclient.BtcReleaseClientStorageSynchronizer;
+import co.rsk.federate.btcreleaseclient.ReleaseBroadcastManager;
 import co.rsk.federate.config.FedNodeSystemProperties;
 import co.rsk.federate.config.HSM2SignerConfig;
 import co.rsk.federate.config.SignerConfig;
+import co.rsk.federate.io.hsmbookkeepingstorage.HSMBookkeepingFileStorageImpl;
+import co.rsk.federate.io.hsmbookkeepingstorage.HSMBookkeepingFileStorageInfo;
 import co.rsk.federate.io.*;
 import co.rsk.federate.log.BtcLogMonitor;
 import co.rsk.federate.log.FederateLogger;
@@ -37,12 +40,14 @@ import co.rsk.federate.log.RskLogMonitor;
 import co.rsk.federate.signing.*;
 import co.rsk.federate.signing.hsm.HSMClientException;
 import co.rsk.federate.signing.hsm.SignerException;
+import co.rsk.federate.signing.hsm.advanceblockchain.BlockHeaderAccessor;
 import co.rsk.federate.signing.hsm.advanceblockchain.HSMBookkeepingService;
 import co.rsk.federate.signing.hsm.client.HSMBookkeepingClient;
 import co.rsk.federate.signing.hsm.message.ReleaseCreationInformationGetter;
 import co.rsk.federate.signing.hsm.message.SignerMessageBuilderFactory;
 import co.rsk.federate.signing.hsm.requirements.AncestorBlockUpdater;
 import co.rsk.federate.signing.hsm.requirements.ReleaseRequirementsEnforcer;
+import co.rsk.federate.util.PhaseTimer;
 import co.rsk.peg.Federation;
 import co.rsk.peg.FederationMember;
 import co.rsk.peg.btcLockSender.BtcLockSenderProvider;
@@ -91,6 +96,8 @@ public class FedNodeRunner implements NodeRunner {
     private ECDSASigner signer;
     private HSMBookkeepingClient hsmBookkeepingClient;
     private HSMBookkeepingService hsmBookkeepingService;
+    private BlockHeaderAccessor blockHeaderAccessor;
+    private ReleaseBroadcastManager releaseBroadcastManager;
 
     public FedNodeRunner(
             BtcToRskClient btcToRskClientActive,
@@ -119,15 +126,26 @@ public class FedNodeRunner implements NodeRunner {
     @Override
     public void run() throws Exception {
         LOGGER.debug("Starting RSK");
+        PhaseTimer startupTimer = new PhaseTimer();
+        startupTimer.startPhase("signers");
         signer = buildSigner();
+        // Checks every signer at once, which also caches their public keys
+        startupTimer.startPhase("federator requirements");
         if(!this.checkFederateRequirements()) {
             LOGGER.error("Error validating Fed-Node Requirements");
+            startupTimer.finish();
+            LOGGER.info("Startup timings: {}", startupTimer);
             return;
         }
         LOGGER.info("Signers: {}", signer.getVersionString());
+        startupTimer.startPhase("federator support");
         configureFederatorSupport();
+        startupTimer.startPhase("full node");
         fullNodeRunner.run();
+        startupTimer.startPhase("federate");
         startFederate();
+        startupTimer.finish();
+        LOGGER.info("Startup timings: {}", startupTimer);
 
         signer.addListener((l -> {
             LOGGER.error("Signer informed unrecoverable state, shutting down", l);
@@ -165,12 +183,21 @@ public class FedNodeRunner implements NodeRunner {
                             ECDSAHSMSigner ecdsahsmSigner = (ECDSAHSMSigner)createdSigner;
                             hsmBookkeepingClient = (HSMBookkeepingClient)(ecdsahsmSigner.getClient());
                             hsmBookkeepingClient.setMaxChunkSizeToHsm(hsm2Config.getMaxChunkSizeToHsm());
-                            hsmBookkeepingService = new HSMBookkeepingService(
+                            hsmBookkeepingClient.setHSMPointerCacheTtl(hsm2Config.getHsmPointerCacheTtl());
+                            blockHeaderAccessor = new BlockHeaderAccessor(
                                     fedNodeContext.getBlockStore(),
+                                    hsm2Config.getBlockHeaderCacheSize()
+                            );
+                            hsmBookkeepingService = new HSMBookkeepingService(
+                                    fedNodeContext.getRsk(),
+                                    blockHeaderAccessor,
                                     hsmBookkeepingClient,
                                     fedNodeContext.getNodeBlockProcessor(),
                                     hsm2Config
                             );
+                            hsmBookkeepingService.setCheckpointStorage(
+                                    new HSMBookkeepingFileStorageImpl(new HSMBookkeepingFileStorageInfo(config))
+                            );
                         } catch(ClassCastException | HSMClientException e) {
                             LOGGER.warn("BTC signer not configured to use HSM 2. Consider upgrading it!");
                         }
@@ -197,7 +224,7 @@ public class FedNodeRunner implements NodeRunner {
      */
     private ECDSASigner buildSignerFromKey(KeyId key) throws SignerException {
         SignerConfig signerConfig = config.signerConfig(key.getId());
-        return new ECDSASignerFactory().buildFromConfig(signerConfig);
+        return new ECDSASignerFactory(fedNodeContext.getHSMProtocolMetrics()).buildFromConfig(signerConfig);
     }
 
     private boolean checkFederateRequirements() {
@@ -219,8 +246,7 @@ public class FedNodeRunner implements NodeRunner {
             // Setup a federation watcher to trigger starts and stops of the
             // btc to rsk client upon federation changes
             bridgeConstants = this.config.getNetworkConstants().getBridgeConstants();
-            FederationProvider federationProvider =
-                new FederationProviderFromFederatorSupport(federatorSupport, bridgeConstants);
+            FederationProvider federationProvider = fedNodeContext.getFederationProvider();
 
             BtcLockSenderProvider btcLockSenderProvider = new BtcLockSenderProvider();
             PeginInstructionsProvider peginInstructionsProvider = new PeginInstructionsProvider();
@@ -255,10 +281,18 @@ public class FedNodeRunner implements NodeRunner {
                     LOGGER.error("HSM bookkeeping service informed unrecoverable state, shutting down", e);
                     this.shutdown();
                 });
+                // Releases held back until the HSM caught up can be signed right away
+                hsmBookkeepingService.addBlockchainAdvancedListener(btcReleaseClient::retryPendingReleases);
                 hsmBookkeepingService.start();
             }
             federateLogger.log();
             BtcReleaseClientStorageAccessor btcReleaseClientStorageAccessor = new BtcReleaseClientStorageAccessor(config);
+            releaseBroadcastManager = new ReleaseBroadcastManager(
+                bitcoinWrapper,
+                btcReleaseClientStorageAccessor,
+                bridgeConstants
+            );
+            releaseBroadcastManager.start();
             btcReleaseClient.setup(
                 signer,
                 config.getActivationConfig(),
@@ -271,7 +305,7 @@ public class FedNodeRunner implements NodeRunner {
                 ),
                 new ReleaseRequirementsEnforcer(
                     new AncestorBlockUpdater(
-                        fedNodeContext.getBlockStore(),
+                        blockHeaderAccessor != null ? blockHeaderAccessor : new BlockHeaderAccessor(fedNodeContext.getBlockStore()),
                         hsmBookkeepingClient
                     )
                 ),
@@ -282,7 +316,8 @@ public class FedNodeRunner implements NodeRunner {
                     fedNodeContext.getNodeBlockProcessor(),
                     btcReleaseClientStorageAccessor,
                     config.getBtcReleaseClientInitializationMaxDepth()
-                )
+                ),
+                releaseBroadcastManager
             );
             federationWatcher.setup(federationProvider);
 
@@ -346,6 +381,9 @@ public class FedNodeRunner implements NodeRunner {
     @Override
     public void stop() {
         LOGGER.info("Shutting down Federation node");
+        if (releaseBroadcastManager != null) {
+            releaseBroadcastManager.stop();
+        }
         if (bitcoinWrapper != null) {
             bitcoinWrapper.stop();
         }
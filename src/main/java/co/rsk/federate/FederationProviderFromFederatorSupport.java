@@ -25,11 +25,16 @@ import co.rsk.peg.ErpFederation;
 import co.rsk.peg.Federation;
 import co.rsk.peg.FederationMember;
 import org.ethereum.crypto.ECKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
 
 import static org.ethereum.config.blockchain.upgrades.ConsensusRule.RSKIP123;
 
@@ -38,12 +43,21 @@ import static org.ethereum.config.blockchain.upgrades.ConsensusRule.RSKIP123;
  * gathers the federation from the bridge contract of the ethereum
  * network it is attached to.
  *
+ * The last active and retiring federations gathered are kept along with their
+ * address and creation block number. As long as the bridge reports those same
+ * values, the kept federation is returned without asking for its members again.
+ *
  * @author Ariel Mendelzon
  */
 public class FederationProviderFromFederatorSupport implements FederationProvider {
+    private static final Logger logger = LoggerFactory.getLogger(FederationProviderFromFederatorSupport.class);
+
     private final FederatorSupport federatorSupport;
     private final BridgeConstants bridgeConstants;
 
+    private volatile FederationSnapshot activeFederationSnapshot;
+    private volatile FederationSnapshot retiringFederationSnapshot;
+
     public FederationProviderFromFederatorSupport(FederatorSupport federatorSupport, BridgeConstants bridgeConstants) {
         this.federatorSupport = federatorSupport;
         this.bridgeConstants = bridgeConstants;
@@ -51,48 +65,25 @@ public class FederationProviderFromFederatorSupport implements FederationProvide
 
     @Override
     public Federation getActiveFederation() {
-        List<FederationMember> members = new ArrayList<>();
-        int federationSize = federatorSupport.getFederationSize();
-        boolean useTypedPublicKeyGetter = federatorSupport.getConfigForBestBlock().isActive(RSKIP123);
-        for (int i = 0; i < federationSize; i++) {
-            // Select method depending on network configuration for best block
-            FederationMember member;
-            if (useTypedPublicKeyGetter) {
-                BtcECKey btcKey = BtcECKey.fromPublicOnly(federatorSupport.getFederatorPublicKeyOfType(i, FederationMember.KeyType.BTC).getPubKey());
-                ECKey rskKey = federatorSupport.getFederatorPublicKeyOfType(i, FederationMember.KeyType.RSK);
-                ECKey mstKey = federatorSupport.getFederatorPublicKeyOfType(i, FederationMember.KeyType.MST);
-
-                member = new FederationMember(btcKey, rskKey, mstKey);
-            } else {
-                // Before the fork, all of BTC, RSK and MST keys are the same
-                BtcECKey btcKey = federatorSupport.getFederatorPublicKey(i);
-                ECKey rskMstKey = ECKey.fromPublicOnly(btcKey.getPubKey());
-                member = new FederationMember(btcKey, rskMstKey, rskMstKey);
-            }
-
-            members.add(member);
-        }
-        Instant creationTime = federatorSupport.getFederationCreationTime();
-        long creationBlockNumber = federatorSupport.getFederationCreationBlockNumber();
-
-        Federation initialFederation =
-            new Federation(members, creationTime, creationBlockNumber, federatorSupport.getBtcParams());
-
         Address federationAddress = federatorSupport.getFederationAddress();
-
-        if (initialFederation.getAddress().equals(federationAddress)) {
-            return initialFederation;
+        long creationBlockNumber = federatorSupport.getFederationCreationBlockNumber();
+        FederationSnapshot snapshot = activeFederationSnapshot;
+        if (snapshot != null && snapshot.matches(federationAddress, creationBlockNumber)) {
+            return snapshot.federation;
         }
 
-        // There is no reason for addresses not to match but being an ERP federation
-        return new ErpFederation(
-            members,
-            creationTime,
-            creationBlockNumber,
-            federatorSupport.getBtcParams(),
-            bridgeConstants.getErpFedPubKeysList(),
-            bridgeConstants.getErpFedActivationDelay()
+        int federationSize = federatorSupport.getFederationSize();
+        List<FederationMember> members = getMembers(
+            federationSize,
+            federatorSupport::getFederatorPublicKeyOfType,
+            federatorSupport::getFederatorPublicKey
         );
+        Instant creationTime = federatorSupport.getFederationCreationTime();
+
+        Federation federation = buildFederation(members, creationTime, creationBlockNumber, federationAddress);
+        activeFederationSnapshot = new FederationSnapshot(federationAddress, creationBlockNumber, federation);
+        logger.debug("[getActiveFederation] Gathered active federation {} with {} members", federationAddress, federationSize);
+        return federation;
     }
 
     @Override
@@ -102,25 +93,69 @@ public class FederationProviderFromFederatorSupport implements FederationProvide
 
     @Override
     public Optional<Federation> getRetiringFederation() {
+        Optional<Address> optionalFederationAddress = federatorSupport.getRetiringFederationAddress();
+        Address federationAddress = optionalFederationAddress.orElse(null);
+        FederationSnapshot snapshot = retiringFederationSnapshot;
+        if (federationAddress != null && snapshot != null
+            && snapshot.matches(federationAddress, federatorSupport.getRetiringFederationCreationBlockNumber())) {
+            return Optional.of(snapshot.federation);
+        }
+
         Integer federationSize = federatorSupport.getRetiringFederationSize();
         if (federationSize == -1) {
+            retiringFederationSnapshot = null;
             return Optional.empty();
         }
 
+        List<FederationMember> members = getMembers(
+            federationSize,
+            federatorSupport::getRetiringFederatorPublicKeyOfType,
+            federatorSupport::getRetiringFederatorPublicKey
+        );
+        Instant creationTime = federatorSupport.getRetiringFederationCreationTime();
+        long creationBlockNumber = federatorSupport.getRetiringFederationCreationBlockNumber();
+
+        Federation federation = buildFederation(members, creationTime, creationBlockNumber, federationAddress);
+        retiringFederationSnapshot = new FederationSnapshot(federationAddress, creationBlockNumber, federation);
+        logger.debug("[getRetiringFederation] Gathered retiring federation {} with {} members", federationAddress, federationSize);
+        return Optional.of(federation);
+    }
+
+    @Override
+    public Optional<Address> getRetiringFederationAddress() {
+        return federatorSupport.getRetiringFederationAddress();
+    }
+
+    @Override
+    public List<Federation> getLiveFederations() {
+        List<Federation> result = new ArrayList<>();
+        result.add(getActiveFederation());
+
+        Optional<Federation> retiringFederation = getRetiringFederation();
+        retiringFederation.ifPresent(result::add);
+
+        return result;
+    }
+
+    private List<FederationMember> getMembers(
+        int federationSize,
+        BiFunction<Integer, FederationMember.KeyType, ECKey> typedPublicKeyGetter,
+        IntFunction<BtcECKey> publicKeyGetter) {
+
+        // Select method depending on network configuration for best block
         boolean useTypedPublicKeyGetter = federatorSupport.getConfigForBestBlock().isActive(RSKIP123);
-        List<FederationMember> members = new ArrayList<>();
+        List<FederationMember> members = new ArrayList<>(federationSize);
         for (int i = 0; i < federationSize; i++) {
-            // Select method depending on network configuration for best block
             FederationMember member;
             if (useTypedPublicKeyGetter) {
-                BtcECKey btcKey = BtcECKey.fromPublicOnly(federatorSupport.getRetiringFederatorPublicKeyOfType(i, FederationMember.KeyType.BTC).getPubKey());
-                ECKey rskKey = federatorSupport.getRetiringFederatorPublicKeyOfType(i, FederationMember.KeyType.RSK);
-                ECKey mstKey = federatorSupport.getRetiringFederatorPublicKeyOfType(i, FederationMember.KeyType.MST);
+                BtcECKey btcKey = BtcECKey.fromPublicOnly(typedPublicKeyGetter.apply(i, FederationMember.KeyType.BTC).getPubKey());
+                ECKey rskKey = typedPublicKeyGetter.apply(i, FederationMember.KeyType.RSK);
+                ECKey mstKey = typedPublicKeyGetter.apply(i, FederationMember.KeyType.MST);
 
                 member = new FederationMember(btcKey, rskKey, mstKey);
             } else {
                 // Before the fork, all of BTC, RSK and MST keys are the same
-                BtcECKey btcKey = federatorSupport.getRetiringFederatorPublicKey(i);
+                BtcECKey btcKey = publicKeyGetter.apply(i);
                 ECKey rskMstKey = ECKey.fromPublicOnly(btcKey.getPubKey());
 
                 member = new FederationMember(btcKey, rskMstKey, rskMstKey);
@@ -128,49 +163,46 @@ public class FederationProviderFromFederatorSupport implements FederationProvide
 
             members.add(member);
         }
+        return members;
+    }
 
-        Instant creationTime = federatorSupport.getRetiringFederationCreationTime();
-        long creationBlockNumber = federatorSupport.getRetiringFederationCreationBlockNumber();
+    private Federation buildFederation(
+        List<FederationMember> members,
+        Instant creationTime,
+        long creationBlockNumber,
+        Address federationAddress) {
 
         Federation initialFederation =
             new Federation(members, creationTime, creationBlockNumber, federatorSupport.getBtcParams());
 
-        Optional<Address> optionalFederationAddress = federatorSupport.getRetiringFederationAddress();
-        Address federationAddress = null;
-
-        if (optionalFederationAddress.isPresent()) {
-            federationAddress = optionalFederationAddress.get();
-        }
-
         if (initialFederation.getAddress().equals(federationAddress)) {
-            return Optional.of(initialFederation);
+            return initialFederation;
         }
 
-        return Optional.of(
-            new ErpFederation(
-                members,
-                creationTime,
-                creationBlockNumber,
-                federatorSupport.getBtcParams(),
-                bridgeConstants.getErpFedPubKeysList(),
-                bridgeConstants.getErpFedActivationDelay()
-            )
+        // There is no reason for addresses not to match but being an ERP federation
+        return new ErpFederation(
+            members,
+            creationTime,
+            creationBlockNumber,
+            federatorSupport.getBtcParams(),
+            bridgeConstants.getErpFedPubKeysList(),
+            bridgeConstants.getErpFedActivationDelay()
         );
     }
 
-    @Override
-    public Optional<Address> getRetiringFederationAddress() {
-        return federatorSupport.getRetiringFederationAddress();
-    }
-
-    @Override
-    public List<Federation> getLiveFederations() {
-        List<Federation> result = new ArrayList<>();
-        result.add(getActiveFederation());
+    private static class FederationSnapshot {
+        private final Address address;
+        private final long creationBlockNumber;
+        private final Federation federation;
 
-        Optional<Federation> retiringFederation = getRetiringFederation();
-        retiringFederation.ifPresent(result::add);
+        private FederationSnapshot(Address address, long creationBlockNumber, Federation federation) {
+            this.address = address;
+            this.creationBlockNumber = creationBlockNumber;
+            this.federation = federation;
+        }
 
-        return result;
+        private boolean matches(Address address, long creationBlockNumber) {
+            return Objects.equals(this.address, address) && this.creationBlockNumber == creationBlockNumber;
+        }
     }
 }
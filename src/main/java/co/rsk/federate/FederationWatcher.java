@@ -1,26 +1,54 @@
 package co.rsk.federate;
 
 import co.rsk.bitcoinj.core.Address;
+import co.rsk.config.BridgeConstants;
+import co.rsk.crypto.Keccak256;
+import co.rsk.peg.Bridge;
+import co.rsk.peg.BridgeEvents;
 import co.rsk.peg.Federation;
+import org.ethereum.core.Block;
 import org.ethereum.core.TransactionReceipt;
 import org.ethereum.facade.Ethereum;
 import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.LogInfo;
+import org.ethereum.vm.PrecompiledContracts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.TreeSet;
 
 /**
  * Watches the RSK blockchain for federation changes, and informs
  * when a federation changes.
+ *
+ * The Bridge is not asked about its federations on every best block. A commit_federation log
+ * tells when the committed federation becomes active, so the state is updated on that block and on
+ * the one its funds migration ends. Every update also reads the last committed federation from the
+ * Bridge storage, so those blocks are known even if the commit happened before the node started or in
+ * a block never seen as best. Past the funds migration end, the retiring federation is checked on every
+ * best block until the Bridge removes it. The state is also updated whenever the best chain changes, since
+ * the logs of the blocks in between were never seen, and every so many blocks as a safety net.
  * @author Ariel Mendelzon
  */
 public class FederationWatcher {
     private static final Logger logger = LoggerFactory.getLogger("FederationWatcher");
 
+    // About an hour of mainnet blocks
+    public static final long DEFAULT_RECONCILIATION_INTERVAL = 120;
+
+    private static final DataWord COMMIT_FEDERATION_TOPIC_SOLIDITY = DataWord.valueOf(BridgeEvents.COMMIT_FEDERATION.getEvent().encodeSignatureLong());
+
     private final Ethereum rsk;
+    private final BridgeConstants bridgeConstants;
+    private final BridgeStorageReader bridgeStorageReader;
+    private final long reconciliationInterval;
 
     private FederationProvider federationProvider;
 
@@ -30,8 +58,27 @@ public class FederationWatcher {
     private Optional<Federation> activeFederation = Optional.empty();
     private Optional<Federation> retiringFederation = Optional.empty();
 
-    public FederationWatcher(Ethereum rsk) {
+    // Best blocks on which a federation change is expected, from the commits seen
+    private final TreeSet<Long> expectedChangeHeights = new TreeSet<>();
+    private Keccak256 lastBestBlockHash;
+    private long bestBlockNumber;
+    private long lastUpdateBlockNumber;
+    // Funds migration end of the last committed federation, -1 if unknown
+    private long migrationEndHeight = -1;
+
+    public FederationWatcher(Ethereum rsk, BridgeConstants bridgeConstants, BridgeStorageReader bridgeStorageReader) {
+        this(rsk, bridgeConstants, bridgeStorageReader, DEFAULT_RECONCILIATION_INTERVAL);
+    }
+
+    public FederationWatcher(
+            Ethereum rsk,
+            BridgeConstants bridgeConstants,
+            BridgeStorageReader bridgeStorageReader,
+            long reconciliationInterval) {
         this.rsk = rsk;
+        this.bridgeConstants = bridgeConstants;
+        this.bridgeStorageReader = bridgeStorageReader;
+        this.reconciliationInterval = reconciliationInterval;
     }
 
     public interface Listener {
@@ -50,7 +97,7 @@ public class FederationWatcher {
 
     private class FederationWatcherRskListener extends EthereumListenerAdapter {
         @Override
-        public void onBestBlock(org.ethereum.core.Block block, List<TransactionReceipt> receipts) {
+        public void onBestBlock(Block block, List<TransactionReceipt> receipts) {
             // Updating state only when the best block changes still "works",
             // since we're interested in finding out only when the active or retiring federation(s) changed.
             // If there was a side chain in which any of these changed in, say, block 4500, but
@@ -65,12 +112,90 @@ public class FederationWatcher {
             // should apply since going back and forth would trigger two federation changes.
             // A client trying to send bitcoins to the new federation without waiting
             // a good number of confirmations would be, essentially, "playing with fire".
-            logger.info("New best block, updating state");
-            updateState();
+            bestBlockNumber = block.getNumber();
+            if (shouldUpdateState(block, receipts)) {
+                logger.info("New best block {}, updating state", block.getNumber());
+                updateState();
+                lastUpdateBlockNumber = block.getNumber();
+            } else if (isRetiringFederationOverdue(block.getNumber())) {
+                updateRetiringFederation();
+            }
+            lastBestBlockHash = block.getHash();
         }
     }
 
-    public void updateState() {
+    private synchronized boolean shouldUpdateState(Block block, List<TransactionReceipt> receipts) {
+        long blockNumber = block.getNumber();
+        if (hasCommitFederationLog(receipts)) {
+            logger.info("Federation committed on block {}", blockNumber);
+            scheduleExpectedChanges(blockNumber);
+        }
+
+        // First best block, or the best chain changed
+        boolean update = !block.getParentHash().equals(lastBestBlockHash)
+                || (!expectedChangeHeights.isEmpty() && expectedChangeHeights.first() <= blockNumber)
+                || blockNumber - lastUpdateBlockNumber >= reconciliationInterval;
+        if (update) {
+            // Whatever was expected up to this block is seen by this update
+            expectedChangeHeights.headSet(blockNumber, true).clear();
+        }
+        return update;
+    }
+
+    /*
+    The Bridge removes the retiring federation without a log, on the first collections update once its
+    funds migration is over. That is usually some blocks after the migration end height, so past it the
+    retiring federation is checked on every best block until it's gone.
+     */
+    private synchronized boolean isRetiringFederationOverdue(long blockNumber) {
+        return retiringFederation.isPresent() && migrationEndHeight >= 0 && blockNumber >= migrationEndHeight;
+    }
+
+    private void scheduleExpectedChanges(long commitBlockNumber) {
+        // The committed federation becomes active, and the previous one starts retiring, once it's old enough.
+        // The retiring one goes away once its funds migration is over.
+        long activationHeight = commitBlockNumber + bridgeConstants.getFederationActivationAge();
+        migrationEndHeight = activationHeight + bridgeConstants.getFundsMigrationAgeSinceActivationEnd();
+        if (activationHeight > bestBlockNumber && expectedChangeHeights.add(activationHeight)) {
+            logger.info("Federation committed on block {} expected to be active on block {}", commitBlockNumber, activationHeight);
+        }
+        if (migrationEndHeight > bestBlockNumber) {
+            expectedChangeHeights.add(migrationEndHeight);
+        }
+    }
+
+    private void scheduleExpectedChangesFromBridgeStorage() {
+        if (bridgeStorageReader == null) {
+            return;
+        }
+        try {
+            bridgeStorageReader.getNewFederationCreationBlockNumber().ifPresent(this::scheduleExpectedChanges);
+        } catch (IOException | RuntimeException e) {
+            // The reconciliation will still find the change, just later
+            logger.warn("Unable to read the last committed federation from the Bridge storage. {}", e.getMessage());
+        }
+    }
+
+    private boolean hasCommitFederationLog(List<TransactionReceipt> receipts) {
+        return receipts.stream()
+                .map(TransactionReceipt::getLogInfoList)
+                .flatMap(Collection::stream)
+                .filter(info -> Arrays.equals(info.getAddress(), PrecompiledContracts.BRIDGE_ADDR.getBytes()))
+                .anyMatch(this::isCommitFederationLog);
+    }
+
+    private boolean isCommitFederationLog(LogInfo info) {
+        if (info.getTopics().isEmpty()) {
+            return false;
+        }
+        // Either format, before and after the Bridge events went solidity compatible
+        DataWord topic = info.getTopics().get(0);
+        return COMMIT_FEDERATION_TOPIC_SOLIDITY.equals(topic) || Bridge.COMMIT_FEDERATION_TOPIC.equals(topic);
+    }
+
+    public synchronized void updateState() {
+        scheduleExpectedChangesFromBridgeStorage();
+
         // Active federation changed?
         // We compare addresses first so as not to do innecessary calls to the bridge
         Address currentlyActiveFederationAddress = federationProvider.getActiveFederationAddress();
@@ -86,6 +211,10 @@ public class FederationWatcher {
             activeFederation = Optional.of(currentlyActiveFederation);
         }
 
+        updateRetiringFederation();
+    }
+
+    private synchronized void updateRetiringFederation() {
         // Retiring federation changed?
         // We compare addresses first so as not to do innecessary calls to the bridge
         Optional<Address> currentlyRetiringFederationAddress = federationProvider.getRetiringFederationAddress();
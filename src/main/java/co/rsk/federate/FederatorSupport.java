@@ -22,10 +22,14 @@ import org.ethereum.crypto.ECKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.net.UnknownHostException;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -42,6 +46,8 @@ public class FederatorSupport {
     private final NetworkParameters parameters;
 
     private final BridgeTransactionSender bridgeTransactionSender;
+    // Reads the hottest Bridge queries without executing calls to it. Null to always call the Bridge.
+    private final BridgeStorageReader bridgeStorageReader;
 
     private ECDSASigner signer;
 
@@ -52,12 +58,21 @@ public class FederatorSupport {
             Blockchain blockchain,
             FedNodeSystemProperties config,
             BridgeTransactionSender bridgeTransactionSender) {
+        this(blockchain, config, bridgeTransactionSender, null);
+    }
+
+    public FederatorSupport(
+            Blockchain blockchain,
+            FedNodeSystemProperties config,
+            BridgeTransactionSender bridgeTransactionSender,
+            BridgeStorageReader bridgeStorageReader) {
         this.blockchain = blockchain;
         this.config = config;
 
         this.parameters = config.getNetworkConstants().getBridgeConstants().getBtcParams();
 
         this.bridgeTransactionSender = bridgeTransactionSender;
+        this.bridgeStorageReader = bridgeStorageReader;
     }
 
     public void setMember(FederationMember fedMember) {
@@ -112,14 +127,59 @@ public class FederatorSupport {
     }
 
     public Boolean isBtcTxHashAlreadyProcessed(Sha256Hash btcTxHash) {
+        if (bridgeStorageReader != null) {
+            try {
+                return bridgeStorageReader.isBtcTxHashAlreadyProcessed(ThinConverter.toThinInstance(btcTxHash));
+            } catch (IOException e) {
+                LOGGER.warn("Unable to read whether btc tx {} was processed from the Bridge storage, calling the Bridge", btcTxHash, e);
+            }
+        }
         return this.bridgeTransactionSender.callTx(federatorAddress, Bridge.IS_BTC_TX_HASH_ALREADY_PROCESSED, new Object[]{btcTxHash.toString()});
     }
 
     public Long getBtcTxHashProcessedHeight(Sha256Hash btcTxHash) {
+        if (bridgeStorageReader != null) {
+            try {
+                // Same as the Bridge answers for a transaction that wasn't processed
+                return bridgeStorageReader.getBtcTxHashProcessedHeight(ThinConverter.toThinInstance(btcTxHash)).orElse(-1L);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to read the height btc tx {} was processed at from the Bridge storage, calling the Bridge", btcTxHash, e);
+            }
+        }
         BigInteger btcTxHashProcessedHeight = this.bridgeTransactionSender.callTx(federatorAddress, Bridge.GET_BTC_TX_HASH_PROCESSED_HEIGHT, new Object[]{btcTxHash.toString()});
         return btcTxHashProcessedHeight.longValue();
     }
 
+    /**
+     * Resolves the processing status of all the given btc txs against the same Bridge state
+     * @return the height each of the processed ones was processed at. The rest are left out.
+     */
+    public Map<Sha256Hash, Long> getBtcTxHashesProcessedHeights(Collection<Sha256Hash> btcTxHashes) {
+        if (bridgeStorageReader != null) {
+            Map<co.rsk.bitcoinj.core.Sha256Hash, Sha256Hash> originalHashes = new HashMap<>();
+            for (Sha256Hash btcTxHash : btcTxHashes) {
+                originalHashes.put(ThinConverter.toThinInstance(btcTxHash), btcTxHash);
+            }
+            try {
+                Map<Sha256Hash, Long> processedHeights = new HashMap<>();
+                bridgeStorageReader.getBtcTxHashesProcessedHeights(originalHashes.keySet())
+                    .forEach((thinHash, height) -> processedHeights.put(originalHashes.get(thinHash), height));
+                return processedHeights;
+            } catch (IOException e) {
+                LOGGER.warn("Unable to read the processed heights of {} btc txs from the Bridge storage, calling the Bridge", btcTxHashes.size(), e);
+            }
+        }
+        // The Bridge answers the height with a negative value for the ones it didn't process, one call each is enough
+        Map<Sha256Hash, Long> processedHeights = new HashMap<>();
+        for (Sha256Hash btcTxHash : btcTxHashes) {
+            Long height = getBtcTxHashProcessedHeight(btcTxHash);
+            if (height >= 0) {
+                processedHeights.put(btcTxHash, height);
+            }
+        }
+        return processedHeights;
+    }
+
     public void sendRegisterBtcTransaction(org.bitcoinj.core.Transaction tx, int blockHeight, PartialMerkleTree pmt) {
         LOGGER.debug("About to send to the bridge btc tx hash {}. Block height {}", tx.getWTxId(), blockHeight);
 
@@ -149,8 +209,25 @@ public class FederatorSupport {
     }
 
     public StateForFederator getStateForFederator() {
-        byte[] result = this.bridgeTransactionSender.callTx(federatorAddress, Bridge.GET_STATE_FOR_BTC_RELEASE_CLIENT);
-        return new StateForFederator(result, this.parameters);
+        if (bridgeStorageReader != null) {
+            try {
+                return bridgeStorageReader.getStateForFederator();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to read the state for federator from the Bridge storage, calling the Bridge", e);
+            }
+        }
+        return new StateForFederator(this.bridgeTransactionSender.callTx(federatorAddress, Bridge.GET_STATE_FOR_BTC_RELEASE_CLIENT), this.parameters);
+    }
+
+    public byte[] getEncodedStateForFederator() {
+        if (bridgeStorageReader != null) {
+            try {
+                return bridgeStorageReader.getStateForFederator().getEncoded();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to read the state for federator from the Bridge storage, calling the Bridge", e);
+            }
+        }
+        return this.bridgeTransactionSender.callTx(federatorAddress, Bridge.GET_STATE_FOR_BTC_RELEASE_CLIENT);
     }
 
 
@@ -57,6 +57,10 @@ public class ThinConverter {
         return new org.bitcoinj.core.Transaction(toOriginalInstance(btcParamsString), thinTx.bitcoinSerialize());
     }
 
+    public static co.rsk.bitcoinj.core.Sha256Hash toThinInstance(org.bitcoinj.core.Sha256Hash hash) {
+        return co.rsk.bitcoinj.core.Sha256Hash.wrap(hash.getBytes());
+    }
+
     public static Context toThinInstance(org.bitcoinj.core.Context context) {
         if (context == null) {
             return null;
@@ -42,4 +42,8 @@ public interface BitcoinWrapper {
     void addNewBlockListener(NewBestBlockListener newBestBlockListener);
 
     void removeNewBestBlockListener(NewBestBlockListener newBestBlockListener);
+
+    TransactionBroadcast broadcastTransaction(Transaction tx);
+
+    TransactionConfidence getTransactionConfidence(Transaction tx);
 }
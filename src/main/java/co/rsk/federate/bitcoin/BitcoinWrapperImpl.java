@@ -25,6 +25,7 @@ import org.bitcoinj.core.PeerAddress;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionBroadcast;
 import org.bitcoinj.core.TransactionConfidence;
 import org.bitcoinj.core.listeners.BlocksDownloadedEventListener;
 import org.bitcoinj.core.listeners.NewBestBlockListener;
@@ -313,6 +314,18 @@ public class BitcoinWrapperImpl implements BitcoinWrapper {
         newBestBlockListeners.remove(newBestBlockListener);
     }
 
+    @Override
+    public TransactionBroadcast broadcastTransaction(Transaction tx) {
+        Context.propagate(btcContext);
+        return kit.peerGroup().broadcastTransaction(tx);
+    }
+
+    @Override
+    public TransactionConfidence getTransactionConfidence(Transaction tx) {
+        // Shared with the wallet, so it gets updated once the tx is included in a block
+        return tx.getConfidence(btcContext);
+    }
+
     protected void coinsReceivedOrSent(Transaction tx) {
         if (watchedFederations.size() > 0) {
             LOGGER.debug("[coinsReceivedOrSent] Received filtered transaction {}", tx.getWTxId().toString());
@@ -3,6 +3,7 @@ package co.rsk.federate.btcreleaseclient;
 import co.rsk.bitcoinj.core.BtcECKey;
 import co.rsk.bitcoinj.core.BtcTransaction;
 import co.rsk.bitcoinj.core.TransactionInput;
+import co.rsk.bitcoinj.core.TransactionOutPoint;
 import co.rsk.bitcoinj.script.RedeemScriptParser;
 import co.rsk.bitcoinj.script.RedeemScriptParserFactory;
 import co.rsk.bitcoinj.script.Script;
@@ -21,6 +22,7 @@ import co.rsk.federate.signing.KeyId;
 import co.rsk.federate.signing.hsm.HSMClientException;
 import co.rsk.federate.signing.hsm.SignerException;
 import co.rsk.federate.signing.hsm.message.HSMReleaseCreationInformationException;
+import co.rsk.federate.signing.hsm.message.PrecomputedSigHashes;
 import co.rsk.federate.signing.hsm.message.ReleaseCreationInformation;
 import co.rsk.federate.signing.hsm.message.ReleaseCreationInformationGetter;
 import co.rsk.federate.signing.hsm.message.SignerMessage;
@@ -35,29 +37,29 @@ import co.rsk.peg.Bridge;
 import co.rsk.peg.BridgeEvents;
 import co.rsk.peg.BridgeUtils;
 import co.rsk.peg.Federation;
-import co.rsk.peg.StateForFederator;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.SortedMap;
 import java.util.stream.Stream;
 import javax.annotation.PreDestroy;
 import org.bitcoinj.core.LegacyAddress;
 import org.bitcoinj.core.NetworkParameters;
-import org.bitcoinj.core.PeerAddress;
-import org.bitcoinj.core.PeerGroup;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.script.ScriptPattern;
 import org.ethereum.config.blockchain.upgrades.ActivationConfig;
 import org.ethereum.config.blockchain.upgrades.ConsensusRule;
 import org.ethereum.core.TransactionReceipt;
 import org.ethereum.crypto.ECKey;
+import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.facade.Ethereum;
 import org.ethereum.listener.EthereumListenerAdapter;
 import org.ethereum.util.RLP;
@@ -80,7 +82,7 @@ public class BtcReleaseClient {
 
     private ActivationConfig activationConfig;
     private BridgeConstants bridgeConstants;
-    private PeerGroup peerGroup;
+    private ReleaseBroadcastManager releaseBroadcastManager;
 
     private final Ethereum ethereum;
     private final FederatorSupport federatorSupport;
@@ -98,6 +100,16 @@ public class BtcReleaseClient {
     private BtcReleaseClientStorageAccessor storageAccessor;
     private BtcReleaseClientStorageSynchronizer storageSynchronizer;
 
+    private final ReleaseSigningMetrics signingMetrics = new ReleaseSigningMetrics();
+    // Sighashes of the pending releases, kept between best blocks
+    private final Map<co.rsk.bitcoinj.core.Sha256Hash, PrecomputedSigHashes> sigHashesCache = new HashMap<>();
+    // Observed federations indexed by their standard redeem script. Rebuilt and replaced as a whole on start/stop,
+    // since it's read on the best block thread
+    private volatile Map<ByteArrayWrapper, Federation> federationsByStandardRedeemScript = Collections.emptyMap();
+    // The redeem script an outpoint is spent with never changes, parse it just once
+    private final Map<TransactionOutPoint, Script> standardRedeemScriptsCache = new HashMap<>();
+    private final ReleaseStateTracker releaseStateTracker;
+
     public BtcReleaseClient(
         Ethereum ethereum,
         FederatorSupport federatorSupport,
@@ -111,6 +123,7 @@ public class BtcReleaseClient {
         this.blockListener = new BtcReleaseEthereumListener();
         this.bridgeConstants = this.systemProperties.getNetworkConstants().getBridgeConstants();
         this.nodeBlockProcessor = nodeBlockProcessor;
+        this.releaseStateTracker = new ReleaseStateTracker(bridgeConstants.getBtcParams());
     }
 
     public void setup(
@@ -120,26 +133,15 @@ public class BtcReleaseClient {
         ReleaseCreationInformationGetter releaseCreationInformationGetter,
         ReleaseRequirementsEnforcer releaseRequirementsEnforcer,
         BtcReleaseClientStorageAccessor storageAccessor,
-        BtcReleaseClientStorageSynchronizer storageSynchronizer
+        BtcReleaseClientStorageSynchronizer storageSynchronizer,
+        ReleaseBroadcastManager releaseBroadcastManager
     ) throws BtcReleaseClientException {
         bridgeConstants = this.systemProperties.getNetworkConstants().getBridgeConstants();
         this.signer = signer;
         this.activationConfig = activationConfig;
         logger.debug("Signer: {}", signer.getClass());
 
-        org.bitcoinj.core.Context btcContext = new org.bitcoinj.core.Context(ThinConverter.toOriginalInstance(bridgeConstants.getBtcParamsString()));
-        peerGroup = new PeerGroup(btcContext);
-        try {
-            if (!federatorSupport.getBitcoinPeerAddresses().isEmpty()) {
-                for (PeerAddress peerAddress : federatorSupport.getBitcoinPeerAddresses()) {
-                    peerGroup.addAddress(peerAddress);
-                }
-                peerGroup.setMaxConnections(federatorSupport.getBitcoinPeerAddresses().size());
-            }
-        } catch(Exception e) {
-            throw new BtcReleaseClientException("Error configuring peerSupport", e);
-        }
-        peerGroup.start();
+        this.releaseBroadcastManager = releaseBroadcastManager;
 
         blockListener = new BtcReleaseEthereumListener();
         this.signerMessageBuilderFactory = signerMessageBuilderFactory;
@@ -153,6 +155,7 @@ public class BtcReleaseClient {
     public void start(Federation federation) {
         if (!observedFederations.contains(federation)) {
             observedFederations.add(federation);
+            rebuildFederationsIndex();
             logger.debug("observing Federation {}", federation.getAddress());
         }
         if (observedFederations.size() == 1) {
@@ -165,6 +168,7 @@ public class BtcReleaseClient {
     public void stop(Federation federation) {
         if (observedFederations.contains(federation)) {
             observedFederations.remove(federation);
+            rebuildFederationsIndex();
             logger.debug("not observing Federation {}", federation.getAddress());
         }
         if (observedFederations.isEmpty()) {
@@ -174,11 +178,41 @@ public class BtcReleaseClient {
         }
     }
 
+    /**
+     * Processes every release waiting for signatures now, instead of waiting for their next attempt.
+     * Meant for when something that kept them from being signed changed, e.g. the HSM advanced its blockchain.
+     */
+    public void retryPendingReleases() {
+        if (observedFederations.isEmpty() || storageSynchronizer == null) {
+            return;
+        }
+        boolean hasBetterBlockToSync = nodeBlockProcessor.hasBetterBlockToSync();
+        boolean isStorageSynced = storageSynchronizer.isSynced();
+        if (hasBetterBlockToSync || !isStorageSynced) {
+            logger.trace(
+                "[retryPendingReleases] Node is not ready to process releases. hasBetterBlockToSync: {} isStorageSynced: {}",
+                hasBetterBlockToSync,
+                isStorageSynced
+            );
+            return;
+        }
+        synchronized (this) {
+            releaseStateTracker.makeAllDue();
+            SortedMap<Keccak256, BtcTransaction> releasesToProcess = releaseStateTracker.getReleasesToProcess();
+            if (releasesToProcess.isEmpty()) {
+                logger.trace("[retryPendingReleases] No releases to process");
+                return;
+            }
+            logger.debug("[retryPendingReleases] Retrying {} releases", releasesToProcess.size());
+            processReleases(releasesToProcess.entrySet());
+        }
+    }
+
     @PreDestroy
     public void tearDown() {
-        org.bitcoinj.core.Context.propagate(new org.bitcoinj.core.Context(ThinConverter.toOriginalInstance(bridgeConstants.getBtcParamsString())));
-        peerGroup.stop();
-        peerGroup = null;
+        if (releaseBroadcastManager != null) {
+            releaseBroadcastManager.stop();
+        }
     }
 
     private class BtcReleaseEthereumListener extends EthereumListenerAdapter {
@@ -197,11 +231,22 @@ public class BtcReleaseClient {
             // Processing transactions waiting for signatures on best block only still "works",
             // since it all lies within RSK's blockchain and normal rules apply. I.e., this
             // process works on a block-by-block basis.
-            StateForFederator stateForFederator = federatorSupport.getStateForFederator();
+            byte[] encodedStateForFederator = federatorSupport.getEncodedStateForFederator();
             storageSynchronizer.processBlock(block, receipts);
-            // Delegate processing to our own method
-            logger.trace("[onBestBlock] Got {} releases", stateForFederator.getRskTxsWaitingForSignatures().entrySet().size());
-            processReleases(stateForFederator.getRskTxsWaitingForSignatures().entrySet());
+            synchronized (BtcReleaseClient.this) {
+                if (releaseStateTracker.update(encodedStateForFederator)) {
+                    pruneReleaseCaches(releaseStateTracker.getPendingReleases());
+                }
+                // Only new or changed releases, plus the ones due for a retry
+                SortedMap<Keccak256, BtcTransaction> releasesToProcess = releaseStateTracker.getReleasesToProcess();
+                if (releasesToProcess.isEmpty()) {
+                    logger.trace("[onBestBlock] No releases to process");
+                    return;
+                }
+                // Delegate processing to our own method
+                logger.trace("[onBestBlock] Got {} releases", releasesToProcess.size());
+                processReleases(releasesToProcess.entrySet());
+            }
         }
 
         @Override
@@ -253,8 +298,10 @@ public class BtcReleaseClient {
             }
             logger.debug("[processReleases] Going to sign {} releases", releasesReadyToSign.size());
             // TODO: Sorting and then looping again is not efficient but we are making a compromise on performance here as we don't have that many release txs
-            // Sort descending
-            releasesReadyToSign.sort((a, b) -> (int) (b.getBlock().getNumber() - a.getBlock().getNumber()));
+            // Sort descending, so that from one release to the next the signer ancestor only moves back
+            releasesReadyToSign.sort(
+                Comparator.comparingLong((ReleaseCreationInformation release) -> release.getBlock().getNumber()).reversed()
+            );
             // Sign
             releasesReadyToSign.forEach(release -> signRelease(version, release));
         } catch (Exception e) {
@@ -293,12 +340,14 @@ public class BtcReleaseClient {
             // [-- Ignore punished transactions] --> this won't be done for now but should be taken into consideration
             // -- Get Real Block where release_requested was emmited
             logger.trace("[tryGetReleaseInformation] Getting release information");
-            return Optional.of(releaseCreationInformationGetter.getTxInfoToSign(
+            ReleaseCreationInformation releaseCreationInformation = releaseCreationInformationGetter.getTxInfoToSign(
                 signerVersion,
                 actualRskTxHash,
                 releaseTx,
                 rskTxHash
-            ));
+            );
+            releaseCreationInformation.setSigHashes(getSigHashes(releaseCreationInformation.getBtcTransaction()));
+            return Optional.of(releaseCreationInformation);
         } catch (HSMReleaseCreationInformationException | FederationCantSignException e) {
             String message = String.format(
                 "[tryGetReleaseInformation] There was an error trying to process release for BTC tx %s",
@@ -316,20 +365,15 @@ public class BtcReleaseClient {
             KeyId keyId = FedNodeRunner.BTC_KEY_ID;
             BtcECKey federatorPublicKey = signer.getPublicKey(keyId).toBtcKey();
             logger.trace("[validateTxCanBeSigned] Federator public key {}", federatorPublicKey);
+            PrecomputedSigHashes sigHashes = getSigHashes(btcTx);
 
             for (int inputIndex = 0; inputIndex < btcTx.getInputs().size(); inputIndex++) {
                 TransactionInput txIn = btcTx.getInput(inputIndex);
-                Script redeemScript = getRedeemScriptFromInput(txIn);
-                Script standardRedeemScript = extractStandardRedeemScript(redeemScript);
+                Script standardRedeemScript = getStandardRedeemScriptFromInput(txIn);
 
                 // Check if input is not already signed by the current federator
                 logger.trace("[validateTxCanBeSigned] Checking if the input {} is not already signed by the current federator", inputIndex);
-                co.rsk.bitcoinj.core.Sha256Hash sigHash = btcTx.hashForSignature(
-                        inputIndex,
-                        redeemScript,
-                        BtcTransaction.SigHash.ALL,
-                        false
-                );
+                co.rsk.bitcoinj.core.Sha256Hash sigHash = sigHashes.getSigHash(inputIndex);
                 if (BridgeUtils.isInputSignedByThisFederator(federatorPublicKey, sigHash, txIn)) {
                     String message = String.format(
                             "Btc tx %s input %d already signed by current federator with public key %s",
@@ -342,12 +386,9 @@ public class BtcReleaseClient {
 
                 // Check if any of the observed federations can sign the tx
                 logger.trace("[validateTxCanBeSigned] Checking if any of the observed federations can sign the tx input {}", inputIndex);
-                observedFederations.stream()
-                        .forEach(f -> logger.trace("[validateTxCanBeSigned] federation p2sh redeem script {}", f.getRedeemScript()));
-                List<Federation> spendingFedFilter = observedFederations.stream()
-                        .filter(f -> f.getStandardRedeemScript().equals(standardRedeemScript)).collect(Collectors.toList());
-                logger.debug("[validateTxCanBeSigned] spendingFedFilter size {}", spendingFedFilter.size());
-                if (spendingFedFilter.isEmpty()) {
+                Federation spendingFed = findObservedFederation(standardRedeemScript);
+                logger.debug("[validateTxCanBeSigned] spending federation found? {}", spendingFed != null);
+                if (spendingFed == null) {
                     String message = String.format(
                             "Transaction %s can't be signed by any of the observed federations",
                             btcTx.getHash()
@@ -373,17 +414,40 @@ public class BtcReleaseClient {
                 releaseCreationInformation
             );
             co.rsk.bitcoinj.core.Context.propagate(new co.rsk.bitcoinj.core.Context(bridgeConstants.getBtcParams()));
-            List<byte[]> signatures = new ArrayList<>();
-            for (int inputIndex = 0; inputIndex < releaseCreationInformation.getBtcTransaction().getInputs().size(); inputIndex++) {
+            int inputsSize = releaseCreationInformation.getBtcTransaction().getInputs().size();
+            List<SignerMessage> messagesToSign = new ArrayList<>(inputsSize);
+            for (int inputIndex = 0; inputIndex < inputsSize; inputIndex++) {
                 SignerMessage messageToSign = messageBuilder.buildMessageForIndex(inputIndex);
                 logger.trace("[signRelease] Message to sign: {}", messageToSign.getClass());
-                ECKey.ECDSASignature ethSig = signer.sign(FedNodeRunner.BTC_KEY_ID, messageToSign);
-                logger.debug("[signRelease] Message successfully signed");
+                messagesToSign.add(messageToSign);
+            }
+
+            // All the inputs belong to the same release, let the signer sign them together
+            long signingStart = System.currentTimeMillis();
+            List<ECKey.ECDSASignature> ethSignatures = signer.signBatch(FedNodeRunner.BTC_KEY_ID, messagesToSign);
+            long signingLatency = System.currentTimeMillis() - signingStart;
+            if (ethSignatures.size() != inputsSize) {
+                throw new SignerException(String.format(
+                    "Expected %d signatures but got %d",
+                    inputsSize,
+                    ethSignatures.size()
+                ));
+            }
+            signingMetrics.record(inputsSize, signingLatency);
+            logger.debug("[signRelease] Messages successfully signed");
+
+            List<byte[]> signatures = new ArrayList<>(inputsSize);
+            for (ECKey.ECDSASignature ethSig : ethSignatures) {
                 BtcECKey.ECDSASignature sig = new BtcECKey.ECDSASignature(ethSig.r, ethSig.s);
                 signatures.add(sig.encodeToDER());
             }
 
-            logger.info("[signRelease] Signed Tx {}", releaseCreationInformation.getInformingRskTxHash());
+            logger.info(
+                "[signRelease] Signed {} inputs of tx {} in {}ms",
+                inputsSize,
+                releaseCreationInformation.getInformingRskTxHash(),
+                signingLatency
+            );
             federatorSupport.addSignature(signatures, releaseCreationInformation.getInformingRskTxHash().getBytes());
         } catch (SignerException e) {
             String message = String.format("Error signing Tx %s", releaseCreationInformation.getInformingRskTxHash());
@@ -402,14 +466,21 @@ public class BtcReleaseClient {
         }
     }
 
+    public ReleaseSigningMetrics getSigningMetrics() {
+        return signingMetrics;
+    }
+
     // Executed when a tx is ready for broadcasting
     public void onBtcRelease(BtcTransaction signedBtcTx) {
+        // broadcast signedBtcTx to the btc network
+        // The same release is informed by every block (side chains included) that emits its event
+        if (!releaseBroadcastManager.broadcast(signedBtcTx)) {
+            return;
+        }
         NetworkParameters btcParams = ThinConverter.toOriginalInstance(bridgeConstants.getBtcParamsString());
         org.bitcoinj.core.Context.propagate(new org.bitcoinj.core.Context(btcParams));
-        // broadcast signedBtcTx to the btc network
         // Wrap signedBtcTx in a org.bitcoinj.core.Transaction
         Transaction signedBtcTx2 = ThinConverter.toOriginalInstance(bridgeConstants.getBtcParamsString(), signedBtcTx);
-        peerGroup.broadcastTransaction(signedBtcTx2);
         signedBtcTx2.getOutputs().forEach(txo -> {
             LegacyAddress destination = null;
             if (ScriptPattern.isP2SH(txo.getScriptPubKey())) {
@@ -439,6 +510,11 @@ public class BtcReleaseClient {
         }
     }
 
+    protected PrecomputedSigHashes getSigHashes(BtcTransaction btcTx) {
+        co.rsk.bitcoinj.core.Sha256Hash fingerprint = PrecomputedSigHashes.fingerprintOf(btcTx);
+        return sigHashesCache.computeIfAbsent(fingerprint, k -> PrecomputedSigHashes.of(btcTx));
+    }
+
     protected Script extractStandardRedeemScript(Script redeemScript) {
         RedeemScriptParser parser = RedeemScriptParserFactory.get(redeemScript.getChunks());
         return parser.extractStandardRedeemScript();
@@ -452,14 +528,49 @@ public class BtcReleaseClient {
         return new Script(program);
     }
 
+    // Forget the sighashes and redeem scripts of releases that are no longer pending
+    private void pruneReleaseCaches(Collection<BtcTransaction> pendingReleases) {
+        Set<co.rsk.bitcoinj.core.Sha256Hash> pendingFingerprints = new HashSet<>();
+        Set<TransactionOutPoint> pendingOutpoints = new HashSet<>();
+        for (BtcTransaction pendingRelease : pendingReleases) {
+            pendingFingerprints.add(PrecomputedSigHashes.fingerprintOf(pendingRelease));
+            for (TransactionInput input : pendingRelease.getInputs()) {
+                pendingOutpoints.add(input.getOutpoint());
+            }
+        }
+        sigHashesCache.keySet().retainAll(pendingFingerprints);
+        standardRedeemScriptsCache.keySet().retainAll(pendingOutpoints);
+    }
+
+    protected Script getStandardRedeemScriptFromInput(TransactionInput txInput) {
+        TransactionOutPoint outpoint = txInput.getOutpoint();
+        return standardRedeemScriptsCache.computeIfAbsent(
+            outpoint,
+            k -> extractStandardRedeemScript(getRedeemScriptFromInput(txInput))
+        );
+    }
+
     protected Federation getSpendingFederation(BtcTransaction btcTx) {
         TransactionInput firstInput = btcTx.getInput(0);
-        Script redeemScript = extractStandardRedeemScript(getRedeemScriptFromInput(firstInput));
+        Script redeemScript = getStandardRedeemScriptFromInput(firstInput);
 
-        List<Federation> spendingFedFilter = observedFederations.stream()
-                .filter(f -> f.getStandardRedeemScript().equals(redeemScript)).collect(Collectors.toList());
+        return findObservedFederation(redeemScript);
+    }
+
+    private Federation findObservedFederation(Script standardRedeemScript) {
+        return federationsByStandardRedeemScript.get(new ByteArrayWrapper(standardRedeemScript.getProgram()));
+    }
 
-        return spendingFedFilter.get(0);
+    private void rebuildFederationsIndex() {
+        Map<ByteArrayWrapper, Federation> federationsIndex = new HashMap<>();
+        for (Federation federation : observedFederations) {
+            logger.trace("[rebuildFederationsIndex] federation p2sh redeem script {}", federation.getRedeemScript());
+            federationsIndex.putIfAbsent(
+                new ByteArrayWrapper(federation.getStandardRedeemScript().getProgram()),
+                federation
+            );
+        }
+        federationsByStandardRedeemScript = federationsIndex;
     }
 
     private static Script createBaseInputScriptThatSpendsFromTheFederation(Federation federation, Script customRedeemScript) {
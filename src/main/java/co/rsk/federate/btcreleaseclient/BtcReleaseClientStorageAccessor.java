@@ -10,6 +10,8 @@ import co.rsk.federate.io.btcreleaseclientstorage.BtcReleaseClientFileStorage;
 import co.rsk.federate.io.btcreleaseclientstorage.BtcReleaseClientFileStorageImpl;
 import co.rsk.federate.io.btcreleaseclientstorage.BtcReleaseClientFileStorageInfo;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -138,6 +140,27 @@ public class BtcReleaseClientStorageAccessor {
         signalWriting();
     }
 
+    public boolean hasBroadcastedRelease(Sha256Hash btcTxId) {
+        return fileData.getBroadcastedReleasesMap().containsKey(btcTxId);
+    }
+
+    public Map<Sha256Hash, byte[]> getBroadcastedReleases() {
+        return Collections.unmodifiableMap(fileData.getBroadcastedReleasesMap());
+    }
+
+    public void putBroadcastedRelease(Sha256Hash btcTxId, byte[] serializedBtcTx) {
+        logger.trace("[putBroadcastedRelease] btc tx id {}", btcTxId);
+        fileData.getBroadcastedReleasesMap().put(btcTxId, serializedBtcTx);
+        signalWriting();
+    }
+
+    public void removeBroadcastedRelease(Sha256Hash btcTxId) {
+        logger.trace("[removeBroadcastedRelease] btc tx id {}", btcTxId);
+        if (fileData.getBroadcastedReleasesMap().remove(btcTxId) != null) {
+            signalWriting();
+        }
+    }
+
     public int getMapSize() {
         return fileData.getReleaseHashesMap().size();
     }
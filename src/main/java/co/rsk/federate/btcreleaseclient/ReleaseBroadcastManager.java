@@ -0,0 +1,212 @@
+package co.rsk.federate.btcreleaseclient;
+
+import co.rsk.bitcoinj.core.BtcTransaction;
+import co.rsk.bitcoinj.core.Sha256Hash;
+import co.rsk.config.BridgeConstants;
+import co.rsk.federate.adapter.ThinConverter;
+import co.rsk.federate.bitcoin.BitcoinWrapper;
+import co.rsk.federate.util.CurrentTimeProvider;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Broadcasts release txs to the btc network through the {@link BitcoinWrapper} peer group.
+ *
+ * A release is broadcasted just once, no matter how many rsk blocks (side chains included)
+ * emit its release_btc event. Broadcasted releases are persisted and rebroadcasted,
+ * with an exponential backoff, until they are included in a btc block or they were
+ * broadcasted too many times. The wallet might never see the block including a release
+ * that doesn't touch any of its addresses, those are not tracked forever.
+ */
+public class ReleaseBroadcastManager {
+    private static final Logger logger = LoggerFactory.getLogger(ReleaseBroadcastManager.class);
+
+    private static final long CHECK_INTERVAL_IN_MS = 60_000;
+    private static final long INITIAL_REBROADCAST_DELAY_IN_MS = 2 * 60_000L;
+    private static final long MAX_REBROADCAST_DELAY_IN_MS = 60 * 60_000L;
+    // Once this deep there is no point in keeping track of the release
+    private static final int CONFIRMATIONS_TO_FORGET = 100;
+    // About a day with the backoff, counted again from the first check after a restart
+    private static final int MAX_BROADCAST_ATTEMPTS = 24;
+
+    private final BitcoinWrapper bitcoinWrapper;
+    private final BtcReleaseClientStorageAccessor storageAccessor;
+    private final BridgeConstants bridgeConstants;
+    private final CurrentTimeProvider currentTimeProvider;
+    private final ScheduledExecutorService executorService;
+    private final Map<Sha256Hash, BroadcastedRelease> broadcastedReleases;
+
+    public ReleaseBroadcastManager(
+        BitcoinWrapper bitcoinWrapper,
+        BtcReleaseClientStorageAccessor storageAccessor,
+        BridgeConstants bridgeConstants
+    ) {
+        this(
+            bitcoinWrapper,
+            storageAccessor,
+            bridgeConstants,
+            System::currentTimeMillis,
+            Executors.newSingleThreadScheduledExecutor()
+        );
+    }
+
+    public ReleaseBroadcastManager(
+        BitcoinWrapper bitcoinWrapper,
+        BtcReleaseClientStorageAccessor storageAccessor,
+        BridgeConstants bridgeConstants,
+        CurrentTimeProvider currentTimeProvider,
+        ScheduledExecutorService executorService
+    ) {
+        this.bitcoinWrapper = bitcoinWrapper;
+        this.storageAccessor = storageAccessor;
+        this.bridgeConstants = bridgeConstants;
+        this.currentTimeProvider = currentTimeProvider;
+        this.executorService = executorService;
+        this.broadcastedReleases = new ConcurrentHashMap<>();
+    }
+
+    public void start() {
+        // Resume tracking the releases broadcasted before the last shutdown
+        long now = currentTimeProvider.currentTimeMillis();
+        for (Map.Entry<Sha256Hash, byte[]> entry : storageAccessor.getBroadcastedReleases().entrySet()) {
+            BtcTransaction btcTx = new BtcTransaction(bridgeConstants.getBtcParams(), entry.getValue());
+            broadcastedReleases.put(entry.getKey(), new BroadcastedRelease(toOriginalInstance(btcTx), now));
+        }
+        logger.info("[start] Tracking {} previously broadcasted releases", broadcastedReleases.size());
+
+        executorService.scheduleAtFixedRate(
+            this::checkBroadcastedReleases,
+            CHECK_INTERVAL_IN_MS,
+            CHECK_INTERVAL_IN_MS,
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    public void stop() {
+        executorService.shutdown();
+    }
+
+    /**
+     * Broadcasts the given release, unless it was already broadcasted
+     * @return true if the release was broadcasted
+     */
+    public boolean broadcast(BtcTransaction signedBtcTx) {
+        Sha256Hash txId = signedBtcTx.getHash();
+        long now = currentTimeProvider.currentTimeMillis();
+        BroadcastedRelease broadcastedRelease = new BroadcastedRelease(toOriginalInstance(signedBtcTx), now);
+        if (broadcastedReleases.putIfAbsent(txId, broadcastedRelease) != null) {
+            logger.debug("[broadcast] Release {} already broadcasted", txId);
+            return false;
+        }
+
+        storageAccessor.putBroadcastedRelease(txId, signedBtcTx.bitcoinSerialize());
+        broadcastedRelease.broadcast(now);
+        return true;
+    }
+
+    @VisibleForTesting
+    void checkBroadcastedReleases() {
+        long now = currentTimeProvider.currentTimeMillis();
+        for (Map.Entry<Sha256Hash, BroadcastedRelease> entry : broadcastedReleases.entrySet()) {
+            Sha256Hash txId = entry.getKey();
+            BroadcastedRelease broadcastedRelease = entry.getValue();
+            try {
+                TransactionConfidence confidence = bitcoinWrapper.getTransactionConfidence(broadcastedRelease.tx);
+                TransactionConfidence.ConfidenceType confidenceType = confidence.getConfidenceType();
+                if (confidenceType == TransactionConfidence.ConfidenceType.BUILDING) {
+                    if (confidence.getDepthInBlocks() >= CONFIRMATIONS_TO_FORGET) {
+                        forget(txId);
+                    }
+                    continue;
+                }
+                if (confidenceType == TransactionConfidence.ConfidenceType.DEAD) {
+                    logger.warn("[checkBroadcastedReleases] Release {} is dead, won't rebroadcast it", txId);
+                    forget(txId);
+                    continue;
+                }
+                logger.trace(
+                    "[checkBroadcastedReleases] Release {} not yet in a block, announced by {} peers",
+                    txId,
+                    confidence.numBroadcastPeers()
+                );
+                synchronized (broadcastedRelease) {
+                    if (now < broadcastedRelease.nextBroadcastTime) {
+                        continue;
+                    }
+                    if (broadcastedRelease.attempts >= MAX_BROADCAST_ATTEMPTS) {
+                        logger.warn(
+                            "[checkBroadcastedReleases] Release {} not seen in a block after {} broadcasts, won't rebroadcast it",
+                            txId,
+                            broadcastedRelease.attempts
+                        );
+                        forget(txId);
+                        continue;
+                    }
+                    logger.info("[checkBroadcastedReleases] Rebroadcasting release {}, attempt {}", txId, broadcastedRelease.attempts + 1);
+                    broadcastedRelease.broadcast(now);
+                }
+            } catch (Exception e) {
+                logger.error(String.format("[checkBroadcastedReleases] Error checking release %s", txId), e);
+            }
+        }
+    }
+
+    public boolean isBroadcasted(Sha256Hash txId) {
+        return broadcastedReleases.containsKey(txId);
+    }
+
+    /**
+     * @return the amount of peers that announced the given release back to us, 0 if it is unknown
+     */
+    public int getPeersSeenBy(Sha256Hash txId) {
+        BroadcastedRelease broadcastedRelease = broadcastedReleases.get(txId);
+        if (broadcastedRelease == null) {
+            return 0;
+        }
+        return bitcoinWrapper.getTransactionConfidence(broadcastedRelease.tx).numBroadcastPeers();
+    }
+
+    public int getTrackedReleasesCount() {
+        return broadcastedReleases.size();
+    }
+
+    private void forget(Sha256Hash txId) {
+        logger.debug("[forget] No longer tracking release {}", txId);
+        broadcastedReleases.remove(txId);
+        storageAccessor.removeBroadcastedRelease(txId);
+    }
+
+    private Transaction toOriginalInstance(BtcTransaction btcTx) {
+        Context.propagate(new Context(ThinConverter.toOriginalInstance(bridgeConstants.getBtcParamsString())));
+        return ThinConverter.toOriginalInstance(bridgeConstants.getBtcParamsString(), btcTx);
+    }
+
+    private class BroadcastedRelease {
+        private final Transaction tx;
+        // Guarded by the instance, it's broadcasted on the release thread and then checked on the executor
+        private int attempts;
+        private long nextBroadcastTime;
+
+        private BroadcastedRelease(Transaction tx, long now) {
+            this.tx = tx;
+            this.attempts = 0;
+            this.nextBroadcastTime = now;
+        }
+
+        private synchronized void broadcast(long now) {
+            bitcoinWrapper.broadcastTransaction(tx);
+            long delay = Math.min(INITIAL_REBROADCAST_DELAY_IN_MS << Math.min(attempts, 10), MAX_REBROADCAST_DELAY_IN_MS);
+            attempts++;
+            nextBroadcastTime = now + delay;
+        }
+    }
+}
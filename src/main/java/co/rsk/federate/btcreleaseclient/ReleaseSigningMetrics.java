@@ -0,0 +1,54 @@
+package co.rsk.federate.btcreleaseclient;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of how long it takes to get
+ * all the signatures of a release transaction
+ */
+public class ReleaseSigningMetrics {
+    private long signedReleases;
+    private long signedInputs;
+    private long totalLatencyMillis;
+    private long lastLatencyMillis;
+    private long maxLatencyMillis;
+
+    public synchronized void record(int inputs, long latencyMillis) {
+        signedReleases++;
+        signedInputs += inputs;
+        totalLatencyMillis += latencyMillis;
+        lastLatencyMillis = latencyMillis;
+        maxLatencyMillis = Math.max(maxLatencyMillis, latencyMillis);
+    }
+
+    public synchronized long getSignedReleases() {
+        return signedReleases;
+    }
+
+    public synchronized long getSignedInputs() {
+        return signedInputs;
+    }
+
+    public synchronized long getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
+    public synchronized long getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    public synchronized long getAverageLatencyMillis() {
+        return signedReleases == 0 ? 0 : totalLatencyMillis / signedReleases;
+    }
+
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("signedReleases", signedReleases);
+        snapshot.put("signedInputs", signedInputs);
+        snapshot.put("lastLatencyMillis", lastLatencyMillis);
+        snapshot.put("maxLatencyMillis", maxLatencyMillis);
+        snapshot.put("averageLatencyMillis", getAverageLatencyMillis());
+        return snapshot;
+    }
+}
@@ -0,0 +1,145 @@
+package co.rsk.federate.btcreleaseclient;
+
+import co.rsk.bitcoinj.core.BtcTransaction;
+import co.rsk.bitcoinj.core.NetworkParameters;
+import co.rsk.bitcoinj.core.Sha256Hash;
+import co.rsk.crypto.Keccak256;
+import co.rsk.peg.StateForFederator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.ethereum.crypto.HashUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the releases waiting for signatures between best blocks.
+ *
+ * The encoded state returned by the bridge is only decoded when it differs from the previous one.
+ * New or changed releases are handed out for processing right away, releases that didn't change
+ * are handed out again following an exponential backoff (measured in best blocks), so failed
+ * signing attempts still get retried without reprocessing every pending release on every block.
+ *
+ * Every release handed out is a fresh copy, callers are free to modify it.
+ */
+public class ReleaseStateTracker {
+    private static final Logger logger = LoggerFactory.getLogger(ReleaseStateTracker.class);
+    private static final int DEFAULT_MAX_RETRY_BACKOFF = 16;
+
+    private final NetworkParameters btcParams;
+    private final int maxRetryBackoff;
+
+    private Keccak256 lastStateFingerprint;
+    private Map<Keccak256, TrackedRelease> trackedReleases;
+    private long currentTick;
+
+    public ReleaseStateTracker(NetworkParameters btcParams) {
+        this(btcParams, DEFAULT_MAX_RETRY_BACKOFF);
+    }
+
+    public ReleaseStateTracker(NetworkParameters btcParams, int maxRetryBackoff) {
+        this.btcParams = btcParams;
+        this.maxRetryBackoff = maxRetryBackoff;
+        this.trackedReleases = new HashMap<>();
+    }
+
+    /**
+     * Updates the tracked releases with the state currently informed by the bridge.
+     * Should be called once per best block.
+     * @return true if the releases waiting for signatures changed
+     */
+    public boolean update(byte[] encodedState) {
+        currentTick++;
+        Keccak256 stateFingerprint = new Keccak256(HashUtil.keccak256(encodedState));
+        if (stateFingerprint.equals(lastStateFingerprint)) {
+            logger.trace("[update] Releases waiting for signatures didn't change");
+            return false;
+        }
+
+        SortedMap<Keccak256, BtcTransaction> releases =
+            new StateForFederator(encodedState, btcParams).getRskTxsWaitingForSignatures();
+        Map<Keccak256, TrackedRelease> refreshedReleases = new HashMap<>();
+        for (Map.Entry<Keccak256, BtcTransaction> release : releases.entrySet()) {
+            TrackedRelease trackedRelease = trackedReleases.get(release.getKey());
+            if (trackedRelease == null || !trackedRelease.btcTxHash.equals(release.getValue().getHash())) {
+                // New release, or some other federator added its signatures
+                trackedRelease = new TrackedRelease(release.getValue());
+            }
+            refreshedReleases.put(release.getKey(), trackedRelease);
+        }
+        logger.debug(
+            "[update] Releases waiting for signatures changed. Tracking {} releases, was {}",
+            refreshedReleases.size(),
+            trackedReleases.size()
+        );
+
+        trackedReleases = refreshedReleases;
+        lastStateFingerprint = stateFingerprint;
+        return true;
+    }
+
+    /**
+     * @return the releases due for processing at the current best block
+     */
+    public SortedMap<Keccak256, BtcTransaction> getReleasesToProcess() {
+        SortedMap<Keccak256, BtcTransaction> releasesToProcess = new TreeMap<>();
+        for (Map.Entry<Keccak256, TrackedRelease> release : trackedReleases.entrySet()) {
+            TrackedRelease trackedRelease = release.getValue();
+            if (trackedRelease.nextAttemptTick > currentTick) {
+                continue;
+            }
+            releasesToProcess.put(release.getKey(), trackedRelease.copyBtcTx());
+            trackedRelease.scheduleRetry();
+        }
+        logger.trace("[getReleasesToProcess] {} out of {} releases due", releasesToProcess.size(), trackedReleases.size());
+        return releasesToProcess;
+    }
+
+    /**
+     * Makes every tracked release due at the current best block, keeping their attempt count.
+     */
+    public void makeAllDue() {
+        for (TrackedRelease trackedRelease : trackedReleases.values()) {
+            trackedRelease.nextAttemptTick = currentTick;
+        }
+    }
+
+    /**
+     * @return all the releases waiting for signatures, due or not
+     */
+    public Collection<BtcTransaction> getPendingReleases() {
+        List<BtcTransaction> pendingReleases = new ArrayList<>(trackedReleases.size());
+        for (TrackedRelease trackedRelease : trackedReleases.values()) {
+            pendingReleases.add(trackedRelease.copyBtcTx());
+        }
+        return pendingReleases;
+    }
+
+    private class TrackedRelease {
+        private final byte[] serializedBtcTx;
+        private final Sha256Hash btcTxHash;
+        private int attempts;
+        private long nextAttemptTick;
+
+        private TrackedRelease(BtcTransaction btcTx) {
+            this.serializedBtcTx = btcTx.bitcoinSerialize();
+            this.btcTxHash = btcTx.getHash();
+            this.attempts = 0;
+            this.nextAttemptTick = currentTick;
+        }
+
+        private BtcTransaction copyBtcTx() {
+            return new BtcTransaction(btcParams, serializedBtcTx);
+        }
+
+        private void scheduleRetry() {
+            long backoff = Math.min(1L << Math.min(attempts, 30), maxRetryBackoff);
+            attempts++;
+            nextAttemptTick = currentTick + backoff;
+        }
+    }
+}
@@ -17,6 +17,10 @@ public class HSM2SignerConfig {
     private long informerInterval = 2_000;
     private boolean stopBookkeepingScheduler = false;
     private int maxChunkSizeToHsm = 10;
+    private long hsmPointerCacheTtl = 30_000;
+    private int blockHeaderCacheSize = 1_000;
+    private long catchUpThreshold = 500;
+    private int catchUpMaxAmountBlockHeaders = 100;
 
     public HSM2SignerConfig(SignerConfig signerConfig)
     {
@@ -35,6 +39,18 @@ public class HSM2SignerConfig {
         if (signerConfig.getConfig().hasPath("bookkeeping.maxChunkSizeToHsm")) {
             this.maxChunkSizeToHsm = signerConfig.getConfig().getInt("bookkeeping.maxChunkSizeToHsm");
         }
+        if (signerConfig.getConfig().hasPath("bookkeeping.hsmPointerCacheTtl")) {
+            this.hsmPointerCacheTtl = signerConfig.getConfig().getLong("bookkeeping.hsmPointerCacheTtl");
+        }
+        if (signerConfig.getConfig().hasPath("bookkeeping.blockHeaderCacheSize")) {
+            this.blockHeaderCacheSize = signerConfig.getConfig().getInt("bookkeeping.blockHeaderCacheSize");
+        }
+        if (signerConfig.getConfig().hasPath("bookkeeping.catchUpThreshold")) {
+            this.catchUpThreshold = signerConfig.getConfig().getLong("bookkeeping.catchUpThreshold");
+        }
+        if (signerConfig.getConfig().hasPath("bookkeeping.catchUpMaxAmountBlockHeaders")) {
+            this.catchUpMaxAmountBlockHeaders = signerConfig.getConfig().getInt("bookkeeping.catchUpMaxAmountBlockHeaders");
+        }
     }
 
     public BigInteger getDifficultyTarget() {
@@ -56,4 +72,23 @@ public class HSM2SignerConfig {
     public int getMaxChunkSizeToHsm() {
         return maxChunkSizeToHsm;
     }
+
+    public long getHsmPointerCacheTtl() {
+        return hsmPointerCacheTtl;
+    }
+
+    public int getBlockHeaderCacheSize() {
+        return blockHeaderCacheSize;
+    }
+
+    /**
+     * How many blocks behind the RSK best block the HSM has to be for the bookkeeping to catch up. Zero disables it.
+     */
+    public long getCatchUpThreshold() {
+        return catchUpThreshold;
+    }
+
+    public int getCatchUpMaxAmountBlockHeaders() {
+        return catchUpMaxAmountBlockHeaders;
+    }
 }
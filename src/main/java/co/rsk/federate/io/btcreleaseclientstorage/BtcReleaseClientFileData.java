@@ -9,16 +9,25 @@ import java.util.concurrent.ConcurrentHashMap;
 public class BtcReleaseClientFileData {
 
     private final Map<Sha256Hash, Keccak256> releaseHashesMap;
+    private final Map<Sha256Hash, byte[]> broadcastedReleasesMap;
     private Keccak256 bestBlockHash;
 
     public BtcReleaseClientFileData() {
         releaseHashesMap = new ConcurrentHashMap<>();
+        broadcastedReleasesMap = new ConcurrentHashMap<>();
     }
 
     public Map<Sha256Hash, Keccak256> getReleaseHashesMap() {
         return this.releaseHashesMap;
     }
 
+    /**
+     * Serialized release txs broadcasted to the btc network, by tx id
+     */
+    public Map<Sha256Hash, byte[]> getBroadcastedReleasesMap() {
+        return this.broadcastedReleasesMap;
+    }
+
     public void setBestBlockHash(Keccak256 bestBlockHash) {
         this.bestBlockHash = bestBlockHash;
     }
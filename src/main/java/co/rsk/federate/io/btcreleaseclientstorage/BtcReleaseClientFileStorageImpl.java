@@ -46,7 +46,9 @@ public class BtcReleaseClientFileStorageImpl implements BtcReleaseClientFileStor
             optionalblockHash.isPresent() ? optionalblockHash.get().getBytes() : new byte[]{}
         );
 
-        byte[] encodedData = RLP.encodeList(serializedMap, serializedBlockHash);
+        byte[] serializedBroadcastedReleases = this.serializeBroadcastedReleases(data.getBroadcastedReleasesMap());
+
+        byte[] encodedData = RLP.encodeList(serializedMap, serializedBlockHash, serializedBroadcastedReleases);
 
         FileUtils.writeByteArrayToFile(dataFile, encodedData);
     }
@@ -82,12 +84,18 @@ public class BtcReleaseClientFileStorageImpl implements BtcReleaseClientFileStor
             RLPList mapList = (RLPList)RLP.decode2(mapData).get(0);
             data.getReleaseHashesMap().putAll(this.deserializeReleaseHashes(mapList));
             // Block hash
-            if (rlpList.size() == 2) {
+            if (rlpList.size() >= 2) {
                 byte[] blockHashData = rlpList.get(1).getRLPData();
                 if (blockHashData != null && blockHashData.length > 0) {
                     data.setBestBlockHash(new Keccak256(blockHashData));
                 }
             }
+            // Broadcasted releases
+            if (rlpList.size() >= 3) {
+                byte[] broadcastedReleasesData = rlpList.get(2).getRLPData();
+                RLPList broadcastedReleasesList = (RLPList)RLP.decode2(broadcastedReleasesData).get(0);
+                data.getBroadcastedReleasesMap().putAll(this.deserializeBroadcastedReleases(broadcastedReleasesList));
+            }
         } catch (Exception e) {
             return new BtcReleaseClientFileReadResult(Boolean.FALSE, null);
         }
@@ -107,6 +115,32 @@ public class BtcReleaseClientFileStorageImpl implements BtcReleaseClientFileStor
         return RLP.encodeList(bytes);
     }
 
+    private byte[] serializeBroadcastedReleases(Map<Sha256Hash, byte[]> broadcastedReleasesMap) {
+        int items = broadcastedReleasesMap.size();
+        byte[][] bytes = new byte[items * 2][];
+        int n = 0;
+        for (Map.Entry<Sha256Hash, byte[]> entry : broadcastedReleasesMap.entrySet()) {
+            bytes[n] = RLP.encodeElement(entry.getKey().getBytes());
+            bytes[n + 1] = RLP.encodeElement(entry.getValue());
+            n += 2;
+        }
+        return RLP.encodeList(bytes);
+    }
+
+    private Map<Sha256Hash, byte[]> deserializeBroadcastedReleases(RLPList rlpList) {
+        Map<Sha256Hash, byte[]> result = new HashMap<>();
+
+        for (int k = 0; k < rlpList.size(); k += 2) {
+            byte[] e1 = rlpList.get(k).getRLPData();
+            byte[] e2 = rlpList.get(k + 1).getRLPData();
+            if (e1 != null && e2 != null) {
+                result.put(Sha256Hash.wrap(e1), e2);
+            }
+        }
+
+        return result;
+    }
+
     private Map<Sha256Hash, Keccak256> deserializeReleaseHashes(RLPList rlpList) {
         Map<Sha256Hash, Keccak256> result = new HashMap<>();
 
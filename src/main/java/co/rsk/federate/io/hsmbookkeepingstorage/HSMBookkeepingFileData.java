@@ -0,0 +1,41 @@
+package co.rsk.federate.io.hsmbookkeepingstorage;
+
+import co.rsk.crypto.Keccak256;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class HSMBookkeepingFileData {
+
+    private final List<Keccak256> advanceBlockchainBlockHashes;
+    private int advanceBlockchainNextHeader;
+
+    public HSMBookkeepingFileData() {
+        this(Collections.emptyList(), 0);
+    }
+
+    /**
+     * @param advanceBlockchainBlockHashes  The blocks of the advanceBlockchain in progress, in the order they were confirmed
+     * @param advanceBlockchainNextHeader   The first header of the message data the HSM didn't get yet
+     */
+    public HSMBookkeepingFileData(List<Keccak256> advanceBlockchainBlockHashes, int advanceBlockchainNextHeader) {
+        this.advanceBlockchainBlockHashes = new ArrayList<>(advanceBlockchainBlockHashes);
+        this.advanceBlockchainNextHeader = advanceBlockchainNextHeader;
+    }
+
+    public List<Keccak256> getAdvanceBlockchainBlockHashes() {
+        return Collections.unmodifiableList(advanceBlockchainBlockHashes);
+    }
+
+    public int getAdvanceBlockchainNextHeader() {
+        return advanceBlockchainNextHeader;
+    }
+
+    public void setAdvanceBlockchainNextHeader(int advanceBlockchainNextHeader) {
+        this.advanceBlockchainNextHeader = advanceBlockchainNextHeader;
+    }
+
+    public boolean hasAdvanceBlockchainInProgress() {
+        return !advanceBlockchainBlockHashes.isEmpty();
+    }
+}
@@ -0,0 +1,21 @@
+package co.rsk.federate.io.hsmbookkeepingstorage;
+
+public class HSMBookkeepingFileReadResult {
+
+    private final Boolean success;
+
+    private final HSMBookkeepingFileData data;
+
+    public HSMBookkeepingFileReadResult(Boolean success, HSMBookkeepingFileData data) {
+        this.success = success;
+        this.data = data;
+    }
+
+    public Boolean getSuccess() {
+        return success;
+    }
+
+    public HSMBookkeepingFileData getData() {
+        return data;
+    }
+}
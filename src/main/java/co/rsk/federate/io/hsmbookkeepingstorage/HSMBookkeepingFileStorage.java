@@ -0,0 +1,13 @@
+package co.rsk.federate.io.hsmbookkeepingstorage;
+
+import co.rsk.federate.io.FileStorageInfo;
+import java.io.IOException;
+
+public interface HSMBookkeepingFileStorage {
+
+    FileStorageInfo getInfo();
+
+    void write(HSMBookkeepingFileData data) throws IOException;
+
+    HSMBookkeepingFileReadResult read() throws IOException;
+}
@@ -0,0 +1,92 @@
+package co.rsk.federate.io.hsmbookkeepingstorage;
+
+import co.rsk.crypto.Keccak256;
+import co.rsk.federate.io.FileStorageInfo;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPElement;
+import org.ethereum.util.RLPList;
+
+public class HSMBookkeepingFileStorageImpl implements HSMBookkeepingFileStorage {
+
+    private final FileStorageInfo storageInfo;
+
+    public HSMBookkeepingFileStorageImpl(FileStorageInfo storageInfo) {
+        this.storageInfo = storageInfo;
+    }
+
+    @Override
+    public FileStorageInfo getInfo() {
+        return this.storageInfo;
+    }
+
+    @Override
+    public void write(HSMBookkeepingFileData data) throws IOException {
+        if (data == null) {
+            throw new IOException("Data is null");
+        }
+        File directory = new File(storageInfo.getPegDirectoryPath());
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory.getAbsolutePath());
+        }
+
+        File dataFile = new File(storageInfo.getFilePath());
+
+        List<Keccak256> blockHashes = data.getAdvanceBlockchainBlockHashes();
+        byte[][] serializedBlockHashes = new byte[blockHashes.size()][];
+        for (int i = 0; i < blockHashes.size(); i++) {
+            serializedBlockHashes[i] = RLP.encodeElement(blockHashes.get(i).getBytes());
+        }
+        byte[] serializedNextHeader = RLP.encodeBigInteger(BigInteger.valueOf(data.getAdvanceBlockchainNextHeader()));
+
+        byte[] encodedData = RLP.encodeList(RLP.encodeList(serializedBlockHashes), serializedNextHeader);
+
+        FileUtils.writeByteArrayToFile(dataFile, encodedData);
+    }
+
+    @Override
+    public HSMBookkeepingFileReadResult read() throws IOException {
+        File file = new File(this.storageInfo.getFilePath());
+
+        if (!file.exists()) {
+            return new HSMBookkeepingFileReadResult(Boolean.TRUE, new HSMBookkeepingFileData());
+        }
+        return this.readFromRlp(FileUtils.readFileToByteArray(file));
+    }
+
+    private HSMBookkeepingFileReadResult readFromRlp(byte[] fileData) {
+        if (fileData.length == 0) {
+            return new HSMBookkeepingFileReadResult(Boolean.TRUE, new HSMBookkeepingFileData());
+        }
+
+        try {
+            ArrayList<RLPElement> elements = RLP.decode2(fileData);
+            if (elements.isEmpty()) {
+                return new HSMBookkeepingFileReadResult(Boolean.TRUE, new HSMBookkeepingFileData());
+            }
+            RLPList rlpList = (RLPList)elements.get(0);
+            if (rlpList.size() < 2) {
+                return new HSMBookkeepingFileReadResult(Boolean.TRUE, new HSMBookkeepingFileData());
+            }
+            // Block hashes
+            byte[] blockHashesData = rlpList.get(0).getRLPData();
+            RLPList blockHashesList = (RLPList)RLP.decode2(blockHashesData).get(0);
+            List<Keccak256> blockHashes = new ArrayList<>();
+            for (int i = 0; i < blockHashesList.size(); i++) {
+                blockHashes.add(new Keccak256(blockHashesList.get(i).getRLPData()));
+            }
+            // Next header
+            byte[] nextHeaderData = rlpList.get(1).getRLPData();
+            int nextHeader = nextHeaderData == null ? 0 : new BigInteger(1, nextHeaderData).intValue();
+
+            return new HSMBookkeepingFileReadResult(Boolean.TRUE, new HSMBookkeepingFileData(blockHashes, nextHeader));
+        } catch (Exception e) {
+            return new HSMBookkeepingFileReadResult(Boolean.FALSE, null);
+        }
+    }
+}
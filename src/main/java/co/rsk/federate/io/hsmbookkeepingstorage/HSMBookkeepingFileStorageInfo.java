@@ -0,0 +1,27 @@
+package co.rsk.federate.io.hsmbookkeepingstorage;
+
+import co.rsk.federate.config.FedNodeSystemProperties;
+import co.rsk.federate.io.FileStorageInfo;
+import java.io.File;
+
+public class HSMBookkeepingFileStorageInfo implements FileStorageInfo {
+
+    private String pegDirectoryPath;
+
+    private String filePath;
+
+    public HSMBookkeepingFileStorageInfo(FedNodeSystemProperties config) {
+        this.pegDirectoryPath = config.databaseDir() + File.separator + "peg";
+        this.filePath = this.pegDirectoryPath + File.separator + "hsmBookkeeping.rlp";
+    }
+
+    @Override
+    public String getPegDirectoryPath() {
+        return pegDirectoryPath;
+    }
+
+    @Override
+    public String getFilePath() {
+        return filePath;
+    }
+}
@@ -29,4 +29,11 @@ public interface JsonRpcClientProvider {
     JsonRpcClient acquire() throws JsonRpcException;
 
     boolean release(JsonRpcClient client);
+
+    /**
+     * @return true if the provided clients accept many outstanding requests at the same time
+     */
+    default boolean isPipelined() {
+        return false;
+    }
 }
@@ -0,0 +1,91 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.rpc;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Jackson instances shared by everything that talks JSON-RPC.
+ *
+ * ObjectMapper and JsonNodeFactory are thread safe once configured, and
+ * generators and parsers created from the same factory recycle their buffers,
+ * so there's no reason to build new ones per request.
+ * Generators and parsers never close the streams they are bound to.
+ */
+public final class JsonRpcMapper {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    static {
+        objectMapper.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        objectMapper.getFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    }
+
+    private JsonRpcMapper() {
+    }
+
+    public static ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    public static JsonNodeFactory getNodeFactory() {
+        return JsonNodeFactory.instance;
+    }
+
+    public static ObjectNode createObjectNode() {
+        return getNodeFactory().objectNode();
+    }
+
+    public static ArrayNode createArrayNode() {
+        return getNodeFactory().arrayNode();
+    }
+
+    /**
+     * @return a generator that writes straight into the given stream
+     */
+    public static JsonGenerator createGenerator(OutputStream os, Charset charset) throws IOException {
+        JsonFactory factory = objectMapper.getFactory();
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            return factory.createGenerator(os, JsonEncoding.UTF8);
+        }
+        return factory.createGenerator(new OutputStreamWriter(os, charset));
+    }
+
+    /**
+     * @return a parser that reads consecutive responses straight from the given stream.
+     * It may read ahead, so it has to be kept for as long as the stream is used.
+     * Creating it already reads from the stream to detect the encoding.
+     */
+    public static JsonParser createParser(InputStream is) throws IOException {
+        return objectMapper.getFactory().createParser(is);
+    }
+}
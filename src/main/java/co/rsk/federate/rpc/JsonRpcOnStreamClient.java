@@ -18,10 +18,11 @@
 
 package co.rsk.federate.rpc;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
 
 import java.io.*;
 import java.net.Socket;
@@ -34,13 +35,18 @@ import java.nio.charset.StandardCharsets;
  * Requests are assumed to be delimited by
  * newlines.
  *
+ * Requests are generated and responses parsed
+ * straight on the streams, without going through strings.
+ *
  * @author Ariel Mendelzon
  */
 public class JsonRpcOnStreamClient implements JsonRpcClient {
-    private final BufferedWriter output;
-    private final BufferedReader input;
+    private final TrafficCountingStreams.Output output;
+    private final TrafficCountingStreams.Input input;
+    private final Charset charset;
     private final ObjectMapper mapper;
-    private final ObjectWriter writer;
+    // Created on the first response, it reads ahead so it lives as long as the stream
+    private JsonParser parser;
 
     public static JsonRpcOnStreamClient fromSocket(Socket socket) throws JsonRpcException {
         try {
@@ -51,46 +57,45 @@ public class JsonRpcOnStreamClient implements JsonRpcClient {
     }
 
     public JsonRpcOnStreamClient(InputStream is, OutputStream os, Charset charset) {
-        this.input = new BufferedReader(new InputStreamReader(is, charset));
-        this.output = new BufferedWriter(new OutputStreamWriter(os, charset));
-        this.mapper = new ObjectMapper();
-        this.writer = mapper.writer();
+        this.input = new TrafficCountingStreams.Input(is);
+        this.output = new TrafficCountingStreams.Output(os);
+        this.charset = charset;
+        this.mapper = JsonRpcMapper.getObjectMapper();
     }
 
-    public JsonNode send(JsonNode request) throws JsonRpcException {
-        String serializedRequest;
-        try {
-            serializedRequest = serialize(request);
-        } catch (JsonProcessingException e) {
-            throw new JsonRpcException(String.format("There was an error trying to serialize request: %s", trimMessage(request.toString())), e);
-        }
-
-        try {
-            output.write(serializedRequest);
-            output.write("\n");
-            output.flush();
-        } catch (IOException e) {
-            throw new JsonRpcException(String.format("There was an error trying to send request: %s", trimMessage(serializedRequest)), e);
-        }
+    public void setTrafficCounter(JsonRpcTrafficCounter trafficCounter) {
+        this.input.setTrafficCounter(trafficCounter);
+        this.output.setTrafficCounter(trafficCounter);
+    }
 
-        String response;
-        try {
-            response = input.readLine();
+    public JsonNode send(JsonNode request) throws JsonRpcException {
+        try (JsonGenerator generator = JsonRpcMapper.createGenerator(output, charset)) {
+            try {
+                mapper.writeTree(generator, request);
+            } catch (JsonProcessingException e) {
+                throw new JsonRpcException(String.format("There was an error trying to serialize request: %s", trimMessage(request.toString())), e);
+            }
+            generator.writeRaw('\n');
+            generator.flush();
         } catch (IOException e) {
-            throw new JsonRpcException(String.format("There was an error while trying to read the response to request: %s", trimMessage(serializedRequest)), e);
+            throw new JsonRpcException(String.format("There was an error trying to send request: %s", trimMessage(request.toString())), e);
         }
 
         try {
-            return mapper.readTree(response);
+            if (parser == null) {
+                parser = JsonRpcMapper.createParser(input);
+            }
+            if (parser.nextToken() == null) {
+                throw new JsonRpcConnectionClosedException(String.format("Connection closed before getting the response to request: %s", trimMessage(request.toString())));
+            }
+            return mapper.readTree(parser);
+        } catch (JsonProcessingException e) {
+            throw new JsonRpcException(String.format("There was an error while trying to parse the response to request: %s", trimMessage(request.toString())), e);
         } catch (IOException e) {
-            throw new JsonRpcException(String.format("There was an error while trying to parse the response to request: %s, %s", trimMessage(serializedRequest), response), e);
+            throw new JsonRpcException(String.format("There was an error while trying to read the response to request: %s", trimMessage(request.toString())), e);
         }
     }
 
-    private String serialize(JsonNode request) throws JsonProcessingException {
-        return writer.writeValueAsString(request);
-    }
-
     private String trimMessage(String message) {
         return message.substring(0, Math.min(message.length(), 1_000));
     }
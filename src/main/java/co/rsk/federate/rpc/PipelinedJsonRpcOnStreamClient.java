@@ -0,0 +1,224 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.rpc;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JSON-RPC client implementation that works
+ * over given input/output streams, without waiting
+ * for a response before sending the next request.
+ * Requests and responses are assumed to be delimited by
+ * newlines.
+ *
+ * Every request is tagged with an "id" field. A reader thread
+ * matches each response to its request by that same field or,
+ * for services that don't echo it back, by order of arrival.
+ * Any read error fails every outstanding request and closes the client.
+ */
+public class PipelinedJsonRpcOnStreamClient implements PipelinedJsonRpcClient {
+    private static final Logger logger = LoggerFactory.getLogger(PipelinedJsonRpcOnStreamClient.class);
+    private static final String ID_FIELD = "id";
+
+    private final TrafficCountingStreams.Output output;
+    private final TrafficCountingStreams.Input input;
+    private final Charset charset;
+    private final ObjectMapper mapper;
+    private final long responseTimeout;
+    private final Object writeLock = new Object();
+    // In the order they were written
+    private final Map<Long, CompletableFuture<JsonNode>> pendingRequests;
+
+    private long nextId;
+    private volatile boolean closed;
+    private Thread reader;
+
+    public PipelinedJsonRpcOnStreamClient(InputStream is, OutputStream os, Charset charset, long responseTimeout) {
+        this.input = new TrafficCountingStreams.Input(is);
+        this.output = new TrafficCountingStreams.Output(os);
+        this.charset = charset;
+        this.mapper = JsonRpcMapper.getObjectMapper();
+        this.responseTimeout = responseTimeout;
+        this.pendingRequests = new LinkedHashMap<>();
+    }
+
+    public void setTrafficCounter(JsonRpcTrafficCounter trafficCounter) {
+        this.input.setTrafficCounter(trafficCounter);
+        this.output.setTrafficCounter(trafficCounter);
+    }
+
+    public synchronized void start() {
+        if (reader != null) {
+            return;
+        }
+        reader = new Thread(this::readResponses, "PipelinedJsonRpcOnStreamClient-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public JsonNode send(JsonNode request) throws JsonRpcException {
+        CompletableFuture<JsonNode> response = sendAsync(request);
+        try {
+            return response.get(responseTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            response.cancel(false);
+            throw new JsonRpcException(String.format("No response after %d ms to request: %s", responseTimeout, trimMessage(request.toString())), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JsonRpcException(String.format("Interrupted while waiting the response to request: %s", trimMessage(request.toString())), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof JsonRpcException) {
+                throw (JsonRpcException) e.getCause();
+            }
+            throw new JsonRpcException(String.format("There was an error while trying to get the response to request: %s", trimMessage(request.toString())), e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<JsonNode> sendAsync(JsonNode request) {
+        CompletableFuture<JsonNode> response = new CompletableFuture<>();
+        synchronized (writeLock) {
+            if (closed) {
+                response.completeExceptionally(new JsonRpcException("Client is closed", null));
+                return response;
+            }
+
+            long id = nextId++;
+            ObjectNode taggedRequest = ((ObjectNode) request).deepCopy();
+            taggedRequest.put(ID_FIELD, id);
+
+            synchronized (pendingRequests) {
+                pendingRequests.put(id, response);
+            }
+            try (JsonGenerator generator = JsonRpcMapper.createGenerator(output, charset)) {
+                mapper.writeTree(generator, taggedRequest);
+                generator.writeRaw('\n');
+                generator.flush();
+            } catch (IOException e) {
+                // Whatever made it to the stream can't be taken back
+                close(new JsonRpcException(String.format("There was an error trying to send request: %s", trimMessage(request.toString())), e));
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getPendingRequests() {
+        synchronized (pendingRequests) {
+            return pendingRequests.size();
+        }
+    }
+
+    public void close() {
+        close(new JsonRpcException("Client was closed", null));
+    }
+
+    private void readResponses() {
+        JsonParser parser;
+        try {
+            parser = JsonRpcMapper.createParser(input);
+        } catch (IOException e) {
+            close(new JsonRpcException("There was an error while trying to read a response", e));
+            return;
+        }
+
+        while (!closed) {
+            JsonNode response;
+            try {
+                if (parser.nextToken() == null) {
+                    close(new JsonRpcException("Connection closed by the service", null));
+                    return;
+                }
+                response = mapper.readTree(parser);
+            } catch (JsonProcessingException e) {
+                // Can't tell which request this was for, so the rest of the stream can't be trusted
+                close(new JsonRpcException("There was an error while trying to parse a response", e));
+                return;
+            } catch (IOException e) {
+                close(new JsonRpcException("There was an error while trying to read a response", e));
+                return;
+            }
+
+            CompletableFuture<JsonNode> pendingRequest = takePendingRequest(response);
+            if (pendingRequest == null) {
+                logger.warn("[readResponses] Discarding unexpected response {}", trimMessage(response.toString()));
+                continue;
+            }
+            pendingRequest.complete(response);
+        }
+    }
+
+    private CompletableFuture<JsonNode> takePendingRequest(JsonNode response) {
+        synchronized (pendingRequests) {
+            if (response.isObject() && response.has(ID_FIELD)) {
+                JsonNode id = ((ObjectNode) response).remove(ID_FIELD);
+                return pendingRequests.remove(id.asLong());
+            }
+            // Service doesn't echo ids, responses come in the same order than requests
+            Iterator<CompletableFuture<JsonNode>> iterator = pendingRequests.values().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            CompletableFuture<JsonNode> oldestRequest = iterator.next();
+            iterator.remove();
+            return oldestRequest;
+        }
+    }
+
+    private void close(JsonRpcException reason) {
+        closed = true;
+        List<CompletableFuture<JsonNode>> failedRequests;
+        synchronized (pendingRequests) {
+            failedRequests = new ArrayList<>(pendingRequests.values());
+            pendingRequests.clear();
+        }
+        for (CompletableFuture<JsonNode> failedRequest : failedRequests) {
+            failedRequest.completeExceptionally(reason);
+        }
+        logger.debug("[close] {} outstanding requests failed. Reason: {}", failedRequests.size(), reason.getMessage());
+    }
+
+    private String trimMessage(String message) {
+        return message.substring(0, Math.min(message.length(), 1_000));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.rpc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Provides a single pipelined JsonRpcClient
+ * towards a JSON-RPC service running over
+ * a socket on a specific server.
+ *
+ * Every acquirer gets the same client, so their requests
+ * share the connection. The connection is kept open when released,
+ * and reopened on the next acquire once it breaks.
+ */
+public class PipelinedSocketBasedJsonRpcClientProvider extends SocketBasedJsonRpcClientProvider {
+    private Socket socket;
+    private PipelinedJsonRpcOnStreamClient client;
+
+    public static PipelinedSocketBasedJsonRpcClientProvider fromHostPort(String host, int port) {
+        return new PipelinedSocketBasedJsonRpcClientProvider(new InetSocketAddress(host, port));
+    }
+
+    public PipelinedSocketBasedJsonRpcClientProvider(SocketAddress address) {
+        super(address);
+    }
+
+    @Override
+    public synchronized JsonRpcClient acquire() throws JsonRpcException {
+        if (client != null && !client.isClosed()) {
+            return client;
+        }
+        if (socket != null) {
+            closeQuietly(socket);
+        }
+
+        socket = connect();
+        try {
+            // The reader waits for responses with no time limit, the client enforces the timeout per request
+            socket.setSoTimeout(0);
+            socket.setKeepAlive(true);
+            client = new PipelinedJsonRpcOnStreamClient(
+                socket.getInputStream(),
+                socket.getOutputStream(),
+                StandardCharsets.UTF_8,
+                getSocketTimeout()
+            );
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw new JsonRpcException(String.format("Unable to gather streams from socket %s", socket), e);
+        }
+        if (getTrafficCounter() != null) {
+            client.setTrafficCounter(getTrafficCounter());
+        }
+        client.start();
+        return client;
+    }
+
+    @Override
+    public synchronized boolean release(JsonRpcClient client) {
+        if (client == null || client != this.client) {
+            return false;
+        }
+        if (this.client.isClosed()) {
+            closeQuietly(socket);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isPipelined() {
+        return true;
+    }
+
+    public synchronized void close() {
+        if (client != null) {
+            client.close();
+        }
+        if (socket != null) {
+            closeQuietly(socket);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.rpc;
+
+import co.rsk.federate.util.CurrentTimeProvider;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides instances of JsonRpcClient
+ * towards a JSON-RPC service running over
+ * a socket on a specific server, keeping
+ * the connections open between requests.
+ *
+ * Released clients go back to the pool (up to maxPoolSize of them)
+ * instead of having their socket closed. Clients whose last request
+ * didn't complete are never pooled, and pooled connections are checked
+ * before being handed out again. Broken or expired connections are just
+ * closed and replaced by new ones.
+ *
+ * The service can still close a pooled connection right after it's checked.
+ * If it turns out closed before any byte of the response to the first request
+ * sent after borrowing it, that request is sent once more on a new connection.
+ */
+public class PooledSocketBasedJsonRpcClientProvider extends SocketBasedJsonRpcClientProvider {
+    private static final Logger logger = LoggerFactory.getLogger(PooledSocketBasedJsonRpcClientProvider.class);
+
+    private static final int HEALTH_CHECK_READ_TIMEOUT = 1;
+
+    private final CurrentTimeProvider currentTimeProvider;
+    private final Deque<PooledConnection> idleConnections;
+    private final Map<JsonRpcClient, PooledConnection> activeConnections;
+
+    private int maxPoolSize = 2;
+    private long maxIdleTime = 60_000;
+
+    private final AtomicLong createdConnections = new AtomicLong();
+    private final AtomicLong reusedConnections = new AtomicLong();
+    private final AtomicLong discardedConnections = new AtomicLong();
+    private final AtomicLong evictedConnections = new AtomicLong();
+
+    public static PooledSocketBasedJsonRpcClientProvider fromHostPort(String host, int port) {
+        return new PooledSocketBasedJsonRpcClientProvider(new InetSocketAddress(host, port));
+    }
+
+    public PooledSocketBasedJsonRpcClientProvider(SocketAddress address) {
+        this(address, System::currentTimeMillis);
+    }
+
+    public PooledSocketBasedJsonRpcClientProvider(SocketAddress address, CurrentTimeProvider currentTimeProvider) {
+        super(address);
+        this.currentTimeProvider = currentTimeProvider;
+        this.idleConnections = new ArrayDeque<>();
+        this.activeConnections = new ConcurrentHashMap<>();
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public void setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    @Override
+    public JsonRpcClient acquire() throws JsonRpcException {
+        PooledConnection connection = borrowIdleConnection();
+        if (connection == null) {
+            connection = new PooledConnection();
+            connect(connection);
+        } else {
+            connection.reused = true;
+            reusedConnections.incrementAndGet();
+        }
+
+        activeConnections.put(connection.client, connection);
+        return connection.client;
+    }
+
+    @Override
+    public boolean release(JsonRpcClient client) {
+        if (client == null) {
+            return false;
+        }
+        PooledConnection connection = activeConnections.remove(client);
+        if (connection == null) {
+            return false;
+        }
+
+        if (connection.broken) {
+            discard(connection);
+            return true;
+        }
+
+        connection.lastUsed = currentTimeProvider.currentTimeMillis();
+        synchronized (idleConnections) {
+            if (idleConnections.size() < maxPoolSize) {
+                // Most recently used first, so that the older ones get to expire
+                idleConnections.addFirst(connection);
+                return true;
+            }
+        }
+        closeQuietly(connection.socket);
+        return true;
+    }
+
+    /**
+     * Closes the pooled connections that stayed idle for longer than the max idle time
+     */
+    public void evictIdleConnections() {
+        long now = currentTimeProvider.currentTimeMillis();
+        synchronized (idleConnections) {
+            Iterator<PooledConnection> iterator = idleConnections.iterator();
+            while (iterator.hasNext()) {
+                PooledConnection connection = iterator.next();
+                if (now - connection.lastUsed > maxIdleTime) {
+                    iterator.remove();
+                    closeQuietly(connection.socket);
+                    evictedConnections.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes every pooled connection. Clients in use are closed once released.
+     */
+    public void close() {
+        synchronized (idleConnections) {
+            for (PooledConnection connection : idleConnections) {
+                closeQuietly(connection.socket);
+            }
+            idleConnections.clear();
+        }
+        maxPoolSize = 0;
+    }
+
+    public int getIdleConnections() {
+        synchronized (idleConnections) {
+            return idleConnections.size();
+        }
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.size();
+    }
+
+    public long getCreatedConnections() {
+        return createdConnections.get();
+    }
+
+    public long getReusedConnections() {
+        return reusedConnections.get();
+    }
+
+    public long getDiscardedConnections() {
+        return discardedConnections.get();
+    }
+
+    public long getEvictedConnections() {
+        return evictedConnections.get();
+    }
+
+    private void connect(PooledConnection connection) throws JsonRpcException {
+        Socket socket = connect();
+        try {
+            socket.setKeepAlive(true);
+        } catch (IOException e) {
+            logger.debug("[connect] Unable to enable keep alive on socket {}", socket);
+        }
+        connection.socket = socket;
+        connection.streamClient = createStreamClient(socket);
+        createdConnections.incrementAndGet();
+    }
+
+    private PooledConnection borrowIdleConnection() {
+        evictIdleConnections();
+        while (true) {
+            PooledConnection connection;
+            synchronized (idleConnections) {
+                connection = idleConnections.pollFirst();
+            }
+            if (connection == null) {
+                return null;
+            }
+            if (isHealthy(connection)) {
+                return connection;
+            }
+            logger.debug("[borrowIdleConnection] Replacing broken connection {}", connection.socket);
+            discard(connection);
+        }
+    }
+
+    private boolean isHealthy(PooledConnection connection) {
+        Socket socket = connection.socket;
+        if (socket.isClosed() || !socket.isConnected() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+
+        // Nothing is expected from the service between requests. End of stream means it
+        // closed the connection and leftover data means the stream is out of sync.
+        try {
+            InputStream inputStream = socket.getInputStream();
+            if (inputStream.available() > 0) {
+                return false;
+            }
+            socket.setSoTimeout(HEALTH_CHECK_READ_TIMEOUT);
+            try {
+                inputStream.read();
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                socket.setSoTimeout(getSocketTimeout());
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection connection) {
+        closeQuietly(connection.socket);
+        discardedConnections.incrementAndGet();
+    }
+
+    private class PooledConnection {
+        private final JsonRpcClient client;
+        // Only replaced by the thread using the client, before it's released
+        private Socket socket;
+        private JsonRpcClient streamClient;
+        private volatile boolean broken;
+        // Taken from the pool and not used since
+        private volatile boolean reused;
+        private long lastUsed;
+
+        private PooledConnection() {
+            this.client = new PooledClient(this);
+        }
+    }
+
+    private class PooledClient implements JsonRpcClient {
+        private final PooledConnection connection;
+
+        private PooledClient(PooledConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public JsonNode send(JsonNode request) throws JsonRpcException {
+            boolean reused = connection.reused;
+            connection.reused = false;
+            // Until the response is read the stream can't be used for another request
+            connection.broken = true;
+            JsonNode response;
+            try {
+                response = connection.streamClient.send(request);
+            } catch (JsonRpcConnectionClosedException e) {
+                if (!reused) {
+                    throw e;
+                }
+                // Closed by the service while it was pooled, the request never got to it
+                logger.debug("[send] Pooled connection {} was closed by the service, sending again on a new one", connection.socket);
+                discard(connection);
+                connect(connection);
+                response = connection.streamClient.send(request);
+            }
+            connection.broken = response == null;
+            return response;
+        }
+    }
+}
@@ -22,8 +22,8 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Provides instances of JsonRpcClient
@@ -38,6 +38,7 @@ public class SocketBasedJsonRpcClientProvider implements JsonRpcClientProvider {
     private int connectionTimeout = 1000;
     private int socketTimeout = 2000;
     private Map<JsonRpcClient, Socket> knownClients;
+    private JsonRpcTrafficCounter trafficCounter;
 
     public static SocketBasedJsonRpcClientProvider fromHostPort(String host, int port) {
         return new SocketBasedJsonRpcClientProvider(new InetSocketAddress(host, port));
@@ -45,7 +46,7 @@ public class SocketBasedJsonRpcClientProvider implements JsonRpcClientProvider {
 
     public SocketBasedJsonRpcClientProvider(SocketAddress address) {
         this.address = address;
-        this.knownClients = new HashMap<>();
+        this.knownClients = new ConcurrentHashMap<>();
     }
 
     public SocketAddress getAddress() {
@@ -76,7 +77,32 @@ public class SocketBasedJsonRpcClientProvider implements JsonRpcClientProvider {
         this.socketTimeout = socketTimeout;
     }
 
+    public JsonRpcTrafficCounter getTrafficCounter() {
+        return trafficCounter;
+    }
+
+    public void setTrafficCounter(JsonRpcTrafficCounter trafficCounter) {
+        this.trafficCounter = trafficCounter;
+    }
+
     public JsonRpcClient acquire() throws JsonRpcException {
+        Socket socket = connect();
+        JsonRpcClient client = createStreamClient(socket);
+        knownClients.put(client, socket);
+        return client;
+    }
+
+    public boolean release(JsonRpcClient client) {
+        Socket socket = knownClients.remove(client);
+        if (socket == null) {
+            return false;
+        }
+
+        closeQuietly(socket);
+        return true;
+    }
+
+    protected Socket connect() throws JsonRpcException {
         Socket socket = new Socket();
         int attempts = 0;
         while (true) {
@@ -91,25 +117,22 @@ public class SocketBasedJsonRpcClientProvider implements JsonRpcClientProvider {
                 }
             }
         }
-        JsonRpcClient client = JsonRpcOnStreamClient.fromSocket(socket);
-        knownClients.put(client, socket);
-        return client;
+        return socket;
     }
 
-    public boolean release(JsonRpcClient client) {
-        if (!knownClients.containsKey(client)) {
-            return false;
+    protected JsonRpcOnStreamClient createStreamClient(Socket socket) throws JsonRpcException {
+        JsonRpcOnStreamClient client = JsonRpcOnStreamClient.fromSocket(socket);
+        if (trafficCounter != null) {
+            client.setTrafficCounter(trafficCounter);
         }
+        return client;
+    }
 
-        Socket socket = knownClients.get(client);
-
+    protected void closeQuietly(Socket socket) {
         try {
             socket.close();
         } catch (IOException e) {
             // Just ignore, maybe log in the future
         }
-
-        knownClients.remove(client);
-        return true;
     }
 }
@@ -0,0 +1,103 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.rpc;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stream wrappers that report the bytes going through them
+ * to a JsonRpcTrafficCounter, once there is one.
+ */
+final class TrafficCountingStreams {
+    private TrafficCountingStreams() {
+    }
+
+    static class Input extends FilterInputStream {
+        private volatile JsonRpcTrafficCounter trafficCounter;
+
+        Input(InputStream in) {
+            super(in);
+        }
+
+        void setTrafficCounter(JsonRpcTrafficCounter trafficCounter) {
+            this.trafficCounter = trafficCounter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int bytes) {
+            JsonRpcTrafficCounter counter = trafficCounter;
+            if (counter != null) {
+                counter.addReceived(bytes);
+            }
+        }
+    }
+
+    static class Output extends FilterOutputStream {
+        private volatile JsonRpcTrafficCounter trafficCounter;
+
+        Output(OutputStream out) {
+            super(out);
+        }
+
+        void setTrafficCounter(JsonRpcTrafficCounter trafficCounter) {
+            this.trafficCounter = trafficCounter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // FilterOutputStream would go byte by byte
+            out.write(b, off, len);
+            count(len);
+        }
+
+        private void count(int bytes) {
+            JsonRpcTrafficCounter counter = trafficCounter;
+            if (counter != null) {
+                counter.addSent(bytes);
+            }
+        }
+    }
+}
@@ -2,7 +2,10 @@ package co.rsk.federate.rpc;
 
 import co.rsk.config.RskSystemProperties;
 import co.rsk.core.NetworkStateExporter;
+import co.rsk.federate.BridgeCallCache;
 import co.rsk.federate.BtcToRskClient;
+import co.rsk.federate.btcreleaseclient.ReleaseSigningMetrics;
+import co.rsk.federate.signing.hsm.client.HSMProtocolMetrics;
 import co.rsk.logfilter.BlocksBloomStore;
 import co.rsk.metrics.HashRateCalculator;
 import co.rsk.mine.MinerClient;
@@ -29,10 +32,15 @@ import org.ethereum.net.server.ChannelManager;
 import org.ethereum.net.server.PeerServer;
 import org.ethereum.util.BuildInfo;
 
+import java.util.Map;
+
 public class Web3FederateImpl extends Web3RskImpl {
 
     private final BtcToRskClient btcToRskClientActive;
     private final BtcToRskClient btcToRskClientRetiring;
+    private final HSMProtocolMetrics hsmProtocolMetrics;
+    private final BridgeCallCache bridgeCallCache;
+    private final ReleaseSigningMetrics releaseSigningMetrics;
 
     public Web3FederateImpl(
             Ethereum eth,
@@ -50,6 +58,9 @@ public class Web3FederateImpl extends Web3RskImpl {
             RskModule rskModule,
             BtcToRskClient btcToRskClientActive,
             BtcToRskClient btcToRskClientRetiring,
+            HSMProtocolMetrics hsmProtocolMetrics,
+            BridgeCallCache bridgeCallCache,
+            ReleaseSigningMetrics releaseSigningMetrics,
             ChannelManager channelManager,
             PeerScoringManager peerScoringManager,
             NetworkStateExporter networkStateExporter,
@@ -93,10 +104,25 @@ public class Web3FederateImpl extends Web3RskImpl {
         );
         this.btcToRskClientActive = btcToRskClientActive;
         this.btcToRskClientRetiring = btcToRskClientRetiring;
+        this.hsmProtocolMetrics = hsmProtocolMetrics;
+        this.bridgeCallCache = bridgeCallCache;
+        this.releaseSigningMetrics = releaseSigningMetrics;
     }
 
     public void fed_updateBridge() {
         btcToRskClientActive.updateBridge();
         btcToRskClientRetiring.updateBridge();
     }
+
+    public Map<String, Object> fed_hsmMetrics() {
+        return hsmProtocolMetrics.toMap();
+    }
+
+    public Map<String, Object> fed_bridgeCallMetrics() {
+        return bridgeCallCache.toMap();
+    }
+
+    public Map<String, Object> fed_releaseSigningMetrics() {
+        return releaseSigningMetrics.toMap();
+    }
 }
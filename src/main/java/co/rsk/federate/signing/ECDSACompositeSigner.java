@@ -26,6 +26,10 @@ import org.ethereum.crypto.ECKey;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 /**
@@ -34,7 +38,8 @@ import java.util.stream.Collectors;
  * definition order and signs with the first
  * that can sign with the given key id.
  *
- * Has the sum of requirements of its components.
+ * Has the sum of requirements of its components,
+ * which are checked all at the same time.
  *
  * @author Ariel Mendelzon
  */
@@ -65,11 +70,29 @@ public class ECDSACompositeSigner implements ECDSASigner {
 
     @Override
     public ECDSASignerCheckResult check() {
-        List<String> messages = signers.stream()
-                .flatMap(s -> s.check().getMessages().stream())
-                .collect(Collectors.toList());
+        if (signers.isEmpty()) {
+            return new ECDSASignerCheckResult(new ArrayList<>());
+        }
 
-        return new ECDSASignerCheckResult(messages);
+        // Checks mostly wait for HSMs to answer, and each signer may have its own HSM
+        ExecutorService executor = Executors.newFixedThreadPool(signers.size(), runnable -> {
+            Thread thread = new Thread(runnable, "ECDSACompositeSigner-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<CompletableFuture<ECDSASignerCheckResult>> checks = signers.stream()
+                    .map(s -> CompletableFuture.supplyAsync(s::check, executor))
+                    .collect(Collectors.toList());
+
+            List<String> messages = new ArrayList<>();
+            for (CompletableFuture<ECDSASignerCheckResult> check : checks) {
+                messages.addAll(join(check).getMessages());
+            }
+            return new ECDSASignerCheckResult(messages);
+        } finally {
+            executor.shutdown();
+        }
     }
 
     @Override
@@ -87,6 +110,11 @@ public class ECDSACompositeSigner implements ECDSASigner {
         return findSignerFor(keyId).sign(keyId, message);
     }
 
+    @Override
+    public List<ECKey.ECDSASignature> signBatch(KeyId keyId, List<SignerMessage> messages) throws SignerException {
+        return findSignerFor(keyId).signBatch(keyId, messages);
+    }
+
     @Override
     public String getVersionString() {
         return "Composite Signer Versions: " + signers.stream().map(signer-> getSignerVersion(signer)).collect(Collectors.joining( "," ) );
@@ -100,6 +128,17 @@ public class ECDSACompositeSigner implements ECDSASigner {
         }
     }
 
+    private ECDSASignerCheckResult join(CompletableFuture<ECDSASignerCheckResult> check) {
+        try {
+            return check.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
     private ECDSASigner findSignerFor(KeyId keyId) throws SignerException {
         Optional<ECDSASigner> signer = signers.stream().filter(sig -> sig.canSignWith(keyId)).findFirst();
 
@@ -83,7 +83,7 @@ public class ECDSAHSMSigner implements ECDSASigner {
             return new ECDSASignerCheckResult(Collections.singletonList("HSM "+ keysIds + " Signer: " + e.getMessage()));
         }
 
-        // Make sure all public keys are retrievable
+        // Make sure all public keys are retrievable. They stay cached in the client afterwards.
         List<String> messages = new LinkedList<>();
 
         for (Map.Entry<KeyId, String> mapping : keyIdMapping.entrySet()) {
@@ -129,6 +129,14 @@ public class ECDSAHSMSigner implements ECDSASigner {
         });
     }
 
+    @Override
+    public List<ECKey.ECDSASignature> signBatch(KeyId keyId, List<SignerMessage> messages) throws SignerException {
+        return invokeWithVersionRetry(keyId, client1 -> {
+            List<HSMSignature> signatures = client1.signBatch(keyIdMapping.get(keyId), messages);
+            return signatures.stream().map(HSMSignature::toEthSignature).collect(Collectors.toList());
+        });
+    }
+
     @Override
     public String getVersionString() throws SignerException {
         String keysIds = keyIdMapping.keySet().stream().map(keyId -> keyId.toString()).collect(Collectors.joining(", "));
@@ -145,7 +153,7 @@ public class ECDSAHSMSigner implements ECDSASigner {
         return this.client;
     }
 
-    private void ensureHsmClient() throws HSMClientException {
+    private synchronized void ensureHsmClient() throws HSMClientException {
         if (client == null) {
             client = clientProvider.getClient();
         }
@@ -23,6 +23,7 @@ import co.rsk.federate.signing.hsm.SignerException;
 import co.rsk.federate.signing.hsm.message.SignerMessage;
 import org.ethereum.crypto.ECKey;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -44,6 +45,20 @@ public interface ECDSASigner extends UnrecoverableErrorEventDispatcher {
 
     ECKey.ECDSASignature sign(KeyId keyId, SignerMessage message) throws SignerException;
 
+    /**
+     * Signs every message with the given key.
+     * Messages are expected to belong to the same transaction,
+     * implementors may take advantage of that to sign them all at once.
+     * Signatures are returned in the same order as the messages.
+     */
+    default List<ECKey.ECDSASignature> signBatch(KeyId keyId, List<SignerMessage> messages) throws SignerException {
+        List<ECKey.ECDSASignature> signatures = new ArrayList<>(messages.size());
+        for (SignerMessage message : messages) {
+            signatures.add(sign(keyId, message));
+        }
+        return signatures;
+    }
+
     String getVersionString() throws SignerException;
 
     class ECDSASignerCheckResult {
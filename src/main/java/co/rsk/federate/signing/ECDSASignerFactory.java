@@ -19,10 +19,16 @@
 package co.rsk.federate.signing;
 
 import co.rsk.federate.config.SignerConfig;
+import co.rsk.federate.rpc.PipelinedSocketBasedJsonRpcClientProvider;
+import co.rsk.federate.rpc.PooledSocketBasedJsonRpcClientProvider;
 import co.rsk.federate.rpc.SocketBasedJsonRpcClientProvider;
 import co.rsk.federate.signing.hsm.SignerException;
+import co.rsk.federate.signing.hsm.client.HSMCircuitBreaker;
 import co.rsk.federate.signing.hsm.client.HSMClientProtocol;
 import co.rsk.federate.signing.hsm.client.HSMClientProvider;
+import co.rsk.federate.signing.hsm.client.HSMProtocolMetrics;
+import co.rsk.federate.signing.hsm.client.HSMRequestExecutor;
+import co.rsk.federate.signing.hsm.client.HSMRequestPriority;
 
 import java.net.InetSocketAddress;
 
@@ -35,6 +41,18 @@ public class ECDSASignerFactory {
     public static final int DEFAULT_SOCKET_TIMEOUT = 10_000;
     public static final int DEFAULT_ATTEMPTS = 2;
     public static final int DEFAULT_INTERVAL = 1000;
+    public static final int DEFAULT_SOCKET_POOL_SIZE = 2;
+    public static final int DEFAULT_SOCKET_MAX_IDLE_TIME = 60_000;
+
+    private final HSMProtocolMetrics hsmProtocolMetrics;
+
+    public ECDSASignerFactory() {
+        this(new HSMProtocolMetrics());
+    }
+
+    public ECDSASignerFactory(HSMProtocolMetrics hsmProtocolMetrics) {
+        this.hsmProtocolMetrics = hsmProtocolMetrics;
+    }
 
     public ECDSASigner buildFromConfig(SignerConfig config) throws SignerException {
         if (config == null) {
@@ -56,11 +74,48 @@ public class ECDSASignerFactory {
                 int socketTimeout = config.getConfig().hasPath("socketTimeout") ? config.getConfig().getInt("socketTimeout") : DEFAULT_SOCKET_TIMEOUT;
                 int maxAttempts = config.getConfig().hasPath("maxAttempts") ? config.getConfig().getInt("maxAttempts") : DEFAULT_ATTEMPTS;
                 int intervalBetweenAttempts = config.getConfig().hasPath("intervalBetweenAttempts") ? config.getConfig().getInt("intervalBetweenAttempts") : DEFAULT_INTERVAL;
+                int socketPoolSize = config.getConfig().hasPath("socketPoolSize") ? config.getConfig().getInt("socketPoolSize") : DEFAULT_SOCKET_POOL_SIZE;
+                int socketMaxIdleTime = config.getConfig().hasPath("socketMaxIdleTime") ? config.getConfig().getInt("socketMaxIdleTime") : DEFAULT_SOCKET_MAX_IDLE_TIME;
+                long signingRequestTimeout = config.getConfig().hasPath("signingRequestTimeout") ? config.getConfig().getLong("signingRequestTimeout") : HSMClientProtocol.DEFAULT_SIGNING_REQUEST_TIMEOUT;
+                long bookkeepingRequestTimeout = config.getConfig().hasPath("bookkeepingRequestTimeout") ? config.getConfig().getLong("bookkeepingRequestTimeout") : HSMClientProtocol.DEFAULT_BOOKKEEPING_REQUEST_TIMEOUT;
+                long maxIntervalBetweenAttempts = config.getConfig().hasPath("maxIntervalBetweenAttempts") ? config.getConfig().getLong("maxIntervalBetweenAttempts") : Math.max(intervalBetweenAttempts, HSMClientProtocol.DEFAULT_MAX_WAIT_TIME_FOR_RECONNECTION);
+                int circuitBreakerThreshold = config.getConfig().hasPath("circuitBreakerThreshold") ? config.getConfig().getInt("circuitBreakerThreshold") : HSMCircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+                long circuitBreakerOpenTime = config.getConfig().hasPath("circuitBreakerOpenTime") ? config.getConfig().getLong("circuitBreakerOpenTime") : HSMCircuitBreaker.DEFAULT_OPEN_TIME;
+                boolean pipelined = config.getConfig().hasPath("pipelined") && config.getConfig().getBoolean("pipelined");
+                boolean socketPooling = config.getConfig().hasPath("socketPooling") && config.getConfig().getBoolean("socketPooling");
 
                 // Build the signer
-                SocketBasedJsonRpcClientProvider socketRpcClientProvider = new SocketBasedJsonRpcClientProvider(hsmAddress);
+                SocketBasedJsonRpcClientProvider socketRpcClientProvider;
+                if (pipelined) {
+                    // Only for gateways that accept a new request before answering the previous one
+                    socketRpcClientProvider = new PipelinedSocketBasedJsonRpcClientProvider(hsmAddress);
+                } else if (socketPooling) {
+                    // Only for gateways that keep the connection open after answering
+                    PooledSocketBasedJsonRpcClientProvider pooledRpcClientProvider = new PooledSocketBasedJsonRpcClientProvider(hsmAddress);
+                    pooledRpcClientProvider.setMaxPoolSize(socketPoolSize);
+                    pooledRpcClientProvider.setMaxIdleTime(socketMaxIdleTime);
+                    socketRpcClientProvider = pooledRpcClientProvider;
+                } else {
+                    socketRpcClientProvider = new SocketBasedJsonRpcClientProvider(hsmAddress);
+                }
                 socketRpcClientProvider.setSocketTimeout(socketTimeout);
-                HSMClientProtocol hsmClientProtocol = new HSMClientProtocol(socketRpcClientProvider, maxAttempts, intervalBetweenAttempts);
+                socketRpcClientProvider.setTrafficCounter(hsmProtocolMetrics.getTrafficCounter());
+                // Signers configured towards the same HSM share its request queue
+                HSMClientProtocol hsmClientProtocol = new HSMClientProtocol(
+                    socketRpcClientProvider,
+                    maxAttempts,
+                    intervalBetweenAttempts,
+                    HSMRequestExecutor.forEndpoint(hsmAddress)
+                );
+                hsmClientProtocol.setRequestTimeout(HSMRequestPriority.SIGNING, signingRequestTimeout);
+                hsmClientProtocol.setRequestTimeout(HSMRequestPriority.BOOKKEEPING, bookkeepingRequestTimeout);
+                hsmClientProtocol.setMetrics(hsmProtocolMetrics);
+                hsmClientProtocol.setMaxWaitTimeForReconnection(maxIntervalBetweenAttempts);
+                // Once the HSM is known to be down, none of its signers keep trying
+                HSMCircuitBreaker circuitBreaker = HSMCircuitBreaker.forEndpoint(hsmAddress);
+                circuitBreaker.setFailureThreshold(circuitBreakerThreshold);
+                circuitBreaker.setOpenTime(circuitBreakerOpenTime);
+                hsmClientProtocol.setCircuitBreaker(circuitBreaker);
                 HSMClientProvider hsmClientProvider = new HSMClientProvider(hsmClientProtocol, config.getId());
                 ECDSAHSMSigner signer = new ECDSAHSMSigner(hsmClientProvider);
 
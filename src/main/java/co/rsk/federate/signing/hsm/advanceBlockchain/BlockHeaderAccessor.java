@@ -0,0 +1,106 @@
+package co.rsk.federate.signing.hsm.advanceblockchain;
+
+import co.rsk.crypto.Keccak256;
+import co.rsk.federate.signing.hsm.message.AdvanceBlockchainMessage;
+import co.rsk.federate.signing.hsm.message.UpdateAncestorBlockMessage;
+import co.rsk.util.MaxSizeHashMap;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.db.BlockStore;
+
+import java.util.Map;
+
+/**
+ * Gives the HSM bookkeeping and the ancestor updates access to block headers.
+ *
+ * The headers read are kept by block hash in a bounded cache, least recently used
+ * out first, so walking the same blocks again doesn't decode them again. A hash always
+ * identifies the same block, so cached headers never go stale. Which block is in the
+ * main chain at a given height can change though, so that is always read from the block store.
+ */
+public class BlockHeaderAccessor {
+    public static final int DEFAULT_CACHE_SIZE = 1_000;
+
+    private final BlockStore blockStore;
+    private final Map<Keccak256, CachedBlockHeader> headers;
+
+    public BlockHeaderAccessor(BlockStore blockStore) {
+        this(blockStore, DEFAULT_CACHE_SIZE);
+    }
+
+    public BlockHeaderAccessor(BlockStore blockStore, int cacheSize) {
+        this.blockStore = blockStore;
+        this.headers = new MaxSizeHashMap<>(cacheSize, true);
+    }
+
+    /**
+     * @return the header of the block with the given hash, or null if the block is unknown
+     */
+    public CachedBlockHeader getHeaderByHash(Keccak256 hash) {
+        CachedBlockHeader header = getCached(hash);
+        if (header != null) {
+            return header;
+        }
+        Block block = blockStore.getBlockByHash(hash.getBytes());
+        if (block == null) {
+            return null;
+        }
+        return cache(hash, block);
+    }
+
+    /**
+     * @return the header of the main chain block at the given height, or null if there is none yet
+     */
+    public CachedBlockHeader getChainHeaderByNumber(long number) {
+        Block block = blockStore.getChainBlockByNumber(number);
+        if (block == null) {
+            return null;
+        }
+        return cache(block.getHash(), block);
+    }
+
+    /**
+     * @return the height of the RSK best block, or -1 if there is none yet
+     */
+    public long getBestBlockNumber() {
+        Block bestBlock = blockStore.getBestBlock();
+        return bestBlock == null ? -1 : bestBlock.getNumber();
+    }
+
+    /**
+     * @return the header of a block already at hand
+     */
+    public CachedBlockHeader getHeader(Block block) {
+        return cache(block.getHash(), block);
+    }
+
+    public String encodeForAdvanceBlockchain(BlockHeader header) {
+        CachedBlockHeader cached = getCached(header.getHash());
+        return cached != null ? cached.getAdvanceBlockchainEncoding() : AdvanceBlockchainMessage.encode(header);
+    }
+
+    public String encodeForUpdateAncestor(BlockHeader header) {
+        CachedBlockHeader cached = getCached(header.getHash());
+        return cached != null ? cached.getUpdateAncestorEncoding() : UpdateAncestorBlockMessage.encode(header);
+    }
+
+    public int getCachedHeaders() {
+        synchronized (headers) {
+            return headers.size();
+        }
+    }
+
+    private CachedBlockHeader getCached(Keccak256 hash) {
+        // Lookups change the order of an access ordered map
+        synchronized (headers) {
+            return headers.get(hash);
+        }
+    }
+
+    private CachedBlockHeader cache(Keccak256 hash, Block block) {
+        synchronized (headers) {
+            // Keeps the one already cached, along with the encodings it may have
+            return headers.computeIfAbsent(hash, h -> new CachedBlockHeader(block));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package co.rsk.federate.signing.hsm.advanceblockchain;
+
+import co.rsk.core.BlockDifficulty;
+import co.rsk.crypto.Keccak256;
+import co.rsk.federate.signing.hsm.message.AdvanceBlockchainMessage;
+import co.rsk.federate.signing.hsm.message.UpdateAncestorBlockMessage;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+
+/**
+ * The header of a block, along with what the HSM bookkeeping reads from it.
+ * Its encodings for the HSM are worked out once, the first time they're needed.
+ */
+public class CachedBlockHeader {
+    private final BlockHeader header;
+    private final Keccak256 hash;
+    private final Keccak256 parentHash;
+    private final long number;
+    private final BlockDifficulty difficulty;
+
+    private volatile String advanceBlockchainEncoding;
+    private volatile String updateAncestorEncoding;
+
+    public CachedBlockHeader(Block block) {
+        this.header = block.getHeader();
+        this.hash = block.getHash();
+        this.parentHash = block.getParentHash();
+        this.number = block.getNumber();
+        this.difficulty = block.getDifficulty();
+    }
+
+    public BlockHeader getHeader() {
+        return header;
+    }
+
+    public Keccak256 getHash() {
+        return hash;
+    }
+
+    public Keccak256 getParentHash() {
+        return parentHash;
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public BlockDifficulty getDifficulty() {
+        return difficulty;
+    }
+
+    public String getAdvanceBlockchainEncoding() {
+        if (advanceBlockchainEncoding == null) {
+            advanceBlockchainEncoding = AdvanceBlockchainMessage.encode(header);
+        }
+        return advanceBlockchainEncoding;
+    }
+
+    public String getUpdateAncestorEncoding() {
+        if (updateAncestorEncoding == null) {
+            updateAncestorEncoding = UpdateAncestorBlockMessage.encode(header);
+        }
+        return updateAncestorEncoding;
+    }
+}
@@ -1,69 +1,168 @@
 package co.rsk.federate.signing.hsm.advanceblockchain;
 
 import co.rsk.crypto.Keccak256;
-import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeader;
 import org.ethereum.db.BlockStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 
+/**
+ * Finds the block headers confirmed by the accumulated difficulty of the blocks on top of them.
+ *
+ * The blocks read after the last confirmed one are kept in a window between calls, so when
+ * asked again from that same block only the blocks that arrived since then are read.
+ * Window blocks that left the main chain are dropped before reading new ones.
+ */
 public class ConfirmedBlockHeadersProvider {
     private static final Logger logger = LoggerFactory.getLogger(ConfirmedBlockHeadersProvider.class);
 
     private BigInteger minimumAccumulatedDifficulty;
     private final int maximumElementsToSendHSM;
-    private BlockStore blockStore;
+    private final BlockHeaderAccessor blockHeaderAccessor;
+
+    // Blocks after the anchor, in chain order, none of them confirmed yet
+    private final Deque<WindowEntry> window;
+    private BigInteger windowDifficulty;
+    private Keccak256 anchorHash;
+    private long anchorNumber;
 
     public ConfirmedBlockHeadersProvider(
             BigInteger minimumAccumulatedDifficulty,
             int maximumElementsToSendHSM,
             BlockStore blockStore
     ) {
-        this.blockStore = blockStore;
+        this(minimumAccumulatedDifficulty, maximumElementsToSendHSM, new BlockHeaderAccessor(blockStore));
+    }
+
+    public ConfirmedBlockHeadersProvider(
+            BigInteger minimumAccumulatedDifficulty,
+            int maximumElementsToSendHSM,
+            BlockHeaderAccessor blockHeaderAccessor
+    ) {
+        this.blockHeaderAccessor = blockHeaderAccessor;
         this.minimumAccumulatedDifficulty = minimumAccumulatedDifficulty;
         this.maximumElementsToSendHSM = maximumElementsToSendHSM;
+        this.window = new ArrayDeque<>();
+        this.windowDifficulty = BigInteger.ZERO;
     }
 
     public List<BlockHeader> getConfirmedBlockHeaders(Keccak256 startingPoint) {
-        List<BlockHeader> potentialConfirmed = new ArrayList<>();
-        BigInteger accumulatedDifficulty = BigInteger.ZERO;
-        List<BlockHeader> confirmedBlockHeaders = new ArrayList<>();
+        return getConfirmedBlockHeaders(startingPoint, maximumElementsToSendHSM);
+    }
 
-        Block initialBlock = blockStore.getBlockByHash(startingPoint.getBytes());
+    /**
+     * @param maximumElements  the most confirmed blocks to get this time, instead of the configured amount
+     */
+    public synchronized List<BlockHeader> getConfirmedBlockHeaders(Keccak256 startingPoint, int maximumElements) {
+        if (startingPoint.equals(anchorHash)) {
+            dropReorganizedBlocks();
+        } else {
+            resetWindow(startingPoint);
+        }
         logger.trace(
-                "[getConfirmedBlockHeaders] Initial block height is {} and RSK best block height {}",
-                initialBlock.getNumber(),
-                blockStore.getBestBlock().getNumber()
+                "[getConfirmedBlockHeaders] Initial block height is {}, {} blocks already read",
+                anchorNumber,
+                window.size()
         );
 
+        // A window that reached the difficulty still owes confirmations, it has to be fed again from scratch
+        Deque<WindowEntry> toReplay = new ArrayDeque<>();
+        if (windowDifficulty.compareTo(minimumAccumulatedDifficulty) >= 0) {
+            toReplay.addAll(window);
+            window.clear();
+            windowDifficulty = BigInteger.ZERO;
+        }
+
+        List<BlockHeader> confirmedBlockHeaders = new ArrayList<>();
         int lastIndexToConfirmBlock = 0;
-        Block blockToProcess = blockStore.getChainBlockByNumber(initialBlock.getNumber() + 1);
-        while (blockToProcess != null && confirmedBlockHeaders.size() < maximumElementsToSendHSM) {
-            potentialConfirmed.add(blockToProcess.getHeader());
-            accumulatedDifficulty = accumulatedDifficulty.add(blockToProcess.getDifficulty().asBigInteger());
-            if (accumulatedDifficulty.compareTo(minimumAccumulatedDifficulty) >= 0) {
-                // The first block was confirmed. Add it to confirm, substract its difficulty from the accumulated and from the potentials list
-                BlockHeader confirmedBlockHeader = potentialConfirmed.get(0);
-                confirmedBlockHeaders.add(confirmedBlockHeader);
-                accumulatedDifficulty = accumulatedDifficulty.subtract(confirmedBlockHeader.getDifficulty().asBigInteger());
-                potentialConfirmed.remove(confirmedBlockHeader);
-                lastIndexToConfirmBlock = potentialConfirmed.size();
+        while (confirmedBlockHeaders.size() < maximumElements) {
+            WindowEntry entry = toReplay.isEmpty() ? readNextBlock() : toReplay.pollFirst();
+            if (entry == null) {
+                break;
+            }
+            window.addLast(entry);
+            windowDifficulty = windowDifficulty.add(entry.difficulty);
+            if (windowDifficulty.compareTo(minimumAccumulatedDifficulty) >= 0) {
+                // The first block was confirmed. Add it to confirm and take it and its difficulty out of the window
+                WindowEntry confirmed = window.pollFirst();
+                confirmedBlockHeaders.add(confirmed.header);
+                windowDifficulty = windowDifficulty.subtract(confirmed.difficulty);
+                anchorHash = confirmed.hash;
+                anchorNumber = confirmed.number;
+                lastIndexToConfirmBlock = window.size();
             }
-
-            blockToProcess = blockStore.getChainBlockByNumber(blockToProcess.getNumber() + 1);
         }
+        for (WindowEntry entry : toReplay) {
+            window.addLast(entry);
+            windowDifficulty = windowDifficulty.add(entry.difficulty);
+        }
+
         logger.debug("[getConfirmedBlockHeaders] Got {} confirmed blocks", confirmedBlockHeaders.size());
         if (confirmedBlockHeaders.isEmpty()) {
             return confirmedBlockHeaders;
         }
         // Adding the proof of the confirmed elements from the potential elements
-        potentialConfirmed = potentialConfirmed.subList(0, lastIndexToConfirmBlock);
-        confirmedBlockHeaders.addAll(potentialConfirmed);
-        logger.debug("[getConfirmedBlockHeaders] Added {} extra blocks as proof", potentialConfirmed.size());
+        Iterator<WindowEntry> proof = window.iterator();
+        for (int i = 0; i < lastIndexToConfirmBlock; i++) {
+            confirmedBlockHeaders.add(proof.next().header);
+        }
+        logger.debug("[getConfirmedBlockHeaders] Added {} extra blocks as proof", lastIndexToConfirmBlock);
         return confirmedBlockHeaders;
     }
+
+    private void resetWindow(Keccak256 startingPoint) {
+        CachedBlockHeader initialBlock = blockHeaderAccessor.getHeaderByHash(startingPoint);
+        window.clear();
+        windowDifficulty = BigInteger.ZERO;
+        anchorHash = startingPoint;
+        anchorNumber = initialBlock.getNumber();
+    }
+
+    private void dropReorganizedBlocks() {
+        int dropped = 0;
+        // Once a block is on the main chain so are all of its ancestors
+        while (!window.isEmpty() && !isOnMainChain(window.peekLast())) {
+            WindowEntry reorganized = window.pollLast();
+            windowDifficulty = windowDifficulty.subtract(reorganized.difficulty);
+            dropped++;
+        }
+        if (dropped > 0) {
+            logger.debug("[dropReorganizedBlocks] Dropped {} blocks no longer in the main chain", dropped);
+        }
+    }
+
+    private boolean isOnMainChain(WindowEntry entry) {
+        CachedBlockHeader chainBlock = blockHeaderAccessor.getChainHeaderByNumber(entry.number);
+        return chainBlock != null && entry.hash.equals(chainBlock.getHash());
+    }
+
+    private WindowEntry readNextBlock() {
+        long lastReadNumber = window.isEmpty() ? anchorNumber : window.peekLast().number;
+        CachedBlockHeader block = blockHeaderAccessor.getChainHeaderByNumber(lastReadNumber + 1);
+        if (block == null) {
+            return null;
+        }
+        return new WindowEntry(block);
+    }
+
+    private static class WindowEntry {
+        private final BlockHeader header;
+        private final Keccak256 hash;
+        private final long number;
+        private final BigInteger difficulty;
+
+        private WindowEntry(CachedBlockHeader block) {
+            this.header = block.getHeader();
+            this.hash = block.getHash();
+            this.number = block.getNumber();
+            this.difficulty = block.getDifficulty().asBigInteger();
+        }
+    }
 }
@@ -0,0 +1,5 @@
+package co.rsk.federate.signing.hsm.advanceblockchain;
+
+public interface HSMBlockchainAdvancedListener {
+    void onBlockchainAdvanced();
+}
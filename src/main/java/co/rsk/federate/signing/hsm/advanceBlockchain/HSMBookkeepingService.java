@@ -2,52 +2,97 @@ package co.rsk.federate.signing.hsm.advanceblockchain;
 
 import co.rsk.crypto.Keccak256;
 import co.rsk.federate.config.HSM2SignerConfig;
+import co.rsk.federate.io.hsmbookkeepingstorage.HSMBookkeepingFileData;
+import co.rsk.federate.io.hsmbookkeepingstorage.HSMBookkeepingFileReadResult;
+import co.rsk.federate.io.hsmbookkeepingstorage.HSMBookkeepingFileStorage;
 import co.rsk.federate.signing.hsm.HSMClientException;
+import co.rsk.federate.signing.hsm.HSMUnavailableException;
 import co.rsk.federate.signing.hsm.client.HSMBookkeepingClient;
 import co.rsk.federate.signing.hsm.message.AdvanceBlockchainMessage;
 import co.rsk.net.NodeBlockProcessor;
 import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeader;
+import org.ethereum.core.TransactionReceipt;
 import org.ethereum.db.BlockStore;
+import org.ethereum.facade.Ethereum;
+import org.ethereum.listener.EthereumListener;
+import org.ethereum.listener.EthereumListenerAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import java.util.List;
-
+/**
+ * Informs the HSM of the RSK blocks as they get confirmed.
+ *
+ * A run is triggered by new best blocks, waiting the informer interval so that
+ * the blocks arriving meanwhile are all informed in that same run. Only one
+ * run goes on at a time, and as long as the HSM keeps advancing another run
+ * follows right away until it catches up.
+ *
+ * When the HSM is far behind the RSK best block (e.g. after a long downtime) the
+ * runs inform bigger batches until it gets close, reporting how long that is expected
+ * to take. The advanceBlockchain in progress can be checkpointed to a local file, so
+ * that after a restart the HSM gets the rest of it instead of dropping it.
+ */
 public class HSMBookkeepingService {
     private static final Logger logger = LoggerFactory.getLogger(HSMBookkeepingService.class);
 
-    private final BlockStore blockStore;
+    private final Ethereum ethereum;
+    private final BlockHeaderAccessor blockHeaderAccessor;
     private final HSMBookkeepingClient hsmBookkeepingClient;
     private final ConfirmedBlockHeadersProvider confirmedBlockHeadersProvider;
     private final long advanceBlockchainTimeInterval;
     private final List<HSMBookeepingServiceListener> listeners;
+    private final List<HSMBlockchainAdvancedListener> blockchainAdvancedListeners;
     private final NodeBlockProcessor nodeBlockProcessor;
     private final boolean stopBookkeepingScheduler;
+    private final long catchUpThreshold;
+    private final int catchUpMaxAmountBlockHeaders;
 
-    private ScheduledExecutorService updateAdvanceBlockchain;
+    private final EthereumListener bestBlockListener;
+
+    private volatile ScheduledExecutorService updateAdvanceBlockchain;
+    // Listeners run here, never holding up the bookkeeping runs
+    private volatile ExecutorService blockchainAdvancedNotifier;
+    private final AtomicBoolean blockchainAdvancedPending = new AtomicBoolean();
 
     private boolean started;
-    private boolean informing;
+    private final AtomicBoolean informing;
+    private ScheduledFuture<?> scheduledInform;
+    private volatile HSMCatchUpProgress catchUpProgress;
+
+    private HSMBookkeepingFileStorage checkpointStorage;
+    // The advanceBlockchain being sent, as written to the checkpoint. Null when there is none.
+    private volatile HSMBookkeepingFileData checkpoint;
 
     public HSMBookkeepingService(
-            BlockStore blockStore,
+            Ethereum ethereum,
+            BlockHeaderAccessor blockHeaderAccessor,
             HSMBookkeepingClient hsmBookkeepingClient,
             NodeBlockProcessor nodeBlockProcessor,
             HSM2SignerConfig hsm2Config
     ) {
         this(
-                blockStore,
+                ethereum,
+                blockHeaderAccessor,
                 hsmBookkeepingClient,
                 new ConfirmedBlockHeadersProvider(
                         hsm2Config.getDifficultyTarget(),
                         hsm2Config.getMaxAmountBlockHeaders(),
-                        blockStore
+                        blockHeaderAccessor
                 ),
                 nodeBlockProcessor,
                 hsm2Config.getInformerInterval(),
@@ -56,6 +101,7 @@ public class HSMBookkeepingService {
     }
 
     public HSMBookkeepingService(
+            Ethereum ethereum,
             BlockStore blockStore,
             HSMBookkeepingClient hsmBookkeepingClient,
             ConfirmedBlockHeadersProvider confirmedBlockHeadersProvider,
@@ -63,13 +109,39 @@ public class HSMBookkeepingService {
             long advanceBlockchainTimeInterval,
             HSM2SignerConfig hsm2Config
     ) {
-        this.blockStore = blockStore;
+        this(
+                ethereum,
+                new BlockHeaderAccessor(blockStore),
+                hsmBookkeepingClient,
+                confirmedBlockHeadersProvider,
+                nodeBlockProcessor,
+                advanceBlockchainTimeInterval,
+                hsm2Config
+        );
+    }
+
+    public HSMBookkeepingService(
+            Ethereum ethereum,
+            BlockHeaderAccessor blockHeaderAccessor,
+            HSMBookkeepingClient hsmBookkeepingClient,
+            ConfirmedBlockHeadersProvider confirmedBlockHeadersProvider,
+            NodeBlockProcessor nodeBlockProcessor,
+            long advanceBlockchainTimeInterval,
+            HSM2SignerConfig hsm2Config
+    ) {
+        this.ethereum = ethereum;
+        this.blockHeaderAccessor = blockHeaderAccessor;
         this.hsmBookkeepingClient = hsmBookkeepingClient;
         this.confirmedBlockHeadersProvider = confirmedBlockHeadersProvider;
         this.advanceBlockchainTimeInterval = advanceBlockchainTimeInterval;
         this.listeners = new ArrayList<>();
+        this.blockchainAdvancedListeners = new CopyOnWriteArrayList<>();
         this.nodeBlockProcessor = nodeBlockProcessor;
         this.stopBookkeepingScheduler = hsm2Config.isStopBookkeepingScheduler();
+        this.catchUpThreshold = hsm2Config.getCatchUpThreshold();
+        this.catchUpMaxAmountBlockHeaders = hsm2Config.getCatchUpMaxAmountBlockHeaders();
+        this.bestBlockListener = new BestBlockListener();
+        this.informing = new AtomicBoolean();
     }
 
     public void addListener(HSMBookeepingServiceListener listener) {
@@ -82,13 +154,39 @@ public class HSMBookkeepingService {
         this.listeners.remove(listener);
     }
 
+    public void addBlockchainAdvancedListener(HSMBlockchainAdvancedListener listener) {
+        if (!this.blockchainAdvancedListeners.contains(listener)) {
+            this.blockchainAdvancedListeners.add(listener);
+        }
+    }
+
+    public void removeBlockchainAdvancedListener(HSMBlockchainAdvancedListener listener) {
+        this.blockchainAdvancedListeners.remove(listener);
+    }
+
+    /**
+     * Keeps the progress of every advanceBlockchain in the given storage, until the HSM got all of it
+     */
+    public void setCheckpointStorage(HSMBookkeepingFileStorage checkpointStorage) {
+        this.checkpointStorage = checkpointStorage;
+        this.hsmBookkeepingClient.setAdvanceBlockchainProgressListener(this::onAdvanceBlockchainProgress);
+    }
+
+    public boolean isCatchingUp() {
+        return catchUpProgress != null;
+    }
+
+    public Optional<HSMCatchUpProgress> getCatchUpProgress() {
+        return Optional.ofNullable(catchUpProgress);
+    }
+
     public void start() {
         if (started || stopBookkeepingScheduler) {
             return;
         }
 
         try {
-            if (hsmBookkeepingClient.getHSMPointer().getInProgressState())  {
+            if (hsmBookkeepingClient.getHSMPointer().getInProgressState() && !resumeFromCheckpoint())  {
                 // HSM status is inconsistent from a previous run, if the status is in progress, reset HSM must be done.
                 hsmBookkeepingClient.resetAdvanceBlockchain();
             }
@@ -103,12 +201,10 @@ public class HSMBookkeepingService {
 
         try {
             updateAdvanceBlockchain = Executors.newSingleThreadScheduledExecutor();
-            updateAdvanceBlockchain.scheduleAtFixedRate(
-                    this::informConfirmedBlockHeaders,
-                    advanceBlockchainTimeInterval,
-                    advanceBlockchainTimeInterval,
-                    TimeUnit.MILLISECONDS
-            );
+            blockchainAdvancedNotifier = Executors.newSingleThreadExecutor();
+            // Catches up with the blocks confirmed while the node was down, without waiting for a new one
+            scheduleInform(advanceBlockchainTimeInterval);
+            ethereum.addListener(bestBlockListener);
         } catch (Exception exception) {
             logger.error("[start] Error starting HSMBookkeepingService", exception);
             this.listeners.forEach(l -> l.onIrrecoverableError(exception));
@@ -123,10 +219,16 @@ public class HSMBookkeepingService {
         this.setStopSending();
         logger.info("Stop HSMBookkeepingService");;
         // TODO: IS THIS TRULY CALLED AND IF SO, IS IT STOPPING THE SCHEDULED TASKS?
+        ethereum.removeListener(bestBlockListener);
+        cancelScheduledInform();
         if (updateAdvanceBlockchain != null) {
             updateAdvanceBlockchain.shutdown();
             updateAdvanceBlockchain = null;
         }
+        if (blockchainAdvancedNotifier != null) {
+            blockchainAdvancedNotifier.shutdown();
+            blockchainAdvancedNotifier = null;
+        }
         started = false;
     }
 
@@ -134,31 +236,63 @@ public class HSMBookkeepingService {
         return started;
     }
 
-    private Block getHsmBestBlock() throws HSMClientException {
+    private CachedBlockHeader getHsmBestBlock() throws HSMClientException {
         Keccak256 bestBlockHSMHash = hsmBookkeepingClient.getHSMPointer().getBestBlockHash();
-        return blockStore.getBlockByHash(bestBlockHSMHash.getBytes());
+        return blockHeaderAccessor.getHeaderByHash(bestBlockHSMHash);
     }
 
     private void setStopSending() {
         hsmBookkeepingClient.setStopSending();
     }
 
+    /**
+     * Schedules an inform run, unless there is already one waiting to start no later than that.
+     * That one will find the blocks that arrived meanwhile anyway.
+     */
+    private synchronized void scheduleInform(long delay) {
+        ScheduledExecutorService executor = updateAdvanceBlockchain;
+        if (executor == null) {
+            return;
+        }
+        // Once a run started it might miss the blocks arriving now, those need another one
+        if (scheduledInform != null && !scheduledInform.isDone() && scheduledInform.getDelay(TimeUnit.MILLISECONDS) > 0) {
+            if (scheduledInform.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+                return;
+            }
+            scheduledInform.cancel(false);
+        }
+        try {
+            scheduledInform = executor.schedule(this::informConfirmedBlockHeaders, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("[scheduleInform] Service stopped, not scheduling");
+        }
+    }
+
+    private synchronized void cancelScheduledInform() {
+        if (scheduledInform != null) {
+            scheduledInform.cancel(false);
+            scheduledInform = null;
+        }
+    }
+
     protected void informConfirmedBlockHeaders() {
-        if (informing) {
+        if (!informing.compareAndSet(false, true)) {
             logger.info("Tried to start HSM bookkeeping process but a previous one is still running :(");
             return;
         }
         if (nodeBlockProcessor.hasBetterBlockToSync()) {
             logger.info("Tried to start HSM bookkeeping process but node is still syncing");
+            informing.set(false);
             return;
         }
-        informing = true;
         logger.info("Starting HSM bookkeeping process");
+        boolean moved = false;
+        boolean caughtUp = false;
         try {
-            Block hsmCurrentBestBlock = getHsmBestBlock();
+            CachedBlockHeader hsmCurrentBestBlock = getHsmBestBlock();
             if (hsmCurrentBestBlock == null) {
                 logger.error("[informConfirmedBlockHeaders] Can't found HSM Best Block in blockStore.");
-                informing = false;
+                informing.set(false);
                 return;
             }
             logger.debug(
@@ -167,11 +301,14 @@ public class HSMBookkeepingService {
                     hsmCurrentBestBlock.getNumber()
             );
 
-            List<BlockHeader> blockHeaders = this.confirmedBlockHeadersProvider.getConfirmedBlockHeaders(hsmCurrentBestBlock.getHash());
+            updateCatchUpMode(hsmCurrentBestBlock);
+            List<BlockHeader> blockHeaders = isCatchingUp() ?
+                    this.confirmedBlockHeadersProvider.getConfirmedBlockHeaders(hsmCurrentBestBlock.getHash(), catchUpMaxAmountBlockHeaders) :
+                    this.confirmedBlockHeadersProvider.getConfirmedBlockHeaders(hsmCurrentBestBlock.getHash());
             if (blockHeaders.isEmpty()) {
                 logger.debug("[informConfirmedBlockHeaders] No new block headers to inform");
                 logger.info("Finished HSM bookkeeping process");
-                informing = false;
+                informing.set(false);
                 return;
             }
             logger.debug(
@@ -180,19 +317,185 @@ public class HSMBookkeepingService {
                     blockHeaders.get(0).getHash(),
                     blockHeaders.get(blockHeaders.size() - 1).getHash()
             );
-            hsmBookkeepingClient.advanceBlockchain(new AdvanceBlockchainMessage(blockHeaders));
+            Keccak256 previousBestBlockHash = hsmCurrentBestBlock.getHash();
+            writeCheckpoint(blockHeaders);
+            hsmBookkeepingClient.advanceBlockchain(new AdvanceBlockchainMessage(
+                    blockHeaders,
+                    blockHeaderAccessor::encodeForAdvanceBlockchain
+            ));
+            clearCheckpoint();
             hsmCurrentBestBlock = getHsmBestBlock();
+            moved = !Objects.equals(previousBestBlockHash, hsmCurrentBestBlock.getHash());
+            caughtUp = !isFarBehind(hsmCurrentBestBlock);
             logger.debug(
                     "[informConfirmedBlockHeaders] HSM best block after informing {} (height: {})",
                     hsmCurrentBestBlock.getHash(),
                     hsmCurrentBestBlock.getNumber()
             );
-            // TODO: contact BtcReleaseClient to let it try to sign transactions now
+        } catch (HSMUnavailableException exception) {
+            // Paused until the HSM is back, the next run will pick up from where it is. The checkpoint stays in case that's after a restart.
+            logger.warn("[informConfirmedBlockHeaders] HSM is not available, skipping this run. {}", exception.getMessage());
         } catch (Exception exception) {
+            clearCheckpoint();
             logger.error("[informConfirmedBlockHeaders] Something went wrong trying to inform blocks.", exception);
             this.listeners.forEach(l -> l.onIrrecoverableError(exception));
         }
-        informing = false;
+        informing.set(false);
         logger.info("Finished HSM bookkeeping process");
+        // Only worth it once the HSM got the blocks, and not yet while it's far behind anyway
+        if (moved && caughtUp) {
+            notifyBlockchainAdvanced();
+        }
+        if (moved) {
+            // There might be more blocks to inform than fit in one run, keep going until there are none left
+            scheduleInform(0);
+        }
+    }
+
+    private boolean isFarBehind(CachedBlockHeader hsmBestBlock) {
+        return catchUpThreshold > 0 && blockHeaderAccessor.getBestBlockNumber() - hsmBestBlock.getNumber() >= catchUpThreshold;
+    }
+
+    private void updateCatchUpMode(CachedBlockHeader hsmBestBlock) {
+        long bestBlockNumber = blockHeaderAccessor.getBestBlockNumber();
+        long blocksBehind = bestBlockNumber - hsmBestBlock.getNumber();
+        HSMCatchUpProgress progress = catchUpProgress;
+        if (progress == null) {
+            if (catchUpThreshold > 0 && blocksBehind >= catchUpThreshold) {
+                catchUpProgress = new HSMCatchUpProgress(System::currentTimeMillis, hsmBestBlock.getNumber(), bestBlockNumber);
+                logger.info(
+                        "[updateCatchUpMode] HSM is {} blocks behind, catching up informing up to {} blocks per run",
+                        blocksBehind,
+                        catchUpMaxAmountBlockHeaders
+                );
+            }
+            return;
+        }
+        progress.update(hsmBestBlock.getNumber(), bestBlockNumber);
+        if (blocksBehind < catchUpThreshold) {
+            logger.info("[updateCatchUpMode] HSM caught up at block {}, back to regular bookkeeping", hsmBestBlock.getNumber());
+            catchUpProgress = null;
+            return;
+        }
+        logger.info("[updateCatchUpMode] Catching up. {}", progress);
+    }
+
+    /**
+     * @return true if the HSM got the rest of the advanceBlockchain it had in progress
+     */
+    private boolean resumeFromCheckpoint() {
+        if (checkpointStorage == null) {
+            return false;
+        }
+        try {
+            HSMBookkeepingFileReadResult readResult = checkpointStorage.read();
+            if (!readResult.getSuccess() || !readResult.getData().hasAdvanceBlockchainInProgress()) {
+                return false;
+            }
+            HSMBookkeepingFileData data = readResult.getData();
+            checkpoint = data;
+            List<BlockHeader> blockHeaders = new ArrayList<>();
+            for (Keccak256 blockHash : data.getAdvanceBlockchainBlockHashes()) {
+                CachedBlockHeader header = blockHeaderAccessor.getHeaderByHash(blockHash);
+                if (header == null) {
+                    logger.warn("[resumeFromCheckpoint] Block {} of the checkpoint not found", blockHash);
+                    return false;
+                }
+                blockHeaders.add(header.getHeader());
+            }
+            boolean resumed = hsmBookkeepingClient.resumeAdvanceBlockchain(
+                    new AdvanceBlockchainMessage(blockHeaders, blockHeaderAccessor::encodeForAdvanceBlockchain),
+                    data.getAdvanceBlockchainNextHeader()
+            );
+            logger.info("[resumeFromCheckpoint] Resumed advanceBlockchain in progress? {}", resumed);
+            return resumed;
+        } catch (Exception e) {
+            logger.warn("[resumeFromCheckpoint] Unable to resume advanceBlockchain in progress. {}", e.getMessage());
+            return false;
+        } finally {
+            clearCheckpoint();
+        }
+    }
+
+    private void writeCheckpoint(List<BlockHeader> blockHeaders) throws HSMClientException {
+        if (checkpointStorage == null) {
+            return;
+        }
+        if (hsmBookkeepingClient.getHSMPointer().getInProgressState()) {
+            // The HSM gets the rest of the advanceBlockchain it has in progress instead, the checkpoint is still about that one
+            logger.debug("[writeCheckpoint] HSM has an advanceBlockchain in progress, keeping its checkpoint");
+            return;
+        }
+        List<Keccak256> blockHashes = new ArrayList<>(blockHeaders.size());
+        for (BlockHeader blockHeader : blockHeaders) {
+            blockHashes.add(blockHeader.getHash());
+        }
+        checkpoint = new HSMBookkeepingFileData(blockHashes, 0);
+        saveCheckpoint(checkpoint);
+    }
+
+    private void onAdvanceBlockchainProgress(int nextHeader, int totalHeaders) {
+        HSMBookkeepingFileData data = checkpoint;
+        if (data == null || nextHeader >= totalHeaders) {
+            return;
+        }
+        if (totalHeaders != data.getAdvanceBlockchainBlockHashes().size()) {
+            // Progress of an advanceBlockchain other than the checkpointed one
+            logger.debug(
+                    "[onAdvanceBlockchainProgress] Ignoring progress of {} headers, the checkpoint has {}",
+                    totalHeaders,
+                    data.getAdvanceBlockchainBlockHashes().size()
+            );
+            return;
+        }
+        data.setAdvanceBlockchainNextHeader(nextHeader);
+        saveCheckpoint(data);
+    }
+
+    private void clearCheckpoint() {
+        if (checkpointStorage == null || checkpoint == null) {
+            return;
+        }
+        checkpoint = null;
+        saveCheckpoint(new HSMBookkeepingFileData());
+    }
+
+    private void saveCheckpoint(HSMBookkeepingFileData data) {
+        try {
+            checkpointStorage.write(data);
+        } catch (IOException e) {
+            // Without it a restart just drops the advanceBlockchain in progress, as it always did
+            logger.warn("[saveCheckpoint] Unable to write bookkeeping checkpoint. {}", e.getMessage());
+        }
+    }
+
+    private void notifyBlockchainAdvanced() {
+        ExecutorService notifier = blockchainAdvancedNotifier;
+        // One notification waiting to run is enough, it will find the HSM as far as it got by then
+        if (notifier == null || !blockchainAdvancedPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            notifier.execute(() -> {
+                blockchainAdvancedPending.set(false);
+                for (HSMBlockchainAdvancedListener listener : blockchainAdvancedListeners) {
+                    try {
+                        listener.onBlockchainAdvanced();
+                    } catch (Exception e) {
+                        logger.error("[notifyBlockchainAdvanced] Listener failed after the HSM advanced its blockchain", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            blockchainAdvancedPending.set(false);
+            logger.debug("[notifyBlockchainAdvanced] Service stopped, not notifying");
+        }
+    }
+
+    private class BestBlockListener extends EthereumListenerAdapter {
+        @Override
+        public void onBestBlock(Block block, List<TransactionReceipt> receipts) {
+            scheduleInform(advanceBlockchainTimeInterval);
+        }
     }
 }
@@ -0,0 +1,75 @@
+package co.rsk.federate.signing.hsm.advanceblockchain;
+
+import co.rsk.federate.util.CurrentTimeProvider;
+
+/**
+ * How far the HSM got while catching up with the RSK blockchain, and how long it is
+ * expected to take to get there given the pace it kept since the catch up started.
+ */
+public class HSMCatchUpProgress {
+    private final CurrentTimeProvider currentTimeProvider;
+    private final long startTime;
+    private final long startHeight;
+    private volatile long hsmHeight;
+    private volatile long targetHeight;
+    private volatile long updateTime;
+
+    public HSMCatchUpProgress(CurrentTimeProvider currentTimeProvider, long hsmHeight, long targetHeight) {
+        this.currentTimeProvider = currentTimeProvider;
+        this.startTime = currentTimeProvider.currentTimeMillis();
+        this.startHeight = hsmHeight;
+        this.hsmHeight = hsmHeight;
+        this.targetHeight = targetHeight;
+        this.updateTime = startTime;
+    }
+
+    public void update(long hsmHeight, long targetHeight) {
+        this.hsmHeight = hsmHeight;
+        this.targetHeight = targetHeight;
+        this.updateTime = currentTimeProvider.currentTimeMillis();
+    }
+
+    public long getHsmHeight() {
+        return hsmHeight;
+    }
+
+    public long getTargetHeight() {
+        return targetHeight;
+    }
+
+    public long getRemainingBlocks() {
+        return Math.max(0, targetHeight - hsmHeight);
+    }
+
+    public double getBlocksPerSecond() {
+        long elapsed = updateTime - startTime;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return (hsmHeight - startHeight) * 1_000.0 / elapsed;
+    }
+
+    /**
+     * @return the ms left to catch up, or -1 while the HSM didn't move yet
+     */
+    public long getEta() {
+        double blocksPerSecond = getBlocksPerSecond();
+        if (blocksPerSecond <= 0) {
+            return -1;
+        }
+        return (long) (getRemainingBlocks() * 1_000 / blocksPerSecond);
+    }
+
+    @Override
+    public String toString() {
+        long eta = getEta();
+        return String.format(
+            "HSM at block %d of %d, %d blocks left at %.1f blocks/s, ETA %s",
+            hsmHeight,
+            targetHeight,
+            getRemainingBlocks(),
+            getBlocksPerSecond(),
+            eta < 0 ? "unknown" : (eta / 1_000) + " s"
+        );
+    }
+}
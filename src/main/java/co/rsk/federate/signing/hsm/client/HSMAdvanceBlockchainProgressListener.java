@@ -0,0 +1,12 @@
+package co.rsk.federate.signing.hsm.client;
+
+/**
+ * Told how far the HSM got into an advanceBlockchain each time it takes another chunk of headers.
+ */
+public interface HSMAdvanceBlockchainProgressListener {
+    /**
+     * @param nextHeader    the index, in the message data, of the first header the HSM didn't get yet
+     * @param totalHeaders  the amount of headers in the message data
+     */
+    void onHeadersSent(int nextHeader, int totalHeaders);
+}
@@ -11,11 +11,21 @@ public interface HSMBookkeepingClient extends HSMClient {
 
     void advanceBlockchain(AdvanceBlockchainMessage advanceBlockchainMessage) throws HSMClientException;
 
+    /**
+     * Sends the headers of an advanceBlockchain the HSM still has in progress, starting from nextHeader.
+     * @return false if the HSM has nothing in progress or nothing was left to send
+     */
+    boolean resumeAdvanceBlockchain(AdvanceBlockchainMessage advanceBlockchainMessage, int nextHeader) throws HSMClientException;
+
     HSM2State getHSMPointer() throws HSMClientException;
 
     void resetAdvanceBlockchain() throws HSMClientException;
 
     void setMaxChunkSizeToHsm(int maxChunkSizeToHsm);
 
+    void setHSMPointerCacheTtl(long hsmPointerCacheTtl);
+
+    void setAdvanceBlockchainProgressListener(HSMAdvanceBlockchainProgressListener listener);
+
     void setStopSending();
 }
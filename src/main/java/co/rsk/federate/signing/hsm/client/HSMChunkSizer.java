@@ -0,0 +1,84 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.federate.signing.hsm.client;
+
+/**
+ * Picks how many block headers go in each bookkeeping chunk sent to the HSM.
+ *
+ * Starts at the max chunk size. Chunks answered quickly let the size grow back
+ * towards the max, while slow or failed chunks halve it, down to a single header.
+ */
+public class HSMChunkSizer {
+    public static final long DEFAULT_TARGET_LATENCY = 5_000;
+
+    private int maxChunkSize;
+    private long targetLatency = DEFAULT_TARGET_LATENCY;
+    private int chunkSize;
+
+    public HSMChunkSizer(int maxChunkSize) {
+        if (maxChunkSize <= 0) {
+            throw new IllegalArgumentException("maxChunkSize must be bigger than zero");
+        }
+        this.maxChunkSize = maxChunkSize;
+        this.chunkSize = maxChunkSize;
+    }
+
+    public synchronized int getChunkSize() {
+        return chunkSize;
+    }
+
+    public synchronized int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    public synchronized void setMaxChunkSize(int maxChunkSize) {
+        if (maxChunkSize <= 0) {
+            throw new IllegalArgumentException("maxChunkSize must be bigger than zero");
+        }
+        this.maxChunkSize = maxChunkSize;
+        this.chunkSize = maxChunkSize;
+    }
+
+    /**
+     * Sets how long a chunk is expected to take, chunks slower than this get smaller
+     */
+    public synchronized void setTargetLatency(long targetLatency) {
+        this.targetLatency = targetLatency;
+    }
+
+    public synchronized void recordSuccess(int sentChunkSize, long latency) {
+        if (latency > targetLatency) {
+            shrink();
+            return;
+        }
+        // Only grow when the HSM had room to spare with a chunk this big
+        if (latency <= targetLatency / 2 && sentChunkSize >= chunkSize) {
+            chunkSize = Math.min(maxChunkSize, chunkSize + Math.max(1, chunkSize / 2));
+        }
+    }
+
+    public synchronized void recordFailure() {
+        shrink();
+    }
+
+    private void shrink() {
+        chunkSize = Math.max(1, chunkSize / 2);
+    }
+}
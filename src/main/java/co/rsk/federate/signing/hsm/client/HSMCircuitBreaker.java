@@ -0,0 +1,149 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.signing.hsm.client;
+
+import co.rsk.federate.util.CurrentTimeProvider;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks whether an HSM endpoint is healthy.
+ *
+ * After failureThreshold consecutive connection failures the circuit opens and requests
+ * should fail right away. Once openTime elapses a single caller gets to probe the HSM
+ * (half-open state): success closes the circuit, failure opens it again for twice as
+ * long, up to maxOpenTime.
+ */
+public class HSMCircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(HSMCircuitBreaker.class);
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_OPEN_TIME = 5_000;
+    public static final long DEFAULT_MAX_OPEN_TIME = 60_000;
+
+    private static final Map<String, HSMCircuitBreaker> circuitBreakersByEndpoint = new ConcurrentHashMap<>();
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final CurrentTimeProvider currentTimeProvider;
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long openTime = DEFAULT_OPEN_TIME;
+    private long maxOpenTime = DEFAULT_MAX_OPEN_TIME;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long currentOpenTime;
+    private long openUntil;
+
+    /**
+     * @return the circuit breaker for the HSM listening at the given address
+     */
+    public static HSMCircuitBreaker forEndpoint(SocketAddress address) {
+        return circuitBreakersByEndpoint.computeIfAbsent(address.toString(), k -> new HSMCircuitBreaker());
+    }
+
+    public HSMCircuitBreaker() {
+        this(System::currentTimeMillis);
+    }
+
+    public HSMCircuitBreaker(CurrentTimeProvider currentTimeProvider) {
+        this.currentTimeProvider = currentTimeProvider;
+        this.currentOpenTime = openTime;
+    }
+
+    public synchronized void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public synchronized void setOpenTime(long openTime) {
+        this.openTime = openTime;
+        this.currentOpenTime = openTime;
+    }
+
+    public synchronized void setMaxOpenTime(long maxOpenTime) {
+        this.maxOpenTime = maxOpenTime;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return true if requests can be sent as usual
+     */
+    public synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Moves an open circuit to half-open once its open time elapsed.
+     * @return true if the caller is the one that has to probe the HSM
+     */
+    public synchronized boolean tryStartProbe() {
+        if (state != State.OPEN || currentTimeProvider.currentTimeMillis() < openUntil) {
+            return false;
+        }
+        state = State.HALF_OPEN;
+        return true;
+    }
+
+    /**
+     * @return the time left until the HSM can be probed again, zero if it isn't open
+     */
+    public synchronized long getRemainingOpenTime() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openUntil - currentTimeProvider.currentTimeMillis());
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("[recordSuccess] HSM is responding again, closing the circuit");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        currentOpenTime = openTime;
+    }
+
+    public synchronized void recordFailure() {
+        if (state == State.HALF_OPEN) {
+            currentOpenTime = Math.min(currentOpenTime * 2, maxOpenTime);
+            open();
+            return;
+        }
+        consecutiveFailures++;
+        if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = currentTimeProvider.currentTimeMillis() + currentOpenTime;
+        logger.warn("[open] HSM is failing, no requests will be sent for the next {} ms", currentOpenTime);
+    }
+}
@@ -21,6 +21,8 @@ package co.rsk.federate.signing.hsm.client;
 import co.rsk.federate.signing.hsm.HSMClientException;
 import co.rsk.federate.signing.hsm.message.SignerMessage;
 
+import java.util.List;
+
 /**
  * Implementors of this interface
  * can interact with a specific
@@ -35,4 +37,11 @@ public interface HSMClient {
     byte[] getPublicKey(String keyId) throws HSMClientException;
 
     HSMSignature sign(String keyId, SignerMessage message) throws HSMClientException;
+
+    /**
+     * Signs a group of messages that belong to the same
+     * release transaction (i.e., one message per input).
+     * Signatures are returned in the same order as the messages.
+     */
+    List<HSMSignature> signBatch(String keyId, List<SignerMessage> messages) throws HSMClientException;
 }
@@ -21,8 +21,10 @@ package co.rsk.federate.signing.hsm.client;
 import co.rsk.federate.signing.hsm.HSMClientException;
 import co.rsk.federate.signing.hsm.message.SignerMessage;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class HSMClientBase implements HSMClient {
     protected static final String KEYID_FIELD = "keyId";
@@ -38,7 +40,7 @@ public abstract class HSMClientBase implements HSMClient {
     public HSMClientBase(HSMClientProtocol protocol, int version) {
         this.hsmClientProtocol = protocol;
         this.version = version;
-        publicKeys = new HashMap<>();
+        publicKeys = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -47,6 +49,16 @@ public abstract class HSMClientBase implements HSMClient {
     @Override
     public abstract HSMSignature sign(String keyId, SignerMessage message) throws HSMClientException;
 
+    @Override
+    public List<HSMSignature> signBatch(String keyId, List<SignerMessage> messages) throws HSMClientException {
+        // Default behaviour is one sign request per message
+        List<HSMSignature> signatures = new ArrayList<>(messages.size());
+        for (SignerMessage message : messages) {
+            signatures.add(sign(keyId, message));
+        }
+        return signatures;
+    }
+
     @Override
     public final int getVersion() {
         return version;
@@ -21,18 +21,26 @@ package co.rsk.federate.signing.hsm.client;
 import co.rsk.federate.rpc.JsonRpcClient;
 import co.rsk.federate.rpc.JsonRpcClientProvider;
 import co.rsk.federate.rpc.JsonRpcException;
+import co.rsk.federate.rpc.JsonRpcMapper;
 import co.rsk.federate.signing.hsm.HSMClientException;
 import co.rsk.federate.signing.hsm.HSMDeviceNotReadyException;
 import co.rsk.federate.signing.hsm.HSMGatewayIrresponsiveException;
+import co.rsk.federate.signing.hsm.HSMUnavailableException;
 import co.rsk.federate.signing.hsm.HSMUnknownErrorException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import java.util.concurrent.Callable;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,22 +55,86 @@ import org.slf4j.LoggerFactory;
  */
 public class HSMClientProtocol {
     private static final String VERSION_METHOD_NAME = "version";
+    private static final String ERROR_CODE_FIELD = "errorcode";
+    private static final Set<String> BOOKKEEPING_METHOD_NAMES = new HashSet<>(Arrays.asList(
+        "advanceBlockchain",
+        "updateAncestorBlock",
+        "resetAdvanceBlockchain",
+        "blockchainState"
+    ));
+    public static final long DEFAULT_SIGNING_REQUEST_TIMEOUT = 30_000;
+    public static final long DEFAULT_BOOKKEEPING_REQUEST_TIMEOUT = 60_000;
+    public static final long DEFAULT_MAX_WAIT_TIME_FOR_RECONNECTION = 10_000;
+    private static final int MAX_BACKOFF_EXPONENT = 16;
     private static final Logger logger = LoggerFactory.getLogger(HSMClientProtocol.class);
 
     private final ObjectMapper objectMapper;
     private final JsonRpcClientProvider clientProvider;
     private int maxConnectionAttempts;
     private int waitTimeForReconnection;
+    private long maxWaitTimeForReconnection;
     private HSMResponseHandlerBase responseHandler;
-
-    private static ExecutorService executorService;
+    private final HSMRequestExecutor requestExecutor;
+    private final Map<HSMRequestPriority, Long> requestTimeouts;
+    private HSMProtocolMetrics metrics;
+    private HSMCircuitBreaker circuitBreaker;
 
     public HSMClientProtocol(JsonRpcClientProvider clientProvider, int maxConnectionAttempts, int waitTimeForReconnection) {
-        this.objectMapper = new ObjectMapper();
+        this(clientProvider, maxConnectionAttempts, waitTimeForReconnection, HSMRequestExecutor.shared());
+    }
+
+    public HSMClientProtocol(
+        JsonRpcClientProvider clientProvider,
+        int maxConnectionAttempts,
+        int waitTimeForReconnection,
+        HSMRequestExecutor requestExecutor
+    ) {
+        this.objectMapper = JsonRpcMapper.getObjectMapper();
         this.clientProvider = clientProvider;
         this.maxConnectionAttempts = maxConnectionAttempts;
         this.waitTimeForReconnection = waitTimeForReconnection;
         this.responseHandler = new HSMResponseHandlerBase();
+        this.requestExecutor = requestExecutor;
+        this.requestTimeouts = new EnumMap<>(HSMRequestPriority.class);
+        this.requestTimeouts.put(HSMRequestPriority.SIGNING, DEFAULT_SIGNING_REQUEST_TIMEOUT);
+        this.requestTimeouts.put(HSMRequestPriority.BOOKKEEPING, DEFAULT_BOOKKEEPING_REQUEST_TIMEOUT);
+        this.metrics = new HSMProtocolMetrics();
+        this.circuitBreaker = new HSMCircuitBreaker();
+        this.maxWaitTimeForReconnection = Math.max(waitTimeForReconnection, DEFAULT_MAX_WAIT_TIME_FOR_RECONNECTION);
+    }
+
+    /**
+     * Sets the time a command of the given priority has to complete, retries included
+     */
+    public void setRequestTimeout(HSMRequestPriority priority, long timeoutInMillis) {
+        requestTimeouts.put(priority, timeoutInMillis);
+    }
+
+    public long getRequestTimeout(HSMRequestPriority priority) {
+        return requestTimeouts.get(priority);
+    }
+
+    /**
+     * Sets the longest wait between attempts, however many attempts were made
+     */
+    public void setMaxWaitTimeForReconnection(long maxWaitTimeForReconnection) {
+        this.maxWaitTimeForReconnection = maxWaitTimeForReconnection;
+    }
+
+    public HSMCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(HSMCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public HSMProtocolMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(HSMProtocolMetrics metrics) {
+        this.metrics = metrics;
     }
 
     public void setResponseHandler(HSMResponseHandlerBase handler) {
@@ -98,64 +170,77 @@ public class HSMClientProtocol {
     }
 
     public JsonNode send(ObjectNode command) throws HSMClientException {
+        String commandName = command.get("command").textValue();
+        HSMRequestPriority priority = getPriority(commandName);
+        long deadline = System.currentTimeMillis() + getRequestTimeout(priority);
         int attempts = 0;
-        JsonRpcClient client = null;
         while(true) {
+            ensureAvailable(commandName);
+            CompletableFuture<JsonNode> future = null;
             try {
-                client = clientProvider.acquire();
-                String commandName = command.get("command").toString();
+                long remainingTime = deadline - System.currentTimeMillis();
                 logger.trace("Sending command to hsm: {}", commandName);
-                Future future = getExecutor().submit(new HSMRequest(client, command));
-                JsonNode result = null;
-                try {
-                    logger.trace("Fetching response for command: {}", commandName);
-                    result = (JsonNode) future.get();
-                    logger.trace("Got response for command: {}", commandName);
-                } catch (ExecutionException e) {
-                    Throwable cause = e.getCause();
-                    if (cause instanceof JsonRpcException) {
-                        throw (JsonRpcException)cause;
-                    }
-                    if (cause instanceof HSMDeviceNotReadyException) {
-                        throw (HSMDeviceNotReadyException)cause;
-                    }
-                    if (cause instanceof HSMClientException) {
-                        throw (HSMClientException)cause;
-                    }
-                }
-                int responseCode = validateResponse(command.get("command").textValue(), result);
-                logger.trace("HSM responds with code {} to command {}", responseCode, commandName);
+                future = sendAsync(command, priority, remainingTime);
+                JsonNode result = future.get();
+                circuitBreaker.recordSuccess();
+                logger.trace("Got response for command: {}", commandName);
                 return result;
-            } catch (JsonRpcException e) {
-                attempts++;
-                if(attempts == this.maxConnectionAttempts) {
+            } catch (ExecutionException e) {
+                Throwable cause = unwrap(e);
+                if (cause instanceof TimeoutException) {
+                    circuitBreaker.recordFailure();
                     String message = String.format(
-                        "There was a connection error trying to contact the HSM gateway. Details: '%s'",
-                        e.getMessage()
+                        "The HSM gateway didn't respond to %s in time. Details: '%s'",
+                        commandName,
+                        cause.getMessage()
                     );
-                    logger.error(message, e);
-                    throw new HSMGatewayIrresponsiveException(message, e);
+                    logger.error(message, cause);
+                    throw new HSMGatewayIrresponsiveException(message, cause);
                 }
-                logger.debug("retrying send, attempt {}", attempts);
-            } catch (HSMDeviceNotReadyException e) {
-                attempts++;
-                if (attempts == this.maxConnectionAttempts) {
-                    logger.error("HSM device not ready after {} attempts", attempts, e);
-                    throw e;
+                if (cause instanceof JsonRpcException) {
+                    circuitBreaker.recordFailure();
+                    attempts++;
+                    if(attempts == this.maxConnectionAttempts) {
+                        String message = String.format(
+                            "There was a connection error trying to contact the HSM gateway. Details: '%s'",
+                            cause.getMessage()
+                        );
+                        logger.error(message, cause);
+                        throw new HSMGatewayIrresponsiveException(message, cause);
+                    }
+                    logger.debug("retrying send, attempt {}", attempts);
+                    metrics.recordRetry(commandName);
+                } else if (cause instanceof HSMDeviceNotReadyException) {
+                    circuitBreaker.recordFailure();
+                    attempts++;
+                    if (attempts == this.maxConnectionAttempts) {
+                        logger.error("HSM device not ready after {} attempts", attempts, cause);
+                        throw (HSMDeviceNotReadyException) cause;
+                    }
+                    logger.debug("retrying send, attempt {}", attempts);
+                    metrics.recordRetry(commandName);
+                } else if (cause instanceof HSMClientException) {
+                    // The HSM answered, it's just not happy with the request
+                    circuitBreaker.recordSuccess();
+                    logger.debug("HSMClientException {}", cause.getClass(), cause.getMessage());
+                    throw (HSMClientException) cause;
+                } else {
+                    throw new HSMUnknownErrorException("There was an error sending the HSM request", cause);
                 }
-                logger.debug("retrying send, attempt {}", attempts);
-            } catch (HSMClientException e) {
-                logger.debug("HSMClientException {}", e.getClass(), e.getMessage());
-                throw e;
+            } catch (CancellationException e) {
+                throw new HSMUnknownErrorException("The HSM request was cancelled", e);
             } catch (InterruptedException e) {
                 logger.debug("Thread exception {}", e.getClass(), e.getMessage());
+                if (future != null) {
+                    future.cancel(true);
+                }
                 throw new HSMUnknownErrorException("There was an error with the thread of the HSM request", e);
-            } finally {
-                clientProvider.release(client);
             }
 
             try {
-                Thread.sleep(this.waitTimeForReconnection);
+                // Never past the deadline, the next attempt would just time out
+                long backoffTime = Math.min(getBackoffTime(attempts), Math.max(0, deadline - System.currentTimeMillis()));
+                Thread.sleep(backoffTime);
             } catch (InterruptedException ie){
                 String message = String.format(
                         "There was an interrupted exception when trying to contact the HSM gateway. Details: '%s'",
@@ -167,34 +252,168 @@ public class HSMClientProtocol {
         }
     }
 
-    public int validateResponse(String methodName, JsonNode response) throws HSMClientException {
-        return responseHandler.validateResponse(methodName, response);
+    /**
+     * Fails fast while the circuit is open. Once it's time to check on the HSM again,
+     * the caller that gets to probe it sends a version command before its own one.
+     */
+    private void ensureAvailable(String commandName) throws HSMClientException {
+        if (circuitBreaker.isClosed()) {
+            return;
+        }
+        if (!circuitBreaker.tryStartProbe()) {
+            throw new HSMUnavailableException(String.format(
+                "HSM is not available, %s was not sent. Next check in %d ms",
+                commandName,
+                circuitBreaker.getRemainingOpenTime()
+            ), null);
+        }
+
+        ObjectNode probe = objectMapper.createObjectNode();
+        probe.put("command", VERSION_METHOD_NAME);
+        try {
+            sendAsync(probe, HSMRequestPriority.SIGNING, getRequestTimeout(HSMRequestPriority.SIGNING)).get();
+            circuitBreaker.recordSuccess();
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof TimeoutException || cause instanceof JsonRpcException || cause instanceof HSMDeviceNotReadyException) {
+                circuitBreaker.recordFailure();
+                throw new HSMUnavailableException(String.format("HSM is still not available, %s was not sent", commandName), cause);
+            }
+            // Any other answer means the HSM is up again
+            circuitBreaker.recordSuccess();
+        } catch (CancellationException e) {
+            circuitBreaker.recordFailure();
+            throw new HSMUnknownErrorException("The HSM probe was cancelled", e);
+        } catch (InterruptedException e) {
+            circuitBreaker.recordFailure();
+            Thread.currentThread().interrupt();
+            throw new HSMUnknownErrorException("There was an error with the thread of the HSM probe", e);
+        }
     }
 
-    public void validatePresenceOf(JsonNode response, String field) throws HSMClientException {
-        responseHandler.validatePresenceOf(response, field);
+    /**
+     * Exponential on the number of attempts, with jitter so that
+     * callers waiting on the same HSM don't retry all at once
+     */
+    private long getBackoffTime(int attempts) {
+        int exponent = Math.min(Math.max(attempts - 1, 0), MAX_BACKOFF_EXPONENT);
+        long backoffTime = Math.min((long) waitTimeForReconnection << exponent, maxWaitTimeForReconnection);
+        return backoffTime / 2 + ThreadLocalRandom.current().nextLong(backoffTime / 2 + 1);
+    }
+
+    /**
+     * Sends the given command just once, without waiting for the response.
+     * The returned future completes with the validated response, or exceptionally with the
+     * connection, HSM or timeout error. Cancelling it drops the request if it wasn't sent yet.
+     */
+    public CompletableFuture<JsonNode> sendAsync(ObjectNode command) {
+        HSMRequestPriority priority = getPriority(command.get("command").textValue());
+        return sendAsync(command, priority, getRequestTimeout(priority));
     }
 
-    private static synchronized ExecutorService getExecutor() {
-        if (executorService == null) {
-            executorService = Executors.newSingleThreadExecutor();
+    private CompletableFuture<JsonNode> sendAsync(ObjectNode command, HSMRequestPriority priority, long timeoutInMillis) {
+        String commandName = command.get("command").textValue();
+        long startTime = System.currentTimeMillis();
+        JsonRpcClient client;
+        try {
+            client = clientProvider.acquire();
+        } catch (JsonRpcException e) {
+            metrics.recordError(e);
+            metrics.recordCommand(commandName, System.currentTimeMillis() - startTime, false);
+            CompletableFuture<JsonNode> failedFuture = new CompletableFuture<>();
+            failedFuture.completeExceptionally(e);
+            return failedFuture;
         }
-        return executorService;
+        metrics.recordConnectionAcquisition(System.currentTimeMillis() - startTime);
+
+        // Released by the worker once it's done with the connection, never while it may still be writing to it
+        CompletableFuture<JsonNode> response = requestExecutor.submit(
+            client,
+            command,
+            priority,
+            timeoutInMillis,
+            () -> clientProvider.release(client)
+        );
+        // Metrics are recorded before the caller gets to see the outcome
+        CompletableFuture<JsonNode> validatedResponse = response.handle((result, throwable) -> {
+            long latency = System.currentTimeMillis() - startTime;
+            if (throwable != null) {
+                metrics.recordError(unwrap(throwable));
+                metrics.recordCommand(commandName, latency, false);
+                throw throwable instanceof CompletionException ? (CompletionException) throwable : new CompletionException(throwable);
+            }
+            if (result != null && result.has(ERROR_CODE_FIELD) && result.get(ERROR_CODE_FIELD).asInt() != 0) {
+                metrics.recordErrorCode(result.get(ERROR_CODE_FIELD).asInt());
+            }
+            try {
+                int responseCode = validateResponse(commandName, result);
+                logger.trace("HSM responds with code {} to command {}", responseCode, commandName);
+                metrics.recordCommand(commandName, latency, true);
+                return result;
+            } catch (HSMClientException e) {
+                metrics.recordCommand(commandName, latency, false);
+                throw new CompletionException(e);
+            }
+        });
+        // Cancellation doesn't go upstream on its own
+        validatedResponse.whenComplete((result, throwable) -> response.cancel(false));
+        return validatedResponse;
     }
 
-    private class HSMRequest implements Callable<JsonNode> {
-        private final JsonRpcClient client;
-        private final ObjectNode command;
-        public HSMRequest(JsonRpcClient client, ObjectNode command) {
-            this.client = client;
-            this.command = command;
+    /**
+     * Waits for a response obtained through {@link #sendAsync(ObjectNode)}
+     */
+    public JsonNode getResponse(CompletableFuture<JsonNode> response, String commandName) throws HSMClientException {
+        try {
+            return response.get();
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof HSMClientException) {
+                throw (HSMClientException) cause;
+            }
+            if (cause instanceof TimeoutException || cause instanceof JsonRpcException) {
+                String message = String.format(
+                    "There was an error trying to get the response to %s from the HSM gateway. Details: '%s'",
+                    commandName,
+                    cause.getMessage()
+                );
+                logger.error(message, cause);
+                throw new HSMGatewayIrresponsiveException(message, cause);
+            }
+            throw new HSMUnknownErrorException("There was an error sending the HSM request", cause);
+        } catch (CancellationException e) {
+            throw new HSMUnknownErrorException("The HSM request was cancelled", e);
+        } catch (InterruptedException e) {
+            response.cancel(true);
+            throw new HSMUnknownErrorException("There was an error with the thread of the HSM request", e);
         }
+    }
+
+    /**
+     * @return true if many commands can be outstanding at the same time,
+     * so that sending them with {@link #sendAsync(ObjectNode)} overlaps their latency
+     */
+    public boolean isPipelined() {
+        return clientProvider.isPipelined();
+    }
+
+    private HSMRequestPriority getPriority(String commandName) {
+        return BOOKKEEPING_METHOD_NAMES.contains(commandName) ? HSMRequestPriority.BOOKKEEPING : HSMRequestPriority.SIGNING;
+    }
 
-        @Override
-        public JsonNode call() throws Exception {
-            return client.send(command);
+    private Throwable unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof ExecutionException || cause instanceof CompletionException) && cause.getCause() != null) {
+            cause = cause.getCause();
         }
+        return cause;
     }
 
-}
+    public int validateResponse(String methodName, JsonNode response) throws HSMClientException {
+        return responseHandler.validateResponse(methodName, response);
+    }
 
+    public void validatePresenceOf(JsonNode response, String field) throws HSMClientException {
+        responseHandler.validatePresenceOf(response, field);
+    }
+}
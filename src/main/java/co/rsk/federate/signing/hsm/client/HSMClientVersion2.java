@@ -56,14 +56,18 @@ public abstract class HSMClientVersion2 extends HSMClientBase {
     @Override
     public HSMSignature sign(String keyId, SignerMessage message) throws HSMClientException {
         final String SIGNATURE_FIELD = "signature";
-        final String R_FIELD = "r";
-        final String S_FIELD = "s";
 
         ObjectNode objectToSign = createObjectToSend(keyId, message);
         JsonNode response = this.hsmClientProtocol.send(objectToSign);
         this.hsmClientProtocol.validatePresenceOf(response, SIGNATURE_FIELD);
 
-        JsonNode signature = response.get(SIGNATURE_FIELD);
+        return parseSignature(keyId, message, response.get(SIGNATURE_FIELD));
+    }
+
+    protected HSMSignature parseSignature(String keyId, SignerMessage message, JsonNode signature) throws HSMClientException {
+        final String R_FIELD = "r";
+        final String S_FIELD = "s";
+
         this.hsmClientProtocol.validatePresenceOf(signature, R_FIELD);
         this.hsmClientProtocol.validatePresenceOf(signature, S_FIELD);
 
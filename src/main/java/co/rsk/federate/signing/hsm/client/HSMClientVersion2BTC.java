@@ -1,10 +1,15 @@
 package co.rsk.federate.signing.hsm.client;
 
 import co.rsk.bitcoinj.core.Sha256Hash;
+import co.rsk.crypto.Keccak256;
+import co.rsk.federate.rpc.JsonRpcMapper;
 import co.rsk.federate.signing.hsm.HSMClientException;
+import co.rsk.federate.signing.hsm.HSMCommandUnknownException;
+import co.rsk.federate.signing.hsm.HSMInvalidResponseException;
+import co.rsk.federate.signing.hsm.HSMUnavailableException;
 import co.rsk.federate.signing.hsm.message.*;
+import co.rsk.federate.util.CurrentTimeProvider;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.annotations.VisibleForTesting;
@@ -15,23 +20,59 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class HSMClientVersion2BTC extends HSMClientVersion2 implements HSMBookkeepingClient {
     private final Logger logger = LoggerFactory.getLogger(HSMClientVersion2BTC.class);
 
-    private int maxChunkSize = 10;  // DEFAULT VALUE
+    private static final String SIGN_BATCH_METHOD_NAME = "signBatch";
+    private static final String ADVANCE_BLOCKCHAIN_METHOD_NAME = "advanceBlockchain";
+    public static final long DEFAULT_HSM_POINTER_CACHE_TTL = 30_000;
+
+    private final HSMChunkSizer chunkSizer = new HSMChunkSizer(10);  // DEFAULT MAX VALUE
     private boolean isStopped = false;
+    // Older HSM firmwares don't know the batch command, once rejected we stick to single input signing
+    private volatile boolean batchSigningSupported = true;
+
+    private final CurrentTimeProvider currentTimeProvider;
+    private long hsmPointerCacheTtl = DEFAULT_HSM_POINTER_CACHE_TTL;
+    // Last blockchain state read from the HSM, kept up to date with the commands we send. Null when unknown.
+    private volatile CachedHSMPointer cachedHSMPointer;
+    // Headers of the last update that was cut short before the HSM got all of them. Null when there is none.
+    private volatile ChunksInProgress chunksInProgress;
+    private volatile HSMAdvanceBlockchainProgressListener advanceBlockchainProgressListener;
 
     public void setStopSending() {
         this.isStopped = true;
     }
 
     public HSMClientVersion2BTC(HSMClientProtocol protocol) {
+        this(protocol, System::currentTimeMillis);
+    }
+
+    public HSMClientVersion2BTC(HSMClientProtocol protocol, CurrentTimeProvider currentTimeProvider) {
         super(protocol);
+        this.currentTimeProvider = currentTimeProvider;
+    }
+
+    /**
+     * Sets for how long the HSM blockchain state is trusted without asking the device again
+     */
+    public void setHSMPointerCacheTtl(long hsmPointerCacheTtl) {
+        this.hsmPointerCacheTtl = hsmPointerCacheTtl;
+    }
+
+    public void setAdvanceBlockchainProgressListener(HSMAdvanceBlockchainProgressListener listener) {
+        this.advanceBlockchainProgressListener = listener;
     }
 
     public void setMaxChunkSizeToHsm(int maxChunkSize) {
-        this.maxChunkSize = maxChunkSize;
+        this.chunkSizer.setMaxChunkSize(maxChunkSize);
+    }
+
+    @VisibleForTesting
+    HSMChunkSizer getChunkSizer() {
+        return chunkSizer;
     }
 
     @Override
@@ -47,13 +88,101 @@ public class HSMClientVersion2BTC extends HSMClientVersion2 implements HSMBookke
         return objectToSign;
     }
 
+    /**
+     * Signs all the inputs of a release transaction with a single command.
+     * All the given messages MUST refer to the same transaction and receipt,
+     * only the input index is allowed to change between them.
+     * Falls back to one sign command per input if the HSM doesn't support batching.
+     */
+    @Override
+    public List<HSMSignature> signBatch(String keyId, List<SignerMessage> messages) throws HSMClientException {
+        if (messages.size() <= 1 || !batchSigningSupported) {
+            return signEach(keyId, messages);
+        }
+
+        try {
+            return sendSignBatch(keyId, messages);
+        } catch (HSMCommandUnknownException e) {
+            logger.info("[signBatch] HSM doesn't support batch signing, falling back to one sign command per input");
+            batchSigningSupported = false;
+            return signEach(keyId, messages);
+        }
+    }
+
+    private List<HSMSignature> signEach(String keyId, List<SignerMessage> messages) throws HSMClientException {
+        if (messages.size() <= 1 || !hsmClientProtocol.isPipelined()) {
+            return super.signBatch(keyId, messages);
+        }
+
+        // Pipelined connection, send every sign command before waiting for the first signature
+        final String SIGNATURE_FIELD = "signature";
+        List<CompletableFuture<JsonNode>> responses = new ArrayList<>(messages.size());
+        try {
+            for (SignerMessage message : messages) {
+                responses.add(this.hsmClientProtocol.sendAsync(createObjectToSend(keyId, message)));
+            }
+            List<HSMSignature> signatures = new ArrayList<>(messages.size());
+            for (int i = 0; i < messages.size(); i++) {
+                JsonNode response = this.hsmClientProtocol.getResponse(responses.get(i), SIGN_METHOD_NAME);
+                this.hsmClientProtocol.validatePresenceOf(response, SIGNATURE_FIELD);
+                signatures.add(parseSignature(keyId, messages.get(i), response.get(SIGNATURE_FIELD)));
+            }
+            return signatures;
+        } finally {
+            // Drop whatever is still queued if any of them failed
+            responses.forEach(response -> response.cancel(false));
+        }
+    }
+
+    @VisibleForTesting
+    boolean isBatchSigningSupported() {
+        return batchSigningSupported;
+    }
+
+    private List<HSMSignature> sendSignBatch(String keyId, List<SignerMessage> messages) throws HSMClientException {
+        final String MESSAGE_FIELD = "message";
+        final String INPUTS_FIELD = "inputs";
+        final String SIGNATURES_FIELD = "signatures";
+
+        // Auth and transaction are shared by every input, build them just once
+        SignerMessageVersion2 firstMessage = (SignerMessageVersion2) messages.get(0);
+        ObjectNode messageToSend = JsonRpcMapper.createObjectNode();
+        messageToSend.put("tx", firstMessage.getBtcTransactionSerialized());
+        ArrayNode inputs = messageToSend.putArray(INPUTS_FIELD);
+        for (SignerMessage message : messages) {
+            inputs.add(((SignerMessageVersion2) message).getInputIndex());
+        }
+
+        ObjectNode command = this.hsmClientProtocol.buildCommand(SIGN_BATCH_METHOD_NAME, this.getVersion());
+        command.put(KEYID_FIELD, keyId);
+        command.set(AUTH_FIELD, createAuthField(firstMessage));
+        command.set(MESSAGE_FIELD, messageToSend);
+
+        JsonNode response = this.hsmClientProtocol.send(command);
+        this.hsmClientProtocol.validatePresenceOf(response, SIGNATURES_FIELD);
+        JsonNode signatures = response.get(SIGNATURES_FIELD);
+        if (!signatures.isArray() || signatures.size() != messages.size()) {
+            throw new HSMInvalidResponseException(String.format(
+                "Expected %d signatures from the HSM but got %d",
+                messages.size(),
+                signatures.size()
+            ));
+        }
+
+        List<HSMSignature> result = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            result.add(parseSignature(keyId, messages.get(i), signatures.get(i)));
+        }
+        return result;
+    }
+
     private ObjectNode createAuthField(SignerMessageVersion2 message) {
         final String RECEIPT = "receipt";
         final String RECEIPT_MERKLE_PROOF = "receipt_merkle_proof";
 
-        ObjectNode auth = new ObjectMapper().createObjectNode();
+        ObjectNode auth = JsonRpcMapper.createObjectNode();
         auth.put(RECEIPT, message.getTransactionReceipt());
-        ArrayNode receiptMerkleProof = new ObjectMapper().createArrayNode();
+        ArrayNode receiptMerkleProof = JsonRpcMapper.createArrayNode();
         for (String receiptMerkleProofValue :message.getReceiptMerkleProof() ) {
             receiptMerkleProof.add(receiptMerkleProofValue);
         }
@@ -62,7 +191,7 @@ public class HSMClientVersion2BTC extends HSMClientVersion2 implements HSMBookke
     }
 
     private ObjectNode createMessageField(SignerMessageVersion2 message){
-        ObjectNode messageToSend = new ObjectMapper().createObjectNode();
+        ObjectNode messageToSend = JsonRpcMapper.createObjectNode();
         messageToSend.put("tx", message.getBtcTransactionSerialized());
         messageToSend.put("input", message.getInputIndex());
         return messageToSend;
@@ -106,71 +235,299 @@ public class HSMClientVersion2BTC extends HSMClientVersion2 implements HSMBookke
         return chunks;
     }
 
+    /**
+     * @return true if every chunk was sent
+     */
     @VisibleForTesting
-    protected void sendBlockHeadersChunks(
+    protected boolean sendBlockHeadersChunks(
         List<String> blockHeaders,
         String actualMethod,
         boolean keepPreviousChunkLastItem
     ) throws HSMClientException {
         if (isStopped) {
-            return;
+            return false;
         }
         // If HSM has an advanceBlockchain in progress, advanceAncestorBlock or a new advanceBlockchain can't be call.
         if (blockHeaders == null || blockHeaders.isEmpty()) {
-            return;
+            return false;
         }
         if (getHSMPointer().getInProgressState()) {
+            resumeChunksInProgress(actualMethod);
+            return false;
+        }
+        // Whatever was left of a previous update, the HSM isn't waiting for it anymore
+        chunksInProgress = null;
+
+        logger.trace("[{}] Payload total size: {}", actualMethod, blockHeaders.size());
+
+        boolean sent = false;
+        try {
+            sent = sendChunksInProgress(new ChunksInProgress(actualMethod, blockHeaders, keepPreviousChunkLastItem));
+            return sent;
+        } finally {
+            if (!sent) {
+                // Who knows how far the HSM got
+                invalidateHSMPointer();
+            }
+        }
+    }
+
+    /*
+    The HSM has to get the rest of the headers of an update it already started before it accepts a new one.
+    The headers that were going to be sent this time are not, the next bookkeeping round will get them again.
+     */
+    private void resumeChunksInProgress(String actualMethod) throws HSMClientException {
+        ChunksInProgress interrupted = chunksInProgress;
+        if (interrupted == null) {
             logger.trace(
                     "[{}] HSM is already updating its state. Not going to proceed with this request",
                     actualMethod
             );
             return;
         }
-        List<String[]> blockHeadersChunks = getChunks(
-            blockHeaders.toArray(new String[]{}),
-            maxChunkSize,
-            keepPreviousChunkLastItem
+        logger.info(
+                "[{}] Resuming {} from header {}/{} before going on",
+                actualMethod,
+                interrupted.method,
+                interrupted.nextHeader + 1,
+                interrupted.blockHeaders.size()
         );
+        try {
+            sendChunksInProgress(interrupted);
+        } finally {
+            invalidateHSMPointer();
+        }
+    }
 
-        logger.trace("[{}] Payload total size: {}", actualMethod, blockHeaders.size());
+    private boolean sendChunksInProgress(ChunksInProgress chunks) throws HSMClientException {
+        if (this.hsmClientProtocol.isPipelined()) {
+            return sendPipelinedChunks(chunks);
+        }
+        return sendChunks(chunks);
+    }
 
-        final String BLOCKS_FIELD = "blocks";
-        for (int i = 0; i < blockHeadersChunks.size(); i++) {
+    /*
+    Chunks are sent one at a time, each one as big as the chunk sizer says given how long the previous ones took.
+    If the HSM can't be reached the chunk is not sent at all, so what's left of the headers is kept for the
+    HSM to get once it's back. After any other failure it's unknown whether the HSM got the chunk.
+     */
+    private boolean sendChunks(ChunksInProgress chunks) throws HSMClientException {
+        chunksInProgress = chunks;
+        List<String> blockHeaders = chunks.blockHeaders;
+        while (true) {
+            if (isStopped) {
+                return false;
+            }
+            int start = chunks.nextHeader;
+            int end = Math.min(start + getChunkSize(chunks), blockHeaders.size());
+            ObjectNode payload = buildChunkPayload(chunks.method, blockHeaders.subList(start, end));
+
+            logger.trace("[{}] headers {} to {} of {}", chunks.method, start + 1, end, blockHeaders.size());
+            long sendTime = currentTimeProvider.currentTimeMillis();
             try {
-                String[] blockHeaderChunk = blockHeadersChunks.get(i);
-                ObjectNode payload = this.hsmClientProtocol.buildCommand(actualMethod, this.getVersion());
-                ArrayNode blocksFieldData = new ObjectMapper().createArrayNode();
-                for (String blockHeader : blockHeaderChunk) {
-                    blocksFieldData.add(blockHeader);
-                }
-                payload.set(BLOCKS_FIELD, blocksFieldData);
-                if (isStopped) {
-                    return;
-                }
-                logger.trace("[{}] chunk {}/{}", actualMethod, i + 1, blockHeadersChunks.size());
                 this.hsmClientProtocol.send(payload);
+            } catch (HSMUnavailableException e) {
+                logger.warn(
+                        "[sendBlockHeadersChunks] {} stopped at header {}/{}, will resume once the HSM is back. Error: {}",
+                        chunks.method,
+                        start + 1,
+                        blockHeaders.size(),
+                        e.getMessage()
+                );
+                throw e;
             } catch (HSMClientException e) {
+                chunksInProgress = null;
+                chunkSizer.recordFailure();
                 logger.warn(
-                        "[sendBlockHeadersChunks] {} failed sending {}/{} chunks. Error: {}",
-                        actualMethod,
+                        "[sendBlockHeadersChunks] {} failed sending headers {} to {} of {}. Error: {}",
+                        chunks.method,
+                        start + 1,
+                        end,
+                        blockHeaders.size(),
+                        e.getMessage()
+                );
+                throw e;
+            }
+            chunkSizer.recordSuccess(end - start, currentTimeProvider.currentTimeMillis() - sendTime);
+
+            if (end >= blockHeaders.size()) {
+                chunksInProgress = null;
+                notifyHeadersSent(chunks.method, blockHeaders.size(), blockHeaders.size());
+                return true;
+            }
+            chunks.nextHeader = chunks.keepPreviousChunkLastItem ? end - 1 : end;
+            notifyHeadersSent(chunks.method, chunks.nextHeader, blockHeaders.size());
+        }
+    }
+
+    private void notifyHeadersSent(String actualMethod, int nextHeader, int totalHeaders) {
+        HSMAdvanceBlockchainProgressListener listener = advanceBlockchainProgressListener;
+        if (listener != null && ADVANCE_BLOCKCHAIN_METHOD_NAME.equals(actualMethod)) {
+            listener.onHeadersSent(nextHeader, totalHeaders);
+        }
+    }
+
+    private ObjectNode buildChunkPayload(String actualMethod, List<String> blockHeaders) {
+        final String BLOCKS_FIELD = "blocks";
+        ObjectNode payload = this.hsmClientProtocol.buildCommand(actualMethod, this.getVersion());
+        ArrayNode blocksFieldData = payload.putArray(BLOCKS_FIELD);
+        for (String blockHeader : blockHeaders) {
+            blocksFieldData.add(blockHeader);
+        }
+        return payload;
+    }
+
+    /*
+    All the chunks are written back to back on the pipelined connection, the HSM still processes them in order.
+    They all get the size the chunk sizer says when writing the first one, and each answered chunk feeds the sizer
+    with the time since the previous answer. When a chunk fails, that chunk and every later one were already
+    written and the HSM may have taken any of them, so nothing is kept to resume. The chunks still queued are
+    dropped and the next bookkeeping round starts over from the HSM state.
+     */
+    private boolean sendPipelinedChunks(ChunksInProgress chunks) throws HSMClientException {
+        if (isStopped) {
+            return false;
+        }
+        chunksInProgress = chunks;
+        List<String> blockHeaders = chunks.blockHeaders;
+        int chunkSize = getChunkSize(chunks);
+        List<Integer> chunkEnds = new ArrayList<>();
+        List<CompletableFuture<JsonNode>> responses = new ArrayList<>();
+        int start = chunks.nextHeader;
+        while (true) {
+            int end = Math.min(start + chunkSize, blockHeaders.size());
+            chunkEnds.add(end);
+            responses.add(this.hsmClientProtocol.sendAsync(buildChunkPayload(chunks.method, blockHeaders.subList(start, end))));
+            if (end >= blockHeaders.size()) {
+                break;
+            }
+            start = chunks.keepPreviousChunkLastItem ? end - 1 : end;
+        }
+        logger.trace("[{}] {} chunks sent from header {}", chunks.method, responses.size(), chunks.nextHeader + 1);
+
+        long previousResponseTime = currentTimeProvider.currentTimeMillis();
+        for (int i = 0; i < responses.size(); i++) {
+            int chunkStart = chunks.nextHeader;
+            int end = chunkEnds.get(i);
+            try {
+                this.hsmClientProtocol.getResponse(responses.get(i), chunks.method);
+            } catch (HSMClientException e) {
+                chunksInProgress = null;
+                invalidateHSMPointer();
+                chunkSizer.recordFailure();
+                logger.warn(
+                        "[sendPipelinedChunks] {} failed sending {}/{} chunks, from header {}/{}. Error: {}",
+                        chunks.method,
                         i + 1,
-                        blockHeadersChunks.size(),
+                        responses.size(),
+                        chunkStart + 1,
+                        blockHeaders.size(),
                         e.getMessage()
                 );
+                responses.forEach(response -> response.cancel(false));
                 throw e;
             }
+            long responseTime = currentTimeProvider.currentTimeMillis();
+            chunkSizer.recordSuccess(end - chunkStart, responseTime - previousResponseTime);
+            previousResponseTime = responseTime;
+
+            if (end >= blockHeaders.size()) {
+                chunksInProgress = null;
+                notifyHeadersSent(chunks.method, blockHeaders.size(), blockHeaders.size());
+                return true;
+            }
+            chunks.nextHeader = chunks.keepPreviousChunkLastItem ? end - 1 : end;
+            notifyHeadersSent(chunks.method, chunks.nextHeader, blockHeaders.size());
         }
+        return true;
+    }
+
+    private int getChunkSize(ChunksInProgress chunks) {
+        // Consecutive chunks share a header, so at least another one must go in each chunk
+        return chunks.keepPreviousChunkLastItem ? Math.max(chunkSizer.getChunkSize(), 2) : chunkSizer.getChunkSize();
     }
 
     public void updateAncestorBlock(UpdateAncestorBlockMessage updateAncestorBlockMessage) throws HSMClientException {
-        sendBlockHeadersChunks(updateAncestorBlockMessage.getData(), "updateAncestorBlock", true);
+        boolean updated = sendBlockHeadersChunks(updateAncestorBlockMessage.getData(), "updateAncestorBlock", true);
+        if (updated) {
+            onAncestorBlockUpdated(updateAncestorBlockMessage.getTargetBlockHash());
+        }
     }
 
     public void advanceBlockchain(AdvanceBlockchainMessage advanceBlockchainMessage) throws HSMClientException {
-        sendBlockHeadersChunks(advanceBlockchainMessage.getData(), "advanceBlockchain", false);
+        try {
+            sendBlockHeadersChunks(advanceBlockchainMessage.getData(), ADVANCE_BLOCKCHAIN_METHOD_NAME, false);
+        } finally {
+            // The HSM decides its new best block, it has to be asked for
+            invalidateHSMPointer();
+        }
     }
 
+    /**
+     * Picks up an advanceBlockchain this client didn't start, e.g. one cut short by a node restart.
+     * The headers must be the very same ones the HSM got the first chunks of.
+     */
+    public boolean resumeAdvanceBlockchain(AdvanceBlockchainMessage advanceBlockchainMessage, int nextHeader) throws HSMClientException {
+        List<String> blockHeaders = advanceBlockchainMessage.getData();
+        if (isStopped || nextHeader <= 0 || nextHeader >= blockHeaders.size()) {
+            return false;
+        }
+        try {
+            if (!getHSMPointer().getInProgressState()) {
+                return false;
+            }
+            logger.info(
+                    "[resumeAdvanceBlockchain] Resuming {} from header {}/{}",
+                    ADVANCE_BLOCKCHAIN_METHOD_NAME,
+                    nextHeader + 1,
+                    blockHeaders.size()
+            );
+            ChunksInProgress chunks = new ChunksInProgress(ADVANCE_BLOCKCHAIN_METHOD_NAME, blockHeaders, false);
+            chunks.nextHeader = nextHeader;
+            return sendChunksInProgress(chunks);
+        } finally {
+            invalidateHSMPointer();
+        }
+    }
+
+    /**
+     * The blockchain state of the HSM. It is only read from the device if it wasn't read in
+     * the last hsmPointerCacheTtl ms, or if a command that moves it failed or had an unknown outcome.
+     */
     public HSM2State getHSMPointer() throws HSMClientException {
+        CachedHSMPointer cached = cachedHSMPointer;
+        if (cached != null && currentTimeProvider.currentTimeMillis() - cached.readTime < hsmPointerCacheTtl) {
+            return cached.state;
+        }
+
+        long readTime = currentTimeProvider.currentTimeMillis();
+        HSM2State state;
+        try {
+            state = readHSMPointer();
+        } catch (HSMClientException e) {
+            invalidateHSMPointer();
+            throw e;
+        }
+        // An update in progress is about to change, never trust it
+        cachedHSMPointer = state.getInProgressState() ? null : new CachedHSMPointer(state, readTime);
+        return state;
+    }
+
+    public void invalidateHSMPointer() {
+        cachedHSMPointer = null;
+    }
+
+    private void onAncestorBlockUpdated(Keccak256 ancestorBlockHash) {
+        CachedHSMPointer cached = cachedHSMPointer;
+        if (cached == null || ancestorBlockHash == null) {
+            invalidateHSMPointer();
+            return;
+        }
+        HSM2State updatedState = new HSM2State(cached.state.getBestBlockHash(), ancestorBlockHash, false);
+        cachedHSMPointer = new CachedHSMPointer(updatedState, cached.readTime);
+    }
+
+    private HSM2State readHSMPointer() throws HSMClientException {
         final String BLOCKCHAIN_STATE_METHOD_NAME = "blockchainState";
         final String STATE_FIELD = "state";
         final String BEST_BLOCK_FIELD = "best_block";
@@ -203,8 +560,36 @@ public class HSMClientVersion2BTC extends HSMClientVersion2 implements HSMBookke
         final String RESET_COMMAND = "resetAdvanceBlockchain";
 
         ObjectNode command = hsmClientProtocol.buildCommand(RESET_COMMAND, this.getVersion());
-        this.hsmClientProtocol.send(command);
+        try {
+            this.hsmClientProtocol.send(command);
+        } finally {
+            invalidateHSMPointer();
+        }
 
         logger.trace("[resetAdvanceBlockchain] Sent command to reset Advance Blockchain.");
     }
+
+    private static class ChunksInProgress {
+        private final String method;
+        private final List<String> blockHeaders;
+        private final boolean keepPreviousChunkLastItem;
+        // First header of the next chunk to send
+        private volatile int nextHeader;
+
+        private ChunksInProgress(String method, List<String> blockHeaders, boolean keepPreviousChunkLastItem) {
+            this.method = method;
+            this.blockHeaders = blockHeaders;
+            this.keepPreviousChunkLastItem = keepPreviousChunkLastItem;
+        }
+    }
+
+    private static class CachedHSMPointer {
+        private final HSM2State state;
+        private final long readTime;
+
+        private CachedHSMPointer(HSM2State state, long readTime) {
+            this.state = state;
+            this.readTime = readTime;
+        }
+    }
 }
@@ -1,8 +1,8 @@
 package co.rsk.federate.signing.hsm.client;
 
+import co.rsk.federate.rpc.JsonRpcMapper;
 import co.rsk.federate.signing.hsm.message.SignerMessage;
 import co.rsk.federate.signing.hsm.message.SignerMessageVersion1;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.bouncycastle.util.encoders.Hex;
 
@@ -25,7 +25,7 @@ public class HSMClientVersion2RskMst extends HSMClientVersion2 {
     }
 
     private ObjectNode createMessageField(SignerMessageVersion1 messageVersion1){
-        ObjectNode messageToSend = new ObjectMapper().createObjectNode();
+        ObjectNode messageToSend = JsonRpcMapper.createObjectNode();
         messageToSend.put("hash", Hex.toHexString(messageVersion1.getBytes()));
 
         return messageToSend;
@@ -0,0 +1,123 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.signing.hsm.client;
+
+import co.rsk.federate.rpc.JsonRpcTrafficCounter;
+import co.rsk.federate.util.LatencyHistogram;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of how the commands sent to an HSM are doing:
+ * latency and outcome per command, retries, time spent acquiring
+ * connections, traffic and errors by HSM error code or exception.
+ */
+public class HSMProtocolMetrics {
+    private final Map<String, CommandMetrics> commands = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private final LatencyHistogram connectionAcquisition = new LatencyHistogram();
+    private final JsonRpcTrafficCounter trafficCounter = new JsonRpcTrafficCounter();
+
+    public void recordCommand(String commandName, long latencyMillis, boolean success) {
+        CommandMetrics metrics = getCommandMetrics(commandName);
+        metrics.latency.record(latencyMillis);
+        (success ? metrics.successes : metrics.failures).incrementAndGet();
+    }
+
+    public void recordRetry(String commandName) {
+        getCommandMetrics(commandName).retries.incrementAndGet();
+    }
+
+    public void recordConnectionAcquisition(long latencyMillis) {
+        connectionAcquisition.record(latencyMillis);
+    }
+
+    public void recordErrorCode(int errorCode) {
+        recordError("errorcode_" + errorCode);
+    }
+
+    public void recordError(Throwable error) {
+        recordError(error.getClass().getSimpleName());
+    }
+
+    public long getErrorCount(String error) {
+        AtomicLong count = errors.get(error);
+        return count == null ? 0 : count.get();
+    }
+
+    public long getRetries(String commandName) {
+        CommandMetrics metrics = commands.get(commandName);
+        return metrics == null ? 0 : metrics.retries.get();
+    }
+
+    public LatencyHistogram getLatency(String commandName) {
+        CommandMetrics metrics = commands.get(commandName);
+        return metrics == null ? null : metrics.latency;
+    }
+
+    public LatencyHistogram getConnectionAcquisition() {
+        return connectionAcquisition;
+    }
+
+    public JsonRpcTrafficCounter getTrafficCounter() {
+        return trafficCounter;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> commandsSnapshot = new TreeMap<>();
+        commands.forEach((commandName, metrics) -> commandsSnapshot.put(commandName, metrics.toMap()));
+        Map<String, Long> errorsSnapshot = new TreeMap<>();
+        errors.forEach((error, count) -> errorsSnapshot.put(error, count.get()));
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("commands", commandsSnapshot);
+        snapshot.put("connectionAcquisition", connectionAcquisition.toMap());
+        snapshot.put("bytesSent", trafficCounter.getBytesSent());
+        snapshot.put("bytesReceived", trafficCounter.getBytesReceived());
+        snapshot.put("errors", errorsSnapshot);
+        return snapshot;
+    }
+
+    private void recordError(String error) {
+        errors.computeIfAbsent(error, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private CommandMetrics getCommandMetrics(String commandName) {
+        return commands.computeIfAbsent(commandName, k -> new CommandMetrics());
+    }
+
+    private static class CommandMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("successes", successes.get());
+            snapshot.put("failures", failures.get());
+            snapshot.put("retries", retries.get());
+            snapshot.put("latency", latency.toMap());
+            return snapshot;
+        }
+    }
+}
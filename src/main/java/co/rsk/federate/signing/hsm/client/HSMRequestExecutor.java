@@ -0,0 +1,237 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.signing.hsm.client;
+
+import co.rsk.federate.rpc.JsonRpcClient;
+import co.rsk.federate.rpc.PipelinedJsonRpcClient;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends requests to a single HSM endpoint from a single worker.
+ *
+ * Queued requests are sent by priority lane (see {@link HSMRequestPriority}) and in
+ * submission order within a lane, so signing doesn't wait behind queued bookkeeping traffic.
+ * Every request has a deadline: if the response didn't arrive by then the returned future
+ * completes with a {@link TimeoutException}. Requests cancelled or expired while queued are never sent.
+ *
+ * Requests to a {@link PipelinedJsonRpcClient} are just written by the worker, which moves on
+ * to the next one without waiting for the response.
+ *
+ * The client is handed back through the given callback only once the worker is done with it,
+ * which may be after the returned future completed on a timeout.
+ */
+public class HSMRequestExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(HSMRequestExecutor.class);
+
+    private static final Map<String, HSMRequestExecutor> executorsByEndpoint = new ConcurrentHashMap<>();
+    private static final String SHARED_ENDPOINT = "shared";
+
+    private static ScheduledThreadPoolExecutor timeoutScheduler;
+
+    private final String endpoint;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence;
+
+    /**
+     * @return the executor for the HSM listening at the given address
+     */
+    public static HSMRequestExecutor forEndpoint(SocketAddress address) {
+        return executorsByEndpoint.computeIfAbsent(address.toString(), HSMRequestExecutor::new);
+    }
+
+    /**
+     * @return an executor shared by everyone that doesn't know its endpoint
+     */
+    public static HSMRequestExecutor shared() {
+        return executorsByEndpoint.computeIfAbsent(SHARED_ENDPOINT, HSMRequestExecutor::new);
+    }
+
+    public HSMRequestExecutor(String endpoint) {
+        this.endpoint = endpoint;
+        this.sequence = new AtomicLong();
+        this.executor = new ThreadPoolExecutor(
+            1,
+            1,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "HSMRequestExecutor-" + endpoint);
+                thread.setDaemon(true);
+                return thread;
+            }
+        );
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public CompletableFuture<JsonNode> submit(
+        JsonRpcClient client,
+        JsonNode command,
+        HSMRequestPriority priority,
+        long timeoutInMillis
+    ) {
+        return submit(client, command, priority, timeoutInMillis, () -> {});
+    }
+
+    /**
+     * @param onClientDone  run once the client is no longer used for this request
+     */
+    public CompletableFuture<JsonNode> submit(
+        JsonRpcClient client,
+        JsonNode command,
+        HSMRequestPriority priority,
+        long timeoutInMillis,
+        Runnable onClientDone
+    ) {
+        CompletableFuture<JsonNode> future = new CompletableFuture<>();
+        if (timeoutInMillis <= 0) {
+            onClientDone.run();
+            future.completeExceptionally(new TimeoutException("Request deadline already expired"));
+            return future;
+        }
+
+        ScheduledFuture<?> timeout = getTimeoutScheduler().schedule(
+            () -> future.completeExceptionally(new TimeoutException(
+                String.format("No response from HSM %s after %d ms", endpoint, timeoutInMillis)
+            )),
+            timeoutInMillis,
+            TimeUnit.MILLISECONDS
+        );
+        future.whenComplete((result, throwable) -> timeout.cancel(false));
+
+        try {
+            executor.execute(new HSMRequestTask(client, command, priority, sequence.getAndIncrement(), future, onClientDone));
+        } catch (RejectedExecutionException e) {
+            onClientDone.run();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return the amount of requests waiting to be sent
+     */
+    public int getQueuedRequests() {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        executorsByEndpoint.remove(endpoint, this);
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getTimeoutScheduler() {
+        if (timeoutScheduler == null) {
+            timeoutScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "HSMRequestTimeouts");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timeoutScheduler.setRemoveOnCancelPolicy(true);
+        }
+        return timeoutScheduler;
+    }
+
+    private static class HSMRequestTask implements Runnable, Comparable<HSMRequestTask> {
+        private final JsonRpcClient client;
+        private final JsonNode command;
+        private final HSMRequestPriority priority;
+        private final long sequence;
+        private final CompletableFuture<JsonNode> future;
+        private final Runnable onClientDone;
+
+        private HSMRequestTask(
+            JsonRpcClient client,
+            JsonNode command,
+            HSMRequestPriority priority,
+            long sequence,
+            CompletableFuture<JsonNode> future,
+            Runnable onClientDone
+        ) {
+            this.client = client;
+            this.command = command;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.future = future;
+            this.onClientDone = onClientDone;
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                logger.debug("[run] Skipping {} request, cancelled or expired while queued", priority);
+                onClientDone.run();
+                return;
+            }
+            if (client instanceof PipelinedJsonRpcClient) {
+                CompletableFuture<JsonNode> response;
+                try {
+                    response = ((PipelinedJsonRpcClient) client).sendAsync(command);
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                    return;
+                } finally {
+                    // The request is already written, its response is matched by id on any user of the client
+                    onClientDone.run();
+                }
+                response.whenComplete((result, throwable) -> {
+                    if (throwable != null) {
+                        future.completeExceptionally(throwable);
+                    } else {
+                        future.complete(result);
+                    }
+                });
+                return;
+            }
+            try {
+                future.complete(client.send(command));
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            } finally {
+                onClientDone.run();
+            }
+        }
+
+        @Override
+        public int compareTo(HSMRequestTask other) {
+            int byPriority = priority.compareTo(other.priority);
+            if (byPriority != 0) {
+                return byPriority;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
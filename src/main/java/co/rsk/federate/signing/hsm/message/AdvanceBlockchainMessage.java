@@ -2,6 +2,7 @@ package co.rsk.federate.signing.hsm.message;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 import org.ethereum.core.BlockHeader;
 import org.spongycastle.util.encoders.Hex;
 
@@ -9,14 +10,18 @@ public class AdvanceBlockchainMessage {
     private final List<String> blockHeaders;
 
     public AdvanceBlockchainMessage(List<BlockHeader> blockHeaders) {
+        this(blockHeaders, AdvanceBlockchainMessage::encode);
+    }
+
+    public AdvanceBlockchainMessage(List<BlockHeader> blockHeaders, Function<BlockHeader, String> encoder) {
         this.blockHeaders = new ArrayList<>();
         // Invert order
         for (int index = blockHeaders.size() - 1; index >= 0; index--) {
-            this.blockHeaders.add(parseBlockHeader(blockHeaders.get(index)));
+            this.blockHeaders.add(encoder.apply(blockHeaders.get(index)));
         }
     }
 
-    private String parseBlockHeader(BlockHeader blockHeader) {
+    public static String encode(BlockHeader blockHeader) {
         return Hex.toHexString(blockHeader.getFullEncoded());
     }
 
@@ -8,8 +8,12 @@ public class HSM2State {
     private final boolean inProgress;
 
     public HSM2State(String bestBlockHash, String ancestorBlockHash, boolean inProgress) {
-        this.bestBlockHash = new Keccak256(bestBlockHash);
-        this.ancestorBlockHash = new Keccak256(ancestorBlockHash);
+        this(new Keccak256(bestBlockHash), new Keccak256(ancestorBlockHash), inProgress);
+    }
+
+    public HSM2State(Keccak256 bestBlockHash, Keccak256 ancestorBlockHash, boolean inProgress) {
+        this.bestBlockHash = bestBlockHash;
+        this.ancestorBlockHash = ancestorBlockHash;
         this.inProgress = inProgress;
     }
 
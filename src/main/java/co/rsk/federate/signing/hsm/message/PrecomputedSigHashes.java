@@ -0,0 +1,178 @@
+package co.rsk.federate.signing.hsm.message;
+
+import co.rsk.bitcoinj.core.BtcTransaction;
+import co.rsk.bitcoinj.core.Sha256Hash;
+import co.rsk.bitcoinj.core.TransactionInput;
+import co.rsk.bitcoinj.core.TransactionOutput;
+import co.rsk.bitcoinj.core.Utils;
+import co.rsk.bitcoinj.core.VarInt;
+import co.rsk.bitcoinj.script.Script;
+import co.rsk.bitcoinj.script.ScriptChunk;
+import co.rsk.bitcoinj.script.ScriptOpCodes;
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Legacy SIGHASH_ALL hashes for every input of a release transaction.
+ *
+ * BtcTransaction#hashForSignature copies and re-serializes the whole
+ * transaction for each input. Here the parts that are shared among inputs
+ * (outpoints, sequences, outputs and lock time) are serialized just once, and the digest
+ * of the inputs before the signed one is carried over from one input to the next.
+ * The inputs after the signed one and the outputs are still hashed again for every input,
+ * so hashing stays quadratic on the number of inputs; what is saved is the copying and
+ * serializing of the transaction, and the hashing of the prefix.
+ *
+ * The redeem script of each input is taken from the last chunk of its scriptSig,
+ * the same way the release client does it, so the result doesn't depend on the signatures present in the tx.
+ */
+public class PrecomputedSigHashes {
+    private static final int OUTPOINT_AND_SEQUENCE_SIZE = 36 + 1 + 4;
+
+    private final Sha256Hash fingerprint;
+    private final List<Sha256Hash> sigHashes;
+
+    private PrecomputedSigHashes(Sha256Hash fingerprint, List<Sha256Hash> sigHashes) {
+        this.fingerprint = fingerprint;
+        this.sigHashes = Collections.unmodifiableList(sigHashes);
+    }
+
+    public static PrecomputedSigHashes of(BtcTransaction tx) {
+        SerializedParts parts = new SerializedParts(tx);
+        List<Sha256Hash> sigHashes = new ArrayList<>(parts.inputsCount);
+
+        MessageDigest prefixDigest = newSha256Digest();
+        prefixDigest.update(parts.header);
+        for (int inputIndex = 0; inputIndex < parts.inputsCount; inputIndex++) {
+            MessageDigest inputDigest = cloneDigest(prefixDigest);
+            // Input being signed carries its redeem script, the rest of them an empty script
+            int inputOffset = inputIndex * OUTPOINT_AND_SEQUENCE_SIZE;
+            inputDigest.update(parts.emptyInputs, inputOffset, 36);
+            inputDigest.update(parts.connectedScripts.get(inputIndex));
+            inputDigest.update(parts.emptyInputs, inputOffset + 37, 4);
+            int nextInputOffset = inputOffset + OUTPOINT_AND_SEQUENCE_SIZE;
+            inputDigest.update(parts.emptyInputs, nextInputOffset, parts.emptyInputs.length - nextInputOffset);
+            inputDigest.update(parts.trailer);
+            sigHashes.add(Sha256Hash.of(inputDigest.digest()));
+
+            prefixDigest.update(parts.emptyInputs, inputOffset, OUTPOINT_AND_SEQUENCE_SIZE);
+        }
+
+        return new PrecomputedSigHashes(parts.fingerprint(), sigHashes);
+    }
+
+    /**
+     * Identifies the transaction regardless of the signatures it carries.
+     * Two transactions with the same fingerprint have the same sighashes.
+     */
+    public static Sha256Hash fingerprintOf(BtcTransaction tx) {
+        return new SerializedParts(tx).fingerprint();
+    }
+
+    public Sha256Hash getFingerprint() {
+        return fingerprint;
+    }
+
+    public Sha256Hash getSigHash(int inputIndex) {
+        return sigHashes.get(inputIndex);
+    }
+
+    public int size() {
+        return sigHashes.size();
+    }
+
+    private static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static MessageDigest cloneDigest(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("SHA-256 digest can't be cloned", e);
+        }
+    }
+
+    private static class SerializedParts {
+        private final int inputsCount;
+        // version + inputs count
+        private final byte[] header;
+        // outpoint + empty script + sequence, for every input
+        private final byte[] emptyInputs;
+        // outputs + lock time + sighash type
+        private final byte[] trailer;
+        // length prefixed redeem script, for every input
+        private final List<byte[]> connectedScripts;
+
+        private SerializedParts(BtcTransaction tx) {
+            List<TransactionInput> inputs = tx.getInputs();
+            inputsCount = inputs.size();
+
+            ByteArrayOutputStream headerStream = new ByteArrayOutputStream();
+            writeUint32(headerStream, tx.getVersion());
+            writeBytes(headerStream, new VarInt(inputsCount).encode());
+            header = headerStream.toByteArray();
+
+            ByteArrayOutputStream inputsStream = new ByteArrayOutputStream(inputsCount * OUTPOINT_AND_SEQUENCE_SIZE);
+            connectedScripts = new ArrayList<>(inputsCount);
+            for (TransactionInput input : inputs) {
+                writeBytes(inputsStream, input.getOutpoint().bitcoinSerialize());
+                inputsStream.write(0);
+                writeUint32(inputsStream, input.getSequenceNumber());
+                connectedScripts.add(serializeConnectedScript(input));
+            }
+            emptyInputs = inputsStream.toByteArray();
+
+            ByteArrayOutputStream trailerStream = new ByteArrayOutputStream();
+            List<TransactionOutput> outputs = tx.getOutputs();
+            writeBytes(trailerStream, new VarInt(outputs.size()).encode());
+            for (TransactionOutput output : outputs) {
+                writeBytes(trailerStream, output.bitcoinSerialize());
+            }
+            writeUint32(trailerStream, tx.getLockTime());
+            writeUint32(trailerStream, BtcTransaction.SigHash.ALL.value);
+            trailer = trailerStream.toByteArray();
+        }
+
+        private Sha256Hash fingerprint() {
+            MessageDigest digest = newSha256Digest();
+            digest.update(header);
+            digest.update(emptyInputs);
+            for (byte[] connectedScript : connectedScripts) {
+                digest.update(connectedScript);
+            }
+            digest.update(trailer);
+            return Sha256Hash.wrap(digest.digest());
+        }
+
+        private static byte[] serializeConnectedScript(TransactionInput input) {
+            List<ScriptChunk> chunks = input.getScriptSig().getChunks();
+            byte[] redeemScript = chunks.get(chunks.size() - 1).data;
+            // Same as BtcTransaction#hashForSignature does
+            byte[] connectedScript = Script.removeAllInstancesOfOp(redeemScript, ScriptOpCodes.OP_CODESEPARATOR);
+
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            writeBytes(stream, new VarInt(connectedScript.length).encode());
+            writeBytes(stream, connectedScript);
+            return stream.toByteArray();
+        }
+
+        private static void writeUint32(ByteArrayOutputStream stream, long value) {
+            byte[] bytes = new byte[4];
+            Utils.uint32ToByteArrayLE(value, bytes, 0);
+            writeBytes(stream, bytes);
+        }
+
+        private static void writeBytes(ByteArrayOutputStream stream, byte[] bytes) {
+            stream.write(bytes, 0, bytes.length);
+        }
+    }
+}
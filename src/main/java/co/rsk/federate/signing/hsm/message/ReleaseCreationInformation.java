@@ -11,7 +11,7 @@ public class ReleaseCreationInformation {
     private final Keccak256 releaseRskTxHash;
     private final Keccak256 informingRskTxHash;
     private final BtcTransaction btcTransaction;
-
+    private PrecomputedSigHashes sigHashes;
 
     /**
      *
@@ -76,4 +76,15 @@ public class ReleaseCreationInformation {
     public BtcTransaction getBtcTransaction() {
         return btcTransaction;
     }
+
+    /**
+     * gets the sighashes of the BTC transaction inputs, if they were already computed
+     **/
+    public PrecomputedSigHashes getSigHashes() {
+        return sigHashes;
+    }
+
+    public void setSigHashes(PrecomputedSigHashes sigHashes) {
+        this.sigHashes = sigHashes;
+    }
 }
@@ -21,7 +21,10 @@ public class SignerMessageBuilderFactory {
         SignerMessageBuilder messageBuilder;
         switch (version) {
             case 1:
-                messageBuilder = new SignerMessageBuilderVersion1(releaseCreationInformation.getBtcTransaction());
+                messageBuilder = new SignerMessageBuilderVersion1(
+                    releaseCreationInformation.getBtcTransaction(),
+                    releaseCreationInformation.getSigHashes()
+                );
                 break;
             case 2:
                 messageBuilder = new SignerMessageBuilderVersion2(receiptStore, releaseCreationInformation);
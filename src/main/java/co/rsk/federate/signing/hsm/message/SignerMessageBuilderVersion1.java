@@ -9,6 +9,10 @@ public class SignerMessageBuilderVersion1 extends SignerMessageBuilder {
         super(unsignedBtcTx);
     }
 
+    public SignerMessageBuilderVersion1(BtcTransaction unsignedBtcTx, PrecomputedSigHashes sigHashes) {
+        super(unsignedBtcTx, sigHashes);
+    }
+
     public SignerMessage buildMessageForIndex(int inputIndex) {
         Sha256Hash sigHash = getSigHashByInputIndex(inputIndex);
         SignerMessage messageToSign = new SignerMessageVersion1(sigHash.getBytes());
@@ -23,7 +23,7 @@ public class SignerMessageBuilderVersion2 extends SignerMessageBuilder {
     public SignerMessageBuilderVersion2(
         ReceiptStore receiptStore,
         ReleaseCreationInformation releaseCreationInformation) {
-        super(releaseCreationInformation.getBtcTransaction());
+        super(releaseCreationInformation.getBtcTransaction(), releaseCreationInformation.getSigHashes());
 
         this.txReceipt = releaseCreationInformation.getTransactionReceipt();
         this.rskBlock = releaseCreationInformation.getBlock();
@@ -1,6 +1,8 @@
 package co.rsk.federate.signing.hsm.message;
 
+import co.rsk.crypto.Keccak256;
 import java.util.List;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.ethereum.core.BlockHeader;
 import org.spongycastle.util.encoders.Hex;
@@ -8,19 +10,30 @@ import org.spongycastle.util.encoders.Hex;
 public class UpdateAncestorBlockMessage {
 
     private final List<String> blockHeaders;
+    private final Keccak256 targetBlockHash;
 
     public UpdateAncestorBlockMessage(List<BlockHeader> blockHeaders) {
+        this(blockHeaders, UpdateAncestorBlockMessage::encode);
+    }
+
+    public UpdateAncestorBlockMessage(List<BlockHeader> blockHeaders, Function<BlockHeader, String> encoder) {
         this.blockHeaders = blockHeaders
                 .stream()
-                .map(this::parseBlockHeader)
+                .map(encoder)
                 .collect(Collectors.toList());
+        // The block the ancestor moves to goes last
+        this.targetBlockHash = blockHeaders.isEmpty() ? null : blockHeaders.get(blockHeaders.size() - 1).getHash();
     }
 
-    private String parseBlockHeader(BlockHeader blockHeader) {
+    public static String encode(BlockHeader blockHeader) {
         return Hex.toHexString(blockHeader.getEncoded(true, false));
     }
 
     public List<String> getData() {
         return blockHeaders;
     }
+
+    public Keccak256 getTargetBlockHash() {
+        return targetBlockHash;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package co.rsk.federate.signing.hsm.requirements;
+
+import co.rsk.federate.signing.hsm.advanceblockchain.BlockHeaderAccessor;
+import co.rsk.federate.signing.hsm.advanceblockchain.CachedBlockHeader;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The block headers walked back from the starting points of the ancestor updates, newest first,
+ * each one the parent of the one before it.
+ *
+ * Moving the ancestor between blocks already walked takes the headers from here. A starting point
+ * that wasn't walked yet (e.g. the HSM best block advanced) is only walked back until it joins them,
+ * and a target older than all of them only extends them from the oldest one.
+ */
+class AncestorBackPath {
+    private static final Logger logger = LoggerFactory.getLogger(AncestorBackPath.class);
+
+    private static final int MAX_LENGTH = 10_000;
+
+    private final BlockHeaderAccessor blockHeaderAccessor;
+    private final List<CachedBlockHeader> headers;
+
+    AncestorBackPath(BlockHeaderAccessor blockHeaderAccessor) {
+        this.blockHeaderAccessor = blockHeaderAccessor;
+        this.headers = new ArrayList<>();
+    }
+
+    /**
+     * @return the headers from the starting point back to the target block, both included
+     */
+    List<CachedBlockHeader> getPath(CachedBlockHeader startingPoint, CachedBlockHeader targetBlock) throws Exception {
+        if (indexOf(startingPoint) < 0) {
+            walkFrom(startingPoint, targetBlock);
+        }
+        extendTo(targetBlock);
+
+        int startIndex = indexOf(startingPoint);
+        int targetIndex = indexOf(targetBlock);
+        if (targetIndex < startIndex) {
+            throw differentChain(targetBlock, startingPoint);
+        }
+        List<CachedBlockHeader> path = new ArrayList<>(headers.subList(startIndex, targetIndex + 1));
+        trim();
+        return path;
+    }
+
+    int getLength() {
+        return headers.size();
+    }
+
+    private void walkFrom(CachedBlockHeader startingPoint, CachedBlockHeader targetBlock) throws Exception {
+        List<CachedBlockHeader> walked = new ArrayList<>();
+        walked.add(startingPoint);
+        CachedBlockHeader currentBlock = startingPoint;
+        int joinIndex = -1;
+        while (joinIndex < 0 && !currentBlock.getHash().equals(targetBlock.getHash())) {
+            currentBlock = readParent(currentBlock, targetBlock);
+            joinIndex = indexOf(currentBlock);
+            if (joinIndex < 0) {
+                walked.add(currentBlock);
+            }
+        }
+        logger.trace("[walkFrom] Walked {} block headers from {}", walked.size(), startingPoint.getHash());
+        if (joinIndex >= 0) {
+            // Whatever was kept above the joining block is not in the chain of the starting point
+            walked.addAll(headers.subList(joinIndex, headers.size()));
+        }
+        headers.clear();
+        headers.addAll(walked);
+    }
+
+    private void extendTo(CachedBlockHeader targetBlock) throws Exception {
+        CachedBlockHeader oldestBlock = headers.get(headers.size() - 1);
+        while (oldestBlock.getNumber() > targetBlock.getNumber()) {
+            oldestBlock = readParent(oldestBlock, targetBlock);
+            headers.add(oldestBlock);
+        }
+        if (indexOf(targetBlock) < 0) {
+            throw differentChain(targetBlock, oldestBlock);
+        }
+    }
+
+    private CachedBlockHeader readParent(CachedBlockHeader block, CachedBlockHeader targetBlock) throws Exception {
+        if (targetBlock.getHash().equals(block.getParentHash())) {
+            return targetBlock;
+        }
+        CachedBlockHeader parent;
+        try {
+            parent = blockHeaderAccessor.getHeaderByHash(block.getParentHash());
+        } catch (Exception e) {
+            logger.error(String.format("[readParent] There was an error trying to fetch block %s", block.getParentHash()), e);
+            throw e;
+        }
+        if (parent == null) {
+            throw new Exception(String.format("Block %s not found", block.getParentHash()));
+        }
+        if (targetBlock.getNumber() >= parent.getNumber()) {
+            throw differentChain(targetBlock, parent);
+        }
+        return parent;
+    }
+
+    private int indexOf(CachedBlockHeader block) {
+        if (headers.isEmpty()) {
+            return -1;
+        }
+        long index = headers.get(0).getNumber() - block.getNumber();
+        if (index < 0 || index >= headers.size()) {
+            return -1;
+        }
+        return headers.get((int) index).getHash().equals(block.getHash()) ? (int) index : -1;
+    }
+
+    private void trim() {
+        if (headers.size() > MAX_LENGTH) {
+            // The oldest ones go first, the rest stay linked
+            headers.subList(MAX_LENGTH, headers.size()).clear();
+        }
+    }
+
+    private Exception differentChain(CachedBlockHeader targetBlock, CachedBlockHeader block) {
+        String message = String.format(
+            "The HSM seems to be following a different chain than the target block." +
+                " Target block hash %s, target block height %d." +
+                " HSM blockchain block hash %s, HSM blockchain block height %d",
+            targetBlock.getHash(),
+            targetBlock.getNumber(),
+            block.getHash(),
+            block.getNumber()
+        );
+        logger.error("[getPath] {}", message);
+        return new Exception(message);
+    }
+}
@@ -1,14 +1,15 @@
 package co.rsk.federate.signing.hsm.requirements;
 
 import co.rsk.crypto.Keccak256;
+import co.rsk.federate.signing.hsm.advanceblockchain.BlockHeaderAccessor;
+import co.rsk.federate.signing.hsm.advanceblockchain.CachedBlockHeader;
 import co.rsk.federate.signing.hsm.client.HSMBookkeepingClient;
 import co.rsk.federate.signing.hsm.message.HSM2State;
 import co.rsk.federate.signing.hsm.message.ReleaseCreationInformation;
 import co.rsk.federate.signing.hsm.message.UpdateAncestorBlockMessage;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeader;
 import org.ethereum.db.BlockStore;
@@ -19,14 +20,23 @@ public class AncestorBlockUpdater {
     private static final Logger logger = LoggerFactory.getLogger(AncestorBlockUpdater.class);
 
     private final HSMBookkeepingClient hsmBookkeepingClient;
-    private final BlockStore blockStore;
+    private final BlockHeaderAccessor blockHeaderAccessor;
+    private final AncestorBackPath backPath;
 
     public AncestorBlockUpdater(
         BlockStore blockStore,
         HSMBookkeepingClient hsmBookkeepingClient
+    ) {
+        this(new BlockHeaderAccessor(blockStore), hsmBookkeepingClient);
+    }
+
+    public AncestorBlockUpdater(
+        BlockHeaderAccessor blockHeaderAccessor,
+        HSMBookkeepingClient hsmBookkeepingClient
     ) {
         this.hsmBookkeepingClient = hsmBookkeepingClient;
-        this.blockStore = blockStore;
+        this.blockHeaderAccessor = blockHeaderAccessor;
+        this.backPath = new AncestorBackPath(blockHeaderAccessor);
     }
 
     public void ensureAncestorBlockInPosition(Block targetBlock) throws Exception {
@@ -64,60 +74,36 @@ public class AncestorBlockUpdater {
         }
     }
 
-    protected List<BlockHeader> getPayloadToUpdateAncestor(Block startingPoint, Block targetBlock) throws Exception {
-        List<BlockHeader> payload = new ArrayList<>();
-        Block currentBlock = startingPoint;
-        // The first element is the starting point
-        payload.add(currentBlock.getHeader());
-        // Move backwards from the starting point until we get the expected target block
-        while (!targetBlock.getHash().equals(currentBlock.getParentHash()) &&
-            currentBlock.getNumber() > targetBlock.getNumber()) {
-            try {
-                currentBlock = blockStore.getBlockByHash(currentBlock.getParentHash().getBytes());
-            } catch (Exception e) {
-                logger.error(String.format("[getPayloadToUpdateAncestor] There was an error trying to fetch block %s", currentBlock.getParentHash()), e);
-                throw e;
-            }
-            if (targetBlock.getNumber() >= currentBlock.getNumber()) {
-                String message = String.format(
-                    "The HSM seems to be following a different chain than the target block." +
-                        " Target block hash %s, target block height %d." +
-                        " HSM blockchain block hash %s, HSM blockchain block height %d",
-                    targetBlock.getHash(),
-                    targetBlock.getNumber(),
-                    currentBlock.getHash(),
-                    currentBlock.getNumber()
-                );
-                logger.error("[getPayloadToUpdateAncestor] {}", message);
-                throw new Exception(message);
-            }
-            payload.add(currentBlock.getHeader());
-        }
-        // Add the target block as the final element
-        payload.add(targetBlock.getHeader());
-        return payload;
+    protected synchronized List<BlockHeader> getPayloadToUpdateAncestor(CachedBlockHeader startingPoint, CachedBlockHeader targetBlock) throws Exception {
+        // The first element is the starting point and the target block goes last
+        return backPath.getPath(startingPoint, targetBlock)
+            .stream()
+            .map(CachedBlockHeader::getHeader)
+            .collect(Collectors.toList());
     }
 
-    protected void moveAncestorBlockToPosition(HSM2State currentState, Block targetBlock) throws Exception {
+    protected void moveAncestorBlockToPosition(HSM2State currentState, Block block) throws Exception {
+        CachedBlockHeader targetBlock = blockHeaderAccessor.getHeader(block);
         Keccak256 ancestorBlockHash = currentState.getAncestorBlockHash();
-        Block ancestor = null;
+        CachedBlockHeader ancestor = null;
         if (ancestorBlockHash != Keccak256.ZERO_HASH) {
-            ancestor = blockStore.getBlockByHash(ancestorBlockHash.getBytes());
+            ancestor = blockHeaderAccessor.getHeaderByHash(ancestorBlockHash);
         }
 
-        Block startingPoint;
+        CachedBlockHeader startingPoint;
         if (ancestor != null && targetBlock.getNumber() < ancestor.getNumber()) {
             // target block is older than current ancestor, start from this point
             startingPoint = ancestor;
             logger.trace("[moveAncestorBlockToPosition] Ancestor update from current ancestor {} (height: {})", ancestor.getHash(), ancestor.getNumber());
         } else {
             // target block is newer than current ancestor, start from current best block in HSM
-            startingPoint = blockStore.getBlockByHash(currentState.getBestBlockHash().getBytes());
+            startingPoint = blockHeaderAccessor.getHeaderByHash(currentState.getBestBlockHash());
             logger.trace("[moveAncestorBlockToPosition] Ancestor update from current best block {} (height: {})", startingPoint.getHash(), startingPoint.getNumber());
             if (targetBlock.getNumber() == startingPoint.getNumber()) {
                 logger.trace("[moveAncestorBlockToPosition] Target block IS current best block");
                 hsmBookkeepingClient.updateAncestorBlock(new UpdateAncestorBlockMessage(
-                    Collections.singletonList(targetBlock.getHeader())
+                    Collections.singletonList(targetBlock.getHeader()),
+                    blockHeaderAccessor::encodeForUpdateAncestor
                 ));
                 return;
             }
@@ -141,7 +127,10 @@ public class AncestorBlockUpdater {
 
         List<BlockHeader> blockHeaders = getPayloadToUpdateAncestor(startingPoint, targetBlock);
 
-        hsmBookkeepingClient.updateAncestorBlock(new UpdateAncestorBlockMessage(blockHeaders));
+        hsmBookkeepingClient.updateAncestorBlock(new UpdateAncestorBlockMessage(
+            blockHeaders,
+            blockHeaderAccessor::encodeForUpdateAncestor
+        ));
     }
 
 }
@@ -0,0 +1,60 @@
+package co.rsk.federate.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Latency distribution over fixed millisecond buckets
+ */
+public class LatencyHistogram {
+    private static final long[] BUCKET_UPPER_BOUNDS = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000 };
+
+    private final long[] bucketCounts = new long[BUCKET_UPPER_BOUNDS.length + 1];
+    private long count;
+    private long totalMillis;
+    private long maxMillis;
+
+    public synchronized void record(long latencyMillis) {
+        int bucket = 0;
+        while (bucket < BUCKET_UPPER_BOUNDS.length && latencyMillis > BUCKET_UPPER_BOUNDS[bucket]) {
+            bucket++;
+        }
+        bucketCounts[bucket]++;
+        count++;
+        totalMillis += latencyMillis;
+        maxMillis = Math.max(maxMillis, latencyMillis);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMaxMillis() {
+        return maxMillis;
+    }
+
+    public synchronized long getAverageMillis() {
+        return count == 0 ? 0 : totalMillis / count;
+    }
+
+    /**
+     * @return the count of every bucket, keyed by its upper bound
+     */
+    public synchronized Map<String, Long> getBuckets() {
+        Map<String, Long> buckets = new LinkedHashMap<>();
+        for (int i = 0; i < BUCKET_UPPER_BOUNDS.length; i++) {
+            buckets.put("le_" + BUCKET_UPPER_BOUNDS[i], bucketCounts[i]);
+        }
+        buckets.put("le_inf", bucketCounts[BUCKET_UPPER_BOUNDS.length]);
+        return buckets;
+    }
+
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("count", count);
+        snapshot.put("averageMillis", getAverageMillis());
+        snapshot.put("maxMillis", maxMillis);
+        snapshot.put("buckets", getBuckets());
+        return snapshot;
+    }
+}
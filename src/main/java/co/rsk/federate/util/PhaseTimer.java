@@ -0,0 +1,62 @@
+package co.rsk.federate.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Times consecutive phases of a process, e.g. the node startup.
+ * Starting a phase ends the one before it.
+ */
+public class PhaseTimer {
+    private final CurrentTimeProvider currentTimeProvider;
+    private final Map<String, Long> phaseTimes = new LinkedHashMap<>();
+
+    private String currentPhase;
+    private long currentPhaseStart;
+
+    public PhaseTimer() {
+        this(System::currentTimeMillis);
+    }
+
+    public PhaseTimer(CurrentTimeProvider currentTimeProvider) {
+        this.currentTimeProvider = currentTimeProvider;
+    }
+
+    public synchronized void startPhase(String phase) {
+        finish();
+        currentPhase = phase;
+        currentPhaseStart = currentTimeProvider.currentTimeMillis();
+    }
+
+    /**
+     * Ends the current phase, if any
+     */
+    public synchronized void finish() {
+        if (currentPhase == null) {
+            return;
+        }
+        phaseTimes.merge(currentPhase, currentTimeProvider.currentTimeMillis() - currentPhaseStart, Long::sum);
+        currentPhase = null;
+    }
+
+    /**
+     * @return milliseconds each finished phase took, in the order they ran
+     */
+    public synchronized Map<String, Long> getPhaseTimes() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(phaseTimes));
+    }
+
+    public synchronized long getTotalTime() {
+        return phaseTimes.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    @Override
+    public synchronized String toString() {
+        String phases = phaseTimes.entrySet().stream()
+            .map(phaseTime -> String.format("%s %d ms", phaseTime.getKey(), phaseTime.getValue()))
+            .collect(Collectors.joining(", "));
+        return String.format("%s (total %d ms)", phases, getTotalTime());
+    }
+}
@@ -0,0 +1,121 @@
+package co.rsk.federate;
+
+import co.rsk.core.RskAddress;
+import co.rsk.crypto.Keccak256;
+import co.rsk.federate.signing.utils.TestUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class BridgeCallCacheTest {
+    private static final RskAddress CALLER = new RskAddress("0000000000000000000000000000000001000006");
+
+    private BridgeCallCache cache;
+    private AtomicInteger executions;
+
+    @Before
+    public void createCache() {
+        cache = new BridgeCallCache();
+        executions = new AtomicInteger();
+    }
+
+    @Test
+    public void get_sameBlock_executesOnce() {
+        Keccak256 blockHash = TestUtils.createHash(1);
+
+        Assert.assertEquals("result", cache.get(blockHash, CALLER, new byte[]{ 1, 2 }, countedCall("result")));
+        Assert.assertEquals("result", cache.get(blockHash, CALLER, new byte[]{ 1, 2 }, countedCall("other")));
+
+        Assert.assertEquals(1, executions.get());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void get_differentCallData_executesEach() {
+        Keccak256 blockHash = TestUtils.createHash(1);
+
+        Assert.assertEquals("first", cache.get(blockHash, CALLER, new byte[]{ 1, 2 }, countedCall("first")));
+        Assert.assertEquals("second", cache.get(blockHash, CALLER, new byte[]{ 1, 3 }, countedCall("second")));
+        Assert.assertEquals("third", cache.get(blockHash, null, new byte[]{ 1, 2 }, countedCall("third")));
+
+        Assert.assertEquals(3, executions.get());
+        Assert.assertEquals(3, cache.getCachedResults());
+    }
+
+    @Test
+    public void get_newBlock_invalidates() {
+        Assert.assertEquals("old", cache.get(TestUtils.createHash(1), CALLER, new byte[]{ 1 }, countedCall("old")));
+        Assert.assertEquals("new", cache.get(TestUtils.createHash(2), CALLER, new byte[]{ 1 }, countedCall("new")));
+        Assert.assertEquals("new", cache.get(TestUtils.createHash(2), CALLER, new byte[]{ 1 }, countedCall("newer")));
+
+        Assert.assertEquals(2, executions.get());
+        Assert.assertEquals(1, cache.getInvalidations());
+        Assert.assertEquals(1, cache.getCachedResults());
+    }
+
+    @Test
+    public void get_nullResult_cached() {
+        Keccak256 blockHash = TestUtils.createHash(1);
+
+        Assert.assertNull(cache.get(blockHash, CALLER, new byte[]{ 1 }, countedCall(null)));
+        Assert.assertNull(cache.get(blockHash, CALLER, new byte[]{ 1 }, countedCall("not null")));
+
+        Assert.assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void get_failedCall_notCached() {
+        Keccak256 blockHash = TestUtils.createHash(1);
+
+        try {
+            cache.get(blockHash, CALLER, new byte[]{ 1 }, () -> {
+                throw new IllegalStateException("test");
+            });
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        Assert.assertEquals("result", cache.get(blockHash, CALLER, new byte[]{ 1 }, countedCall("result")));
+
+        Assert.assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void get_arrayResult_copied() {
+        Keccak256 blockHash = TestUtils.createHash(1);
+
+        byte[] first = cache.get(blockHash, CALLER, new byte[]{ 1 }, () -> new byte[]{ 5, 6 });
+        first[0] = 9;
+        Object[] nested = cache.get(blockHash, CALLER, new byte[]{ 2 }, () -> new Object[]{ new byte[]{ 7 } });
+        ((byte[]) nested[0])[0] = 9;
+
+        Assert.assertArrayEquals(new byte[]{ 5, 6 }, cache.get(blockHash, CALLER, new byte[]{ 1 }, () -> new byte[0]));
+        Object[] nestedAgain = cache.get(blockHash, CALLER, new byte[]{ 2 }, () -> new Object[0]);
+        Assert.assertArrayEquals(new byte[]{ 7 }, (byte[]) nestedAgain[0]);
+    }
+
+    @Test
+    public void get_callUsingTheCache() {
+        Keccak256 blockHash = TestUtils.createHash(1);
+
+        String result = cache.get(blockHash, CALLER, new byte[]{ 1 }, () ->
+                "outer " + cache.get(blockHash, CALLER, new byte[]{ 2 }, countedCall("inner"))
+        );
+
+        Assert.assertEquals("outer inner", result);
+        Assert.assertEquals("inner", cache.get(blockHash, CALLER, new byte[]{ 2 }, countedCall("other")));
+        Assert.assertEquals(1, executions.get());
+        Assert.assertEquals(2, cache.getCachedResults());
+    }
+
+    private Supplier<String> countedCall(String result) {
+        return () -> {
+            executions.incrementAndGet();
+            return result;
+        };
+    }
+}
@@ -0,0 +1,117 @@
+package co.rsk.federate;
+
+import co.rsk.bitcoinj.core.Sha256Hash;
+import co.rsk.config.BridgeConstants;
+import co.rsk.config.BridgeRegTestConstants;
+import co.rsk.db.MutableTrieImpl;
+import co.rsk.db.RepositoryLocator;
+import co.rsk.federate.signing.utils.TestUtils;
+import co.rsk.peg.BridgeStorageProvider;
+import co.rsk.peg.StateForFederator;
+import co.rsk.trie.Trie;
+import org.ethereum.config.blockchain.upgrades.ActivationConfig;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.Blockchain;
+import org.ethereum.core.Repository;
+import org.ethereum.db.MutableRepository;
+import org.ethereum.vm.PrecompiledContracts;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.mockito.Mockito.*;
+
+public class BridgeStorageReaderTest {
+    private final BridgeConstants bridgeConstants = BridgeRegTestConstants.getInstance();
+
+    private Repository repository;
+    private ActivationConfig.ForBlock activations;
+    private RepositoryLocator repositoryLocator;
+    private Blockchain blockchain;
+    private BridgeStorageReader reader;
+
+    @Before
+    public void createReader() {
+        repository = new MutableRepository(new MutableTrieImpl(null, new Trie()));
+        activations = mock(ActivationConfig.ForBlock.class);
+        ActivationConfig activationConfig = mock(ActivationConfig.class);
+        when(activationConfig.forBlock(anyLong())).thenReturn(activations);
+        repositoryLocator = mock(RepositoryLocator.class);
+        when(repositoryLocator.startTrackingAt(any(BlockHeader.class))).thenAnswer(invocation -> repository.startTracking());
+        blockchain = mock(Blockchain.class);
+        setBestBlock(1);
+
+        reader = new BridgeStorageReader(repositoryLocator, blockchain, bridgeConstants, activationConfig);
+    }
+
+    @Test
+    public void getBtcTxHashProcessedHeight_sameAsBridgeStorage() throws Exception {
+        Sha256Hash processedHash = Sha256Hash.of(new byte[]{ 1 });
+        BridgeStorageProvider provider = newStorageProvider();
+        provider.setHeightBtcTxhashAlreadyProcessed(processedHash, 15L);
+        provider.save();
+
+        Assert.assertEquals(Optional.of(15L), reader.getBtcTxHashProcessedHeight(processedHash));
+        Assert.assertTrue(reader.isBtcTxHashAlreadyProcessed(processedHash));
+        Assert.assertEquals(Optional.empty(), reader.getBtcTxHashProcessedHeight(Sha256Hash.ZERO_HASH));
+        Assert.assertFalse(reader.isBtcTxHashAlreadyProcessed(Sha256Hash.ZERO_HASH));
+    }
+
+    @Test
+    public void getBtcTxHashesProcessedHeights_sameAsBridgeStorage() throws Exception {
+        Sha256Hash firstHash = Sha256Hash.of(new byte[]{ 1 });
+        Sha256Hash secondHash = Sha256Hash.of(new byte[]{ 2 });
+        BridgeStorageProvider provider = newStorageProvider();
+        provider.setHeightBtcTxhashAlreadyProcessed(firstHash, 15L);
+        provider.setHeightBtcTxhashAlreadyProcessed(secondHash, 20L);
+        provider.save();
+
+        Map<Sha256Hash, Long> processedHeights = reader.getBtcTxHashesProcessedHeights(
+            Arrays.asList(firstHash, secondHash, Sha256Hash.ZERO_HASH)
+        );
+
+        Assert.assertEquals(2, processedHeights.size());
+        Assert.assertEquals(Long.valueOf(15L), processedHeights.get(firstHash));
+        Assert.assertEquals(Long.valueOf(20L), processedHeights.get(secondHash));
+        verify(repositoryLocator, times(1)).startTrackingAt(any(BlockHeader.class));
+    }
+
+    @Test
+    public void getStateForFederator_sameAsBridgeStorage() throws Exception {
+        StateForFederator expectedState = new StateForFederator(newStorageProvider().getRskTxsWaitingForSignatures());
+
+        Assert.assertArrayEquals(expectedState.getEncoded(), reader.getStateForFederator().getEncoded());
+    }
+
+    @Test
+    public void storage_readOncePerBestBlock() throws Exception {
+        reader.isBtcTxHashAlreadyProcessed(Sha256Hash.ZERO_HASH);
+        reader.getBtcTxHashProcessedHeight(Sha256Hash.ZERO_HASH);
+        reader.getStateForFederator();
+        verify(repositoryLocator, times(1)).startTrackingAt(any(BlockHeader.class));
+
+        // Processed on the next block
+        Sha256Hash processedHash = Sha256Hash.of(new byte[]{ 2 });
+        BridgeStorageProvider provider = newStorageProvider();
+        provider.setHeightBtcTxhashAlreadyProcessed(processedHash, 2L);
+        provider.save();
+        Assert.assertFalse(reader.isBtcTxHashAlreadyProcessed(processedHash));
+        setBestBlock(2);
+        Assert.assertTrue(reader.isBtcTxHashAlreadyProcessed(processedHash));
+        verify(repositoryLocator, times(2)).startTrackingAt(any(BlockHeader.class));
+    }
+
+    private BridgeStorageProvider newStorageProvider() {
+        return new BridgeStorageProvider(repository, PrecompiledContracts.BRIDGE_ADDR, bridgeConstants, activations);
+    }
+
+    private void setBestBlock(int number) {
+        Block bestBlock = TestUtils.mockBlock(number, TestUtils.createHash(number));
+        when(blockchain.getBestBlock()).thenReturn(bestBlock);
+    }
+}
@@ -2044,8 +2044,8 @@ public class BtcToRskClientTest {
 
         FederatorSupport federatorSupport = mock(FederatorSupport.class);
         when(federatorSupport.getBtcBestBlockChainHeight()).thenReturn(1);
-        when(federatorSupport.isBtcTxHashAlreadyProcessed(peginTx.getTxId())).thenReturn(true);
-        when(federatorSupport.getBtcTxHashProcessedHeight(peginTx.getTxId())).thenReturn(1L);
+        when(federatorSupport.getBtcTxHashesProcessedHeights(Collections.singleton(peginTx.getTxId())))
+            .thenReturn(Collections.singletonMap(peginTx.getTxId(), 1L));
 
         BitcoinWrapper bitcoinWrapper = mock(BitcoinWrapper.class);
         when(bitcoinWrapper.getBestChainHeight()).thenReturn(1);
@@ -2084,7 +2084,9 @@ public class BtcToRskClientTest {
 
         btcToRskClient.updateBridge();
 
-        verify(federatorSupport, times(1)).isBtcTxHashAlreadyProcessed(peginTx.getTxId());
+        // Checked by its hash without witness, along with the rest of the pending txs
+        verify(federatorSupport, times(1)).getBtcTxHashesProcessedHeights(Collections.singleton(peginTx.getTxId()));
+        verify(federatorSupport, never()).isBtcTxHashAlreadyProcessed(any());
         verify(federatorSupport, never()).sendRegisterBtcTransaction(any(Transaction.class), anyInt(), any(PartialMerkleTree.class));
     }
 
@@ -420,6 +420,64 @@ public class FederationProviderFromFederatorSupportTest {
         verify(federatorSupportMock, times(1)).getRetiringFederationSize();
     }
 
+    @Test
+    public void getActiveFederation_sameAddress_notGatheredAgain() {
+        ActivationConfig.ForBlock configMock = mock(ActivationConfig.ForBlock.class);
+        when(configMock.isActive(RSKIP123)).thenReturn(true);
+        when(federatorSupportMock.getConfigForBestBlock()).thenReturn(configMock);
+        when(federatorSupportMock.getFederationSize()).thenReturn(4);
+        when(federatorSupportMock.getFederationCreationTime()).thenReturn(creationTime);
+        when(federatorSupportMock.getFederationAddress()).thenReturn(activeFedAddress);
+        when(federatorSupportMock.getBtcParams()).thenReturn(regtestParams);
+        for (int i = 0; i < 4; i++) {
+            when(federatorSupportMock.getFederatorPublicKeyOfType(i, FederationMember.KeyType.BTC)).thenReturn(ECKey.fromPrivate(BigInteger.valueOf((i+1)*1000)));
+            when(federatorSupportMock.getFederatorPublicKeyOfType(i, FederationMember.KeyType.RSK)).thenReturn(ECKey.fromPrivate(BigInteger.valueOf((i+1)*1000+1)));
+            when(federatorSupportMock.getFederatorPublicKeyOfType(i, FederationMember.KeyType.MST)).thenReturn(ECKey.fromPrivate(BigInteger.valueOf((i+1)*1000+2)));
+        }
+
+        Federation federation = federationProvider.getActiveFederation();
+
+        Assert.assertSame(federation, federationProvider.getActiveFederation());
+        verify(federatorSupportMock, times(1)).getFederationSize();
+        verify(federatorSupportMock, times(4)).getFederatorPublicKeyOfType(anyInt(), eq(FederationMember.KeyType.BTC));
+
+        // Same members elected again later on, it's a new federation
+        when(federatorSupportMock.getFederationCreationBlockNumber()).thenReturn(100L);
+        Federation newFederation = federationProvider.getActiveFederation();
+
+        Assert.assertNotSame(federation, newFederation);
+        Assert.assertEquals(100L, newFederation.getCreationBlockNumber());
+        Assert.assertSame(newFederation, federationProvider.getActiveFederation());
+        verify(federatorSupportMock, times(2)).getFederationSize();
+    }
+
+    @Test
+    public void getRetiringFederation_sameAddress_notGatheredAgain() {
+        ActivationConfig.ForBlock configMock = mock(ActivationConfig.ForBlock.class);
+        when(configMock.isActive(RSKIP123)).thenReturn(false);
+        when(federatorSupportMock.getConfigForBestBlock()).thenReturn(configMock);
+        when(federatorSupportMock.getRetiringFederationSize()).thenReturn(4);
+        when(federatorSupportMock.getRetiringFederationCreationTime()).thenReturn(creationTime);
+        when(federatorSupportMock.getRetiringFederationAddress()).thenReturn(Optional.of(retiringFedAddress));
+        when(federatorSupportMock.getBtcParams()).thenReturn(regtestParams);
+        for (int i = 0; i < 4; i++) {
+            when(federatorSupportMock.getRetiringFederatorPublicKey(i)).thenReturn(BtcECKey.fromPrivate(BigInteger.valueOf((i+1)*1000)));
+        }
+
+        Optional<Federation> federation = federationProvider.getRetiringFederation();
+
+        Assert.assertTrue(federation.isPresent());
+        Assert.assertSame(federation.get(), federationProvider.getRetiringFederation().get());
+        verify(federatorSupportMock, times(1)).getRetiringFederationSize();
+        verify(federatorSupportMock, times(4)).getRetiringFederatorPublicKey(anyInt());
+
+        // The retiring federation is gone
+        when(federatorSupportMock.getRetiringFederationAddress()).thenReturn(Optional.empty());
+        when(federatorSupportMock.getRetiringFederationSize()).thenReturn(-1);
+        Assert.assertFalse(federationProvider.getRetiringFederation().isPresent());
+        verify(federatorSupportMock, times(2)).getRetiringFederationSize();
+    }
+
     private Federation createFederation(
         List<FederationMember> members,
         boolean isErp
@@ -2,11 +2,19 @@ package co.rsk.federate;
 
 import co.rsk.bitcoinj.core.BtcECKey;
 import co.rsk.bitcoinj.core.NetworkParameters;
+import co.rsk.config.BridgeConstants;
+import co.rsk.federate.signing.utils.TestUtils;
+import co.rsk.peg.BridgeEvents;
 import co.rsk.peg.Federation;
 import co.rsk.peg.FederationMember;
+import org.ethereum.core.Block;
+import org.ethereum.core.TransactionReceipt;
 import org.ethereum.crypto.ECKey;
 import org.ethereum.facade.Ethereum;
 import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.LogInfo;
+import org.ethereum.vm.PrecompiledContracts;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -17,6 +25,7 @@ import org.powermock.reflect.Whitebox;
 import java.math.BigInteger;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -48,13 +57,19 @@ public class FederationWatcherTest {
 
     private FederationProvider federationProvider;
     private Ethereum ethereumMock;
+    private BridgeConstants bridgeConstants;
+    private BridgeStorageReader bridgeStorageReader;
     private FederationWatcher watcher;
 
     @Before
     public void createMocksAndWatcher() {
         federationProvider = mock(FederationProvider.class);
         ethereumMock = mock(Ethereum.class);
-        watcher = new FederationWatcher(ethereumMock);
+        bridgeConstants = mock(BridgeConstants.class);
+        when(bridgeConstants.getFederationActivationAge()).thenReturn(10L);
+        when(bridgeConstants.getFundsMigrationAgeSinceActivationEnd()).thenReturn(5L);
+        bridgeStorageReader = mock(BridgeStorageReader.class);
+        watcher = new FederationWatcher(ethereumMock, bridgeConstants, bridgeStorageReader);
     }
 
     @Test
@@ -101,7 +116,7 @@ public class FederationWatcherTest {
             });
         }
 
-        rskListener.onBestBlock(null, null);
+        rskListener.onBestBlock(mockBestBlock(1, 0), Collections.emptyList());
         Assert.assertEquals(2, logger.activeCalls);
         Assert.assertEquals(0, logger.retiringCalls);
         verify(federationProvider, times(1)).getActiveFederationAddress();
@@ -141,7 +156,7 @@ public class FederationWatcherTest {
             });
         }
 
-        rskListener.onBestBlock(null, null);
+        rskListener.onBestBlock(mockBestBlock(1, 0), Collections.emptyList());
         Assert.assertEquals(2, logger.activeCalls);
         Assert.assertEquals(0, logger.retiringCalls);
         verify(federationProvider, times(1)).getActiveFederationAddress();
@@ -178,7 +193,7 @@ public class FederationWatcherTest {
             });
         }
 
-        rskListener.onBestBlock(null, null);
+        rskListener.onBestBlock(mockBestBlock(1, 0), Collections.emptyList());
         Assert.assertEquals(0, logger.activeCalls);
         Assert.assertEquals(0, logger.retiringCalls);
         verify(federationProvider, times(1)).getActiveFederationAddress();
@@ -215,7 +230,7 @@ public class FederationWatcherTest {
             });
         }
 
-        rskListener.onBestBlock(null, null);
+        rskListener.onBestBlock(mockBestBlock(1, 0), Collections.emptyList());
         Assert.assertEquals(0, logger.activeCalls);
         Assert.assertEquals(0, logger.retiringCalls);
         verify(federationProvider, times(1)).getActiveFederationAddress();
@@ -255,7 +270,7 @@ public class FederationWatcherTest {
             });
         }
 
-        rskListener.onBestBlock(null, null);
+        rskListener.onBestBlock(mockBestBlock(1, 0), Collections.emptyList());
         Assert.assertEquals(0, logger.activeCalls);
         Assert.assertEquals(2, logger.retiringCalls);
         verify(federationProvider, times(1)).getActiveFederationAddress();
@@ -295,7 +310,7 @@ public class FederationWatcherTest {
             });
         }
 
-        rskListener.onBestBlock(null, null);
+        rskListener.onBestBlock(mockBestBlock(1, 0), Collections.emptyList());
         Assert.assertEquals(0, logger.activeCalls);
         Assert.assertEquals(2, logger.retiringCalls);
         verify(federationProvider, times(1)).getActiveFederationAddress();
@@ -335,7 +350,7 @@ public class FederationWatcherTest {
             });
         }
 
-        rskListener.onBestBlock(null, null);
+        rskListener.onBestBlock(mockBestBlock(1, 0), Collections.emptyList());
         Assert.assertEquals(0, logger.activeCalls);
         Assert.assertEquals(2, logger.retiringCalls);
         verify(federationProvider, times(1)).getActiveFederationAddress();
@@ -344,6 +359,161 @@ public class FederationWatcherTest {
         verify(federationProvider, times(1)).getRetiringFederation();
     }
 
+    @Test
+    public void sameBestChain_updatesOnlyOnReconciliation() throws Exception {
+        watcher = new FederationWatcher(ethereumMock, bridgeConstants, bridgeStorageReader, 20);
+        EthereumListenerAdapter rskListener = setupAndGetRskListener(Optional.of(federation1), Optional.empty());
+        when(federationProvider.getActiveFederationAddress()).thenReturn(federation1.getAddress());
+        when(federationProvider.getRetiringFederationAddress()).thenReturn(Optional.empty());
+
+        for (int i = 1; i <= 20; i++) {
+            rskListener.onBestBlock(mockBestBlock(i, i - 1), Collections.emptyList());
+        }
+        verify(federationProvider, times(1)).getActiveFederationAddress();
+        verify(federationProvider, times(1)).getRetiringFederationAddress();
+
+        rskListener.onBestBlock(mockBestBlock(21, 20), Collections.emptyList());
+        verify(federationProvider, times(2)).getActiveFederationAddress();
+        verify(federationProvider, times(2)).getRetiringFederationAddress();
+        verify(federationProvider, never()).getActiveFederation();
+        verify(federationProvider, never()).getRetiringFederation();
+    }
+
+    @Test
+    public void bestChainChange_updates() throws Exception {
+        EthereumListenerAdapter rskListener = setupAndGetRskListener(Optional.of(federation1), Optional.empty());
+        when(federationProvider.getActiveFederationAddress()).thenReturn(federation1.getAddress());
+        when(federationProvider.getRetiringFederationAddress()).thenReturn(Optional.empty());
+
+        rskListener.onBestBlock(mockBestBlock(1, 0), Collections.emptyList());
+        rskListener.onBestBlock(mockBestBlock(2, 1), Collections.emptyList());
+        // Block 4 on top of a block 3 never seen as best
+        rskListener.onBestBlock(mockBestBlock(4, 3), Collections.emptyList());
+
+        verify(federationProvider, times(2)).getActiveFederationAddress();
+        verify(federationProvider, times(2)).getRetiringFederationAddress();
+    }
+
+    @Test
+    public void commitFederationLog_updatesOnActivationAndMigrationEnd() throws Exception {
+        watcher = new FederationWatcher(ethereumMock, bridgeConstants, bridgeStorageReader, 100);
+        EthereumListenerAdapter rskListener = setupAndGetRskListener(Optional.of(federation1), Optional.empty());
+        when(federationProvider.getActiveFederationAddress()).thenReturn(federation1.getAddress());
+        when(federationProvider.getRetiringFederationAddress()).thenReturn(Optional.empty());
+
+        rskListener.onBestBlock(mockBestBlock(1, 0), Collections.emptyList());
+        rskListener.onBestBlock(mockBestBlock(2, 1), Collections.singletonList(mockCommitFederationReceipt()));
+        for (int i = 3; i < 12; i++) {
+            rskListener.onBestBlock(mockBestBlock(i, i - 1), Collections.emptyList());
+        }
+        verify(federationProvider, times(1)).getActiveFederationAddress();
+
+        // Activated
+        when(federationProvider.getActiveFederationAddress()).thenReturn(federation2.getAddress());
+        when(federationProvider.getActiveFederation()).thenReturn(federation2);
+        when(federationProvider.getRetiringFederationAddress()).thenReturn(Optional.of(federation1.getAddress()));
+        when(federationProvider.getRetiringFederation()).thenReturn(Optional.of(federation1));
+        rskListener.onBestBlock(mockBestBlock(12, 11), Collections.emptyList());
+        verify(federationProvider, times(2)).getActiveFederationAddress();
+        verify(federationProvider, times(1)).getActiveFederation();
+        verify(federationProvider, times(1)).getRetiringFederation();
+
+        for (int i = 13; i < 17; i++) {
+            rskListener.onBestBlock(mockBestBlock(i, i - 1), Collections.emptyList());
+        }
+        verify(federationProvider, times(2)).getActiveFederationAddress();
+
+        // Migration over
+        when(federationProvider.getRetiringFederationAddress()).thenReturn(Optional.empty());
+        when(federationProvider.getRetiringFederation()).thenReturn(Optional.empty());
+        rskListener.onBestBlock(mockBestBlock(17, 16), Collections.emptyList());
+        verify(federationProvider, times(3)).getActiveFederationAddress();
+        verify(federationProvider, times(2)).getRetiringFederation();
+        Assert.assertEquals(Optional.empty(), Whitebox.getInternalState(watcher, "retiringFederation"));
+    }
+
+    @Test
+    public void retiringFederationRemovedAfterMigrationEnd_checkedOnEveryBlockUntilGone() throws Exception {
+        watcher = new FederationWatcher(ethereumMock, bridgeConstants, bridgeStorageReader, 100);
+        EthereumListenerAdapter rskListener = setupAndGetRskListener(Optional.of(federation1), Optional.empty());
+        when(federationProvider.getActiveFederationAddress()).thenReturn(federation1.getAddress());
+        when(federationProvider.getRetiringFederationAddress()).thenReturn(Optional.empty());
+
+        rskListener.onBestBlock(mockBestBlock(1, 0), Collections.emptyList());
+        rskListener.onBestBlock(mockBestBlock(2, 1), Collections.singletonList(mockCommitFederationReceipt()));
+
+        // Activated
+        when(federationProvider.getActiveFederationAddress()).thenReturn(federation2.getAddress());
+        when(federationProvider.getActiveFederation()).thenReturn(federation2);
+        when(federationProvider.getRetiringFederationAddress()).thenReturn(Optional.of(federation1.getAddress()));
+        when(federationProvider.getRetiringFederation()).thenReturn(Optional.of(federation1));
+        for (int i = 3; i < 17; i++) {
+            rskListener.onBestBlock(mockBestBlock(i, i - 1), Collections.emptyList());
+        }
+        verify(federationProvider, times(2)).getRetiringFederationAddress();
+
+        // Migration is over but the Bridge didn't remove the retiring federation yet
+        rskListener.onBestBlock(mockBestBlock(17, 16), Collections.emptyList());
+        rskListener.onBestBlock(mockBestBlock(18, 17), Collections.emptyList());
+        verify(federationProvider, times(4)).getRetiringFederationAddress();
+        Assert.assertEquals(Optional.of(federation1), Whitebox.getInternalState(watcher, "retiringFederation"));
+
+        when(federationProvider.getRetiringFederationAddress()).thenReturn(Optional.empty());
+        when(federationProvider.getRetiringFederation()).thenReturn(Optional.empty());
+        rskListener.onBestBlock(mockBestBlock(19, 18), Collections.emptyList());
+        verify(federationProvider, times(5)).getRetiringFederationAddress();
+        Assert.assertEquals(Optional.empty(), Whitebox.getInternalState(watcher, "retiringFederation"));
+
+        // Gone, no more checks
+        for (int i = 20; i < 30; i++) {
+            rskListener.onBestBlock(mockBestBlock(i, i - 1), Collections.emptyList());
+        }
+        verify(federationProvider, times(5)).getRetiringFederationAddress();
+        verify(federationProvider, times(3)).getActiveFederationAddress();
+    }
+
+    @Test
+    public void committedBeforeStart_updatesOnActivationAndMigrationEnd() throws Exception {
+        watcher = new FederationWatcher(ethereumMock, bridgeConstants, bridgeStorageReader, 100);
+        // Committed on block 2, the node only sees best blocks from block 5 on
+        when(bridgeStorageReader.getNewFederationCreationBlockNumber()).thenReturn(Optional.of(2L));
+        EthereumListenerAdapter rskListener = setupAndGetRskListener(Optional.of(federation1), Optional.empty());
+        when(federationProvider.getActiveFederationAddress()).thenReturn(federation1.getAddress());
+        when(federationProvider.getRetiringFederationAddress()).thenReturn(Optional.empty());
+
+        for (int i = 5; i < 12; i++) {
+            rskListener.onBestBlock(mockBestBlock(i, i - 1), Collections.emptyList());
+        }
+        verify(federationProvider, times(1)).getActiveFederationAddress();
+
+        // Activated
+        when(federationProvider.getActiveFederationAddress()).thenReturn(federation2.getAddress());
+        when(federationProvider.getActiveFederation()).thenReturn(federation2);
+        when(federationProvider.getRetiringFederationAddress()).thenReturn(Optional.of(federation1.getAddress()));
+        when(federationProvider.getRetiringFederation()).thenReturn(Optional.of(federation1));
+        rskListener.onBestBlock(mockBestBlock(12, 11), Collections.emptyList());
+        verify(federationProvider, times(2)).getActiveFederationAddress();
+        verify(federationProvider, times(1)).getActiveFederation();
+
+        for (int i = 13; i < 17; i++) {
+            rskListener.onBestBlock(mockBestBlock(i, i - 1), Collections.emptyList());
+        }
+        verify(federationProvider, times(2)).getActiveFederationAddress();
+
+        // Migration over
+        when(federationProvider.getRetiringFederationAddress()).thenReturn(Optional.empty());
+        when(federationProvider.getRetiringFederation()).thenReturn(Optional.empty());
+        rskListener.onBestBlock(mockBestBlock(17, 16), Collections.emptyList());
+        verify(federationProvider, times(3)).getActiveFederationAddress();
+        Assert.assertEquals(Optional.empty(), Whitebox.getInternalState(watcher, "retiringFederation"));
+
+        // Nothing else expected, only the reconciliation is left
+        for (int i = 18; i < 30; i++) {
+            rskListener.onBestBlock(mockBestBlock(i, i - 1), Collections.emptyList());
+        }
+        verify(federationProvider, times(3)).getActiveFederationAddress();
+    }
+
     private EthereumListenerAdapter setupAndGetRskListener(Optional<Federation> activeFederation, Optional<Federation> retiringFederation) throws Exception {
         class ListenerHolder {
             public EthereumListenerAdapter listener = null;
@@ -361,6 +531,23 @@ public class FederationWatcherTest {
         return holder.listener;
     }
 
+    private Block mockBestBlock(int number, int parentNumber) {
+        Block block = TestUtils.mockBlock(number, TestUtils.createHash(number));
+        when(block.getParentHash()).thenReturn(TestUtils.createHash(parentNumber));
+        return block;
+    }
+
+    private TransactionReceipt mockCommitFederationReceipt() {
+        LogInfo commitFederationLog = new LogInfo(
+                PrecompiledContracts.BRIDGE_ADDR.getBytes(),
+                Collections.singletonList(DataWord.valueOf(BridgeEvents.COMMIT_FEDERATION.getEvent().encodeSignatureLong())),
+                new byte[0]
+        );
+        TransactionReceipt receipt = mock(TransactionReceipt.class);
+        when(receipt.getLogInfoList()).thenReturn(Collections.singletonList(commitFederationLog));
+        return receipt;
+    }
+
     private List<FederationMember> getFederationMembersFromPksForBtc(Integer... pks) {
         return Arrays.stream(pks).map(n -> new FederationMember(
                 BtcECKey.fromPrivate(BigInteger.valueOf(n)),
@@ -5,6 +5,7 @@ import co.rsk.federate.adapter.ThinConverter;
 import co.rsk.federate.config.TestSystemProperties;
 import co.rsk.peg.Bridge;
 import co.rsk.peg.BridgeMethods;
+import co.rsk.peg.StateForFederator;
 import org.bitcoinj.core.*;
 import org.bouncycastle.util.encoders.Hex;
 import org.ethereum.core.Blockchain;
@@ -12,9 +13,16 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.stubbing.Answer;
 
+import java.io.IOException;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
 
 import static org.mockito.Mockito.*;
 
@@ -110,6 +118,117 @@ public class FederatorSupportTest {
 
     }
 
+    @Test
+    public void btcTxHashQueries_readFromBridgeStorage() throws Exception {
+        BridgeTransactionSender bridgeTransactionSender = mock(BridgeTransactionSender.class);
+        BridgeStorageReader bridgeStorageReader = mock(BridgeStorageReader.class);
+        Sha256Hash processedHash = createHash();
+        co.rsk.bitcoinj.core.Sha256Hash thinProcessedHash = co.rsk.bitcoinj.core.Sha256Hash.wrap(processedHash.getBytes());
+        when(bridgeStorageReader.isBtcTxHashAlreadyProcessed(thinProcessedHash)).thenReturn(true);
+        when(bridgeStorageReader.getBtcTxHashProcessedHeight(thinProcessedHash)).thenReturn(Optional.of(10L));
+        when(bridgeStorageReader.getBtcTxHashProcessedHeight(co.rsk.bitcoinj.core.Sha256Hash.ZERO_HASH)).thenReturn(Optional.empty());
+
+        FederatorSupport fs = new FederatorSupport(
+                mock(Blockchain.class),
+                new TestSystemProperties(),
+                bridgeTransactionSender,
+                bridgeStorageReader
+        );
+
+        Assert.assertTrue(fs.isBtcTxHashAlreadyProcessed(processedHash));
+        Assert.assertFalse(fs.isBtcTxHashAlreadyProcessed(Sha256Hash.ZERO_HASH));
+        Assert.assertEquals(Long.valueOf(10L), fs.getBtcTxHashProcessedHeight(processedHash));
+        // The Bridge answers -1 for a transaction it didn't process
+        Assert.assertEquals(Long.valueOf(-1L), fs.getBtcTxHashProcessedHeight(Sha256Hash.ZERO_HASH));
+        verifyZeroInteractions(bridgeTransactionSender);
+    }
+
+    @Test
+    public void btcTxHashQueries_bridgeStorageFails_callsBridge() throws Exception {
+        BridgeTransactionSender bridgeTransactionSender = mock(BridgeTransactionSender.class);
+        when(bridgeTransactionSender.callTx(any(), eq(Bridge.IS_BTC_TX_HASH_ALREADY_PROCESSED), any())).thenReturn(true);
+        when(bridgeTransactionSender.callTx(any(), eq(Bridge.GET_BTC_TX_HASH_PROCESSED_HEIGHT), any())).thenReturn(BigInteger.TEN);
+        BridgeStorageReader bridgeStorageReader = mock(BridgeStorageReader.class);
+        when(bridgeStorageReader.isBtcTxHashAlreadyProcessed(any())).thenThrow(new IOException("test"));
+        when(bridgeStorageReader.getBtcTxHashProcessedHeight(any())).thenThrow(new IOException("test"));
+
+        FederatorSupport fs = new FederatorSupport(
+                mock(Blockchain.class),
+                new TestSystemProperties(),
+                bridgeTransactionSender,
+                bridgeStorageReader
+        );
+
+        Assert.assertTrue(fs.isBtcTxHashAlreadyProcessed(createHash()));
+        Assert.assertEquals(Long.valueOf(10L), fs.getBtcTxHashProcessedHeight(createHash()));
+        verify(bridgeTransactionSender, times(1)).callTx(any(), eq(Bridge.IS_BTC_TX_HASH_ALREADY_PROCESSED), any());
+        verify(bridgeTransactionSender, times(1)).callTx(any(), eq(Bridge.GET_BTC_TX_HASH_PROCESSED_HEIGHT), any());
+    }
+
+    @Test
+    public void getBtcTxHashesProcessedHeights_readsFromBridgeStorageAtOnce() throws Exception {
+        BridgeTransactionSender bridgeTransactionSender = mock(BridgeTransactionSender.class);
+        BridgeStorageReader bridgeStorageReader = mock(BridgeStorageReader.class);
+        Sha256Hash processedHash = createHash();
+        co.rsk.bitcoinj.core.Sha256Hash thinProcessedHash = co.rsk.bitcoinj.core.Sha256Hash.wrap(processedHash.getBytes());
+        when(bridgeStorageReader.getBtcTxHashesProcessedHeights(any())).thenReturn(Collections.singletonMap(thinProcessedHash, 10L));
+
+        FederatorSupport fs = new FederatorSupport(
+                mock(Blockchain.class),
+                new TestSystemProperties(),
+                bridgeTransactionSender,
+                bridgeStorageReader
+        );
+
+        Map<Sha256Hash, Long> processedHeights = fs.getBtcTxHashesProcessedHeights(Arrays.asList(processedHash, Sha256Hash.ZERO_HASH));
+
+        Assert.assertEquals(Collections.singletonMap(processedHash, 10L), processedHeights);
+        verify(bridgeStorageReader, times(1)).getBtcTxHashesProcessedHeights(
+                new HashSet<>(Arrays.asList(thinProcessedHash, co.rsk.bitcoinj.core.Sha256Hash.ZERO_HASH))
+        );
+        verifyZeroInteractions(bridgeTransactionSender);
+    }
+
+    @Test
+    public void getBtcTxHashesProcessedHeights_withoutBridgeStorage_callsBridgeOncePerTx() {
+        BridgeTransactionSender bridgeTransactionSender = mock(BridgeTransactionSender.class);
+        Sha256Hash processedHash = createHash();
+        when(bridgeTransactionSender.callTx(any(), eq(Bridge.GET_BTC_TX_HASH_PROCESSED_HEIGHT), eq(new Object[]{ processedHash.toString() })))
+                .thenReturn(BigInteger.TEN);
+        when(bridgeTransactionSender.callTx(any(), eq(Bridge.GET_BTC_TX_HASH_PROCESSED_HEIGHT), eq(new Object[]{ Sha256Hash.ZERO_HASH.toString() })))
+                .thenReturn(BigInteger.valueOf(-1));
+
+        FederatorSupport fs = new FederatorSupport(
+                mock(Blockchain.class),
+                new TestSystemProperties(),
+                bridgeTransactionSender
+        );
+
+        Map<Sha256Hash, Long> processedHeights = fs.getBtcTxHashesProcessedHeights(Arrays.asList(processedHash, Sha256Hash.ZERO_HASH));
+
+        Assert.assertEquals(Collections.singletonMap(processedHash, 10L), processedHeights);
+        verify(bridgeTransactionSender, times(2)).callTx(any(), any(), any());
+    }
+
+    @Test
+    public void getEncodedStateForFederator_readsFromBridgeStorage() throws Exception {
+        BridgeTransactionSender bridgeTransactionSender = mock(BridgeTransactionSender.class);
+        BridgeStorageReader bridgeStorageReader = mock(BridgeStorageReader.class);
+        StateForFederator stateForFederator = new StateForFederator(new TreeMap<>());
+        when(bridgeStorageReader.getStateForFederator()).thenReturn(stateForFederator);
+
+        FederatorSupport fs = new FederatorSupport(
+                mock(Blockchain.class),
+                new TestSystemProperties(),
+                bridgeTransactionSender,
+                bridgeStorageReader
+        );
+
+        Assert.assertSame(stateForFederator, fs.getStateForFederator());
+        Assert.assertArrayEquals(stateForFederator.getEncoded(), fs.getEncodedStateForFederator());
+        verifyZeroInteractions(bridgeTransactionSender);
+    }
+
     private Sha256Hash createHash() {
         byte[] bytes = new byte[32];
         bytes[0] = (byte) 1;
@@ -83,4 +83,12 @@ public class ThinConverterTest {
         org.bitcoinj.core.Address originalAddress = ThinConverter.toOriginalInstance(ThinConverter.toOriginalInstance(co.rsk.bitcoinj.core.NetworkParameters.ID_REGTEST), thinAddress);
         Assert.assertEquals(thinAddress.toString(), originalAddress.toString());
     }
+
+    @Test
+    public void toThinInstanceHash() {
+        org.bitcoinj.core.Sha256Hash originalHash = createOriginalHash();
+        co.rsk.bitcoinj.core.Sha256Hash thinHash = ThinConverter.toThinInstance(originalHash);
+        Assert.assertArrayEquals(originalHash.getBytes(), thinHash.getBytes());
+        Assert.assertEquals(originalHash.toString(), thinHash.toString());
+    }
 }
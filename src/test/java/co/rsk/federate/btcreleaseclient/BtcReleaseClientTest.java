@@ -203,6 +203,7 @@ public class BtcReleaseClientTest {
         when(signer.getPublicKey(FedNodeRunner.BTC_KEY_ID)).thenReturn(signerPublicKey);
         when(signer.getVersionForKeyId(FedNodeRunner.BTC_KEY_ID)).thenReturn(1);
         when(signer.sign(eq(FedNodeRunner.BTC_KEY_ID), ArgumentMatchers.any())).thenReturn(ethSig);
+        when(signer.signBatch(eq(FedNodeRunner.BTC_KEY_ID), ArgumentMatchers.any())).thenCallRealMethod();
 
         FedNodeSystemProperties fedNodeSystemProperties = mock(FedNodeSystemProperties.class);
         when(fedNodeSystemProperties.getNetworkConstants()).thenReturn(Constants.regtest());
@@ -245,7 +246,8 @@ public class BtcReleaseClientTest {
             releaseCreationInformationGetter,
             mock(ReleaseRequirementsEnforcer.class),
             mock(BtcReleaseClientStorageAccessor.class),
-            mock(BtcReleaseClientStorageSynchronizer.class)
+            mock(BtcReleaseClientStorageSynchronizer.class),
+            mock(ReleaseBroadcastManager.class)
         );
         client.start(federation);
 
@@ -287,7 +289,7 @@ public class BtcReleaseClientTest {
         FederatorSupport federatorSupport = mock(FederatorSupport.class);
         Mockito.doThrow(RuntimeException.class).when(federatorSupport).addSignature(
             ArgumentMatchers.anyListOf(byte[].class), ArgumentMatchers.any(byte[].class));
-        Mockito.doReturn(stateForFederator).when(federatorSupport).getStateForFederator();
+        Mockito.doReturn(stateForFederator.getEncoded()).when(federatorSupport).getEncodedStateForFederator();
 
         ECKey ecKey = new ECKey();
         ECKey.ECDSASignature ethSig = ecKey.doSign(new byte[]{});
@@ -299,6 +301,7 @@ public class BtcReleaseClientTest {
         Mockito.doReturn(1).when(signer).getVersionForKeyId(ArgumentMatchers.any(KeyId.class));
         Mockito.doReturn(ethSig).when(signer).sign(ArgumentMatchers.any(KeyId.class), ArgumentMatchers
             .any(SignerMessage.class));
+        Mockito.doCallRealMethod().when(signer).signBatch(ArgumentMatchers.any(KeyId.class), ArgumentMatchers.any());
 
         FedNodeSystemProperties fedNodeSystemProperties = mock(FedNodeSystemProperties.class);
         Mockito.doReturn(Constants.regtest()).when(fedNodeSystemProperties).getNetworkConstants();
@@ -353,7 +356,8 @@ public class BtcReleaseClientTest {
             releaseCreationInformationGetter,
             mock(ReleaseRequirementsEnforcer.class),
             mock(BtcReleaseClientStorageAccessor.class),
-            storageSynchronizer
+            storageSynchronizer,
+            mock(ReleaseBroadcastManager.class)
         );
         btcReleaseClient.start(federation);
 
@@ -399,7 +403,8 @@ public class BtcReleaseClientTest {
             mock(ReleaseCreationInformationGetter.class),
             mock(ReleaseRequirementsEnforcer.class),
             mock(BtcReleaseClientStorageAccessor.class),
-            mock(BtcReleaseClientStorageSynchronizer.class)
+            mock(BtcReleaseClientStorageSynchronizer.class),
+            mock(ReleaseBroadcastManager.class)
         );
         btcReleaseClient.start(federation);
 
@@ -408,6 +413,41 @@ public class BtcReleaseClientTest {
 
         // Assert
         Mockito.verify(federatorSupport, Mockito.never()).getStateForFederator();
+        Mockito.verify(federatorSupport, Mockito.never()).getEncodedStateForFederator();
+    }
+
+    @Test
+    public void retryPendingReleases_return_when_node_is_syncing() throws Exception {
+        Federation federation = TestUtils.createFederation(params, 1);
+
+        FedNodeSystemProperties fedNodeSystemProperties = mock(FedNodeSystemProperties.class);
+        Mockito.doReturn(Constants.regtest()).when(fedNodeSystemProperties).getNetworkConstants();
+
+        NodeBlockProcessor nodeBlockProcessor = mock(NodeBlockProcessor.class);
+        when(nodeBlockProcessor.hasBetterBlockToSync()).thenReturn(true);
+
+        ECDSASigner signer = mock(ECDSASigner.class);
+        BtcReleaseClient btcReleaseClient = new BtcReleaseClient(
+            mock(Ethereum.class),
+            mock(FederatorSupport.class),
+            fedNodeSystemProperties,
+            nodeBlockProcessor
+        );
+        btcReleaseClient.setup(
+            signer,
+            mock(ActivationConfig.class),
+            mock(SignerMessageBuilderFactory.class),
+            mock(ReleaseCreationInformationGetter.class),
+            mock(ReleaseRequirementsEnforcer.class),
+            mock(BtcReleaseClientStorageAccessor.class),
+            mock(BtcReleaseClientStorageSynchronizer.class),
+            mock(ReleaseBroadcastManager.class)
+        );
+        btcReleaseClient.start(federation);
+
+        btcReleaseClient.retryPendingReleases();
+
+        Mockito.verify(signer, Mockito.never()).getVersionForKeyId(any());
     }
 
     @Test
@@ -559,7 +599,8 @@ public class BtcReleaseClientTest {
             mock(ReleaseCreationInformationGetter.class),
             mock(ReleaseRequirementsEnforcer.class),
             mock(BtcReleaseClientStorageAccessor.class),
-            mock(BtcReleaseClientStorageSynchronizer.class)
+            mock(BtcReleaseClientStorageSynchronizer.class),
+            mock(ReleaseBroadcastManager.class)
         );
         client.start(federation);
 
@@ -598,7 +639,8 @@ public class BtcReleaseClientTest {
             mock(ReleaseCreationInformationGetter.class),
             mock(ReleaseRequirementsEnforcer.class),
             mock(BtcReleaseClientStorageAccessor.class),
-            mock(BtcReleaseClientStorageSynchronizer.class)
+            mock(BtcReleaseClientStorageSynchronizer.class),
+            mock(ReleaseBroadcastManager.class)
         );
 
         // Act
@@ -655,7 +697,8 @@ public class BtcReleaseClientTest {
             mock(ReleaseCreationInformationGetter.class),
             mock(ReleaseRequirementsEnforcer.class),
             mock(BtcReleaseClientStorageAccessor.class),
-            mock(BtcReleaseClientStorageSynchronizer.class)
+            mock(BtcReleaseClientStorageSynchronizer.class),
+            mock(ReleaseBroadcastManager.class)
         );
         client.start(federation);
 
@@ -749,7 +792,8 @@ public class BtcReleaseClientTest {
             mock(ReleaseCreationInformationGetter.class),
             mock(ReleaseRequirementsEnforcer.class),
             mock(BtcReleaseClientStorageAccessor.class),
-            mock(BtcReleaseClientStorageSynchronizer.class)
+            mock(BtcReleaseClientStorageSynchronizer.class),
+            mock(ReleaseBroadcastManager.class)
         );
         client.start(federation);
 
@@ -862,9 +906,9 @@ public class BtcReleaseClientTest {
         rskTxsWaitingForSignatures.put(otherRskTxHash, releaseBtcTx);
 
         FederatorSupport federatorSupport = mock(FederatorSupport.class);
-        when(federatorSupport.getStateForFederator())
+        when(federatorSupport.getEncodedStateForFederator())
             .thenReturn(
-                new StateForFederator(rskTxsWaitingForSignatures) // Only return the confirmed release
+                new StateForFederator(rskTxsWaitingForSignatures).getEncoded() // Only return the confirmed release
             );
 
         ECDSASigner signer = mock(ECDSASigner.class);
@@ -872,6 +916,7 @@ public class BtcReleaseClientTest {
         when(signer.getPublicKey(any())).thenReturn(new ECPublicKey(key1.getPubKey()));
         ECKey.ECDSASignature signature = new ECKey.ECDSASignature(BigInteger.ONE, BigInteger.TEN);
         when(signer.sign(any(), any())).thenReturn(signature);
+        when(signer.signBatch(any(), any())).thenCallRealMethod();
 
         Block block = mock(Block.class);
         when(block.getNumber()).thenReturn(1L);
@@ -917,7 +962,8 @@ public class BtcReleaseClientTest {
             releaseCreationInformationGetter,
             releaseRequirementsEnforcer,
             accessor,
-            synchronizer
+            synchronizer,
+            mock(ReleaseBroadcastManager.class)
         );
 
         btcReleaseClient.start(federation);
@@ -938,6 +984,34 @@ public class BtcReleaseClientTest {
         verify(federatorSupport).addSignature(any(), eq(otherRskTxHash.getBytes()));
     }
 
+    @Test
+    public void getSpendingFederation_follows_observed_federations() {
+        BtcReleaseClient client = createBtcClient();
+
+        Federation federation1 = createFederation(Arrays.asList(
+            BtcECKey.fromPrivate(BigInteger.valueOf(100)),
+            BtcECKey.fromPrivate(BigInteger.valueOf(200)),
+            BtcECKey.fromPrivate(BigInteger.valueOf(300))
+        ));
+        Federation federation2 = createFederation(Arrays.asList(
+            BtcECKey.fromPrivate(BigInteger.valueOf(400)),
+            BtcECKey.fromPrivate(BigInteger.valueOf(500)),
+            BtcECKey.fromPrivate(BigInteger.valueOf(600))
+        ));
+
+        BtcTransaction releaseTx = new BtcTransaction(params);
+        releaseTx.addInput(TestUtils.createTransactionInput(params, releaseTx, federation2));
+
+        client.start(federation1);
+        Assert.assertNull(client.getSpendingFederation(releaseTx));
+
+        client.start(federation2);
+        Assert.assertEquals(federation2, client.getSpendingFederation(releaseTx));
+
+        client.stop(federation2);
+        Assert.assertNull(client.getSpendingFederation(releaseTx));
+    }
+
     private BtcReleaseClient createBtcClient() {
         FedNodeSystemProperties fedNodeSystemProperties = mock(FedNodeSystemProperties.class);
         when(fedNodeSystemProperties.getNetworkConstants()).thenReturn(Constants.regtest());
@@ -0,0 +1,169 @@
+package co.rsk.federate.btcreleaseclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import co.rsk.bitcoinj.core.BtcTransaction;
+import co.rsk.bitcoinj.core.Sha256Hash;
+import co.rsk.config.BridgeConstants;
+import co.rsk.config.BridgeRegTestConstants;
+import co.rsk.federate.bitcoin.BitcoinWrapper;
+import co.rsk.federate.signing.utils.TestUtils;
+import co.rsk.peg.Federation;
+import java.util.Collections;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReleaseBroadcastManagerTest {
+    private static final long ONE_MINUTE = 60_000L;
+
+    private BridgeConstants bridgeConstants;
+    private BitcoinWrapper bitcoinWrapper;
+    private BtcReleaseClientStorageAccessor storageAccessor;
+    private TransactionConfidence confidence;
+    private AtomicLong now;
+    private ReleaseBroadcastManager manager;
+    private BtcTransaction release;
+
+    @Before
+    public void setUp() {
+        bridgeConstants = BridgeRegTestConstants.getInstance();
+        bitcoinWrapper = mock(BitcoinWrapper.class);
+        storageAccessor = mock(BtcReleaseClientStorageAccessor.class);
+        when(storageAccessor.getBroadcastedReleases()).thenReturn(Collections.emptyMap());
+        confidence = mock(TransactionConfidence.class);
+        when(confidence.getConfidenceType()).thenReturn(TransactionConfidence.ConfidenceType.PENDING);
+        when(bitcoinWrapper.getTransactionConfidence(any(Transaction.class))).thenReturn(confidence);
+        now = new AtomicLong(1_000_000L);
+
+        manager = new ReleaseBroadcastManager(
+            bitcoinWrapper,
+            storageAccessor,
+            bridgeConstants,
+            now::get,
+            mock(ScheduledExecutorService.class)
+        );
+        manager.start();
+
+        Federation federation = TestUtils.createFederation(bridgeConstants.getBtcParams(), 1);
+        release = TestUtils.createBtcTransaction(bridgeConstants.getBtcParams(), federation);
+    }
+
+    @Test
+    public void broadcast_only_once() {
+        assertTrue(manager.broadcast(release));
+        assertFalse(manager.broadcast(release));
+
+        verify(bitcoinWrapper, times(1)).broadcastTransaction(any(Transaction.class));
+        verify(storageAccessor, times(1)).putBroadcastedRelease(eq(release.getHash()), any(byte[].class));
+        assertTrue(manager.isBroadcasted(release.getHash()));
+        assertEquals(1, manager.getTrackedReleasesCount());
+    }
+
+    @Test
+    public void rebroadcast_with_backoff() {
+        manager.broadcast(release);
+
+        // Not due yet
+        now.addAndGet(ONE_MINUTE);
+        manager.checkBroadcastedReleases();
+        verify(bitcoinWrapper, times(1)).broadcastTransaction(any(Transaction.class));
+
+        // Due after 2 minutes
+        now.addAndGet(ONE_MINUTE);
+        manager.checkBroadcastedReleases();
+        verify(bitcoinWrapper, times(2)).broadcastTransaction(any(Transaction.class));
+
+        // Next one is due after 4 minutes
+        now.addAndGet(3 * ONE_MINUTE);
+        manager.checkBroadcastedReleases();
+        verify(bitcoinWrapper, times(2)).broadcastTransaction(any(Transaction.class));
+        now.addAndGet(ONE_MINUTE);
+        manager.checkBroadcastedReleases();
+        verify(bitcoinWrapper, times(3)).broadcastTransaction(any(Transaction.class));
+    }
+
+    @Test
+    public void no_rebroadcast_once_in_a_block() {
+        manager.broadcast(release);
+        when(confidence.getConfidenceType()).thenReturn(TransactionConfidence.ConfidenceType.BUILDING);
+        when(confidence.getDepthInBlocks()).thenReturn(1);
+
+        now.addAndGet(10 * ONE_MINUTE);
+        manager.checkBroadcastedReleases();
+
+        verify(bitcoinWrapper, times(1)).broadcastTransaction(any(Transaction.class));
+        assertTrue(manager.isBroadcasted(release.getHash()));
+        verify(storageAccessor, never()).removeBroadcastedRelease(any(Sha256Hash.class));
+    }
+
+    @Test
+    public void forget_deep_releases() {
+        manager.broadcast(release);
+        when(confidence.getConfidenceType()).thenReturn(TransactionConfidence.ConfidenceType.BUILDING);
+        when(confidence.getDepthInBlocks()).thenReturn(100);
+
+        manager.checkBroadcastedReleases();
+
+        assertFalse(manager.isBroadcasted(release.getHash()));
+        verify(storageAccessor, times(1)).removeBroadcastedRelease(release.getHash());
+    }
+
+    @Test
+    public void give_up_after_max_attempts() {
+        manager.broadcast(release);
+
+        // Never gets in a block the wallet sees
+        for (int i = 0; i < 30; i++) {
+            now.addAndGet(60 * ONE_MINUTE);
+            manager.checkBroadcastedReleases();
+        }
+
+        verify(bitcoinWrapper, times(24)).broadcastTransaction(any(Transaction.class));
+        assertFalse(manager.isBroadcasted(release.getHash()));
+        verify(storageAccessor, times(1)).removeBroadcastedRelease(release.getHash());
+    }
+
+    @Test
+    public void resume_persisted_releases() {
+        when(storageAccessor.getBroadcastedReleases()).thenReturn(
+            Collections.singletonMap(release.getHash(), release.bitcoinSerialize())
+        );
+        ReleaseBroadcastManager restartedManager = new ReleaseBroadcastManager(
+            bitcoinWrapper,
+            storageAccessor,
+            bridgeConstants,
+            now::get,
+            mock(ScheduledExecutorService.class)
+        );
+        restartedManager.start();
+
+        assertTrue(restartedManager.isBroadcasted(release.getHash()));
+        assertFalse(restartedManager.broadcast(release));
+
+        // Persisted releases are rebroadcasted on the first check
+        restartedManager.checkBroadcastedReleases();
+        verify(bitcoinWrapper, times(1)).broadcastTransaction(any(Transaction.class));
+    }
+
+    @Test
+    public void peers_seen_by() {
+        when(confidence.numBroadcastPeers()).thenReturn(3);
+
+        assertEquals(0, manager.getPeersSeenBy(release.getHash()));
+        manager.broadcast(release);
+        assertEquals(3, manager.getPeersSeenBy(release.getHash()));
+    }
+}
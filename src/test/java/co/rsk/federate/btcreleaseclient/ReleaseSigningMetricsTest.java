@@ -0,0 +1,32 @@
+package co.rsk.federate.btcreleaseclient;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class ReleaseSigningMetricsTest {
+
+    @Test
+    public void toMap_empty() {
+        Map<String, Object> snapshot = new ReleaseSigningMetrics().toMap();
+
+        Assert.assertEquals(0L, snapshot.get("signedReleases"));
+        Assert.assertEquals(0L, snapshot.get("averageLatencyMillis"));
+    }
+
+    @Test
+    public void toMap_afterRecords() {
+        ReleaseSigningMetrics metrics = new ReleaseSigningMetrics();
+        metrics.record(3, 100);
+        metrics.record(1, 50);
+
+        Map<String, Object> snapshot = metrics.toMap();
+
+        Assert.assertEquals(2L, snapshot.get("signedReleases"));
+        Assert.assertEquals(4L, snapshot.get("signedInputs"));
+        Assert.assertEquals(50L, snapshot.get("lastLatencyMillis"));
+        Assert.assertEquals(100L, snapshot.get("maxLatencyMillis"));
+        Assert.assertEquals(75L, snapshot.get("averageLatencyMillis"));
+    }
+}
@@ -0,0 +1,125 @@
+package co.rsk.federate.btcreleaseclient;
+
+import static co.rsk.federate.signing.utils.TestUtils.createHash;
+
+import co.rsk.bitcoinj.core.BtcECKey;
+import co.rsk.bitcoinj.core.BtcTransaction;
+import co.rsk.bitcoinj.core.Coin;
+import co.rsk.bitcoinj.core.NetworkParameters;
+import co.rsk.bitcoinj.params.RegTestParams;
+import co.rsk.crypto.Keccak256;
+import co.rsk.federate.signing.utils.TestUtils;
+import co.rsk.peg.Federation;
+import co.rsk.peg.StateForFederator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReleaseStateTrackerTest {
+    private NetworkParameters params;
+    private Federation federation;
+    private ReleaseStateTracker tracker;
+
+    @Before
+    public void setUp() {
+        params = RegTestParams.get();
+        federation = TestUtils.createFederation(params, 1);
+        tracker = new ReleaseStateTracker(params, 4);
+    }
+
+    @Test
+    public void new_releases_are_processed_right_away() {
+        BtcTransaction tx1 = TestUtils.createBtcTransaction(params, federation);
+        BtcTransaction tx2 = TestUtils.createBtcTransaction(params, federation);
+
+        Assert.assertTrue(tracker.update(encode(createHash(1), tx1, createHash(2), tx2)));
+        SortedMap<Keccak256, BtcTransaction> releases = tracker.getReleasesToProcess();
+
+        Assert.assertEquals(2, releases.size());
+        Assert.assertEquals(tx1.getHash(), releases.get(createHash(1)).getHash());
+        Assert.assertEquals(tx2.getHash(), releases.get(createHash(2)).getHash());
+    }
+
+    @Test
+    public void unchanged_releases_are_retried_with_backoff() {
+        byte[] state = encode(createHash(1), TestUtils.createBtcTransaction(params, federation));
+
+        // Block 1: processed as new
+        Assert.assertTrue(tracker.update(state));
+        Assert.assertEquals(1, tracker.getReleasesToProcess().size());
+
+        // Blocks 2 to 10: retried after 1, 2 and 4 (max) blocks
+        int[] expectedReleases = new int[] { 1, 0, 1, 0, 0, 0, 1, 0, 0 };
+        for (int expected : expectedReleases) {
+            Assert.assertFalse(tracker.update(state));
+            Assert.assertEquals(expected, tracker.getReleasesToProcess().size());
+        }
+    }
+
+    @Test
+    public void all_releases_due_after_make_all_due() {
+        byte[] state = encode(createHash(1), TestUtils.createBtcTransaction(params, federation));
+        Assert.assertTrue(tracker.update(state));
+        Assert.assertEquals(1, tracker.getReleasesToProcess().size());
+        Assert.assertFalse(tracker.update(state));
+        Assert.assertEquals(1, tracker.getReleasesToProcess().size());
+        Assert.assertEquals(0, tracker.getReleasesToProcess().size());
+
+        tracker.makeAllDue();
+
+        Assert.assertEquals(1, tracker.getReleasesToProcess().size());
+        Assert.assertEquals(0, tracker.getReleasesToProcess().size());
+    }
+
+    @Test
+    public void changed_release_is_processed_right_away() {
+        BtcTransaction tx = TestUtils.createBtcTransaction(params, federation);
+        Assert.assertTrue(tracker.update(encode(createHash(1), tx)));
+        Assert.assertEquals(1, tracker.getReleasesToProcess().size());
+        Assert.assertFalse(tracker.update(encode(createHash(1), tx)));
+        Assert.assertEquals(1, tracker.getReleasesToProcess().size());
+
+        // Same rsk tx hash, different btc tx (e.g. another federator signed it)
+        BtcTransaction changedTx = new BtcTransaction(params, tx.bitcoinSerialize());
+        changedTx.addOutput(Coin.COIN, new BtcECKey().toAddress(params));
+        Assert.assertTrue(tracker.update(encode(createHash(1), changedTx)));
+
+        SortedMap<Keccak256, BtcTransaction> releases = tracker.getReleasesToProcess();
+        Assert.assertEquals(1, releases.size());
+        Assert.assertEquals(changedTx.getHash(), releases.get(createHash(1)).getHash());
+    }
+
+    @Test
+    public void removed_releases_are_forgotten() {
+        BtcTransaction tx1 = TestUtils.createBtcTransaction(params, federation);
+        BtcTransaction tx2 = TestUtils.createBtcTransaction(params, federation);
+        tracker.update(encode(createHash(1), tx1, createHash(2), tx2));
+        tracker.getReleasesToProcess();
+
+        Assert.assertTrue(tracker.update(encode(createHash(2), tx2)));
+
+        Assert.assertEquals(1, tracker.getPendingReleases().size());
+        Assert.assertEquals(tx2.getHash(), tracker.getPendingReleases().iterator().next().getHash());
+    }
+
+    @Test
+    public void handed_out_releases_are_copies() {
+        BtcTransaction tx = TestUtils.createBtcTransaction(params, federation);
+        tracker.update(encode(createHash(1), tx));
+
+        BtcTransaction handedOut = tracker.getReleasesToProcess().get(createHash(1));
+        handedOut.getInput(0).clearScriptBytes();
+
+        Assert.assertEquals(tx.getHash(), tracker.getPendingReleases().iterator().next().getHash());
+    }
+
+    private byte[] encode(Object... hashesAndTxs) {
+        SortedMap<Keccak256, BtcTransaction> releases = new TreeMap<>();
+        for (int i = 0; i < hashesAndTxs.length; i += 2) {
+            releases.put((Keccak256) hashesAndTxs[i], (BtcTransaction) hashesAndTxs[i + 1]);
+        }
+        return new StateForFederator(releases).getEncoded();
+    }
+}
@@ -131,6 +131,30 @@ public class BtcReleaseClientFileStorageImplTest {
         Assert.assertEquals(fileData.getBestBlockHash(), result.getData().getBestBlockHash());
     }
 
+    @Test
+    public void write_and_read_broadcasted_releases() throws Exception {
+        BtcReleaseClientFileStorageInfo storageInfo = mock(BtcReleaseClientFileStorageInfo.class);
+        when(storageInfo.getPegDirectoryPath()).thenReturn(DIRECTORY_PATH);
+        when(storageInfo.getFilePath()).thenReturn(FILE_PATH);
+
+        BtcReleaseClientFileData fileData = new BtcReleaseClientFileData();
+        fileData.getReleaseHashesMap().putAll(getReleaseHashesData());
+        fileData.getBroadcastedReleasesMap().put(co.rsk.bitcoinj.core.Sha256Hash.ZERO_HASH, new byte[]{ 1, 2, 3 });
+
+        BtcReleaseClientFileStorage storage = getBtcReleaseClientFileStorage(storageInfo);
+
+        storage.write(fileData);
+
+        BtcReleaseClientFileReadResult result = storage.read(parameters);
+
+        Assert.assertTrue(result.getSuccess());
+
+        Map<co.rsk.bitcoinj.core.Sha256Hash, byte[]> broadcastedReleases = result.getData().getBroadcastedReleasesMap();
+        Assert.assertEquals(1, broadcastedReleases.size());
+        Assert.assertArrayEquals(new byte[]{ 1, 2, 3 }, broadcastedReleases.get(co.rsk.bitcoinj.core.Sha256Hash.ZERO_HASH));
+        Assert.assertFalse(result.getData().getBestBlockHash().isPresent());
+    }
+
     @Test
     public void getInfo() {
         FileStorageInfo storageInfo = mock(FileStorageInfo.class);
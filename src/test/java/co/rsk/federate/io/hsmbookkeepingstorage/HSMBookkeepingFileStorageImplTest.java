@@ -0,0 +1,96 @@
+package co.rsk.federate.io.hsmbookkeepingstorage;
+
+import static co.rsk.federate.signing.utils.TestUtils.createHash;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import co.rsk.crypto.Keccak256;
+import co.rsk.federate.io.FileStorageInfo;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HSMBookkeepingFileStorageImplTest {
+
+    private static final String DIRECTORY_PATH = "src/test/java/co/rsk/federate/io" + File.separator + "peg";
+    private static final String FILE_PATH = DIRECTORY_PATH + File.separator + "hsmBookkeeping.rlp";
+
+    private FileStorageInfo storageInfo;
+
+    @Before
+    public void setup() throws IOException {
+        this.clean();
+        storageInfo = mock(FileStorageInfo.class);
+        when(storageInfo.getPegDirectoryPath()).thenReturn(DIRECTORY_PATH);
+        when(storageInfo.getFilePath()).thenReturn(FILE_PATH);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.clean();
+    }
+
+    @Test
+    public void read_no_file() throws IOException {
+        HSMBookkeepingFileStorage storage = new HSMBookkeepingFileStorageImpl(storageInfo);
+
+        HSMBookkeepingFileReadResult result = storage.read();
+
+        Assert.assertTrue(result.getSuccess());
+        Assert.assertFalse(result.getData().hasAdvanceBlockchainInProgress());
+    }
+
+    @Test
+    public void read_trash_file() throws IOException {
+        FileUtils.writeByteArrayToFile(new File(FILE_PATH), new byte[]{ 6, 6, 6 });
+        HSMBookkeepingFileStorage storage = new HSMBookkeepingFileStorageImpl(storageInfo);
+
+        HSMBookkeepingFileReadResult result = storage.read();
+
+        Assert.assertFalse(result.getSuccess());
+    }
+
+    @Test(expected = IOException.class)
+    public void write_null_data() throws Exception {
+        HSMBookkeepingFileStorage storage = new HSMBookkeepingFileStorageImpl(storageInfo);
+
+        storage.write(null);
+    }
+
+    @Test
+    public void write_and_read_ok() throws Exception {
+        List<Keccak256> blockHashes = Arrays.asList(createHash(1), createHash(2), createHash(3));
+        HSMBookkeepingFileStorage storage = new HSMBookkeepingFileStorageImpl(storageInfo);
+
+        storage.write(new HSMBookkeepingFileData(blockHashes, 2));
+        HSMBookkeepingFileReadResult result = storage.read();
+
+        Assert.assertTrue(result.getSuccess());
+        Assert.assertTrue(result.getData().hasAdvanceBlockchainInProgress());
+        Assert.assertEquals(blockHashes, result.getData().getAdvanceBlockchainBlockHashes());
+        Assert.assertEquals(2, result.getData().getAdvanceBlockchainNextHeader());
+    }
+
+    @Test
+    public void write_empty_data_clears() throws Exception {
+        HSMBookkeepingFileStorage storage = new HSMBookkeepingFileStorageImpl(storageInfo);
+
+        storage.write(new HSMBookkeepingFileData(Arrays.asList(createHash(1)), 1));
+        storage.write(new HSMBookkeepingFileData());
+        HSMBookkeepingFileReadResult result = storage.read();
+
+        Assert.assertTrue(result.getSuccess());
+        Assert.assertFalse(result.getData().hasAdvanceBlockchainInProgress());
+        Assert.assertEquals(0, result.getData().getAdvanceBlockchainNextHeader());
+    }
+
+    private void clean() throws IOException {
+        FileUtils.deleteDirectory(new File(DIRECTORY_PATH));
+    }
+}
@@ -113,6 +113,16 @@ public class SimpleBitcoinWrapper implements BitcoinWrapper {
 
     }
 
+    @Override
+    public TransactionBroadcast broadcastTransaction(Transaction tx) {
+        return null;
+    }
+
+    @Override
+    public TransactionConfidence getTransactionConfidence(Transaction tx) {
+        return tx.getConfidence();
+    }
+
     public void setTransactions(Set<Transaction> transactions) {
         this.transactions = transactions;
     }
@@ -74,6 +74,36 @@ public class JsonRpcOnStreamClientTest {
         Assert.assertEquals(sentResponse, response);
     }
 
+    @Test
+    public void countsTraffic() throws IOException, JsonRpcException {
+        ObjectNode request = new ObjectMapper().createObjectNode();
+        request.put("anything", 123);
+
+        byte[] sentResponseBytes = "{\"this\":456}\n".getBytes(StandardCharsets.UTF_8);
+        JsonRpcOnStreamClient client = new JsonRpcOnStreamClient(new ByteArrayInputStream(sentResponseBytes), os, StandardCharsets.UTF_8);
+        JsonRpcTrafficCounter trafficCounter = new JsonRpcTrafficCounter();
+        client.setTrafficCounter(trafficCounter);
+
+        client.send(request);
+
+        Assert.assertEquals(os.toByteArray().length, trafficCounter.getBytesSent());
+        Assert.assertEquals(sentResponseBytes.length, trafficCounter.getBytesReceived());
+    }
+
+    @Test
+    public void consecutiveResponses() throws IOException, JsonRpcException {
+        byte[] sentResponseBytes = "{\"id\":1}\n{\"id\":2}\n".getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(sentResponseBytes, 0, inputBytes, 0, sentResponseBytes.length);
+
+        ObjectNode request = new ObjectMapper().createObjectNode();
+        request.put("anything", 123);
+
+        // The first read takes both responses from the stream, the second one must not get lost
+        Assert.assertEquals(1, client.send(request).get("id").asInt());
+        Assert.assertEquals(2, client.send(request).get("id").asInt());
+        Assert.assertEquals("{\"anything\":123}\n{\"anything\":123}\n", Strings.fromUTF8ByteArray(os.toByteArray()));
+    }
+
     @Test
     public void writeError() throws IOException {
         ObjectNode request = new ObjectMapper().createObjectNode();
@@ -0,0 +1,177 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.rpc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class PipelinedJsonRpcOnStreamClientTest {
+    private static final long TIMEOUT = 5_000;
+
+    private ObjectMapper mapper;
+    private BufferedReader serviceInput;
+    private BufferedWriter serviceOutput;
+    private PipelinedJsonRpcOnStreamClient client;
+
+    @Before
+    public void createClient() throws IOException {
+        mapper = new ObjectMapper();
+        PipedInputStream clientInput = new PipedInputStream();
+        PipedOutputStream clientOutput = new PipedOutputStream();
+        serviceOutput = new BufferedWriter(new OutputStreamWriter(new PipedOutputStream(clientInput), StandardCharsets.UTF_8));
+        serviceInput = new BufferedReader(new InputStreamReader(new PipedInputStream(clientOutput), StandardCharsets.UTF_8));
+        client = new PipelinedJsonRpcOnStreamClient(clientInput, clientOutput, StandardCharsets.UTF_8, 200);
+        client.start();
+    }
+
+    @After
+    public void closeClient() {
+        client.close();
+    }
+
+    @Test
+    public void requestsAreTaggedAndWrittenWithoutWaiting() throws Exception {
+        CompletableFuture<JsonNode> response1 = client.sendAsync(command("sign", 1));
+        CompletableFuture<JsonNode> response2 = client.sendAsync(command("sign", 2));
+
+        JsonNode request1 = mapper.readTree(serviceInput.readLine());
+        JsonNode request2 = mapper.readTree(serviceInput.readLine());
+        Assert.assertEquals(0, request1.get("id").asLong());
+        Assert.assertEquals(1, request1.get("input").asInt());
+        Assert.assertEquals(1, request2.get("id").asLong());
+        Assert.assertEquals(2, request2.get("input").asInt());
+        Assert.assertEquals(2, client.getPendingRequests());
+        Assert.assertFalse(response1.isDone());
+        Assert.assertFalse(response2.isDone());
+    }
+
+    @Test
+    public void responsesAreMatchedById() throws Exception {
+        CompletableFuture<JsonNode> response1 = client.sendAsync(command("sign", 1));
+        CompletableFuture<JsonNode> response2 = client.sendAsync(command("sign", 2));
+
+        // Answered in reverse order
+        respond("{\"id\":1,\"errorcode\":0,\"result\":\"second\"}");
+        respond("{\"id\":0,\"errorcode\":0,\"result\":\"first\"}");
+
+        JsonNode first = response1.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        Assert.assertEquals("first", first.get("result").asText());
+        Assert.assertFalse(first.has("id"));
+        Assert.assertEquals("second", response2.get(TIMEOUT, TimeUnit.MILLISECONDS).get("result").asText());
+        Assert.assertEquals(0, client.getPendingRequests());
+    }
+
+    @Test
+    public void responsesWithoutIdAreMatchedByOrder() throws Exception {
+        CompletableFuture<JsonNode> response1 = client.sendAsync(command("sign", 1));
+        CompletableFuture<JsonNode> response2 = client.sendAsync(command("sign", 2));
+
+        respond("{\"errorcode\":0,\"result\":\"first\"}");
+        respond("{\"errorcode\":0,\"result\":\"second\"}");
+
+        Assert.assertEquals("first", response1.get(TIMEOUT, TimeUnit.MILLISECONDS).get("result").asText());
+        Assert.assertEquals("second", response2.get(TIMEOUT, TimeUnit.MILLISECONDS).get("result").asText());
+    }
+
+    @Test
+    public void blockingSend() throws Exception {
+        CompletableFuture<JsonNode> response = CompletableFuture.supplyAsync(() -> {
+            try {
+                return client.send(command("version", 0));
+            } catch (JsonRpcException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        serviceInput.readLine();
+        respond("{\"id\":0,\"errorcode\":0,\"version\":2}");
+
+        Assert.assertEquals(2, response.get(TIMEOUT, TimeUnit.MILLISECONDS).get("version").asInt());
+    }
+
+    @Test
+    public void blockingSendTimesOut() {
+        try {
+            client.send(command("version", 0));
+            Assert.fail();
+        } catch (JsonRpcException e) {
+            Assert.assertTrue(e.getMessage().contains("No response after 200 ms"));
+        }
+    }
+
+    @Test
+    public void closedConnectionFailsPendingRequests() throws Exception {
+        CompletableFuture<JsonNode> response = client.sendAsync(command("sign", 1));
+
+        serviceOutput.close();
+
+        try {
+            response.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof JsonRpcException);
+        }
+        Assert.assertTrue(client.isClosed());
+        Assert.assertTrue(client.sendAsync(command("sign", 2)).isCompletedExceptionally());
+    }
+
+    @Test
+    public void unparseableResponseClosesClient() throws Exception {
+        CompletableFuture<JsonNode> response = client.sendAsync(command("sign", 1));
+
+        respond("not json at all {");
+
+        try {
+            response.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause().getMessage().contains("error while trying to parse a response"));
+        }
+        Assert.assertTrue(client.isClosed());
+    }
+
+    private ObjectNode command(String name, int input) {
+        ObjectNode command = mapper.createObjectNode();
+        command.put("command", name);
+        command.put("input", input);
+        return command;
+    }
+
+    private void respond(String response) throws IOException {
+        serviceOutput.write(response);
+        serviceOutput.write("\n");
+        serviceOutput.flush();
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.rpc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+public class PooledSocketBasedJsonRpcClientProviderTest {
+    private List<Socket> sockets;
+    private List<InputStream> inputStreams;
+    private List<OutputStream> outputStreams;
+    private long now;
+    private PooledSocketBasedJsonRpcClientProvider provider;
+    private ObjectNode request;
+
+    @Before
+    public void createProvider() {
+        sockets = new ArrayList<>();
+        inputStreams = new ArrayList<>();
+        outputStreams = new ArrayList<>();
+        now = 1_000_000;
+        provider = new PooledSocketBasedJsonRpcClientProvider(mock(SocketAddress.class), () -> now) {
+            @Override
+            protected Socket connect() throws JsonRpcException {
+                try {
+                    return mockSocket();
+                } catch (IOException e) {
+                    throw new JsonRpcException("mock socket", e);
+                }
+            }
+        };
+        request = new ObjectMapper().createObjectNode();
+        request.put("command", "version");
+    }
+
+    @Test
+    public void defaults() {
+        Assert.assertEquals(2, provider.getMaxPoolSize());
+        Assert.assertEquals(60_000, provider.getMaxIdleTime());
+        Assert.assertEquals(0, provider.getIdleConnections());
+        Assert.assertEquals(0, provider.getActiveConnections());
+    }
+
+    @Test
+    public void releasedClientIsReused() throws Exception {
+        inputStreams.add(responses("{\"errorcode\":0,\"version\":2}", "{\"errorcode\":0,\"version\":2}"));
+
+        JsonRpcClient client = provider.acquire();
+        Assert.assertEquals(2, client.send(request).get("version").asInt());
+        Assert.assertEquals(1, provider.getActiveConnections());
+        Assert.assertTrue(provider.release(client));
+        Assert.assertEquals(1, provider.getIdleConnections());
+
+        JsonRpcClient sameClient = provider.acquire();
+        Assert.assertSame(client, sameClient);
+        Assert.assertEquals(2, sameClient.send(request).get("version").asInt());
+        Assert.assertTrue(provider.release(sameClient));
+
+        Assert.assertEquals(1, sockets.size());
+        verify(sockets.get(0), never()).close();
+        verify(sockets.get(0), times(1)).setKeepAlive(true);
+        Assert.assertEquals(1, provider.getCreatedConnections());
+        Assert.assertEquals(1, provider.getReusedConnections());
+    }
+
+    @Test
+    public void releaseUnknownClient() {
+        Assert.assertFalse(provider.release(mock(JsonRpcClient.class)));
+        Assert.assertFalse(provider.release(null));
+    }
+
+    @Test
+    public void failedClientIsReplaced() throws Exception {
+        outputStreams.add(new FailingOutputStream());
+
+        JsonRpcClient client = provider.acquire();
+        try {
+            client.send(request);
+            Assert.fail();
+        } catch (JsonRpcException e) {
+            Assert.assertTrue(e.getMessage().contains("error trying to send request"));
+        }
+        Assert.assertTrue(provider.release(client));
+
+        verify(sockets.get(0), times(1)).close();
+        Assert.assertEquals(0, provider.getIdleConnections());
+        Assert.assertEquals(1, provider.getDiscardedConnections());
+
+        JsonRpcClient anotherClient = provider.acquire();
+        Assert.assertNotSame(client, anotherClient);
+        Assert.assertEquals(2, sockets.size());
+    }
+
+    @Test
+    public void poolIsBounded() throws Exception {
+        provider.setMaxPoolSize(2);
+        JsonRpcClient client1 = provider.acquire();
+        JsonRpcClient client2 = provider.acquire();
+        JsonRpcClient client3 = provider.acquire();
+        Assert.assertEquals(3, provider.getActiveConnections());
+
+        provider.release(client1);
+        provider.release(client2);
+        provider.release(client3);
+
+        Assert.assertEquals(0, provider.getActiveConnections());
+        Assert.assertEquals(2, provider.getIdleConnections());
+        verify(sockets.get(0), never()).close();
+        verify(sockets.get(1), never()).close();
+        verify(sockets.get(2), times(1)).close();
+    }
+
+    @Test
+    public void idleConnectionsAreEvicted() throws Exception {
+        provider.setMaxIdleTime(10_000);
+        JsonRpcClient client = provider.acquire();
+        provider.release(client);
+
+        now += 10_001;
+        JsonRpcClient anotherClient = provider.acquire();
+
+        Assert.assertNotSame(client, anotherClient);
+        verify(sockets.get(0), times(1)).close();
+        Assert.assertEquals(1, provider.getEvictedConnections());
+        Assert.assertEquals(2, provider.getCreatedConnections());
+    }
+
+    @Test
+    public void connectionClosedByTheServiceIsReplaced() throws Exception {
+        // Empty stream, reading from it means end of stream
+        inputStreams.add(new ByteArrayInputStream(new byte[]{}));
+        JsonRpcClient client = provider.acquire();
+        provider.release(client);
+
+        now += 5_000;
+        JsonRpcClient anotherClient = provider.acquire();
+
+        Assert.assertNotSame(client, anotherClient);
+        verify(sockets.get(0), times(1)).close();
+        Assert.assertEquals(1, provider.getDiscardedConnections());
+    }
+
+    @Test
+    public void healthyIdleConnectionIsReused() throws Exception {
+        inputStreams.add(new SilentInputStream());
+        provider.setSocketTimeout(3_000);
+        JsonRpcClient client = provider.acquire();
+        provider.release(client);
+
+        now += 5_000;
+        JsonRpcClient sameClient = provider.acquire();
+
+        Assert.assertSame(client, sameClient);
+        verify(sockets.get(0), times(1)).setSoTimeout(1);
+        verify(sockets.get(0), times(1)).setSoTimeout(3_000);
+        Assert.assertEquals(1, provider.getReusedConnections());
+    }
+
+    @Test
+    public void reusedConnectionClosedByTheService_sentAgainOnNewConnection() throws Exception {
+        ServiceInputStream firstConnection = responses("{\"errorcode\":0,\"version\":2}");
+        inputStreams.add(firstConnection);
+        inputStreams.add(responses("{\"errorcode\":0,\"version\":2}"));
+        JsonRpcClient client = provider.acquire();
+        client.send(request);
+        provider.release(client);
+
+        JsonRpcClient sameClient = provider.acquire();
+        // Closed right after passing the check
+        firstConnection.close();
+
+        Assert.assertEquals(2, sameClient.send(request).get("version").asInt());
+        Assert.assertTrue(provider.release(sameClient));
+        Assert.assertEquals(2, sockets.size());
+        verify(sockets.get(0), times(1)).close();
+        verify(sockets.get(1), never()).close();
+        Assert.assertEquals(2, provider.getCreatedConnections());
+        Assert.assertEquals(1, provider.getDiscardedConnections());
+        Assert.assertEquals(1, provider.getIdleConnections());
+    }
+
+    @Test
+    public void newConnectionClosedByTheService_notSentAgain() throws Exception {
+        ServiceInputStream closedConnection = responses();
+        closedConnection.close();
+        inputStreams.add(closedConnection);
+        JsonRpcClient client = provider.acquire();
+
+        try {
+            client.send(request);
+            Assert.fail();
+        } catch (JsonRpcConnectionClosedException e) {
+            // Expected
+        }
+        Assert.assertEquals(1, sockets.size());
+        Assert.assertTrue(provider.release(client));
+        verify(sockets.get(0), times(1)).close();
+    }
+
+    @Test
+    public void close() throws Exception {
+        JsonRpcClient client1 = provider.acquire();
+        JsonRpcClient client2 = provider.acquire();
+        provider.release(client1);
+
+        provider.close();
+        verify(sockets.get(0), times(1)).close();
+        Assert.assertEquals(0, provider.getIdleConnections());
+
+        provider.release(client2);
+        verify(sockets.get(1), times(1)).close();
+        Assert.assertEquals(0, provider.getIdleConnections());
+    }
+
+    private Socket mockSocket() throws IOException {
+        int index = sockets.size();
+        InputStream inputStream = index < inputStreams.size() ? inputStreams.get(index) : new SilentInputStream();
+        OutputStream outputStream = index < outputStreams.size() ? outputStreams.get(index) : new ByteArrayOutputStream();
+        Socket socket = mock(Socket.class);
+        when(socket.getInputStream()).thenReturn(inputStream);
+        when(socket.getOutputStream()).thenReturn(outputStream);
+        when(socket.isConnected()).thenReturn(true);
+        when(socket.isClosed()).thenReturn(false);
+        sockets.add(socket);
+        return socket;
+    }
+
+    private ServiceInputStream responses(String... responses) {
+        return new ServiceInputStream((String.join("\n", responses) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class FailingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("socket made a boo boo");
+        }
+    }
+
+    // Once the responses are read, nothing else comes until the service closes the connection
+    private static class ServiceInputStream extends InputStream {
+        private final ByteArrayInputStream responses;
+        private volatile boolean closed;
+
+        private ServiceInputStream(byte[] responses) {
+            this.responses = new ByteArrayInputStream(responses);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = responses.read();
+            return read != -1 ? read : endOfResponses();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = responses.read(b, off, len);
+            return read != -1 ? read : endOfResponses();
+        }
+
+        @Override
+        public int available() {
+            return responses.available();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        private int endOfResponses() throws IOException {
+            if (closed) {
+                return -1;
+            }
+            throw new SocketTimeoutException("nothing to read");
+        }
+    }
+
+    private static class SilentInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            throw new SocketTimeoutException("nothing to read");
+        }
+    }
+}
@@ -26,6 +26,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
@@ -71,6 +73,26 @@ public class ECDSACompositeSignerTest {
         Assert.assertEquals(Arrays.asList("m1", "m2", "m3", "m4"), checkResult.getMessages());
     }
 
+    @Test
+    public void checkRunsSignersConcurrently() {
+        // Each check only completes once both are running
+        CountDownLatch running = new CountDownLatch(2);
+        when(signer1.check()).thenAnswer(invocation -> awaitOther(running, "m1"));
+        when(signer2.check()).thenAnswer(invocation -> awaitOther(running, "m2"));
+
+        ECDSASigner.ECDSASignerCheckResult checkResult = signer.check();
+
+        Assert.assertEquals(Arrays.asList("m1", "m2"), checkResult.getMessages());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void checkFailsWhenASignerFails() {
+        when(signer1.check()).thenReturn(new ECDSASigner.ECDSASignerCheckResult(Arrays.asList()));
+        when(signer2.check()).thenThrow(new IllegalStateException("boo"));
+
+        signer.check();
+    }
+
     @Test
     public void sign() throws Exception {
         when(signer1.canSignWith(new KeyId("a-key"))).thenReturn(false);
@@ -119,4 +141,11 @@ public class ECDSACompositeSignerTest {
         } catch (Exception e) {}
     }
 
+    private ECDSASigner.ECDSASignerCheckResult awaitOther(CountDownLatch running, String message) throws InterruptedException {
+        running.countDown();
+        if (!running.await(5, TimeUnit.SECONDS)) {
+            return new ECDSASigner.ECDSASignerCheckResult(Arrays.asList("timed out"));
+        }
+        return new ECDSASigner.ECDSASignerCheckResult(Arrays.asList(message));
+    }
 }
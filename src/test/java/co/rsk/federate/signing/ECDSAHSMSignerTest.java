@@ -22,6 +22,7 @@ import co.rsk.federate.signing.hsm.*;
 import co.rsk.federate.signing.hsm.client.HSMClient;
 import co.rsk.federate.signing.hsm.client.HSMClientProvider;
 import co.rsk.federate.signing.hsm.client.HSMSignature;
+import co.rsk.federate.signing.hsm.message.SignerMessage;
 import co.rsk.federate.signing.hsm.message.SignerMessageVersion1;
 import org.bouncycastle.util.encoders.Hex;
 import org.ethereum.crypto.ECKey;
@@ -30,6 +31,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.List;
 
 import static org.mockito.Mockito.*;
 
@@ -172,6 +174,30 @@ public class ECDSAHSMSignerTest {
         verify(clientMock, times(1)).sign("hsmKeyA", new SignerMessageVersion1(Hex.decode("aabbcc")));
     }
 
+    @Test
+    public void signBatch() throws HSMClientException, SignerException {
+        HSMSignature signatureMockA = mock(HSMSignature.class);
+        HSMSignature signatureMockB = mock(HSMSignature.class);
+        ECKey.ECDSASignature ethSignatureMockA = mock(ECKey.ECDSASignature.class);
+        ECKey.ECDSASignature ethSignatureMockB = mock(ECKey.ECDSASignature.class);
+        when(signatureMockA.toEthSignature()).thenReturn(ethSignatureMockA);
+        when(signatureMockB.toEthSignature()).thenReturn(ethSignatureMockB);
+        List<SignerMessage> messages = Arrays.asList(
+            new SignerMessageVersion1(Hex.decode("aabbcc")),
+            new SignerMessageVersion1(Hex.decode("ddeeff"))
+        );
+        when(providerMock.getClient()).thenReturn(clientMock);
+        when(clientMock.signBatch("hsmKeyA", messages)).thenReturn(Arrays.asList(signatureMockA, signatureMockB));
+
+        List<ECKey.ECDSASignature> result = signer.signBatch(new KeyId("keyA"), messages);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertSame(ethSignatureMockA, result.get(0));
+        Assert.assertSame(ethSignatureMockB, result.get(1));
+        verify(clientMock, times(1)).signBatch("hsmKeyA", messages);
+        verify(clientMock, never()).sign(any(), any());
+    }
+
     @Test
     public void signNoMapping() throws HSMClientException, SignerException {
         try {
@@ -20,10 +20,15 @@ package co.rsk.federate.signing;
 
 import co.rsk.federate.config.SignerConfig;
 import co.rsk.federate.rpc.JsonRpcClientProvider;
+import co.rsk.federate.rpc.PipelinedSocketBasedJsonRpcClientProvider;
+import co.rsk.federate.rpc.PooledSocketBasedJsonRpcClientProvider;
 import co.rsk.federate.rpc.SocketBasedJsonRpcClientProvider;
 import co.rsk.federate.signing.hsm.SignerException;
+import co.rsk.federate.signing.hsm.client.HSMCircuitBreaker;
 import co.rsk.federate.signing.hsm.client.HSMClientProtocol;
 import co.rsk.federate.signing.hsm.client.HSMClientProvider;
+import co.rsk.federate.signing.hsm.client.HSMRequestExecutor;
+import co.rsk.federate.signing.hsm.client.HSMRequestPriority;
 import com.typesafe.config.Config;
 import org.junit.Assert;
 import org.junit.Before;
@@ -70,6 +75,12 @@ public class ECDSASignerFactoryTest {
         when(configMock.getInt("maxAttempts")).thenReturn(6);
         when(configMock.hasPath("intervalBetweenAttempts")).thenReturn(true);
         when(configMock.getInt("intervalBetweenAttempts")).thenReturn(666);
+        when(configMock.hasPath("socketPooling")).thenReturn(true);
+        when(configMock.getBoolean("socketPooling")).thenReturn(true);
+        when(configMock.hasPath("socketPoolSize")).thenReturn(true);
+        when(configMock.getInt("socketPoolSize")).thenReturn(3);
+        when(configMock.hasPath("signingRequestTimeout")).thenReturn(true);
+        when(configMock.getLong("signingRequestTimeout")).thenReturn(7777L);
 
         SignerConfig signerConfig = new SignerConfig("a-random-id", configMock);
         ECDSASigner signer = factory.buildFromConfig(signerConfig);
@@ -83,7 +94,7 @@ public class ECDSASignerFactoryTest {
         HSMClientProtocol hsmClientProtocol = (HSMClientProtocol) Whitebox.getInternalState(clientProvider, "hsmClientProtocol");
 
         JsonRpcClientProvider jsonRpcClientProvider = (JsonRpcClientProvider) Whitebox.getInternalState(hsmClientProtocol, "clientProvider");
-        Assert.assertEquals(SocketBasedJsonRpcClientProvider.class, jsonRpcClientProvider.getClass());
+        Assert.assertEquals(PooledSocketBasedJsonRpcClientProvider.class, jsonRpcClientProvider.getClass());
         // Host OK
         SocketAddress address = (SocketAddress)Whitebox.getInternalState(jsonRpcClientProvider, "address");
         Assert.assertEquals(InetSocketAddress.class, address.getClass());
@@ -95,6 +106,11 @@ public class ECDSASignerFactoryTest {
         int timeout = (int)Whitebox.getInternalState(jsonRpcClientProvider, "socketTimeout");
         Assert.assertEquals(6666, timeout);
 
+        // Pool OK
+        PooledSocketBasedJsonRpcClientProvider pooledProvider = (PooledSocketBasedJsonRpcClientProvider) jsonRpcClientProvider;
+        Assert.assertEquals(3, pooledProvider.getMaxPoolSize());
+        Assert.assertEquals(ECDSASignerFactory.DEFAULT_SOCKET_MAX_IDLE_TIME, pooledProvider.getMaxIdleTime());
+
         // Attempts OK
         int attempts = (int)Whitebox.getInternalState(hsmClientProtocol, "maxConnectionAttempts");
         Assert.assertEquals(6, attempts);
@@ -102,6 +118,17 @@ public class ECDSASignerFactoryTest {
         // Interval OK
         int interval = (int)Whitebox.getInternalState(hsmClientProtocol, "waitTimeForReconnection");
         Assert.assertEquals(666, interval);
+        long maxInterval = (long)Whitebox.getInternalState(hsmClientProtocol, "maxWaitTimeForReconnection");
+        Assert.assertEquals(HSMClientProtocol.DEFAULT_MAX_WAIT_TIME_FOR_RECONNECTION, maxInterval);
+
+        // Circuit breaker shared by the endpoint
+        Assert.assertSame(HSMCircuitBreaker.forEndpoint(address), hsmClientProtocol.getCircuitBreaker());
+
+        // Request timeouts OK
+        Assert.assertEquals(7777L, hsmClientProtocol.getRequestTimeout(HSMRequestPriority.SIGNING));
+        Assert.assertEquals(HSMClientProtocol.DEFAULT_BOOKKEEPING_REQUEST_TIMEOUT, hsmClientProtocol.getRequestTimeout(HSMRequestPriority.BOOKKEEPING));
+        HSMRequestExecutor requestExecutor = (HSMRequestExecutor) Whitebox.getInternalState(hsmClientProtocol, "requestExecutor");
+        Assert.assertEquals(address.toString(), requestExecutor.getEndpoint());
 
         // Key mappings OK
         Map<KeyId, String> keyMapping = (Map<KeyId, String>) Whitebox.getInternalState(signer, "keyIdMapping");
@@ -111,6 +138,44 @@ public class ECDSASignerFactoryTest {
 
     }
 
+    @Test
+    public void buildFromConfigHSMNotPooledByDefault() throws SignerException {
+        Config configMock = mockConfig("hsm");
+        when(configMock.getString("host")).thenReturn("remotehost");
+        when(configMock.getInt("port")).thenReturn(1234);
+        when(configMock.getString("keyId")).thenReturn("a-bip32-path");
+
+        SignerConfig signerConfig = new SignerConfig("a-random-id", configMock);
+        ECDSASigner signer = factory.buildFromConfig(signerConfig);
+
+        HSMClientProvider clientProvider = (HSMClientProvider) Whitebox.getInternalState(signer, "clientProvider");
+        HSMClientProtocol hsmClientProtocol = (HSMClientProtocol) Whitebox.getInternalState(clientProvider, "hsmClientProtocol");
+        JsonRpcClientProvider jsonRpcClientProvider = (JsonRpcClientProvider) Whitebox.getInternalState(hsmClientProtocol, "clientProvider");
+        Assert.assertEquals(SocketBasedJsonRpcClientProvider.class, jsonRpcClientProvider.getClass());
+        Assert.assertFalse(hsmClientProtocol.isPipelined());
+    }
+
+    @Test
+    public void buildFromConfigHSMPipelined() throws SignerException {
+        Config configMock = mockConfig("hsm");
+        when(configMock.getString("host")).thenReturn("remotehost");
+        when(configMock.getInt("port")).thenReturn(1234);
+        when(configMock.getString("keyId")).thenReturn("a-bip32-path");
+        when(configMock.hasPath("pipelined")).thenReturn(true);
+        when(configMock.getBoolean("pipelined")).thenReturn(true);
+
+        SignerConfig signerConfig = new SignerConfig("a-random-id", configMock);
+        ECDSASigner signer = factory.buildFromConfig(signerConfig);
+
+        HSMClientProvider clientProvider = (HSMClientProvider) Whitebox.getInternalState(signer, "clientProvider");
+        HSMClientProtocol hsmClientProtocol = (HSMClientProtocol) Whitebox.getInternalState(clientProvider, "hsmClientProtocol");
+        JsonRpcClientProvider jsonRpcClientProvider = (JsonRpcClientProvider) Whitebox.getInternalState(hsmClientProtocol, "clientProvider");
+        Assert.assertEquals(PipelinedSocketBasedJsonRpcClientProvider.class, jsonRpcClientProvider.getClass());
+        Assert.assertTrue(hsmClientProtocol.isPipelined());
+        int timeout = (int)Whitebox.getInternalState(jsonRpcClientProvider, "socketTimeout");
+        Assert.assertEquals(ECDSASignerFactory.DEFAULT_SOCKET_TIMEOUT, timeout);
+    }
+
     @Test
     public void buildFromConfigUnknown() throws SignerException {
         try {
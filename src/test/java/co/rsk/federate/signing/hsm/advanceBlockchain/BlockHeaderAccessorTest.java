@@ -0,0 +1,106 @@
+package co.rsk.federate.signing.hsm.advanceblockchain;
+
+import co.rsk.crypto.Keccak256;
+import co.rsk.federate.signing.utils.TestUtils;
+import org.bouncycastle.util.encoders.Hex;
+import org.ethereum.core.Block;
+import org.ethereum.db.BlockStore;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.mockito.Mockito.*;
+
+public class BlockHeaderAccessorTest {
+
+    @Test
+    public void getHeaderByHash_readsBlockStoreOnce() {
+        Keccak256 hash = TestUtils.createHash(1);
+        Block block = TestUtils.mockBlock(1, hash, TestUtils.createHash(0));
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        when(mockBlockStore.getBlockByHash(hash.getBytes())).thenReturn(block);
+        BlockHeaderAccessor accessor = new BlockHeaderAccessor(mockBlockStore);
+
+        CachedBlockHeader header = accessor.getHeaderByHash(hash);
+        CachedBlockHeader cachedHeader = accessor.getHeaderByHash(hash);
+
+        Assert.assertSame(header, cachedHeader);
+        Assert.assertEquals(hash, header.getHash());
+        Assert.assertEquals(TestUtils.createHash(0), header.getParentHash());
+        Assert.assertEquals(1, header.getNumber());
+        Assert.assertSame(block.getHeader(), header.getHeader());
+        verify(mockBlockStore, times(1)).getBlockByHash(hash.getBytes());
+    }
+
+    @Test
+    public void getHeaderByHash_unknownBlockNotCached() {
+        Keccak256 hash = TestUtils.createHash(1);
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        BlockHeaderAccessor accessor = new BlockHeaderAccessor(mockBlockStore);
+
+        Assert.assertNull(accessor.getHeaderByHash(hash));
+        Assert.assertNull(accessor.getHeaderByHash(hash));
+
+        Assert.assertEquals(0, accessor.getCachedHeaders());
+        verify(mockBlockStore, times(2)).getBlockByHash(hash.getBytes());
+    }
+
+    @Test
+    public void getHeaderByHash_evictsLeastRecentlyUsed() {
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        for (int i = 1; i <= 3; i++) {
+            Keccak256 hash = TestUtils.createHash(i);
+            when(mockBlockStore.getBlockByHash(hash.getBytes())).thenReturn(TestUtils.mockBlock(i, hash));
+        }
+        BlockHeaderAccessor accessor = new BlockHeaderAccessor(mockBlockStore, 2);
+
+        accessor.getHeaderByHash(TestUtils.createHash(1));
+        accessor.getHeaderByHash(TestUtils.createHash(2));
+        // Block 1 was used after block 2, so block 2 makes room for block 3
+        accessor.getHeaderByHash(TestUtils.createHash(1));
+        accessor.getHeaderByHash(TestUtils.createHash(3));
+        accessor.getHeaderByHash(TestUtils.createHash(1));
+        accessor.getHeaderByHash(TestUtils.createHash(2));
+
+        Assert.assertEquals(2, accessor.getCachedHeaders());
+        verify(mockBlockStore, times(1)).getBlockByHash(TestUtils.createHash(1).getBytes());
+        verify(mockBlockStore, times(2)).getBlockByHash(TestUtils.createHash(2).getBytes());
+        verify(mockBlockStore, times(1)).getBlockByHash(TestUtils.createHash(3).getBytes());
+    }
+
+    @Test
+    public void getChainHeaderByNumber_alwaysReadsBlockStore() {
+        Keccak256 hash = TestUtils.createHash(1);
+        Keccak256 reorganizedHash = TestUtils.createHash(2);
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        when(mockBlockStore.getChainBlockByNumber(1))
+            .thenReturn(TestUtils.mockBlock(1, hash))
+            .thenReturn(TestUtils.mockBlock(1, reorganizedHash));
+        BlockHeaderAccessor accessor = new BlockHeaderAccessor(mockBlockStore);
+
+        Assert.assertEquals(hash, accessor.getChainHeaderByNumber(1).getHash());
+        Assert.assertEquals(reorganizedHash, accessor.getChainHeaderByNumber(1).getHash());
+        Assert.assertNull(accessor.getChainHeaderByNumber(2));
+
+        // Both are found by their hash without going to the block store
+        Assert.assertEquals(hash, accessor.getHeaderByHash(hash).getHash());
+        Assert.assertEquals(reorganizedHash, accessor.getHeaderByHash(reorganizedHash).getHash());
+        verify(mockBlockStore, never()).getBlockByHash(any());
+    }
+
+    @Test
+    public void encodings_workedOutOnce() {
+        Keccak256 hash = TestUtils.createHash(1);
+        Block block = TestUtils.mockBlock(1, hash, TestUtils.createHash(0));
+        when(block.getHeader().getHash()).thenReturn(hash);
+        BlockHeaderAccessor accessor = new BlockHeaderAccessor(mock(BlockStore.class));
+        accessor.getHeader(block);
+
+        Assert.assertEquals(Hex.toHexString(hash.getBytes()), accessor.encodeForAdvanceBlockchain(block.getHeader()));
+        Assert.assertEquals(Hex.toHexString(hash.getBytes()), accessor.encodeForAdvanceBlockchain(block.getHeader()));
+        Assert.assertEquals(Hex.toHexString(hash.getBytes()), accessor.encodeForUpdateAncestor(block.getHeader()));
+        Assert.assertEquals(Hex.toHexString(hash.getBytes()), accessor.encodeForUpdateAncestor(block.getHeader()));
+
+        verify(block.getHeader(), times(1)).getFullEncoded();
+        verify(block.getHeader(), times(1)).getEncoded(true, false);
+    }
+}
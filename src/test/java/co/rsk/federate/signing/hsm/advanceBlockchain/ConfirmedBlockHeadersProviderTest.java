@@ -117,4 +117,116 @@ public class ConfirmedBlockHeadersProviderTest {
         //Assert
         Assert.assertEquals(0, listConfirmed.size());
     }
+
+    @Test
+    public void getConfirmedBlockHeaders_FromLastConfirmed_OnlyReadsNewBlocks() {
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        mockChain(mockBlockStore, 10, 40);
+        ConfirmedBlockHeadersProvider confirmedBlockHeadersProvider = new ConfirmedBlockHeadersProvider(
+                new BigInteger("160"),
+                100,
+                mockBlockStore
+        );
+        List<BlockHeader> firstConfirmed = confirmedBlockHeadersProvider.getConfirmedBlockHeaders(TestUtils.createHash(10));
+        Assert.assertEquals(26, firstConfirmed.size());
+        // The HSM moves to the last confirmed block
+        Assert.assertEquals(TestUtils.createHash(23), firstConfirmed.get(12).getHash());
+
+        // Not enough difficulty yet on top of it
+        Assert.assertTrue(confirmedBlockHeadersProvider.getConfirmedBlockHeaders(TestUtils.createHash(23)).isEmpty());
+
+        mockChainBlock(mockBlockStore, 41, 41, 20);
+        mockChainBlock(mockBlockStore, 42, 42, 20);
+        List<BlockHeader> secondConfirmed = confirmedBlockHeadersProvider.getConfirmedBlockHeaders(TestUtils.createHash(23));
+        verify(mockBlockStore, times(1)).getChainBlockByNumber(30);
+
+        Assert.assertFalse(secondConfirmed.isEmpty());
+        Assert.assertEquals(getFreshConfirmedBlockHeaders(mockBlockStore, 100, 23), secondConfirmed);
+    }
+
+    @Test
+    public void getConfirmedBlockHeaders_Reorganization_DropsReplacedBlocks() {
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        mockChain(mockBlockStore, 10, 40);
+        ConfirmedBlockHeadersProvider confirmedBlockHeadersProvider = new ConfirmedBlockHeadersProvider(
+                new BigInteger("160"),
+                100,
+                mockBlockStore
+        );
+        confirmedBlockHeadersProvider.getConfirmedBlockHeaders(TestUtils.createHash(10));
+
+        // Blocks 38 to 40 replaced by a heavier branch
+        for (int i = 38; i < 44; i++) {
+            mockChainBlock(mockBlockStore, i, i + 100, 15);
+        }
+        List<BlockHeader> listConfirmed = confirmedBlockHeadersProvider.getConfirmedBlockHeaders(TestUtils.createHash(23));
+
+        Assert.assertFalse(listConfirmed.isEmpty());
+        Assert.assertTrue(listConfirmed.stream().noneMatch(header -> header.getHash().equals(TestUtils.createHash(38))));
+        Assert.assertEquals(getFreshConfirmedBlockHeaders(mockBlockStore, 100, 23), listConfirmed);
+    }
+
+    @Test
+    public void getConfirmedBlockHeaders_AfterMaximumElementsToSend_SameAsFromScratch() {
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        mockChain(mockBlockStore, 10, 40);
+        ConfirmedBlockHeadersProvider confirmedBlockHeadersProvider = new ConfirmedBlockHeadersProvider(
+                new BigInteger("160"),
+                12,
+                mockBlockStore
+        );
+        List<BlockHeader> firstConfirmed = confirmedBlockHeadersProvider.getConfirmedBlockHeaders(TestUtils.createHash(10));
+        Assert.assertEquals(TestUtils.createHash(22), firstConfirmed.get(11).getHash());
+
+        List<BlockHeader> listConfirmed = confirmedBlockHeadersProvider.getConfirmedBlockHeaders(TestUtils.createHash(22));
+
+        Assert.assertFalse(listConfirmed.isEmpty());
+        Assert.assertEquals(getFreshConfirmedBlockHeaders(mockBlockStore, 12, 22), listConfirmed);
+    }
+
+    @Test
+    public void getConfirmedBlockHeaders_FromAnotherBlock_StartsOver() {
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        mockChain(mockBlockStore, 10, 40);
+        ConfirmedBlockHeadersProvider confirmedBlockHeadersProvider = new ConfirmedBlockHeadersProvider(
+                new BigInteger("160"),
+                100,
+                mockBlockStore
+        );
+        confirmedBlockHeadersProvider.getConfirmedBlockHeaders(TestUtils.createHash(10));
+
+        // The HSM didn't take the update
+        List<BlockHeader> listConfirmed = confirmedBlockHeadersProvider.getConfirmedBlockHeaders(TestUtils.createHash(10));
+
+        Assert.assertEquals(26, listConfirmed.size());
+        Assert.assertEquals(TestUtils.createHash(11), listConfirmed.get(0).getHash());
+    }
+
+    // Chain from the starting block to the best block, difficulties decreasing down to 1 at the best block
+    private void mockChain(BlockStore mockBlockStore, int startingNumber, int bestNumber) {
+        Block startingBlock = TestUtils.mockBlock(startingNumber, TestUtils.createHash(startingNumber));
+        when(mockBlockStore.getBlockByHash(TestUtils.createHash(startingNumber).getBytes())).thenReturn(startingBlock);
+        Block mockBestBlock = TestUtils.mockBlock(bestNumber, TestUtils.createHash(bestNumber));
+        when(mockBlockStore.getBestBlock()).thenReturn(mockBestBlock);
+        for (int i = startingNumber + 1; i <= bestNumber; i++) {
+            mockChainBlock(mockBlockStore, i, i, bestNumber + 1 - i);
+        }
+    }
+
+    private void mockChainBlock(BlockStore mockBlockStore, int number, int hashValue, long difficultyValue) {
+        Keccak256 hash = TestUtils.createHash(hashValue);
+        Block mockBlockToProcess = TestUtils.mockBlock(number, hash, difficultyValue);
+        BlockHeader mockBlockHeaderToProcess = TestUtils.createBlockHeaderMock(hashValue, difficultyValue);
+        when(mockBlockToProcess.getHeader()).thenReturn(mockBlockHeaderToProcess);
+        when(mockBlockStore.getChainBlockByNumber(number)).thenReturn(mockBlockToProcess);
+        when(mockBlockStore.getBlockByHash(hash.getBytes())).thenReturn(mockBlockToProcess);
+    }
+
+    private List<BlockHeader> getFreshConfirmedBlockHeaders(BlockStore mockBlockStore, int maximumElementsToSendHSM, int startingPoint) {
+        return new ConfirmedBlockHeadersProvider(
+                new BigInteger("160"),
+                maximumElementsToSendHSM,
+                mockBlockStore
+        ).getConfirmedBlockHeaders(TestUtils.createHash(startingPoint));
+    }
 }
@@ -2,9 +2,14 @@ package co.rsk.federate.signing.hsm.advanceblockchain;
 
 import co.rsk.crypto.Keccak256;
 import co.rsk.federate.config.HSM2SignerConfig;
+import co.rsk.federate.io.hsmbookkeepingstorage.HSMBookkeepingFileData;
+import co.rsk.federate.io.hsmbookkeepingstorage.HSMBookkeepingFileReadResult;
+import co.rsk.federate.io.hsmbookkeepingstorage.HSMBookkeepingFileStorage;
 import co.rsk.federate.signing.hsm.HSMClientException;
 import co.rsk.federate.signing.hsm.HSMDeviceException;
 import co.rsk.federate.signing.hsm.HSMInvalidResponseException;
+import co.rsk.federate.signing.hsm.HSMUnavailableException;
+import co.rsk.federate.signing.hsm.client.HSMAdvanceBlockchainProgressListener;
 import co.rsk.federate.signing.hsm.client.HSMBookkeepingClient;
 import co.rsk.federate.signing.hsm.message.AdvanceBlockchainMessage;
 import co.rsk.federate.signing.hsm.message.HSM2State;
@@ -13,12 +18,17 @@ import co.rsk.net.NodeBlockProcessor;
 import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeader;
 import org.ethereum.db.BlockStore;
+import org.ethereum.facade.Ethereum;
+import org.ethereum.listener.EthereumListener;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.mockito.Mockito.*;
 
@@ -35,6 +45,7 @@ public class HSMBookkeepingServiceTest {
         when(mockHsmBookkeepingClient.getHSMPointer()).thenReturn(state);
 
         HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mock(BlockStore.class),
                 mockHsmBookkeepingClient,
                 mock(ConfirmedBlockHeadersProvider.class),
@@ -58,6 +69,7 @@ public class HSMBookkeepingServiceTest {
         when(mockHsm2SignerConfig.isStopBookkeepingScheduler()).thenReturn(false);
 
         HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mock(BlockStore.class),
                 mockHsmBookkeepingClient,
                 mock(ConfirmedBlockHeadersProvider.class),
@@ -82,6 +94,7 @@ public class HSMBookkeepingServiceTest {
         HSMBookeepingServiceListener mockListener = mock(HSMBookeepingServiceListener.class);
 
         HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mock(BlockStore.class),
                 mock(HSMBookkeepingClient.class),
                 mock(ConfirmedBlockHeadersProvider.class),
@@ -110,6 +123,7 @@ public class HSMBookkeepingServiceTest {
         HSMBookeepingServiceListener mockListener = mock(HSMBookeepingServiceListener.class);
 
         HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mock(BlockStore.class),
                 mockHsmBookkeepingClient,
                 mock(ConfirmedBlockHeadersProvider.class),
@@ -135,6 +149,7 @@ public class HSMBookkeepingServiceTest {
         HSMBookeepingServiceListener mockListener = mock(HSMBookeepingServiceListener.class);
 
         HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mock(BlockStore.class),
                 mockHsmBookkeepingClient,
                 mock(ConfirmedBlockHeadersProvider.class),
@@ -160,6 +175,7 @@ public class HSMBookkeepingServiceTest {
         HSMBookeepingServiceListener mockListener = mock(HSMBookeepingServiceListener.class);
 
         HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mock(BlockStore.class),
                 mockHsmBookkeepingClient,
                 mock(ConfirmedBlockHeadersProvider.class),
@@ -186,6 +202,7 @@ public class HSMBookkeepingServiceTest {
         HSMBookeepingServiceListener mockListener = mock(HSMBookeepingServiceListener.class);
 
         HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mock(BlockStore.class),
                 mockHsmBookkeepingClient,
                 mock(ConfirmedBlockHeadersProvider.class),
@@ -211,6 +228,7 @@ public class HSMBookkeepingServiceTest {
 
         // Configuring the Scheduler with 0ms interval throws an IllegalArgumentException
         HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mock(BlockStore.class),
                 mockHsmBookkeepingClient,
                 mock(ConfirmedBlockHeadersProvider.class),
@@ -240,6 +258,7 @@ public class HSMBookkeepingServiceTest {
         when(mockHsm2SignerConfig.isStopBookkeepingScheduler()).thenReturn(false);
 
         HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mock(BlockStore.class),
                 mockHsmBookkeepingClient,
                 mock(ConfirmedBlockHeadersProvider.class),
@@ -265,6 +284,7 @@ public class HSMBookkeepingServiceTest {
         when(hsmBookkeepingClient.getHSMPointer()).thenReturn(state);
 
         HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mock(BlockStore.class),
                 hsmBookkeepingClient,
                 mock(ConfirmedBlockHeadersProvider.class),
@@ -297,6 +317,7 @@ public class HSMBookkeepingServiceTest {
         when(mockHsm2SignerConfig.isStopBookkeepingScheduler()).thenReturn(false);
 
         HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mock(BlockStore.class),
                 hsmBookkeepingClient,
                 mock(ConfirmedBlockHeadersProvider.class),
@@ -323,6 +344,7 @@ public class HSMBookkeepingServiceTest {
         when(mockHsm2SignerConfig.isStopBookkeepingScheduler()).thenReturn(false);
 
         HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mock(BlockStore.class),
                 hsmBookkeepingClient,
                 mock(ConfirmedBlockHeadersProvider.class),
@@ -363,6 +385,7 @@ public class HSMBookkeepingServiceTest {
         HSMBookeepingServiceListener mockListener = mock(HSMBookeepingServiceListener.class);
 
         HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mockBlockStore,
                 mockHsmBookkeepingClient,
                 mockConfirmedBlockHeadersProvider,
@@ -380,6 +403,33 @@ public class HSMBookkeepingServiceTest {
         verify(mockListener, times(1)).onIrrecoverableError(any());
     }
 
+    @Test
+    public void informConfirmedBlockHeaders_hsmUnavailable() throws HSMClientException {
+        HSMBookkeepingClient mockHsmBookkeepingClient = mock(HSMBookkeepingClient.class);
+        when(mockHsmBookkeepingClient.getHSMPointer()).thenThrow(new HSMUnavailableException("circuit open", null));
+
+        HSMBookeepingServiceListener mockListener = mock(HSMBookeepingServiceListener.class);
+
+        HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
+                mock(BlockStore.class),
+                mockHsmBookkeepingClient,
+                mock(ConfirmedBlockHeadersProvider.class),
+                mock(NodeBlockProcessor.class),
+                2_000,
+                mock(HSM2SignerConfig.class)
+        );
+
+        service.addListener(mockListener);
+        service.informConfirmedBlockHeaders();
+        // Not stuck informing, the next run goes ahead
+        service.informConfirmedBlockHeaders();
+
+        verify(mockHsmBookkeepingClient, times(2)).getHSMPointer();
+        verify(mockHsmBookkeepingClient, never()).advanceBlockchain(any());
+        verify(mockListener, never()).onIrrecoverableError(any());
+    }
+
     @Test
     public void informConfirmedBlockHeaders_already_informing()
         throws HSMClientException, InterruptedException {
@@ -405,6 +455,7 @@ public class HSMBookkeepingServiceTest {
         NodeBlockProcessor nodeBlockProcessor = mock(NodeBlockProcessor.class);
 
         HSMBookkeepingService hsmBookkeepingService = new HSMBookkeepingService(
+            mock(Ethereum.class),
             mockBlockStore,
             mockHsmBookkeepingClient,
             mockConfirmedBlockHeadersProvider,
@@ -444,6 +495,7 @@ public class HSMBookkeepingServiceTest {
         HSMBookeepingServiceListener mockListener = mock(HSMBookeepingServiceListener.class);
 
         HSMBookkeepingService hsmBookkeepingService = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mockBlockStore,
                 mockHsmBookkeepingClient,
                 mockConfirmedBlockHeadersProvider,
@@ -462,7 +514,8 @@ public class HSMBookkeepingServiceTest {
         // Assert
         Assert.assertTrue(hsmBookkeepingService.isStarted());
         verify(mockHsmBookkeepingClient, times(1)).advanceBlockchain(any(AdvanceBlockchainMessage.class));
-        verify(mockBlockStore, times(2)).getBlockByHash(any());
+        // The HSM best block didn't change, the second time it's already cached
+        verify(mockBlockStore, times(1)).getBlockByHash(any());
         verifyZeroInteractions(mockListener);
     }
 
@@ -474,6 +527,7 @@ public class HSMBookkeepingServiceTest {
         when(mockNodeBlockProcessor.hasBetterBlockToSync()).thenReturn(true);
 
         HSMBookkeepingService hsmBookkeepingService = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mock(BlockStore.class),
                 mockHsmBookkeepingClient,
                 mock(ConfirmedBlockHeadersProvider.class),
@@ -507,6 +561,7 @@ public class HSMBookkeepingServiceTest {
         HSMBookeepingServiceListener mockListener = mock(HSMBookeepingServiceListener.class);
 
         HSMBookkeepingService hsmBookkeepingService = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mockBlockStore,
                 mockHsmBookkeepingClient,
                 mockConfirmedBlockHeadersProvider,
@@ -547,6 +602,7 @@ public class HSMBookkeepingServiceTest {
         HSMBookeepingServiceListener mockListener = mock(HSMBookeepingServiceListener.class);
 
         HSMBookkeepingService hsmBookkeepingService = new HSMBookkeepingService(
+                mock(Ethereum.class),
                 mockBlockStore,
                 mockHsmBookkeepingClient,
                 mockConfirmedBlockHeadersProvider,
@@ -568,5 +624,414 @@ public class HSMBookkeepingServiceTest {
         verifyZeroInteractions(mockListener);
     }
 
+    // Best block events
+    @Test
+    public void bestBlocks_informOnceAfterInterval() throws InterruptedException, HSMClientException {
+        HSMBookkeepingClient mockHsmBookkeepingClient = mock(HSMBookkeepingClient.class);
+        HSM2State state = new HSM2State(Keccak256.ZERO_HASH.toHexString(), Keccak256.ZERO_HASH.toHexString(), false);
+        when(mockHsmBookkeepingClient.getHSMPointer()).thenReturn(state);
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        when(mockBlockStore.getBlockByHash(any())).thenReturn(mock(Block.class));
+        ConfirmedBlockHeadersProvider mockConfirmedBlockHeadersProvider = mock(ConfirmedBlockHeadersProvider.class);
+        when(mockConfirmedBlockHeadersProvider.getConfirmedBlockHeaders(any())).thenReturn(new ArrayList<>());
+        Ethereum mockEthereum = mock(Ethereum.class);
+
+        HSMBookkeepingService service = new HSMBookkeepingService(
+                mockEthereum,
+                mockBlockStore,
+                mockHsmBookkeepingClient,
+                mockConfirmedBlockHeadersProvider,
+                mock(NodeBlockProcessor.class),
+                100,
+                mock(HSM2SignerConfig.class)
+        );
+        service.start();
+        // The first run goes without waiting for a block
+        verify(mockConfirmedBlockHeadersProvider, timeout(2_000).times(1)).getConfirmedBlockHeaders(any());
+
+        ArgumentCaptor<EthereumListener> listenerCaptor = ArgumentCaptor.forClass(EthereumListener.class);
+        verify(mockEthereum).addListener(listenerCaptor.capture());
+        for (int i = 0; i < 3; i++) {
+            listenerCaptor.getValue().onBestBlock(mock(Block.class), new ArrayList<>());
+        }
+        verify(mockConfirmedBlockHeadersProvider, timeout(2_000).times(2)).getConfirmedBlockHeaders(any());
+        Thread.sleep(300);
+
+        // All three blocks informed in the same run
+        verify(mockConfirmedBlockHeadersProvider, times(2)).getConfirmedBlockHeaders(any());
+
+        service.stop();
+        verify(mockEthereum).removeListener(listenerCaptor.getValue());
+    }
+
+    @Test
+    public void informConfirmedBlockHeaders_hsmAdvanced_notifiesAndKeepsGoing() throws HSMClientException {
+        Keccak256 previousBestBlockHash = TestUtils.createHash(1);
+        Keccak256 newBestBlockHash = TestUtils.createHash(2);
+        HSMBookkeepingClient mockHsmBookkeepingClient = mock(HSMBookkeepingClient.class);
+        HSM2State previousState = new HSM2State(previousBestBlockHash.toHexString(), previousBestBlockHash.toHexString(), false);
+        HSM2State newState = new HSM2State(newBestBlockHash.toHexString(), newBestBlockHash.toHexString(), false);
+        // Checked on start, before and after advancing
+        when(mockHsmBookkeepingClient.getHSMPointer()).thenReturn(previousState, previousState, newState);
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        Block previousBestBlock = TestUtils.mockBlock(previousBestBlockHash);
+        Block newBestBlock = TestUtils.mockBlock(newBestBlockHash);
+        when(mockBlockStore.getBlockByHash(previousBestBlockHash.getBytes())).thenReturn(previousBestBlock);
+        when(mockBlockStore.getBlockByHash(newBestBlockHash.getBytes())).thenReturn(newBestBlock);
+
+        BlockHeader mockBlockHeaderToInform = TestUtils.createBlockHeaderMock(3);
+        when(mockBlockHeaderToInform.getFullEncoded()).thenReturn(Keccak256.ZERO_HASH.getBytes());
+        ConfirmedBlockHeadersProvider mockConfirmedBlockHeadersProvider = mock(ConfirmedBlockHeadersProvider.class);
+        when(mockConfirmedBlockHeadersProvider.getConfirmedBlockHeaders(previousBestBlockHash)).thenReturn(Arrays.asList(mockBlockHeaderToInform));
+        when(mockConfirmedBlockHeadersProvider.getConfirmedBlockHeaders(newBestBlockHash)).thenReturn(new ArrayList<>());
+
+        HSMBookeepingServiceListener mockListener = mock(HSMBookeepingServiceListener.class);
+        HSMBlockchainAdvancedListener mockAdvancedListener = mock(HSMBlockchainAdvancedListener.class);
+
+        HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
+                mockBlockStore,
+                mockHsmBookkeepingClient,
+                mockConfirmedBlockHeadersProvider,
+                mock(NodeBlockProcessor.class),
+                60_000,
+                mock(HSM2SignerConfig.class)
+        );
+        service.addListener(mockListener);
+        service.addBlockchainAdvancedListener(mockAdvancedListener);
+        service.start();
+
+        service.informConfirmedBlockHeaders();
+
+        verify(mockAdvancedListener, timeout(2_000).times(1)).onBlockchainAdvanced();
+        // Goes on from the new best block without waiting for the interval
+        verify(mockConfirmedBlockHeadersProvider, timeout(2_000).times(1)).getConfirmedBlockHeaders(newBestBlockHash);
+        verify(mockHsmBookkeepingClient, times(1)).advanceBlockchain(any(AdvanceBlockchainMessage.class));
+        verifyZeroInteractions(mockListener);
+        service.stop();
+    }
+
+    @Test
+    public void informConfirmedBlockHeaders_advancedListenerFails_notIrrecoverable() throws HSMClientException {
+        Keccak256 previousBestBlockHash = TestUtils.createHash(1);
+        Keccak256 newBestBlockHash = TestUtils.createHash(2);
+        HSMBookkeepingClient mockHsmBookkeepingClient = mock(HSMBookkeepingClient.class);
+        HSM2State previousState = new HSM2State(previousBestBlockHash.toHexString(), previousBestBlockHash.toHexString(), false);
+        HSM2State newState = new HSM2State(newBestBlockHash.toHexString(), newBestBlockHash.toHexString(), false);
+        when(mockHsmBookkeepingClient.getHSMPointer()).thenReturn(previousState, previousState, newState);
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        Block previousBestBlock = TestUtils.mockBlock(previousBestBlockHash);
+        Block newBestBlock = TestUtils.mockBlock(newBestBlockHash);
+        when(mockBlockStore.getBlockByHash(previousBestBlockHash.getBytes())).thenReturn(previousBestBlock);
+        when(mockBlockStore.getBlockByHash(newBestBlockHash.getBytes())).thenReturn(newBestBlock);
+        ConfirmedBlockHeadersProvider mockConfirmedBlockHeadersProvider = mock(ConfirmedBlockHeadersProvider.class);
+        BlockHeader mockBlockHeaderToInform = TestUtils.createBlockHeaderMock(1);
+        when(mockBlockHeaderToInform.getFullEncoded()).thenReturn(Keccak256.ZERO_HASH.getBytes());
+        when(mockConfirmedBlockHeadersProvider.getConfirmedBlockHeaders(previousBestBlockHash)).thenReturn(Arrays.asList(mockBlockHeaderToInform));
+        when(mockConfirmedBlockHeadersProvider.getConfirmedBlockHeaders(newBestBlockHash)).thenReturn(new ArrayList<>());
+
+        HSMBookeepingServiceListener mockListener = mock(HSMBookeepingServiceListener.class);
+        HSMBlockchainAdvancedListener mockAdvancedListener = mock(HSMBlockchainAdvancedListener.class);
+        doThrow(new IllegalStateException("boo")).when(mockAdvancedListener).onBlockchainAdvanced();
+
+        HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
+                mockBlockStore,
+                mockHsmBookkeepingClient,
+                mockConfirmedBlockHeadersProvider,
+                mock(NodeBlockProcessor.class),
+                60_000,
+                mock(HSM2SignerConfig.class)
+        );
+        service.addListener(mockListener);
+        service.addBlockchainAdvancedListener(mockAdvancedListener);
+        service.start();
+
+        service.informConfirmedBlockHeaders();
+
+        verify(mockAdvancedListener, timeout(2_000).times(1)).onBlockchainAdvanced();
+        verifyZeroInteractions(mockListener);
+        service.stop();
+    }
+
+    @Test
+    public void informConfirmedBlockHeaders_hsmDidntMove_doesntNotify() throws HSMClientException {
+        // The HSM was already updating, so it didn't take these headers
+        HSMBookkeepingClient mockHsmBookkeepingClient = mock(HSMBookkeepingClient.class);
+        HSM2State state = new HSM2State(Keccak256.ZERO_HASH.toHexString(), Keccak256.ZERO_HASH.toHexString(), false);
+        when(mockHsmBookkeepingClient.getHSMPointer()).thenReturn(state);
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        Block hsmBestBlock = TestUtils.mockBlock(Keccak256.ZERO_HASH);
+        when(mockBlockStore.getBlockByHash(Keccak256.ZERO_HASH.getBytes())).thenReturn(hsmBestBlock);
+        ConfirmedBlockHeadersProvider mockConfirmedBlockHeadersProvider = mock(ConfirmedBlockHeadersProvider.class);
+        BlockHeader mockBlockHeaderToInform = TestUtils.createBlockHeaderMock(1);
+        when(mockBlockHeaderToInform.getFullEncoded()).thenReturn(Keccak256.ZERO_HASH.getBytes());
+        when(mockConfirmedBlockHeadersProvider.getConfirmedBlockHeaders(any())).thenReturn(Arrays.asList(mockBlockHeaderToInform));
+
+        HSMBlockchainAdvancedListener mockAdvancedListener = mock(HSMBlockchainAdvancedListener.class);
+
+        HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
+                mockBlockStore,
+                mockHsmBookkeepingClient,
+                mockConfirmedBlockHeadersProvider,
+                mock(NodeBlockProcessor.class),
+                60_000,
+                mock(HSM2SignerConfig.class)
+        );
+        service.addBlockchainAdvancedListener(mockAdvancedListener);
+        service.start();
 
+        service.informConfirmedBlockHeaders();
+
+        verify(mockHsmBookkeepingClient, times(1)).advanceBlockchain(any(AdvanceBlockchainMessage.class));
+        verify(mockAdvancedListener, after(500).never()).onBlockchainAdvanced();
+        service.stop();
+    }
+
+    @Test
+    public void start_inProgress_resumesFromCheckpoint() throws Exception {
+        HSMBookkeepingClient mockHsmBookkeepingClient = mock(HSMBookkeepingClient.class);
+        HSM2State state = new HSM2State(Keccak256.ZERO_HASH.toHexString(), Keccak256.ZERO_HASH.toHexString(), true);
+        when(mockHsmBookkeepingClient.getHSMPointer()).thenReturn(state);
+        when(mockHsmBookkeepingClient.resumeAdvanceBlockchain(any(AdvanceBlockchainMessage.class), eq(1))).thenReturn(true);
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        for (int i = 1; i <= 2; i++) {
+            Keccak256 hash = TestUtils.createHash(i);
+            when(mockBlockStore.getBlockByHash(hash.getBytes())).thenReturn(TestUtils.mockBlock(i, hash, TestUtils.createHash(i - 1)));
+        }
+        HSMBookkeepingFileStorage mockStorage = mock(HSMBookkeepingFileStorage.class);
+        HSMBookkeepingFileData checkpoint = new HSMBookkeepingFileData(Arrays.asList(TestUtils.createHash(1), TestUtils.createHash(2)), 1);
+        when(mockStorage.read()).thenReturn(new HSMBookkeepingFileReadResult(true, checkpoint));
+
+        HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
+                mockBlockStore,
+                mockHsmBookkeepingClient,
+                mock(ConfirmedBlockHeadersProvider.class),
+                mock(NodeBlockProcessor.class),
+                60_000,
+                mock(HSM2SignerConfig.class)
+        );
+        service.setCheckpointStorage(mockStorage);
+        service.start();
+
+        Assert.assertTrue(service.isStarted());
+        ArgumentCaptor<AdvanceBlockchainMessage> messageCaptor = ArgumentCaptor.forClass(AdvanceBlockchainMessage.class);
+        verify(mockHsmBookkeepingClient, times(1)).resumeAdvanceBlockchain(messageCaptor.capture(), eq(1));
+        // Same headers, in the same order, as the message the HSM got the beginning of
+        Assert.assertEquals(
+                Arrays.asList(TestUtils.createHash(2).toHexString(), TestUtils.createHash(1).toHexString()),
+                messageCaptor.getValue().getData()
+        );
+        verify(mockHsmBookkeepingClient, never()).resetAdvanceBlockchain();
+        ArgumentCaptor<HSMBookkeepingFileData> dataCaptor = ArgumentCaptor.forClass(HSMBookkeepingFileData.class);
+        verify(mockStorage, times(1)).write(dataCaptor.capture());
+        Assert.assertFalse(dataCaptor.getValue().hasAdvanceBlockchainInProgress());
+        service.stop();
+    }
+
+    @Test
+    public void start_inProgress_checkpointNotResumed_resets() throws Exception {
+        HSMBookkeepingClient mockHsmBookkeepingClient = mock(HSMBookkeepingClient.class);
+        HSM2State state = new HSM2State(Keccak256.ZERO_HASH.toHexString(), Keccak256.ZERO_HASH.toHexString(), true);
+        when(mockHsmBookkeepingClient.getHSMPointer()).thenReturn(state);
+        when(mockHsmBookkeepingClient.resumeAdvanceBlockchain(any(AdvanceBlockchainMessage.class), anyInt()))
+                .thenThrow(new HSMDeviceException("test", -301));
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        Keccak256 hash = TestUtils.createHash(1);
+        when(mockBlockStore.getBlockByHash(hash.getBytes())).thenReturn(TestUtils.mockBlock(1, hash, Keccak256.ZERO_HASH));
+        HSMBookkeepingFileStorage mockStorage = mock(HSMBookkeepingFileStorage.class);
+        when(mockStorage.read()).thenReturn(new HSMBookkeepingFileReadResult(true, new HSMBookkeepingFileData(Arrays.asList(hash), 1)));
+
+        HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
+                mockBlockStore,
+                mockHsmBookkeepingClient,
+                mock(ConfirmedBlockHeadersProvider.class),
+                mock(NodeBlockProcessor.class),
+                60_000,
+                mock(HSM2SignerConfig.class)
+        );
+        service.setCheckpointStorage(mockStorage);
+        service.start();
+
+        Assert.assertTrue(service.isStarted());
+        verify(mockHsmBookkeepingClient, times(1)).resetAdvanceBlockchain();
+        service.stop();
+    }
+
+    @Test
+    public void informConfirmedBlockHeaders_checkpointsAdvance() throws Exception {
+        HSMBookkeepingClient mockHsmBookkeepingClient = mock(HSMBookkeepingClient.class);
+        HSM2State state = new HSM2State(Keccak256.ZERO_HASH.toHexString(), Keccak256.ZERO_HASH.toHexString(), false);
+        when(mockHsmBookkeepingClient.getHSMPointer()).thenReturn(state);
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        when(mockBlockStore.getBlockByHash(any())).thenReturn(mock(Block.class));
+        BlockHeader mockBlockHeaderToInform = TestUtils.createBlockHeaderMock(1);
+        when(mockBlockHeaderToInform.getFullEncoded()).thenReturn(Keccak256.ZERO_HASH.getBytes());
+        ConfirmedBlockHeadersProvider mockConfirmedBlockHeadersProvider = mock(ConfirmedBlockHeadersProvider.class);
+        when(mockConfirmedBlockHeadersProvider.getConfirmedBlockHeaders(any())).thenReturn(Arrays.asList(mockBlockHeaderToInform));
+        HSMBookkeepingFileStorage mockStorage = mock(HSMBookkeepingFileStorage.class);
+
+        HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
+                mockBlockStore,
+                mockHsmBookkeepingClient,
+                mockConfirmedBlockHeadersProvider,
+                mock(NodeBlockProcessor.class),
+                2_000,
+                mock(HSM2SignerConfig.class)
+        );
+        service.setCheckpointStorage(mockStorage);
+
+        service.informConfirmedBlockHeaders();
+
+        InOrder inOrder = inOrder(mockStorage, mockHsmBookkeepingClient);
+        ArgumentCaptor<HSMBookkeepingFileData> dataCaptor = ArgumentCaptor.forClass(HSMBookkeepingFileData.class);
+        inOrder.verify(mockStorage).write(dataCaptor.capture());
+        inOrder.verify(mockHsmBookkeepingClient).advanceBlockchain(any(AdvanceBlockchainMessage.class));
+        inOrder.verify(mockStorage).write(dataCaptor.capture());
+        Assert.assertEquals(Arrays.asList(TestUtils.createHash(1)), dataCaptor.getAllValues().get(0).getAdvanceBlockchainBlockHashes());
+        Assert.assertFalse(dataCaptor.getAllValues().get(1).hasAdvanceBlockchainInProgress());
+    }
+
+    @Test
+    public void informConfirmedBlockHeaders_hsmUnavailable_resumedAfterRestartFromSameCheckpoint() throws Exception {
+        HSMBookkeepingClient mockHsmBookkeepingClient = mock(HSMBookkeepingClient.class);
+        HSM2State notInProgress = new HSM2State(Keccak256.ZERO_HASH.toHexString(), Keccak256.ZERO_HASH.toHexString(), false);
+        HSM2State inProgress = new HSM2State(Keccak256.ZERO_HASH.toHexString(), Keccak256.ZERO_HASH.toHexString(), true);
+        AtomicReference<HSM2State> hsmState = new AtomicReference<>(notInProgress);
+        when(mockHsmBookkeepingClient.getHSMPointer()).thenAnswer(invocation -> hsmState.get());
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        when(mockBlockStore.getBlockByHash(any())).thenReturn(mock(Block.class));
+        List<BlockHeader> firstHeaders = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            Keccak256 hash = TestUtils.createHash(i);
+            when(mockBlockStore.getBlockByHash(hash.getBytes())).thenReturn(TestUtils.mockBlock(i, hash, TestUtils.createHash(i - 1)));
+            BlockHeader header = TestUtils.createBlockHeaderMock(i);
+            when(header.getFullEncoded()).thenReturn(hash.getBytes());
+            firstHeaders.add(header);
+        }
+        List<BlockHeader> secondHeaders = new ArrayList<>();
+        for (int i = 4; i <= 5; i++) {
+            BlockHeader header = TestUtils.createBlockHeaderMock(i);
+            when(header.getFullEncoded()).thenReturn(TestUtils.createHash(i).getBytes());
+            secondHeaders.add(header);
+        }
+        ConfirmedBlockHeadersProvider mockConfirmedBlockHeadersProvider = mock(ConfirmedBlockHeadersProvider.class);
+        when(mockConfirmedBlockHeadersProvider.getConfirmedBlockHeaders(any())).thenReturn(firstHeaders, secondHeaders);
+        // Keeps whatever is written, as the file would
+        AtomicReference<HSMBookkeepingFileData> storedCheckpoint = new AtomicReference<>(new HSMBookkeepingFileData());
+        HSMBookkeepingFileStorage mockStorage = mock(HSMBookkeepingFileStorage.class);
+        doAnswer(invocation -> {
+            HSMBookkeepingFileData data = invocation.getArgument(0);
+            storedCheckpoint.set(new HSMBookkeepingFileData(data.getAdvanceBlockchainBlockHashes(), data.getAdvanceBlockchainNextHeader()));
+            return null;
+        }).when(mockStorage).write(any(HSMBookkeepingFileData.class));
+        when(mockStorage.read()).thenAnswer(invocation -> new HSMBookkeepingFileReadResult(true, storedCheckpoint.get()));
+
+        HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
+                mockBlockStore,
+                mockHsmBookkeepingClient,
+                mockConfirmedBlockHeadersProvider,
+                mock(NodeBlockProcessor.class),
+                60_000,
+                mock(HSM2SignerConfig.class)
+        );
+        service.setCheckpointStorage(mockStorage);
+        ArgumentCaptor<HSMAdvanceBlockchainProgressListener> listenerCaptor = ArgumentCaptor.forClass(HSMAdvanceBlockchainProgressListener.class);
+        verify(mockHsmBookkeepingClient).setAdvanceBlockchainProgressListener(listenerCaptor.capture());
+        HSMAdvanceBlockchainProgressListener progressListener = listenerCaptor.getValue();
+
+        // The HSM gets the first header and goes away
+        doAnswer(invocation -> {
+            progressListener.onHeadersSent(1, 3);
+            hsmState.set(inProgress);
+            throw new HSMUnavailableException("circuit open", null);
+        }).when(mockHsmBookkeepingClient).advanceBlockchain(any(AdvanceBlockchainMessage.class));
+        service.informConfirmedBlockHeaders();
+        Assert.assertEquals(1, storedCheckpoint.get().getAdvanceBlockchainNextHeader());
+
+        // Next run, the previous advance goes on with the second header before the HSM goes away again
+        doAnswer(invocation -> {
+            progressListener.onHeadersSent(2, 3);
+            // Not about the checkpointed advance
+            progressListener.onHeadersSent(1, 2);
+            throw new HSMUnavailableException("circuit open", null);
+        }).when(mockHsmBookkeepingClient).advanceBlockchain(any(AdvanceBlockchainMessage.class));
+        service.informConfirmedBlockHeaders();
+        Assert.assertEquals(
+                Arrays.asList(TestUtils.createHash(1), TestUtils.createHash(2), TestUtils.createHash(3)),
+                storedCheckpoint.get().getAdvanceBlockchainBlockHashes()
+        );
+        Assert.assertEquals(2, storedCheckpoint.get().getAdvanceBlockchainNextHeader());
+
+        // Restart
+        HSMBookkeepingClient restartedHsmBookkeepingClient = mock(HSMBookkeepingClient.class);
+        when(restartedHsmBookkeepingClient.getHSMPointer()).thenReturn(inProgress);
+        when(restartedHsmBookkeepingClient.resumeAdvanceBlockchain(any(AdvanceBlockchainMessage.class), anyInt())).thenReturn(true);
+        HSMBookkeepingService restartedService = new HSMBookkeepingService(
+                mock(Ethereum.class),
+                mockBlockStore,
+                restartedHsmBookkeepingClient,
+                mock(ConfirmedBlockHeadersProvider.class),
+                mock(NodeBlockProcessor.class),
+                60_000,
+                mock(HSM2SignerConfig.class)
+        );
+        restartedService.setCheckpointStorage(mockStorage);
+        restartedService.start();
+
+        ArgumentCaptor<AdvanceBlockchainMessage> messageCaptor = ArgumentCaptor.forClass(AdvanceBlockchainMessage.class);
+        verify(restartedHsmBookkeepingClient, times(1)).resumeAdvanceBlockchain(messageCaptor.capture(), eq(2));
+        Assert.assertEquals(
+                Arrays.asList(TestUtils.createHash(3).toHexString(), TestUtils.createHash(2).toHexString(), TestUtils.createHash(1).toHexString()),
+                messageCaptor.getValue().getData()
+        );
+        verify(restartedHsmBookkeepingClient, never()).resetAdvanceBlockchain();
+        restartedService.stop();
+    }
+
+    @Test
+    public void informConfirmedBlockHeaders_farBehind_catchesUp() throws HSMClientException {
+        HSM2SignerConfig mockHsm2SignerConfig = mock(HSM2SignerConfig.class);
+        when(mockHsm2SignerConfig.getCatchUpThreshold()).thenReturn(100L);
+        when(mockHsm2SignerConfig.getCatchUpMaxAmountBlockHeaders()).thenReturn(50);
+        Keccak256 hsmBestBlockHash = TestUtils.createHash(1);
+        HSMBookkeepingClient mockHsmBookkeepingClient = mock(HSMBookkeepingClient.class);
+        HSM2State state = new HSM2State(hsmBestBlockHash.toHexString(), hsmBestBlockHash.toHexString(), false);
+        when(mockHsmBookkeepingClient.getHSMPointer()).thenReturn(state);
+        BlockStore mockBlockStore = mock(BlockStore.class);
+        Block hsmBestBlock = TestUtils.mockBlock(10, hsmBestBlockHash);
+        when(mockBlockStore.getBlockByHash(hsmBestBlockHash.getBytes())).thenReturn(hsmBestBlock);
+        Block bestBlock = TestUtils.mockBlock(1_000);
+        when(mockBlockStore.getBestBlock()).thenReturn(bestBlock, bestBlock, TestUtils.mockBlock(50));
+        ConfirmedBlockHeadersProvider mockConfirmedBlockHeadersProvider = mock(ConfirmedBlockHeadersProvider.class);
+        when(mockConfirmedBlockHeadersProvider.getConfirmedBlockHeaders(any(), anyInt())).thenReturn(new ArrayList<>());
+        when(mockConfirmedBlockHeadersProvider.getConfirmedBlockHeaders(any())).thenReturn(new ArrayList<>());
+
+        HSMBookkeepingService service = new HSMBookkeepingService(
+                mock(Ethereum.class),
+                mockBlockStore,
+                mockHsmBookkeepingClient,
+                mockConfirmedBlockHeadersProvider,
+                mock(NodeBlockProcessor.class),
+                2_000,
+                mockHsm2SignerConfig
+        );
+
+        service.informConfirmedBlockHeaders();
+        Assert.assertTrue(service.isCatchingUp());
+        Assert.assertEquals(990, service.getCatchUpProgress().get().getRemainingBlocks());
+        service.informConfirmedBlockHeaders();
+        Assert.assertTrue(service.isCatchingUp());
+        // The RSK best block is close enough again
+        service.informConfirmedBlockHeaders();
+        Assert.assertFalse(service.isCatchingUp());
+
+        verify(mockConfirmedBlockHeadersProvider, times(2)).getConfirmedBlockHeaders(hsmBestBlockHash, 50);
+        verify(mockConfirmedBlockHeadersProvider, times(1)).getConfirmedBlockHeaders(hsmBestBlockHash);
+    }
 }
@@ -0,0 +1,37 @@
+package co.rsk.federate.signing.hsm.advanceblockchain;
+
+import co.rsk.federate.util.CurrentTimeProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.mockito.Mockito.*;
+
+public class HSMCatchUpProgressTest {
+
+    @Test
+    public void etaUnknownUntilTheHsmMoves() {
+        CurrentTimeProvider currentTimeProvider = mock(CurrentTimeProvider.class);
+        when(currentTimeProvider.currentTimeMillis()).thenReturn(1_000L, 3_000L);
+        HSMCatchUpProgress progress = new HSMCatchUpProgress(currentTimeProvider, 100, 1_100);
+
+        Assert.assertEquals(1_000, progress.getRemainingBlocks());
+        Assert.assertEquals(-1, progress.getEta());
+
+        progress.update(100, 1_100);
+        Assert.assertEquals(-1, progress.getEta());
+    }
+
+    @Test
+    public void etaFromThePaceSoFar() {
+        CurrentTimeProvider currentTimeProvider = mock(CurrentTimeProvider.class);
+        when(currentTimeProvider.currentTimeMillis()).thenReturn(1_000L, 11_000L);
+        HSMCatchUpProgress progress = new HSMCatchUpProgress(currentTimeProvider, 100, 1_100);
+
+        // 200 blocks in 10 seconds, with the RSK best block moving meanwhile
+        progress.update(300, 1_110);
+
+        Assert.assertEquals(810, progress.getRemainingBlocks());
+        Assert.assertEquals(20.0, progress.getBlocksPerSecond(), 0.001);
+        Assert.assertEquals(40_500, progress.getEta());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.federate.signing.hsm.client;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HSMChunkSizerTest {
+    private HSMChunkSizer chunkSizer;
+
+    @Before
+    public void createChunkSizer() {
+        chunkSizer = new HSMChunkSizer(10);
+        chunkSizer.setTargetLatency(1_000);
+    }
+
+    @Test
+    public void startsAtMaxChunkSize() {
+        Assert.assertEquals(10, chunkSizer.getChunkSize());
+        Assert.assertEquals(10, chunkSizer.getMaxChunkSize());
+    }
+
+    @Test
+    public void slowChunksShrink() {
+        chunkSizer.recordSuccess(10, 1_001);
+        Assert.assertEquals(5, chunkSizer.getChunkSize());
+        chunkSizer.recordSuccess(5, 1_001);
+        Assert.assertEquals(2, chunkSizer.getChunkSize());
+        chunkSizer.recordSuccess(2, 1_001);
+        chunkSizer.recordSuccess(1, 1_001);
+        Assert.assertEquals(1, chunkSizer.getChunkSize());
+    }
+
+    @Test
+    public void failuresShrink() {
+        chunkSizer.recordFailure();
+        Assert.assertEquals(5, chunkSizer.getChunkSize());
+    }
+
+    @Test
+    public void fastChunksGrowUpToMax() {
+        chunkSizer.recordFailure();
+        chunkSizer.recordFailure();
+        chunkSizer.recordFailure();
+        Assert.assertEquals(1, chunkSizer.getChunkSize());
+
+        chunkSizer.recordSuccess(1, 500);
+        Assert.assertEquals(2, chunkSizer.getChunkSize());
+        chunkSizer.recordSuccess(2, 500);
+        Assert.assertEquals(3, chunkSizer.getChunkSize());
+        chunkSizer.recordSuccess(3, 500);
+        Assert.assertEquals(4, chunkSizer.getChunkSize());
+        chunkSizer.recordSuccess(4, 500);
+        chunkSizer.recordSuccess(6, 500);
+        Assert.assertEquals(9, chunkSizer.getChunkSize());
+        chunkSizer.recordSuccess(9, 500);
+        Assert.assertEquals(10, chunkSizer.getChunkSize());
+    }
+
+    @Test
+    public void latencyWithinTargetKeepsSize() {
+        chunkSizer.recordFailure();
+        chunkSizer.recordSuccess(5, 800);
+        Assert.assertEquals(5, chunkSizer.getChunkSize());
+    }
+
+    @Test
+    public void smallerChunksDontGrowSize() {
+        chunkSizer.recordFailure();
+        // Last chunk of a payload, smaller than the current size
+        chunkSizer.recordSuccess(2, 10);
+        Assert.assertEquals(5, chunkSizer.getChunkSize());
+    }
+
+    @Test
+    public void newMaxChunkSize() {
+        chunkSizer.recordFailure();
+        chunkSizer.setMaxChunkSize(20);
+        Assert.assertEquals(20, chunkSizer.getChunkSize());
+        Assert.assertEquals(20, chunkSizer.getMaxChunkSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMaxChunkSize() {
+        chunkSizer.setMaxChunkSize(0);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.signing.hsm.client;
+
+import co.rsk.federate.util.CurrentTimeProvider;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HSMCircuitBreakerTest {
+    private CurrentTimeProvider currentTimeProvider;
+    private HSMCircuitBreaker circuitBreaker;
+
+    @Before
+    public void createCircuitBreaker() {
+        currentTimeProvider = mock(CurrentTimeProvider.class);
+        when(currentTimeProvider.currentTimeMillis()).thenReturn(0L);
+        circuitBreaker = new HSMCircuitBreaker(currentTimeProvider);
+        circuitBreaker.setFailureThreshold(2);
+        circuitBreaker.setOpenTime(1_000);
+        circuitBreaker.setMaxOpenTime(3_000);
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+        Assert.assertTrue(circuitBreaker.isClosed());
+
+        circuitBreaker.recordFailure();
+
+        Assert.assertEquals(HSMCircuitBreaker.State.OPEN, circuitBreaker.getState());
+        Assert.assertEquals(1_000, circuitBreaker.getRemainingOpenTime());
+        Assert.assertFalse(circuitBreaker.tryStartProbe());
+    }
+
+    @Test
+    public void singleProbeOnceOpenTimeElapsed() {
+        open();
+        when(currentTimeProvider.currentTimeMillis()).thenReturn(1_000L);
+
+        Assert.assertTrue(circuitBreaker.tryStartProbe());
+        Assert.assertEquals(HSMCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        Assert.assertFalse(circuitBreaker.tryStartProbe());
+
+        circuitBreaker.recordSuccess();
+        Assert.assertTrue(circuitBreaker.isClosed());
+    }
+
+    @Test
+    public void failedProbesDoubleOpenTime() {
+        open();
+
+        when(currentTimeProvider.currentTimeMillis()).thenReturn(1_000L);
+        Assert.assertTrue(circuitBreaker.tryStartProbe());
+        circuitBreaker.recordFailure();
+        Assert.assertEquals(2_000, circuitBreaker.getRemainingOpenTime());
+
+        when(currentTimeProvider.currentTimeMillis()).thenReturn(3_000L);
+        Assert.assertTrue(circuitBreaker.tryStartProbe());
+        circuitBreaker.recordFailure();
+        // Capped
+        Assert.assertEquals(3_000, circuitBreaker.getRemainingOpenTime());
+
+        when(currentTimeProvider.currentTimeMillis()).thenReturn(6_000L);
+        Assert.assertTrue(circuitBreaker.tryStartProbe());
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        // Back to the initial open time once closed
+        Assert.assertEquals(1_000, circuitBreaker.getRemainingOpenTime());
+    }
+
+    private void open() {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+    }
+}
@@ -26,16 +26,22 @@ import co.rsk.federate.signing.hsm.HSMChangedVersionException;
 import co.rsk.federate.signing.hsm.HSMClientException;
 import co.rsk.federate.signing.hsm.HSMDeviceNotReadyException;
 import co.rsk.federate.signing.hsm.HSMGatewayException;
+import co.rsk.federate.signing.hsm.HSMGatewayIrresponsiveException;
+import co.rsk.federate.signing.hsm.HSMUnavailableException;
+import co.rsk.federate.util.CurrentTimeProvider;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -111,6 +117,43 @@ public class HSMClientProtocolTest {
         Assert.assertEquals(version, response.get(command).asInt());
     }
 
+    @Test
+    public void sendAsyncOk() throws Exception {
+        ObjectNode expectedRequest = new ObjectMapper().createObjectNode();
+        expectedRequest.put("command", "version");
+        when(jsonRpcClientMock.send(expectedRequest)).thenReturn(buildVersionResponse(2));
+
+        CompletableFuture<JsonNode> response = hsmClientProtocol.sendAsync(expectedRequest);
+
+        Assert.assertEquals(2, response.get().get("version").asInt());
+        verify(jsonRpcClientProviderMock, times(1)).acquire();
+        verify(jsonRpcClientProviderMock, timeout(1000)).release(jsonRpcClientMock);
+    }
+
+    @Test
+    public void sendTimesOut() throws JsonRpcException {
+        CountDownLatch blocker = new CountDownLatch(1);
+        ObjectNode expectedRequest = hsmClientProtocol.buildCommand("sign", 2);
+        doAnswer(a -> {
+            blocker.await(5, TimeUnit.SECONDS);
+            return buildResponse(0);
+        }).when(jsonRpcClientMock).send(expectedRequest);
+        hsmClientProtocol.setRequestTimeout(HSMRequestPriority.SIGNING, 50);
+
+        try {
+            hsmClientProtocol.send(expectedRequest);
+            Assert.fail();
+        } catch (HSMClientException e) {
+            Assert.assertTrue(e instanceof HSMGatewayIrresponsiveException);
+            Assert.assertTrue(e.getMessage().contains("didn't respond to sign in time"));
+        } finally {
+            blocker.countDown();
+        }
+        // Released right away so the connection can be closed
+        verify(jsonRpcClientProviderMock, timeout(1000)).release(jsonRpcClientMock);
+        verify(jsonRpcClientProviderMock, times(1)).acquire();
+    }
+
     @Test
     public void sendOkWithRetries() throws JsonRpcException, HSMClientException {
         int version = 1;
@@ -130,6 +173,90 @@ public class HSMClientProtocolTest {
         Assert.assertEquals(version, response.get(command).asInt());
     }
 
+    @Test
+    public void sendRecordsMetrics() throws JsonRpcException, HSMClientException {
+        ObjectNode expectedRequest = new ObjectMapper().createObjectNode();
+        expectedRequest.put("command", "version");
+        when(jsonRpcClientMock.send(expectedRequest))
+                .thenThrow(new JsonRpcException("Unable to connect to socket", new Exception()))
+                .thenReturn(buildVersionResponse(1));
+
+        hsmClientProtocol.send(expectedRequest);
+
+        HSMProtocolMetrics metrics = hsmClientProtocol.getMetrics();
+        Assert.assertEquals(1, metrics.getRetries("version"));
+        Assert.assertEquals(2, metrics.getLatency("version").getCount());
+        Assert.assertEquals(2, metrics.getConnectionAcquisition().getCount());
+        Assert.assertEquals(1, metrics.getErrorCount("JsonRpcException"));
+    }
+
+    @Test
+    public void sendRecordsErrorCode() throws JsonRpcException {
+        ObjectNode expectedRequest = new ObjectMapper().createObjectNode();
+        expectedRequest.put("command", "version");
+        when(jsonRpcClientMock.send(expectedRequest)).thenReturn(buildResponse(-666));
+        hsmClientProtocol.setResponseHandler(new HSMResponseHandlerVersion1());
+
+        try {
+            hsmClientProtocol.send(expectedRequest);
+            Assert.fail();
+        } catch (HSMClientException e) {
+            Assert.assertEquals(1, hsmClientProtocol.getMetrics().getErrorCount("errorcode_-666"));
+            Assert.assertEquals(1, hsmClientProtocol.getMetrics().getLatency("version").getCount());
+        }
+    }
+
+    @Test
+    public void sendFailsFastWhileCircuitIsOpen() throws JsonRpcException {
+        CurrentTimeProvider currentTimeProvider = mock(CurrentTimeProvider.class);
+        HSMCircuitBreaker circuitBreaker = new HSMCircuitBreaker(currentTimeProvider);
+        circuitBreaker.setFailureThreshold(1);
+        HSMClientProtocol protocol = new HSMClientProtocol(jsonRpcClientProviderMock, 3, 1);
+        protocol.setCircuitBreaker(circuitBreaker);
+        ObjectNode request = protocol.buildCommand("sign", 2);
+        when(jsonRpcClientMock.send(any(JsonNode.class))).thenThrow(new JsonRpcException("Unable to connect to socket", new Exception()));
+
+        try {
+            protocol.send(request);
+            Assert.fail();
+        } catch (HSMClientException e) {
+            Assert.assertTrue(e instanceof HSMUnavailableException);
+        }
+        try {
+            protocol.send(request);
+            Assert.fail();
+        } catch (HSMClientException e) {
+            Assert.assertTrue(e instanceof HSMUnavailableException);
+        }
+
+        // Just the attempt that opened the circuit
+        verify(jsonRpcClientProviderMock, times(1)).acquire();
+    }
+
+    @Test
+    public void sendProbesWithVersionOnceCircuitOpenTimeElapsed() throws JsonRpcException, HSMClientException {
+        CurrentTimeProvider currentTimeProvider = mock(CurrentTimeProvider.class);
+        HSMCircuitBreaker circuitBreaker = new HSMCircuitBreaker(currentTimeProvider);
+        circuitBreaker.setFailureThreshold(1);
+        circuitBreaker.recordFailure();
+        when(currentTimeProvider.currentTimeMillis()).thenReturn(HSMCircuitBreaker.DEFAULT_OPEN_TIME);
+        HSMClientProtocol protocol = new HSMClientProtocol(jsonRpcClientProviderMock, 3, 1);
+        protocol.setCircuitBreaker(circuitBreaker);
+        List<String> sentCommands = new ArrayList<>();
+        doAnswer(invocation -> {
+            JsonNode command = invocation.getArgument(0);
+            sentCommands.add(command.get("command").textValue());
+            return buildVersionResponse(2);
+        }).when(jsonRpcClientMock).send(any(JsonNode.class));
+
+        protocol.send(protocol.buildCommand("sign", 2));
+
+        Assert.assertEquals(2, sentCommands.size());
+        Assert.assertEquals("version", sentCommands.get(0));
+        Assert.assertEquals("sign", sentCommands.get(1));
+        Assert.assertTrue(circuitBreaker.isClosed());
+    }
+
     @Test
     public void sendError() throws JsonRpcException {
         String command = "version";
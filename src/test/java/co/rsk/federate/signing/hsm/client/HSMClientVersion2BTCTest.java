@@ -5,12 +5,15 @@ import co.rsk.crypto.Keccak256;
 import co.rsk.federate.rpc.JsonRpcClient;
 import co.rsk.federate.rpc.JsonRpcClientProvider;
 import co.rsk.federate.rpc.JsonRpcException;
+import co.rsk.federate.rpc.PipelinedJsonRpcClient;
 import co.rsk.federate.signing.ECDSASignerFactory;
 import co.rsk.federate.signing.hsm.*;
 import co.rsk.federate.signing.hsm.message.AdvanceBlockchainMessage;
 import co.rsk.federate.signing.hsm.message.HSM2State;
+import co.rsk.federate.signing.hsm.message.SignerMessage;
 import co.rsk.federate.signing.hsm.message.SignerMessageVersion2;
 import co.rsk.federate.signing.hsm.message.UpdateAncestorBlockMessage;
+import co.rsk.federate.util.CurrentTimeProvider;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -22,10 +25,13 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.Mockito.*;
 
@@ -422,6 +428,135 @@ public class HSMClientVersion2BTCTest {
         verifyNoMoreInteractions(jsonRpcClientMock);
     }
 
+    @Test
+    public void sendBlockHeadersChunks_shrinks_slow_chunks() throws JsonRpcException, HSMClientException {
+        when(jsonRpcClientMock.send(any(JsonNode.class))).thenReturn(buildResponse(0));
+        when(jsonRpcClientMock.send(hsmClientProtocol.buildCommand("blockchainState", 2)))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(false)));
+        // Every chunk takes longer than expected
+        CurrentTimeProvider currentTimeProvider = mock(CurrentTimeProvider.class);
+        long[] now = new long[]{0};
+        when(currentTimeProvider.currentTimeMillis()).thenAnswer(invocation -> now[0] += HSMChunkSizer.DEFAULT_TARGET_LATENCY + 1);
+
+        HSMClientVersion2BTC client = new HSMClientVersion2BTC(hsmClientProtocol, currentTimeProvider);
+        client.setMaxChunkSizeToHsm(4);
+
+        Assert.assertTrue(client.sendBlockHeadersChunks(Arrays.asList("a", "b", "c", "d", "e", "f", "g"), "advanceBlockchain", false));
+
+        ArgumentCaptor<JsonNode> captor = ArgumentCaptor.forClass(JsonNode.class);
+        verify(jsonRpcClientMock, times(4)).send(captor.capture());
+        List<JsonNode> capturedArguments = captor.getAllValues();
+        Assert.assertEquals(4, capturedArguments.get(1).get("blocks").size());
+        Assert.assertEquals(2, capturedArguments.get(2).get("blocks").size());
+        Assert.assertEquals(1, capturedArguments.get(3).get("blocks").size());
+        Assert.assertEquals("g", capturedArguments.get(3).get("blocks").get(0).asText());
+        Assert.assertEquals(1, client.getChunkSizer().getChunkSize());
+    }
+
+    @Test
+    public void sendBlockHeadersChunks_resumes_after_hsm_unavailable() throws JsonRpcException, HSMClientException {
+        when(jsonRpcClientMock.send(any(JsonNode.class))).thenReturn(buildResponse(0));
+        when(jsonRpcClientMock.send(hsmClientProtocol.buildCommand("blockchainState", 2)))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(false)))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(true)));
+        // Closed for the state and the first chunk, open for the second one and closed again afterwards
+        HSMCircuitBreaker circuitBreaker = mock(HSMCircuitBreaker.class);
+        when(circuitBreaker.isClosed()).thenReturn(true, true, false, true);
+        hsmClientProtocol.setCircuitBreaker(circuitBreaker);
+
+        HSMClientVersion2BTC client = new HSMClientVersion2BTC(hsmClientProtocol);
+        client.setMaxChunkSizeToHsm(2);
+
+        try {
+            client.sendBlockHeadersChunks(Arrays.asList("a", "b", "c", "d", "e"), "advanceBlockchain", false);
+            Assert.fail();
+        } catch (HSMUnavailableException e) {
+            // Expected
+        }
+        // The HSM still expects the rest of the previous headers
+        Assert.assertFalse(client.sendBlockHeadersChunks(Collections.singletonList("x"), "advanceBlockchain", false));
+
+        ArgumentCaptor<JsonNode> captor = ArgumentCaptor.forClass(JsonNode.class);
+        verify(jsonRpcClientMock, times(5)).send(captor.capture());
+        List<JsonNode> capturedArguments = captor.getAllValues();
+        Assert.assertEquals("blockchainState", capturedArguments.get(0).get("command").asText());
+        Assert.assertEquals("a", capturedArguments.get(1).get("blocks").get(0).asText());
+        Assert.assertEquals("b", capturedArguments.get(1).get("blocks").get(1).asText());
+        Assert.assertEquals("blockchainState", capturedArguments.get(2).get("command").asText());
+        Assert.assertEquals("c", capturedArguments.get(3).get("blocks").get(0).asText());
+        Assert.assertEquals("d", capturedArguments.get(3).get("blocks").get(1).asText());
+        Assert.assertEquals(1, capturedArguments.get(4).get("blocks").size());
+        Assert.assertEquals("e", capturedArguments.get(4).get("blocks").get(0).asText());
+    }
+
+    @Test
+    public void sendBlockHeadersChunks_failure_drops_progress() throws JsonRpcException, HSMClientException {
+        when(jsonRpcClientMock.send(any(JsonNode.class)))
+                .thenReturn(buildResponse(0))
+                .thenReturn(buildResponse(-203));
+        when(jsonRpcClientMock.send(hsmClientProtocol.buildCommand("blockchainState", 2)))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(false)))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(true)));
+
+        HSMClientVersion2BTC client = new HSMClientVersion2BTC(hsmClientProtocol);
+        client.setMaxChunkSizeToHsm(2);
+
+        try {
+            client.sendBlockHeadersChunks(Arrays.asList("a", "b", "c", "d", "e"), "advanceBlockchain", false);
+            Assert.fail();
+        } catch (HSMBlockchainBookkeepingRelatedException e) {
+            // Expected
+        }
+        // Unknown whether the HSM got the failed chunk, nothing to resume
+        Assert.assertFalse(client.sendBlockHeadersChunks(Collections.singletonList("x"), "advanceBlockchain", false));
+
+        verify(jsonRpcClientMock, times(4)).send(any(JsonNode.class));
+        Assert.assertEquals(1, client.getChunkSizer().getChunkSize());
+    }
+
+    @Test
+    public void sendBlockHeadersChunks_pipelined_unanswered_chunk_not_resent() throws JsonRpcException, HSMClientException {
+        PipelinedJsonRpcClient pipelinedClient = mock(PipelinedJsonRpcClient.class);
+        when(jsonRpcClientProviderMock.acquire()).thenReturn(pipelinedClient);
+        when(jsonRpcClientProviderMock.isPipelined()).thenReturn(true);
+        Deque<CompletableFuture<JsonNode>> stateResponses = new ArrayDeque<>(Arrays.asList(
+                CompletableFuture.completedFuture(buildResponse(0, "state", buildStateResponse(false))),
+                CompletableFuture.completedFuture(buildResponse(0, "state", buildStateResponse(true)))
+        ));
+        // The connection is lost when first sending the second chunk
+        CompletableFuture<JsonNode> connectionLost = new CompletableFuture<>();
+        connectionLost.completeExceptionally(new JsonRpcException("connection lost", null));
+        List<String> sentChunks = Collections.synchronizedList(new ArrayList<>());
+        when(pipelinedClient.sendAsync(any(JsonNode.class))).thenAnswer(invocation -> {
+            JsonNode command = invocation.getArgument(0);
+            if ("blockchainState".equals(command.get("command").asText())) {
+                return stateResponses.poll();
+            }
+            String chunk = command.get("blocks").toString();
+            sentChunks.add(chunk);
+            boolean firstTime = Collections.frequency(sentChunks, chunk) == 1;
+            return firstTime && chunk.equals("[\"c\",\"d\"]") ? connectionLost : CompletableFuture.completedFuture(buildResponse(0));
+        });
+
+        HSMClientVersion2BTC client = new HSMClientVersion2BTC(hsmClientProtocol);
+        client.setMaxChunkSizeToHsm(2);
+
+        try {
+            client.sendBlockHeadersChunks(Arrays.asList("a", "b", "c", "d", "e"), "advanceBlockchain", false);
+            Assert.fail();
+        } catch (HSMGatewayIrresponsiveException e) {
+            // Expected
+        }
+        // The HSM may have taken the unanswered chunks, so they are not sent again
+        Assert.assertFalse(client.sendBlockHeadersChunks(Collections.singletonList("x"), "advanceBlockchain", false));
+
+        Assert.assertEquals("[\"a\",\"b\"]", sentChunks.get(0));
+        Assert.assertEquals("[\"c\",\"d\"]", sentChunks.get(1));
+        Assert.assertEquals(1, Collections.frequency(sentChunks, "[\"c\",\"d\"]"));
+        Assert.assertTrue(sentChunks.size() <= 3);
+        Assert.assertFalse(sentChunks.contains("[\"x\"]"));
+    }
+
     @Test
     public void updateAncestorBlock_ok() throws HSMClientException, JsonRpcException {
         when(jsonRpcClientMock.send(any(JsonNode.class))).thenReturn(buildResponse(0));
@@ -498,6 +633,165 @@ public class HSMClientVersion2BTCTest {
         client.getHSMPointer();
     }
 
+    @Test
+    public void getHSMPointer_cached() throws HSMClientException, JsonRpcException {
+        CurrentTimeProvider currentTimeProvider = mock(CurrentTimeProvider.class);
+        when(currentTimeProvider.currentTimeMillis()).thenReturn(1_000L);
+        HSMClientVersion2BTC client = new HSMClientVersion2BTC(hsmClientProtocol, currentTimeProvider);
+        client.setHSMPointerCacheTtl(500);
+        when(jsonRpcClientMock.send(any(JsonNode.class)))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(false)));
+
+        HSM2State hsm2State = client.getHSMPointer();
+        when(currentTimeProvider.currentTimeMillis()).thenReturn(1_499L);
+        Assert.assertSame(hsm2State, client.getHSMPointer());
+        verify(jsonRpcClientMock, times(1)).send(any(JsonNode.class));
+
+        when(currentTimeProvider.currentTimeMillis()).thenReturn(1_500L);
+        Assert.assertNotSame(hsm2State, client.getHSMPointer());
+        verify(jsonRpcClientMock, times(2)).send(any(JsonNode.class));
+    }
+
+    @Test
+    public void getHSMPointer_inProgress_not_cached() throws HSMClientException, JsonRpcException {
+        when(jsonRpcClientMock.send(any(JsonNode.class)))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(true)));
+
+        client.getHSMPointer();
+        client.getHSMPointer();
+
+        verify(jsonRpcClientMock, times(2)).send(any(JsonNode.class));
+    }
+
+    @Test
+    public void getHSMPointer_error_invalidates() throws HSMClientException, JsonRpcException {
+        CurrentTimeProvider currentTimeProvider = mock(CurrentTimeProvider.class);
+        when(currentTimeProvider.currentTimeMillis()).thenReturn(1_000L);
+        HSMClientVersion2BTC client = new HSMClientVersion2BTC(hsmClientProtocol, currentTimeProvider);
+        ObjectNode incompleteState = objectMapper.createObjectNode();
+        incompleteState.put("best_block", Keccak256.ZERO_HASH.toHexString());
+        when(jsonRpcClientMock.send(any(JsonNode.class)))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(false)))
+                .thenReturn(buildResponse(0, "state", incompleteState))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(false)));
+
+        client.getHSMPointer();
+        // Past the ttl the device is asked again, and fails
+        when(currentTimeProvider.currentTimeMillis()).thenReturn(1_000L + HSMClientVersion2BTC.DEFAULT_HSM_POINTER_CACHE_TTL);
+        try {
+            client.getHSMPointer();
+            Assert.fail();
+        } catch (HSMInvalidResponseException e) {
+            // Expected
+        }
+        client.getHSMPointer();
+
+        verify(jsonRpcClientMock, times(3)).send(any(JsonNode.class));
+    }
+
+    @Test
+    public void advanceBlockchain_invalidates_HSMPointer() throws HSMClientException, JsonRpcException {
+        when(jsonRpcClientMock.send(any(JsonNode.class))).thenReturn(buildResponse(0));
+        when(jsonRpcClientMock.send(hsmClientProtocol.buildCommand("blockchainState", 2)))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(false)));
+
+        BlockHeader blockHeader = mock(BlockHeader.class);
+        when(blockHeader.getFullEncoded()).thenReturn(new byte[]{});
+
+        client.advanceBlockchain(new AdvanceBlockchainMessage(Collections.singletonList(blockHeader)));
+        client.getHSMPointer();
+
+        ArgumentCaptor<JsonNode> captor = ArgumentCaptor.forClass(JsonNode.class);
+        verify(jsonRpcClientMock, times(3)).send(captor.capture());
+        List<JsonNode> capturedArguments = captor.getAllValues();
+        Assert.assertEquals("blockchainState", capturedArguments.get(0).get("command").asText());
+        Assert.assertEquals("advanceBlockchain", capturedArguments.get(1).get("command").asText());
+        Assert.assertEquals("blockchainState", capturedArguments.get(2).get("command").asText());
+    }
+
+    @Test
+    public void resumeAdvanceBlockchain_sends_remaining_headers() throws HSMClientException, JsonRpcException {
+        when(jsonRpcClientMock.send(any(JsonNode.class))).thenReturn(buildResponse(0));
+        when(jsonRpcClientMock.send(hsmClientProtocol.buildCommand("blockchainState", 2)))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(true)));
+        client.setMaxChunkSizeToHsm(2);
+        HSMAdvanceBlockchainProgressListener listener = mock(HSMAdvanceBlockchainProgressListener.class);
+        client.setAdvanceBlockchainProgressListener(listener);
+        AdvanceBlockchainMessage message = mock(AdvanceBlockchainMessage.class);
+        when(message.getData()).thenReturn(Arrays.asList("aa", "bb", "cc", "dd", "ee"));
+
+        Assert.assertTrue(client.resumeAdvanceBlockchain(message, 2));
+
+        ArgumentCaptor<JsonNode> captor = ArgumentCaptor.forClass(JsonNode.class);
+        verify(jsonRpcClientMock, times(3)).send(captor.capture());
+        List<JsonNode> capturedArguments = captor.getAllValues();
+        Assert.assertEquals("blockchainState", capturedArguments.get(0).get("command").asText());
+        Assert.assertEquals("[\"cc\",\"dd\"]", capturedArguments.get(1).get("blocks").toString());
+        Assert.assertEquals("[\"ee\"]", capturedArguments.get(2).get("blocks").toString());
+        verify(listener, times(1)).onHeadersSent(4, 5);
+        verify(listener, times(1)).onHeadersSent(5, 5);
+    }
+
+    @Test
+    public void resumeAdvanceBlockchain_not_in_progress() throws HSMClientException, JsonRpcException {
+        when(jsonRpcClientMock.send(hsmClientProtocol.buildCommand("blockchainState", 2)))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(false)));
+        AdvanceBlockchainMessage message = mock(AdvanceBlockchainMessage.class);
+        when(message.getData()).thenReturn(Arrays.asList("aa", "bb", "cc"));
+
+        Assert.assertFalse(client.resumeAdvanceBlockchain(message, 1));
+        // Nothing to resume from the start or past the end
+        Assert.assertFalse(client.resumeAdvanceBlockchain(message, 0));
+        Assert.assertFalse(client.resumeAdvanceBlockchain(message, 3));
+
+        verify(jsonRpcClientMock, times(1)).send(any(JsonNode.class));
+    }
+
+    @Test
+    public void updateAncestorBlock_updates_cached_HSMPointer() throws HSMClientException, JsonRpcException {
+        when(jsonRpcClientMock.send(any(JsonNode.class))).thenReturn(buildResponse(0));
+        when(jsonRpcClientMock.send(hsmClientProtocol.buildCommand("blockchainState", 2)))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(false)));
+
+        Keccak256 targetBlockHash = new Keccak256("0000000000000000000000000000000000000000000000000000000000000002");
+        BlockHeader blockHeader = mock(BlockHeader.class);
+        when(blockHeader.getEncoded(true, false)).thenReturn(new byte[]{});
+        BlockHeader targetBlockHeader = mock(BlockHeader.class);
+        when(targetBlockHeader.getEncoded(true, false)).thenReturn(new byte[]{});
+        when(targetBlockHeader.getHash()).thenReturn(targetBlockHash);
+
+        client.updateAncestorBlock(new UpdateAncestorBlockMessage(Arrays.asList(blockHeader, targetBlockHeader)));
+        HSM2State hsm2State = client.getHSMPointer();
+
+        Assert.assertEquals(Keccak256.ZERO_HASH, hsm2State.getBestBlockHash());
+        Assert.assertEquals(targetBlockHash, hsm2State.getAncestorBlockHash());
+        Assert.assertFalse(hsm2State.getInProgressState());
+        ArgumentCaptor<JsonNode> captor = ArgumentCaptor.forClass(JsonNode.class);
+        verify(jsonRpcClientMock, times(2)).send(captor.capture());
+        List<JsonNode> capturedArguments = captor.getAllValues();
+        Assert.assertEquals("blockchainState", capturedArguments.get(0).get("command").asText());
+        Assert.assertEquals("updateAncestorBlock", capturedArguments.get(1).get("command").asText());
+    }
+
+    @Test
+    public void updateAncestorBlock_fails_invalidates_HSMPointer() throws HSMClientException, JsonRpcException {
+        when(jsonRpcClientMock.send(any(JsonNode.class))).thenReturn(buildResponse(-203));
+        when(jsonRpcClientMock.send(hsmClientProtocol.buildCommand("blockchainState", 2)))
+                .thenReturn(buildResponse(0, "state", buildStateResponse(false)));
+
+        BlockHeader blockHeader = mock(BlockHeader.class);
+        when(blockHeader.getEncoded(true, false)).thenReturn(new byte[]{});
+        try {
+            client.updateAncestorBlock(new UpdateAncestorBlockMessage(Collections.singletonList(blockHeader)));
+            Assert.fail();
+        } catch (HSMClientException e) {
+            // Expected
+        }
+        client.getHSMPointer();
+
+        verify(jsonRpcClientMock, times(2)).send(hsmClientProtocol.buildCommand("blockchainState", 2));
+    }
+
     // Reset
     @Test
     public void resetAdvanceBlockchain_Ok() throws Exception {
@@ -524,6 +818,87 @@ public class HSMClientVersion2BTCTest {
         client.resetAdvanceBlockchain();
     }
 
+    @Test
+    public void signBatch_sendsSingleCommand() throws Exception {
+        ObjectNode publicKeyResponse = buildResponse(0);
+        publicKeyResponse.put("pubKey", "001122334455");
+        when(jsonRpcClientMock.send(buildGetPublicKeyRequest())).thenReturn(publicKeyResponse);
+
+        List<SignerMessage> messages = Arrays.asList(buildMessageForIndexTesting(0), buildMessageForIndexTesting(1));
+
+        ObjectNode expectedRequest = buildSignBatchRequest(0, 1);
+        ArrayNode signatures = objectMapper.createArrayNode();
+        signatures.add(buildSignatureNode("223344", "55667788"));
+        signatures.add(buildSignatureNode("aabbcc", "ddeeff00"));
+        when(jsonRpcClientMock.send(expectedRequest)).thenReturn(buildResponse(0, "signatures", signatures));
+
+        List<HSMSignature> result = client.signBatch("a-key-id", messages);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertArrayEquals(Hex.decode("223344"), result.get(0).getR());
+        Assert.assertArrayEquals(Hex.decode("55667788"), result.get(0).getS());
+        Assert.assertArrayEquals(Hex.decode("aabbcc"), result.get(1).getR());
+        Assert.assertArrayEquals(Hex.decode("ddeeff00"), result.get(1).getS());
+        verify(jsonRpcClientMock, times(1)).send(expectedRequest);
+        verify(jsonRpcClientMock, never()).send(buildSignRequest((SignerMessageVersion2) messages.get(0)));
+    }
+
+    @Test
+    public void signBatch_fallsBackWhenCommandUnknown() throws Exception {
+        ObjectNode publicKeyResponse = buildResponse(0);
+        publicKeyResponse.put("pubKey", "001122334455");
+        when(jsonRpcClientMock.send(buildGetPublicKeyRequest())).thenReturn(publicKeyResponse);
+
+        SignerMessageVersion2 message0 = buildMessageForIndexTesting(0);
+        SignerMessageVersion2 message1 = buildMessageForIndexTesting(1);
+        List<SignerMessage> messages = Arrays.asList(message0, message1);
+
+        ObjectNode expectedBatchRequest = buildSignBatchRequest(0, 1);
+        when(jsonRpcClientMock.send(expectedBatchRequest)).thenReturn(buildResponse(-903));
+        when(jsonRpcClientMock.send(buildSignRequest(message0))).thenReturn(buildSignResponse("223344", "55667788", 0));
+        when(jsonRpcClientMock.send(buildSignRequest(message1))).thenReturn(buildSignResponse("aabbcc", "ddeeff00", 0));
+
+        List<HSMSignature> result = client.signBatch("a-key-id", messages);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertArrayEquals(Hex.decode("223344"), result.get(0).getR());
+        Assert.assertArrayEquals(Hex.decode("aabbcc"), result.get(1).getR());
+        Assert.assertFalse(client.isBatchSigningSupported());
+
+        // Once rejected the batch command is not sent again
+        client.signBatch("a-key-id", messages);
+        verify(jsonRpcClientMock, times(1)).send(expectedBatchRequest);
+        verify(jsonRpcClientMock, times(2)).send(buildSignRequest(message0));
+        verify(jsonRpcClientMock, times(2)).send(buildSignRequest(message1));
+    }
+
+    @Test(expected = HSMInvalidResponseException.class)
+    public void signBatch_wrongAmountOfSignatures() throws Exception {
+        List<SignerMessage> messages = Arrays.asList(buildMessageForIndexTesting(0), buildMessageForIndexTesting(1));
+
+        ArrayNode signatures = objectMapper.createArrayNode();
+        signatures.add(buildSignatureNode("223344", "55667788"));
+        when(jsonRpcClientMock.send(buildSignBatchRequest(0, 1))).thenReturn(buildResponse(0, "signatures", signatures));
+
+        client.signBatch("a-key-id", messages);
+    }
+
+    @Test
+    public void signBatch_singleMessageUsesSign() throws Exception {
+        ObjectNode publicKeyResponse = buildResponse(0);
+        publicKeyResponse.put("pubKey", "001122334455");
+        when(jsonRpcClientMock.send(buildGetPublicKeyRequest())).thenReturn(publicKeyResponse);
+
+        SignerMessageVersion2 message = buildMessageForIndexTesting(0);
+        ObjectNode expectedSignRequest = buildSignRequest(message);
+        when(jsonRpcClientMock.send(expectedSignRequest)).thenReturn(buildSignResponse("223344", "55667788", 0));
+
+        List<HSMSignature> result = client.signBatch("a-key-id", Collections.singletonList(message));
+
+        Assert.assertEquals(1, result.size());
+        verify(jsonRpcClientMock, times(1)).send(expectedSignRequest);
+    }
+
     private ObjectNode buildResponse(int errorcode, String responseFieldName, JsonNode responseData) {
         ObjectNode response = buildResponse(errorcode);
         response.set(responseFieldName, responseData);
@@ -581,6 +956,38 @@ public class HSMClientVersion2BTCTest {
         return request;
     }
 
+    private ObjectNode buildSignBatchRequest(int... inputIndexes) {
+        ObjectNode message = objectMapper.createObjectNode();
+        message.put("tx", "aaaa");
+        ArrayNode inputs = objectMapper.createArrayNode();
+        for (int inputIndex : inputIndexes) {
+            inputs.add(inputIndex);
+        }
+        message.set("inputs", inputs);
+
+        ObjectNode auth = objectMapper.createObjectNode();
+        auth.put("receipt","cccc");
+        ArrayNode receiptMerkleProofArrayNode = objectMapper.createArrayNode();
+        receiptMerkleProofArrayNode.add("cccc");
+        auth.set("receipt_merkle_proof",receiptMerkleProofArrayNode);
+
+        ObjectNode request = objectMapper.createObjectNode();
+        request.put("command", "signBatch");
+        request.put("version", VERSION);
+        request.put("keyId", "a-key-id");
+        request.set("auth", auth);
+        request.set("message", message);
+
+        return request;
+    }
+
+    private ObjectNode buildSignatureNode(String r, String s) {
+        ObjectNode signature = objectMapper.createObjectNode();
+        signature.put("r", r);
+        signature.put("s", s);
+        return signature;
+    }
+
     private ObjectNode buildSignResponse(String r, String s, int errorCode) {
         ObjectNode response = objectMapper.createObjectNode();
         ObjectNode signature = objectMapper.createObjectNode();
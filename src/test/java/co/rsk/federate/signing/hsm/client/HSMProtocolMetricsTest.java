@@ -0,0 +1,88 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.signing.hsm.client;
+
+import co.rsk.federate.rpc.JsonRpcException;
+import co.rsk.federate.util.LatencyHistogram;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+public class HSMProtocolMetricsTest {
+    private HSMProtocolMetrics metrics;
+
+    @Before
+    public void createMetrics() {
+        metrics = new HSMProtocolMetrics();
+    }
+
+    @Test
+    public void latencyGoesToItsBucket() {
+        metrics.recordCommand("sign", 3, true);
+        metrics.recordCommand("sign", 5, true);
+        metrics.recordCommand("sign", 40_000, false);
+
+        LatencyHistogram latency = metrics.getLatency("sign");
+        Assert.assertEquals(3, latency.getCount());
+        Assert.assertEquals(40_000, latency.getMaxMillis());
+        Assert.assertEquals(2, latency.getBuckets().get("le_5").longValue());
+        Assert.assertEquals(1, latency.getBuckets().get("le_inf").longValue());
+        Assert.assertEquals(0, latency.getBuckets().get("le_1").longValue());
+        Assert.assertNull(metrics.getLatency("advanceBlockchain"));
+    }
+
+    @Test
+    public void countsErrorsAndRetries() {
+        metrics.recordErrorCode(-905);
+        metrics.recordErrorCode(-905);
+        metrics.recordError(new JsonRpcException("boo", null));
+        metrics.recordError(new TimeoutException());
+        metrics.recordRetry("sign");
+
+        Assert.assertEquals(2, metrics.getErrorCount("errorcode_-905"));
+        Assert.assertEquals(1, metrics.getErrorCount("JsonRpcException"));
+        Assert.assertEquals(1, metrics.getErrorCount("TimeoutException"));
+        Assert.assertEquals(0, metrics.getErrorCount("errorcode_-2"));
+        Assert.assertEquals(1, metrics.getRetries("sign"));
+        Assert.assertEquals(0, metrics.getRetries("getPubKey"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void snapshot() {
+        metrics.recordCommand("sign", 10, true);
+        metrics.recordCommand("sign", 20, false);
+        metrics.recordConnectionAcquisition(1);
+        metrics.getTrafficCounter().addSent(3);
+        metrics.getTrafficCounter().addReceived(16);
+
+        Map<String, Object> snapshot = metrics.toMap();
+
+        Map<String, Object> sign = (Map<String, Object>) ((Map<String, Object>) snapshot.get("commands")).get("sign");
+        Assert.assertEquals(1L, sign.get("successes"));
+        Assert.assertEquals(1L, sign.get("failures"));
+        Assert.assertEquals(15L, ((Map<String, Object>) sign.get("latency")).get("averageMillis"));
+        Assert.assertEquals(1L, ((Map<String, Object>) snapshot.get("connectionAcquisition")).get("count"));
+        Assert.assertEquals(3L, snapshot.get("bytesSent"));
+        Assert.assertEquals(16L, snapshot.get("bytesReceived"));
+    }
+}
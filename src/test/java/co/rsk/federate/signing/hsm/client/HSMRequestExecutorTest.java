@@ -0,0 +1,269 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package co.rsk.federate.signing.hsm.client;
+
+import co.rsk.federate.rpc.JsonRpcClient;
+import co.rsk.federate.rpc.JsonRpcException;
+import co.rsk.federate.rpc.PipelinedJsonRpcClient;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class HSMRequestExecutorTest {
+    private static final long TIMEOUT = 5_000;
+
+    private HSMRequestExecutor executor;
+    private ObjectMapper objectMapper;
+
+    @Before
+    public void createExecutor() {
+        executor = new HSMRequestExecutor("test");
+        objectMapper = new ObjectMapper();
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void sendsRequest() throws Exception {
+        JsonRpcClient client = mock(JsonRpcClient.class);
+        ObjectNode response = objectMapper.createObjectNode();
+        when(client.send(any(JsonNode.class))).thenReturn(response);
+
+        CompletableFuture<JsonNode> future = executor.submit(client, command("sign"), HSMRequestPriority.SIGNING, TIMEOUT);
+
+        Assert.assertSame(response, future.get());
+    }
+
+    @Test
+    public void failedRequest() throws Exception {
+        JsonRpcClient client = mock(JsonRpcClient.class);
+        when(client.send(any(JsonNode.class))).thenThrow(new JsonRpcException("boo", new Exception()));
+
+        CompletableFuture<JsonNode> future = executor.submit(client, command("sign"), HSMRequestPriority.SIGNING, TIMEOUT);
+
+        try {
+            future.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof JsonRpcException);
+        }
+    }
+
+    @Test
+    public void signingGoesBeforeQueuedBookkeeping() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        List<String> sentCommands = Collections.synchronizedList(new ArrayList<>());
+        JsonRpcClient client = mock(JsonRpcClient.class);
+        doAnswer(invocation -> {
+            JsonNode command = invocation.getArgument(0);
+            String commandName = command.get("command").textValue();
+            if (commandName.equals("blocker")) {
+                blocker.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+            sentCommands.add(commandName);
+            return objectMapper.createObjectNode();
+        }).when(client).send(any(JsonNode.class));
+
+        CompletableFuture<JsonNode> blocking = executor.submit(client, command("blocker"), HSMRequestPriority.BOOKKEEPING, TIMEOUT);
+        CompletableFuture<JsonNode> advance1 = executor.submit(client, command("advanceBlockchain1"), HSMRequestPriority.BOOKKEEPING, TIMEOUT);
+        CompletableFuture<JsonNode> advance2 = executor.submit(client, command("advanceBlockchain2"), HSMRequestPriority.BOOKKEEPING, TIMEOUT);
+        CompletableFuture<JsonNode> sign = executor.submit(client, command("sign"), HSMRequestPriority.SIGNING, TIMEOUT);
+        blocker.countDown();
+        CompletableFuture.allOf(blocking, advance1, advance2, sign).get();
+
+        Assert.assertEquals(4, sentCommands.size());
+        Assert.assertEquals("blocker", sentCommands.get(0));
+        Assert.assertEquals("sign", sentCommands.get(1));
+        Assert.assertEquals("advanceBlockchain1", sentCommands.get(2));
+        Assert.assertEquals("advanceBlockchain2", sentCommands.get(3));
+    }
+
+    @Test
+    public void requestTimesOut() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        JsonRpcClient client = mock(JsonRpcClient.class);
+        doAnswer(invocation -> {
+            blocker.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            return objectMapper.createObjectNode();
+        }).when(client).send(any(JsonNode.class));
+
+        CompletableFuture<JsonNode> future = executor.submit(client, command("sign"), HSMRequestPriority.SIGNING, 50);
+
+        try {
+            future.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        } finally {
+            blocker.countDown();
+        }
+    }
+
+    @Test
+    public void requestTimesOut_clientDoneOnlyAfterSend() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch clientDone = new CountDownLatch(1);
+        JsonRpcClient client = mock(JsonRpcClient.class);
+        doAnswer(invocation -> {
+            blocker.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            return objectMapper.createObjectNode();
+        }).when(client).send(any(JsonNode.class));
+
+        CompletableFuture<JsonNode> future = executor.submit(
+            client,
+            command("sign"),
+            HSMRequestPriority.SIGNING,
+            50,
+            clientDone::countDown
+        );
+
+        try {
+            future.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        // Still being written to, it can't go back to the pool yet
+        Assert.assertEquals(1, clientDone.getCount());
+        blocker.countDown();
+        Assert.assertTrue(clientDone.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void cancelledRequest_clientDone() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch clientDone = new CountDownLatch(1);
+        JsonRpcClient blockingClient = mock(JsonRpcClient.class);
+        doAnswer(invocation -> {
+            blocker.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            return objectMapper.createObjectNode();
+        }).when(blockingClient).send(any(JsonNode.class));
+        JsonRpcClient client = mock(JsonRpcClient.class);
+
+        executor.submit(blockingClient, command("blocker"), HSMRequestPriority.SIGNING, TIMEOUT);
+        CompletableFuture<JsonNode> cancelled = executor.submit(
+            client,
+            command("sign"),
+            HSMRequestPriority.SIGNING,
+            TIMEOUT,
+            clientDone::countDown
+        );
+        cancelled.cancel(true);
+        blocker.countDown();
+
+        Assert.assertTrue(clientDone.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        verify(client, never()).send(any(JsonNode.class));
+    }
+
+    @Test
+    public void expiredDeadline() throws Exception {
+        JsonRpcClient client = mock(JsonRpcClient.class);
+
+        CompletableFuture<JsonNode> future = executor.submit(client, command("sign"), HSMRequestPriority.SIGNING, 0);
+
+        Assert.assertTrue(future.isCompletedExceptionally());
+        verify(client, never()).send(any(JsonNode.class));
+    }
+
+    @Test
+    public void cancelledRequestIsNotSent() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        JsonRpcClient blockingClient = mock(JsonRpcClient.class);
+        doAnswer(invocation -> {
+            blocker.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            return objectMapper.createObjectNode();
+        }).when(blockingClient).send(any(JsonNode.class));
+        JsonRpcClient client = mock(JsonRpcClient.class);
+
+        CompletableFuture<JsonNode> blocking = executor.submit(blockingClient, command("blocker"), HSMRequestPriority.SIGNING, TIMEOUT);
+        CompletableFuture<JsonNode> cancelled = executor.submit(client, command("sign"), HSMRequestPriority.SIGNING, TIMEOUT);
+        Assert.assertEquals(1, executor.getQueuedRequests());
+        cancelled.cancel(true);
+        blocker.countDown();
+        blocking.get();
+        // Once this one completes the cancelled one was already dequeued
+        executor.submit(blockingClient, command("last"), HSMRequestPriority.SIGNING, TIMEOUT).get();
+
+        verify(client, never()).send(any(JsonNode.class));
+    }
+
+    @Test
+    public void pipelinedRequestsDontWaitForResponses() throws Exception {
+        PipelinedJsonRpcClient client = mock(PipelinedJsonRpcClient.class);
+        CompletableFuture<JsonNode> pipelinedResponse1 = new CompletableFuture<>();
+        CompletableFuture<JsonNode> pipelinedResponse2 = new CompletableFuture<>();
+        when(client.sendAsync(any(JsonNode.class))).thenReturn(pipelinedResponse1, pipelinedResponse2);
+
+        CompletableFuture<JsonNode> response1 = executor.submit(client, command("advanceBlockchain"), HSMRequestPriority.BOOKKEEPING, TIMEOUT);
+        CompletableFuture<JsonNode> response2 = executor.submit(client, command("sign"), HSMRequestPriority.SIGNING, TIMEOUT);
+
+        // Both written while the first one is still unanswered
+        verify(client, timeout(TIMEOUT).times(2)).sendAsync(any(JsonNode.class));
+        verify(client, never()).send(any(JsonNode.class));
+        Assert.assertFalse(response1.isDone());
+
+        ObjectNode response = objectMapper.createObjectNode();
+        pipelinedResponse2.complete(response);
+        Assert.assertSame(response, response2.get());
+        pipelinedResponse1.completeExceptionally(new JsonRpcException("boo", null));
+        try {
+            response1.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof JsonRpcException);
+        }
+    }
+
+    @Test
+    public void sameExecutorForSameEndpoint() {
+        HSMRequestExecutor executor1 = HSMRequestExecutor.forEndpoint(new InetSocketAddress("localhost", 9999));
+        HSMRequestExecutor executor2 = HSMRequestExecutor.forEndpoint(new InetSocketAddress("localhost", 9999));
+        HSMRequestExecutor executor3 = HSMRequestExecutor.forEndpoint(new InetSocketAddress("localhost", 9998));
+
+        Assert.assertSame(executor1, executor2);
+        Assert.assertNotSame(executor1, executor3);
+        Assert.assertSame(HSMRequestExecutor.shared(), HSMRequestExecutor.shared());
+    }
+
+    private ObjectNode command(String name) {
+        ObjectNode command = objectMapper.createObjectNode();
+        command.put("command", name);
+        return command;
+    }
+}
@@ -0,0 +1,103 @@
+package co.rsk.federate.signing.hsm.message;
+
+import co.rsk.bitcoinj.core.*;
+import co.rsk.bitcoinj.params.RegTestParams;
+import co.rsk.bitcoinj.script.Script;
+import co.rsk.bitcoinj.script.ScriptBuilder;
+import co.rsk.bitcoinj.wallet.RedeemData;
+import co.rsk.config.BridgeRegTestConstants;
+import co.rsk.peg.Federation;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class PrecomputedSigHashesTest {
+    private NetworkParameters params;
+    private Federation federation;
+
+    @Before
+    public void setUp() {
+        params = RegTestParams.get();
+        federation = BridgeRegTestConstants.getInstance().getGenesisFederation();
+    }
+
+    @Test
+    public void matchesHashForSignature() {
+        BtcTransaction releaseTx = createReleaseTx(5);
+        Script redeemScript = createBaseRedeemScriptThatSpendsFromTheFederation(federation);
+
+        PrecomputedSigHashes sigHashes = PrecomputedSigHashes.of(releaseTx);
+
+        assertEquals(5, sigHashes.size());
+        for (int inputIndex = 0; inputIndex < releaseTx.getInputs().size(); inputIndex++) {
+            Sha256Hash expected = releaseTx.hashForSignature(inputIndex, redeemScript, BtcTransaction.SigHash.ALL, false);
+            assertEquals(expected, sigHashes.getSigHash(inputIndex));
+        }
+    }
+
+    @Test
+    public void noInputs() {
+        BtcTransaction releaseTx = createReleaseTx(0);
+
+        PrecomputedSigHashes sigHashes = PrecomputedSigHashes.of(releaseTx);
+
+        assertEquals(0, sigHashes.size());
+    }
+
+    @Test
+    public void fingerprintIgnoresSignatures() {
+        BtcTransaction releaseTx = createReleaseTx(2);
+        Sha256Hash fingerprint = PrecomputedSigHashes.fingerprintOf(releaseTx);
+
+        // Same redeem script, now with a (fake) signature in it
+        Script redeemScript = createBaseRedeemScriptThatSpendsFromTheFederation(federation);
+        Script inputScript = new ScriptBuilder()
+            .smallNum(0)
+            .data(new byte[71])
+            .data(redeemScript.getProgram())
+            .build();
+        releaseTx.getInput(0).setScriptSig(inputScript);
+
+        assertEquals(fingerprint, PrecomputedSigHashes.fingerprintOf(releaseTx));
+        assertEquals(fingerprint, PrecomputedSigHashes.of(releaseTx).getFingerprint());
+    }
+
+    @Test
+    public void fingerprintChangesWithOutputs() {
+        BtcTransaction releaseTx = createReleaseTx(2);
+        Sha256Hash fingerprint = PrecomputedSigHashes.fingerprintOf(releaseTx);
+
+        releaseTx.addOutput(Coin.COIN, new BtcECKey().toAddress(params));
+
+        assertNotEquals(fingerprint, PrecomputedSigHashes.fingerprintOf(releaseTx));
+    }
+
+    private BtcTransaction createReleaseTx(int inputs) {
+        BtcTransaction releaseTx = new BtcTransaction(params);
+        for (int i = 0; i < inputs; i++) {
+            TransactionInput releaseInput = new TransactionInput(
+                params,
+                releaseTx,
+                new byte[]{},
+                new TransactionOutPoint(params, i, Sha256Hash.ZERO_HASH)
+            );
+            releaseTx.addInput(releaseInput);
+            releaseInput.setScriptSig(createBaseInputScriptThatSpendsFromTheFederation(federation));
+        }
+        releaseTx.addOutput(Coin.COIN, new BtcECKey().toAddress(params));
+        return releaseTx;
+    }
+
+    private static Script createBaseRedeemScriptThatSpendsFromTheFederation(Federation federation) {
+        return ScriptBuilder.createRedeemScript(federation.getNumberOfSignaturesRequired(), federation.getBtcPublicKeys());
+    }
+
+    private static Script createBaseInputScriptThatSpendsFromTheFederation(Federation federation) {
+        Script scriptPubKey = federation.getP2SHScript();
+        Script redeemScript = createBaseRedeemScriptThatSpendsFromTheFederation(federation);
+        RedeemData redeemData = RedeemData.of(federation.getBtcPublicKeys(), redeemScript);
+        return scriptPubKey.createEmptyInputScript(redeemData.keys.get(0), redeemData.redeemScript);
+    }
+}
@@ -1,8 +1,10 @@
 package co.rsk.federate.signing.hsm.requirements;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atMost;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -323,4 +325,55 @@ public class AncestorBlockUpdaterTest {
 
         ancestorBlockUpdater.moveAncestorBlockToPosition(initialState, targetBlock);
     }
+
+    @Test
+    public void moveAncestorBlockToPosition_reuses_walked_headers() throws Exception {
+        BlockStore blockStore = mock(BlockStore.class);
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 1; i <= 6; i++) {
+            Block block = TestUtils.mockBlock(i, TestUtils.createHash(i), TestUtils.createHash(i - 1));
+            when(blockStore.getBlockByHash(block.getHash().getBytes())).thenReturn(block);
+            blocks.add(block);
+        }
+        String bestBlockHash = TestUtils.createHash(6).toHexString();
+        HSMBookkeepingClient signer = mock(HSMBookkeepingClient.class);
+
+        AncestorBlockUpdater ancestorBlockUpdater = new AncestorBlockUpdater(
+            blockStore,
+            signer
+        );
+
+        // From the best block back to block 3, then further back to block 2 and forward again to block 4
+        ancestorBlockUpdater.moveAncestorBlockToPosition(
+            new HSM2State(bestBlockHash, Keccak256.ZERO_HASH.toHexString(), false),
+            blocks.get(2)
+        );
+        ancestorBlockUpdater.moveAncestorBlockToPosition(
+            new HSM2State(bestBlockHash, TestUtils.createHash(3).toHexString(), false),
+            blocks.get(1)
+        );
+        ancestorBlockUpdater.moveAncestorBlockToPosition(
+            new HSM2State(bestBlockHash, TestUtils.createHash(2).toHexString(), false),
+            blocks.get(3)
+        );
+
+        ArgumentCaptor<UpdateAncestorBlockMessage> messagesCaptor = ArgumentCaptor.forClass(UpdateAncestorBlockMessage.class);
+        verify(signer, times(3)).updateAncestorBlock(messagesCaptor.capture());
+        List<UpdateAncestorBlockMessage> messages = messagesCaptor.getAllValues();
+        assertPayload(messages.get(0), 6, 5, 4, 3);
+        assertPayload(messages.get(1), 3, 2);
+        assertPayload(messages.get(2), 6, 5, 4);
+        // Every block was read once at most
+        for (int i = 1; i <= 6; i++) {
+            verify(blockStore, atMost(1)).getBlockByHash(TestUtils.createHash(i).getBytes());
+        }
+        verify(blockStore, never()).getBlockByHash(TestUtils.createHash(2).getBytes());
+    }
+
+    private void assertPayload(UpdateAncestorBlockMessage message, int... blockHashValues) {
+        Assert.assertEquals(blockHashValues.length, message.getData().size());
+        for (int i = 0; i < blockHashValues.length; i++) {
+            Assert.assertEquals(TestUtils.createHash(blockHashValues[i]).toHexString(), message.getData().get(i));
+        }
+    }
 }
@@ -0,0 +1,483 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.federate.signing.hsm.simulator;
+
+import co.rsk.bitcoinj.core.BtcTransaction;
+import co.rsk.bitcoinj.core.NetworkParameters;
+import co.rsk.crypto.Keccak256;
+import co.rsk.federate.signing.hsm.message.PrecomputedSigHashes;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.bouncycastle.util.encoders.Hex;
+import org.ethereum.crypto.ECKey;
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.util.ByteUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Stands in for an HSM gateway, version 1 or 2, listening on localhost.
+ *
+ * Speaks the same newline delimited JSON protocol the node does: version, getPubKey,
+ * sign (v1 hashes and v2 BTC/RSK/MST messages), signBatch, blockchainState, advanceBlockchain,
+ * updateAncestorBlock and resetAdvanceBlockchain. Any number of connections is accepted, but
+ * commands are processed one at a time, as a single device would. Responses echo the request id
+ * so pipelined connections work too.
+ *
+ * Every command can be made to take longer or to fail, and the whole device can be made not ready.
+ * Keys are generated the first time a key id is used. An update takes the newest header it got as
+ * the best block, whose hash is the keccak256 of the header unless another hasher is set.
+ */
+public class HSMSimulator {
+    private static final Logger logger = LoggerFactory.getLogger(HSMSimulator.class);
+
+    public static final int DEVICE_NOT_READY_ERROR_CODE_V1 = -2;
+    public static final int DEVICE_NOT_READY_ERROR_CODE_V2 = -905;
+    public static final int SERVER_ERROR_CODE_V1 = -4;
+    public static final int FORMAT_ERROR_CODE = -901;
+    public static final int COMMAND_UNKNOWN_ERROR_CODE = -903;
+    public static final int PARTIAL_SUCCESS_CODE = 1;
+
+    private static final String COMMAND_FIELD = "command";
+    private static final String ERROR_CODE_FIELD = "errorcode";
+    private static final String ID_FIELD = "id";
+    private static final String KEY_ID_FIELD = "keyId";
+    private static final String MESSAGE_FIELD = "message";
+    private static final String BLOCKS_FIELD = "blocks";
+
+    private final int version;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final NetworkParameters btcParams = NetworkParameters.fromID(NetworkParameters.ID_REGTEST);
+    private final Object device = new Object();
+    private final Map<String, ECKey> keys = new ConcurrentHashMap<>();
+    private final Map<String, Long> latencies = new ConcurrentHashMap<>();
+    private final Map<String, Deque<Integer>> injectedErrors = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> receivedCommands = new ConcurrentHashMap<>();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    private volatile long defaultLatency;
+    private volatile boolean deviceNotReady;
+    private volatile boolean signBatchSupported = true;
+    private volatile int headersToCompleteUpdate = 1;
+    private volatile Function<byte[], Keccak256> headerHasher = header -> new Keccak256(HashUtil.keccak256(header));
+
+    // Blockchain state, guarded by the device lock
+    private Keccak256 bestBlockHash = Keccak256.ZERO_HASH;
+    private Keccak256 ancestorBlockHash = Keccak256.ZERO_HASH;
+    private int headersInUpdate;
+    private Keccak256 newestBlockInUpdate;
+
+    private ServerSocket serverSocket;
+    private ExecutorService connectionHandlers;
+
+    public HSMSimulator(int version) {
+        if (version != 1 && version != 2) {
+            throw new IllegalArgumentException(String.format("Unsupported HSM version %d", version));
+        }
+        this.version = version;
+    }
+
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        connectionHandlers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "HSMSimulator-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        connectionHandlers.execute(this::acceptConnections);
+        logger.debug("[start] HSM v{} simulator listening on port {}", version, getPort());
+    }
+
+    public synchronized void stop() {
+        if (serverSocket == null) {
+            return;
+        }
+        closeQuietly(serverSocket);
+        connections.forEach(HSMSimulator::closeQuietly);
+        connectionHandlers.shutdownNow();
+        serverSocket = null;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(serverSocket.getInetAddress(), getPort());
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Every command takes at least this long, unless it has a latency of its own
+     */
+    public void setDefaultLatency(long latencyInMillis) {
+        this.defaultLatency = latencyInMillis;
+    }
+
+    public void setLatency(String command, long latencyInMillis) {
+        latencies.put(command, latencyInMillis);
+    }
+
+    /**
+     * The next given number of times the command is received it's answered with the given error code
+     */
+    public void injectError(String command, int errorCode, int times) {
+        Deque<Integer> errors = injectedErrors.computeIfAbsent(command, k -> new ArrayDeque<>());
+        synchronized (errors) {
+            for (int i = 0; i < times; i++) {
+                errors.addLast(errorCode);
+            }
+        }
+    }
+
+    /**
+     * While not ready every command is answered with the device error of the simulated version
+     */
+    public void setDeviceNotReady(boolean deviceNotReady) {
+        this.deviceNotReady = deviceNotReady;
+    }
+
+    public void setSignBatchSupported(boolean signBatchSupported) {
+        this.signBatchSupported = signBatchSupported;
+    }
+
+    /**
+     * advanceBlockchain answers a partial success until an update got this many headers
+     */
+    public void setHeadersToCompleteUpdate(int headersToCompleteUpdate) {
+        this.headersToCompleteUpdate = headersToCompleteUpdate;
+    }
+
+    public void setHeaderHasher(Function<byte[], Keccak256> headerHasher) {
+        this.headerHasher = headerHasher;
+    }
+
+    public void setBlockchainState(Keccak256 bestBlockHash, Keccak256 ancestorBlockHash) {
+        synchronized (device) {
+            this.bestBlockHash = bestBlockHash;
+            this.ancestorBlockHash = ancestorBlockHash;
+            this.headersInUpdate = 0;
+        }
+    }
+
+    public Keccak256 getBestBlockHash() {
+        synchronized (device) {
+            return bestBlockHash;
+        }
+    }
+
+    public Keccak256 getAncestorBlockHash() {
+        synchronized (device) {
+            return ancestorBlockHash;
+        }
+    }
+
+    public ECKey getKey(String keyId) {
+        return keys.computeIfAbsent(keyId, k -> new ECKey());
+    }
+
+    public void setKey(String keyId, ECKey key) {
+        keys.put(keyId, key);
+    }
+
+    public long getReceivedCommands(String command) {
+        AtomicLong count = receivedCommands.get(command);
+        return count == null ? 0 : count.get();
+    }
+
+    private void acceptConnections() {
+        ServerSocket listeningSocket = serverSocket;
+        while (!listeningSocket.isClosed()) {
+            try {
+                Socket socket = listeningSocket.accept();
+                connections.add(socket);
+                connectionHandlers.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!listeningSocket.isClosed()) {
+                    logger.warn("[acceptConnections] Error accepting a connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            OutputStream output = socket.getOutputStream();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                ObjectNode response = process(line);
+                output.write(mapper.writeValueAsBytes(response));
+                output.write('\n');
+                output.flush();
+            }
+        } catch (IOException e) {
+            logger.debug("[serve] Connection {} closed. {}", socket, e.getMessage());
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private ObjectNode process(String line) {
+        JsonNode request;
+        try {
+            request = mapper.readTree(line);
+        } catch (IOException e) {
+            return errorResponse(FORMAT_ERROR_CODE);
+        }
+        if (!request.isObject() || !request.has(COMMAND_FIELD)) {
+            return errorResponse(FORMAT_ERROR_CODE);
+        }
+
+        String command = request.get(COMMAND_FIELD).asText();
+        receivedCommands.computeIfAbsent(command, k -> new AtomicLong()).incrementAndGet();
+        ObjectNode response;
+        synchronized (device) {
+            sleep(latencies.getOrDefault(command, defaultLatency));
+            response = execute(command, request);
+        }
+        if (request.has(ID_FIELD)) {
+            response.set(ID_FIELD, request.get(ID_FIELD));
+        }
+        return response;
+    }
+
+    private ObjectNode execute(String command, JsonNode request) {
+        if (deviceNotReady) {
+            return errorResponse(version == 1 ? DEVICE_NOT_READY_ERROR_CODE_V1 : DEVICE_NOT_READY_ERROR_CODE_V2);
+        }
+        Integer injectedError = nextInjectedError(command);
+        if (injectedError != null) {
+            return errorResponse(injectedError);
+        }
+
+        try {
+            switch (command) {
+                case "version":
+                    return okResponse().put("version", version);
+                case "getPubKey":
+                    return getPubKey(request);
+                case "sign":
+                    return sign(request);
+                case "signBatch":
+                    return version == 2 && signBatchSupported ? signBatch(request) : unknownCommand();
+                case "blockchainState":
+                    return version == 2 ? blockchainState() : unknownCommand();
+                case "advanceBlockchain":
+                    return version == 2 ? advanceBlockchain(request) : unknownCommand();
+                case "updateAncestorBlock":
+                    return version == 2 ? updateAncestorBlock(request) : unknownCommand();
+                case "resetAdvanceBlockchain":
+                    return version == 2 ? resetAdvanceBlockchain() : unknownCommand();
+                default:
+                    return unknownCommand();
+            }
+        } catch (RuntimeException e) {
+            // Anything missing or malformed in the request
+            logger.debug("[execute] Invalid {} request. {}", command, e.getMessage());
+            return errorResponse(version == 1 ? SERVER_ERROR_CODE_V1 : FORMAT_ERROR_CODE);
+        }
+    }
+
+    private ObjectNode getPubKey(JsonNode request) {
+        ECKey key = getKey(request.get(KEY_ID_FIELD).asText());
+        return okResponse().put("pubKey", Hex.toHexString(key.getPubKey(true)));
+    }
+
+    private ObjectNode sign(JsonNode request) {
+        ECKey key = getKey(request.get(KEY_ID_FIELD).asText());
+        JsonNode message = request.get(MESSAGE_FIELD);
+        byte[] hash;
+        if (version == 1) {
+            hash = Hex.decode(message.asText());
+        } else if (message.has("tx")) {
+            requireAuth(request);
+            hash = getSigHash(message.get("tx").asText(), message.get("input").asInt());
+        } else {
+            hash = Hex.decode(message.get("hash").asText());
+        }
+
+        ObjectNode response = okResponse();
+        response.set("signature", signature(key, hash));
+        return response;
+    }
+
+    private ObjectNode signBatch(JsonNode request) {
+        ECKey key = getKey(request.get(KEY_ID_FIELD).asText());
+        requireAuth(request);
+        JsonNode message = request.get(MESSAGE_FIELD);
+        PrecomputedSigHashes sigHashes = PrecomputedSigHashes.of(parseTransaction(message.get("tx").asText()));
+
+        ObjectNode response = okResponse();
+        ArrayNode signatures = response.putArray("signatures");
+        for (JsonNode input : message.get("inputs")) {
+            signatures.add(signature(key, sigHashes.getSigHash(input.asInt()).getBytes()));
+        }
+        return response;
+    }
+
+    private ObjectNode blockchainState() {
+        ObjectNode response = okResponse();
+        ObjectNode state = response.putObject("state");
+        state.put("best_block", bestBlockHash.toHexString());
+        state.put("ancestor_block", ancestorBlockHash.toHexString());
+        ObjectNode updating = state.putObject("updating");
+        updating.put("in_progress", headersInUpdate > 0);
+        return response;
+    }
+
+    private ObjectNode advanceBlockchain(JsonNode request) {
+        JsonNode blocks = request.get(BLOCKS_FIELD);
+        if (blocks.size() == 0) {
+            return errorResponse(FORMAT_ERROR_CODE);
+        }
+        // Headers come newest first
+        if (headersInUpdate == 0) {
+            newestBlockInUpdate = hashOf(blocks.get(0));
+        }
+        headersInUpdate += blocks.size();
+        if (headersInUpdate < headersToCompleteUpdate) {
+            return errorResponse(PARTIAL_SUCCESS_CODE);
+        }
+        bestBlockHash = newestBlockInUpdate;
+        ancestorBlockHash = bestBlockHash;
+        headersInUpdate = 0;
+        return okResponse();
+    }
+
+    private ObjectNode updateAncestorBlock(JsonNode request) {
+        JsonNode blocks = request.get(BLOCKS_FIELD);
+        if (blocks.size() == 0) {
+            return errorResponse(FORMAT_ERROR_CODE);
+        }
+        // The new ancestor goes last
+        ancestorBlockHash = hashOf(blocks.get(blocks.size() - 1));
+        return okResponse();
+    }
+
+    private ObjectNode resetAdvanceBlockchain() {
+        headersInUpdate = 0;
+        return okResponse();
+    }
+
+    private void requireAuth(JsonNode request) {
+        JsonNode auth = request.get("auth");
+        if (!auth.has("receipt") || !auth.has("receipt_merkle_proof")) {
+            throw new IllegalArgumentException("Incomplete auth");
+        }
+    }
+
+    private byte[] getSigHash(String serializedTx, int inputIndex) {
+        return PrecomputedSigHashes.of(parseTransaction(serializedTx)).getSigHash(inputIndex).getBytes();
+    }
+
+    private BtcTransaction parseTransaction(String serializedTx) {
+        return new BtcTransaction(btcParams, Hex.decode(serializedTx));
+    }
+
+    private ObjectNode signature(ECKey key, byte[] hash) {
+        ECKey.ECDSASignature signature = key.sign(hash);
+        ObjectNode signatureNode = mapper.createObjectNode();
+        signatureNode.put("r", Hex.toHexString(ByteUtil.bigIntegerToBytes(signature.r, 32)));
+        signatureNode.put("s", Hex.toHexString(ByteUtil.bigIntegerToBytes(signature.s, 32)));
+        if (version == 1) {
+            signatureNode.put("v", (int) signature.v);
+        }
+        return signatureNode;
+    }
+
+    private Keccak256 hashOf(JsonNode header) {
+        return headerHasher.apply(Hex.decode(header.asText()));
+    }
+
+    private Integer nextInjectedError(String command) {
+        Deque<Integer> errors = injectedErrors.get(command);
+        if (errors == null) {
+            return null;
+        }
+        synchronized (errors) {
+            return errors.pollFirst();
+        }
+    }
+
+    private ObjectNode unknownCommand() {
+        return errorResponse(version == 1 ? SERVER_ERROR_CODE_V1 : COMMAND_UNKNOWN_ERROR_CODE);
+    }
+
+    private ObjectNode okResponse() {
+        return errorResponse(0);
+    }
+
+    private ObjectNode errorResponse(int errorCode) {
+        ObjectNode response = mapper.createObjectNode();
+        response.put(ERROR_CODE_FIELD, errorCode);
+        return response;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+}
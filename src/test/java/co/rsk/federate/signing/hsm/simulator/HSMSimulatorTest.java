@@ -0,0 +1,255 @@
+/*
+ * This file is part of RskJ
+ * Copyright (C) 2018 RSK Labs Ltd.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package co.rsk.federate.signing.hsm.simulator;
+
+import co.rsk.bitcoinj.core.BtcECKey;
+import co.rsk.bitcoinj.core.BtcTransaction;
+import co.rsk.bitcoinj.core.Coin;
+import co.rsk.bitcoinj.core.NetworkParameters;
+import co.rsk.bitcoinj.core.Sha256Hash;
+import co.rsk.bitcoinj.core.TransactionInput;
+import co.rsk.bitcoinj.core.TransactionOutPoint;
+import co.rsk.bitcoinj.params.RegTestParams;
+import co.rsk.bitcoinj.script.Script;
+import co.rsk.bitcoinj.script.ScriptBuilder;
+import co.rsk.bitcoinj.wallet.RedeemData;
+import co.rsk.config.BridgeRegTestConstants;
+import co.rsk.crypto.Keccak256;
+import co.rsk.federate.rpc.PipelinedSocketBasedJsonRpcClientProvider;
+import co.rsk.federate.rpc.PooledSocketBasedJsonRpcClientProvider;
+import co.rsk.federate.signing.hsm.HSMAuthException;
+import co.rsk.federate.signing.hsm.HSMDeviceNotReadyException;
+import co.rsk.federate.signing.hsm.client.HSMClient;
+import co.rsk.federate.signing.hsm.client.HSMClientProtocol;
+import co.rsk.federate.signing.hsm.client.HSMClientProvider;
+import co.rsk.federate.signing.hsm.client.HSMClientVersion1;
+import co.rsk.federate.signing.hsm.client.HSMClientVersion2BTC;
+import co.rsk.federate.signing.hsm.client.HSMSignature;
+import co.rsk.federate.signing.hsm.message.AdvanceBlockchainMessage;
+import co.rsk.federate.signing.hsm.message.HSM2State;
+import co.rsk.federate.signing.hsm.message.PrecomputedSigHashes;
+import co.rsk.federate.signing.hsm.message.SignerMessage;
+import co.rsk.federate.signing.hsm.message.SignerMessageVersion1;
+import co.rsk.federate.signing.hsm.message.SignerMessageVersion2;
+import co.rsk.peg.Federation;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.crypto.ECKey;
+import org.ethereum.crypto.HashUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HSMSimulatorTest {
+    private HSMSimulator simulator;
+    private PooledSocketBasedJsonRpcClientProvider clientProvider;
+
+    @After
+    public void stopSimulator() {
+        if (clientProvider != null) {
+            clientProvider.close();
+        }
+        simulator.stop();
+    }
+
+    @Test
+    public void version1Signing() throws Exception {
+        HSMClientProtocol protocol = startSimulator(1);
+
+        HSMClient client = new HSMClientProvider(protocol, "BTC").getClient();
+        Assert.assertTrue(client instanceof HSMClientVersion1);
+
+        byte[] hash = HashUtil.keccak256(new byte[]{1, 2, 3});
+        HSMSignature signature = client.sign("BTC", new SignerMessageVersion1(hash));
+
+        ECKey key = simulator.getKey("BTC");
+        Assert.assertArrayEquals(key.getPubKey(true), client.getPublicKey("BTC"));
+        Assert.assertTrue(key.verify(hash, signature.toEthSignature()));
+    }
+
+    @Test
+    public void version2BtcSigning() throws Exception {
+        HSMClientProtocol protocol = startSimulator(2);
+        HSMClientVersion2BTC client = (HSMClientVersion2BTC) new HSMClientProvider(protocol, "BTC").getClient();
+
+        BtcTransaction releaseTx = createReleaseTx(3);
+        PrecomputedSigHashes sigHashes = PrecomputedSigHashes.of(releaseTx);
+        SignerMessage message = createSignerMessage(releaseTx, 1, sigHashes.getSigHash(1));
+
+        HSMSignature signature = client.sign("BTC", message);
+        List<HSMSignature> batchSignatures = client.signBatch("BTC", Arrays.asList(
+            createSignerMessage(releaseTx, 0, sigHashes.getSigHash(0)),
+            createSignerMessage(releaseTx, 2, sigHashes.getSigHash(2))
+        ));
+
+        ECKey key = simulator.getKey("BTC");
+        Assert.assertTrue(key.verify(sigHashes.getSigHash(1).getBytes(), signature.toEthSignature()));
+        Assert.assertTrue(key.verify(sigHashes.getSigHash(0).getBytes(), batchSignatures.get(0).toEthSignature()));
+        Assert.assertTrue(key.verify(sigHashes.getSigHash(2).getBytes(), batchSignatures.get(1).toEthSignature()));
+        Assert.assertEquals(1, simulator.getReceivedCommands("signBatch"));
+    }
+
+    @Test
+    public void version2Bookkeeping() throws Exception {
+        HSMClientProtocol protocol = startSimulator(2);
+        HSMClientVersion2BTC client = (HSMClientVersion2BTC) new HSMClientProvider(protocol, "BTC").getClient();
+        client.setHSMPointerCacheTtl(0);
+        client.setMaxChunkSizeToHsm(2);
+        simulator.setHeadersToCompleteUpdate(3);
+
+        Assert.assertEquals(Keccak256.ZERO_HASH, client.getHSMPointer().getBestBlockHash());
+
+        // Sent newest first, so the newest is the first one in the first chunk
+        client.advanceBlockchain(new AdvanceBlockchainMessage(Arrays.asList(
+            blockHeader(new byte[]{1}),
+            blockHeader(new byte[]{2}),
+            blockHeader(new byte[]{3})
+        )));
+
+        HSM2State state = client.getHSMPointer();
+        Keccak256 newestBlockHash = new Keccak256(HashUtil.keccak256(new byte[]{3}));
+        Assert.assertEquals(newestBlockHash, state.getBestBlockHash());
+        Assert.assertFalse(state.getInProgressState());
+        Assert.assertEquals(2, simulator.getReceivedCommands("advanceBlockchain"));
+    }
+
+    @Test
+    public void resetAdvanceBlockchain() throws Exception {
+        HSMClientProtocol protocol = startSimulator(2);
+        HSMClientVersion2BTC client = (HSMClientVersion2BTC) new HSMClientProvider(protocol, "BTC").getClient();
+        simulator.setHeadersToCompleteUpdate(10);
+
+        client.advanceBlockchain(new AdvanceBlockchainMessage(Collections.singletonList(blockHeader(new byte[]{1}))));
+        Assert.assertTrue(client.getHSMPointer().getInProgressState());
+
+        client.resetAdvanceBlockchain();
+        Assert.assertFalse(client.getHSMPointer().getInProgressState());
+        Assert.assertEquals(Keccak256.ZERO_HASH, simulator.getBestBlockHash());
+    }
+
+    @Test
+    public void commandLatency() throws Exception {
+        HSMClientProtocol protocol = startSimulator(2);
+        simulator.setLatency("version", 200);
+
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(2, protocol.getVersion());
+
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+
+    @Test
+    public void injectedError() throws Exception {
+        HSMClientProtocol protocol = startSimulator(2);
+        HSMClient client = new HSMClientProvider(protocol, "RSK").getClient();
+        simulator.injectError("getPubKey", -103, 1);
+
+        try {
+            client.getPublicKey("RSK");
+            Assert.fail();
+        } catch (HSMAuthException e) {
+            // Expected
+        }
+        Assert.assertArrayEquals(simulator.getKey("RSK").getPubKey(true), client.getPublicKey("RSK"));
+    }
+
+    @Test
+    public void deviceNotReady() throws Exception {
+        HSMClientProtocol protocol = startSimulator(2);
+        simulator.setDeviceNotReady(true);
+
+        try {
+            protocol.getVersion();
+            Assert.fail();
+        } catch (HSMDeviceNotReadyException e) {
+            // Expected
+        }
+        Assert.assertEquals(2, simulator.getReceivedCommands("version"));
+
+        simulator.setDeviceNotReady(false);
+        protocol.getCircuitBreaker().recordSuccess();
+        Assert.assertEquals(2, protocol.getVersion());
+    }
+
+    @Test
+    public void pipelinedConnection() throws Exception {
+        simulator = new HSMSimulator(2);
+        simulator.start();
+        PipelinedSocketBasedJsonRpcClientProvider pipelinedProvider = new PipelinedSocketBasedJsonRpcClientProvider(simulator.getAddress());
+        try {
+            HSMClientProtocol protocol = new HSMClientProtocol(pipelinedProvider, 2, 10);
+            HSMClient client = new HSMClientProvider(protocol, "MST").getClient();
+
+            byte[] hash = HashUtil.keccak256(new byte[]{4});
+            List<HSMSignature> signatures = client.signBatch("MST", Arrays.asList(new SignerMessageVersion1(hash), new SignerMessageVersion1(hash)));
+
+            Assert.assertEquals(2, signatures.size());
+            Assert.assertTrue(simulator.getKey("MST").verify(hash, signatures.get(1).toEthSignature()));
+        } finally {
+            pipelinedProvider.close();
+        }
+    }
+
+    private HSMClientProtocol startSimulator(int version) throws Exception {
+        simulator = new HSMSimulator(version);
+        simulator.start();
+        clientProvider = new PooledSocketBasedJsonRpcClientProvider(simulator.getAddress());
+        return new HSMClientProtocol(clientProvider, 2, 10);
+    }
+
+    private SignerMessage createSignerMessage(BtcTransaction releaseTx, int inputIndex, Sha256Hash sigHash) {
+        TransactionReceipt receipt = mock(TransactionReceipt.class);
+        when(receipt.getEncoded()).thenReturn(new byte[]{1});
+        return new SignerMessageVersion2(releaseTx, inputIndex, receipt, Collections.emptyList(), sigHash);
+    }
+
+    private BlockHeader blockHeader(byte[] encoded) {
+        BlockHeader blockHeader = mock(BlockHeader.class);
+        when(blockHeader.getFullEncoded()).thenReturn(encoded);
+        return blockHeader;
+    }
+
+    private BtcTransaction createReleaseTx(int inputs) {
+        NetworkParameters params = RegTestParams.get();
+        Federation federation = BridgeRegTestConstants.getInstance().getGenesisFederation();
+        Script redeemScript = ScriptBuilder.createRedeemScript(federation.getNumberOfSignaturesRequired(), federation.getBtcPublicKeys());
+        RedeemData redeemData = RedeemData.of(federation.getBtcPublicKeys(), redeemScript);
+        BtcTransaction releaseTx = new BtcTransaction(params);
+        for (int i = 0; i < inputs; i++) {
+            TransactionInput releaseInput = new TransactionInput(
+                params,
+                releaseTx,
+                new byte[]{},
+                new TransactionOutPoint(params, i, Sha256Hash.ZERO_HASH)
+            );
+            releaseTx.addInput(releaseInput);
+            releaseInput.setScriptSig(federation.getP2SHScript().createEmptyInputScript(redeemData.keys.get(0), redeemData.redeemScript));
+        }
+        releaseTx.addOutput(Coin.COIN, new BtcECKey().toAddress(params));
+        return releaseTx;
+    }
+}